@@ -1,23 +1,43 @@
 package wolfcafe.controller;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import wolfcafe.dto.IngredientDto;
 import wolfcafe.dto.InventoryDto;
+import wolfcafe.dto.LowStockAlertDto;
+import wolfcafe.dto.RestockForecastDto;
+import wolfcafe.dto.RestockResultDto;
 import wolfcafe.entity.Ingredient;
+import wolfcafe.entity.InventoryMovement;
 import wolfcafe.service.InventoryService;
+import wolfcafe.service.impl.DemandForecaster;
+import wolfcafe.service.impl.InventoryLedger;
+import wolfcafe.service.impl.LowStockMonitor;
 
 /**
  * Controller for CoffeeMaker's inventory. The inventory is a singleton; there's
@@ -31,12 +51,39 @@ public class InventoryController {
 	
 	private static final Logger log = LoggerFactory.getLogger(InventoryController.class);
 
+    /** content type of a delivery manifest uploaded as csv */
+    private static final String CSV = "text/csv";
+
+    /** most movements returned at once */
+    private static final int MAX_MOVEMENTS = 1000;
+
+    /** most hours forecast at once, two weeks */
+    private static final int MAX_FORECAST_HOURS = 14 * 24;
+
     /**
      * Connection to inventory service for manipulating the Inventory model.
      */
     @Autowired
     private InventoryService inventoryService;
 
+    /**
+     * The record of why the inventory's amounts changed.
+     */
+    @Autowired
+    private InventoryLedger  inventoryLedger;
+
+    /**
+     * Watches for ingredients about to run out.
+     */
+    @Autowired
+    private LowStockMonitor  lowStockMonitor;
+
+    /**
+     * Forecasts how much of each ingredient orders will use.
+     */
+    @Autowired
+    private DemandForecaster demandForecaster;
+
     /**
      * REST API endpoint to provide GET access to the CoffeeMaker's singleton
      * Inventory.
@@ -49,6 +96,101 @@ public class InventoryController {
         return ResponseEntity.ok( inventoryDto );
     }
 
+    /**
+     * REST API endpoint to get how much of each ingredient the inventory held
+     * at a past time, worked out from the inventory ledger.
+     *
+     * @param at
+     *            the time, or now if not given
+     * @return the amount of each ingredient still in the inventory
+     */
+    @GetMapping ( "/levels" )
+    public ResponseEntity<List<IngredientDto>> getLevels (
+            @RequestParam ( required = false ) @DateTimeFormat (
+                    iso = DateTimeFormat.ISO.DATE_TIME ) final LocalDateTime at ) {
+        return ResponseEntity.ok( inventoryLedger.getLevels( null == at ? LocalDateTime.now() : at ) );
+    }
+
+    /**
+     * REST API endpoint to audit changes to the inventory, oldest first. Pass
+     * the last id of a page as after to get the next one.
+     *
+     * @param ingredient
+     *            name of the ingredient to list changes to, or every
+     *            ingredient's if not given
+     * @param after
+     *            only changes with a larger id are listed
+     * @param limit
+     *            most changes to list
+     * @return a page of changes, not found if there's no such ingredient, or
+     *         bad request if the limit isn't valid
+     */
+    @GetMapping ( "/movements" )
+    public ResponseEntity<List<InventoryMovement>> getMovements (
+            @RequestParam ( required = false ) final String ingredient,
+            @RequestParam ( defaultValue = "0" ) final long after,
+            @RequestParam ( defaultValue = "100" ) final int limit ) {
+        if ( limit <= 0 || limit > MAX_MOVEMENTS ) {
+            return new ResponseEntity<>( null, HttpStatus.BAD_REQUEST );
+        }
+        Long ingredientId = null;
+        if ( null != ingredient ) {
+            final Ingredient stocked = inventoryService.getInventoryIngredient( ingredient );
+            if ( null == stocked ) {
+                return new ResponseEntity<>( null, HttpStatus.NOT_FOUND );
+            }
+            ingredientId = stocked.getId();
+        }
+        return ResponseEntity.ok( inventoryLedger.getMovements( ingredientId, after, limit ) );
+    }
+
+    /**
+     * REST API endpoint to get the ingredients projected to run out within the
+     * alert horizon at the rate orders are using them.
+     *
+     * @return the low ingredients, soonest to run out first
+     */
+    @PreAuthorize ( "hasAnyRole('MANAGER', 'ADMIN')" )
+    @GetMapping ( "/alerts" )
+    public ResponseEntity<List<LowStockAlertDto>> getAlerts () {
+        return ResponseEntity.ok( lowStockMonitor.getAlerts() );
+    }
+
+    /**
+     * REST API GET mapping for a Server-Sent Events stream of low stock alerts
+     * (LOW_STOCK, RESTORED), so managers don't have to poll the inventory.
+     * Fetch /alerts after subscribing for the ingredients already low.
+     *
+     * @return the event stream
+     */
+    @PreAuthorize ( "hasAnyRole('MANAGER', 'ADMIN')" )
+    @GetMapping ( value = "/alerts/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE )
+    public SseEmitter streamAlerts () {
+        return lowStockMonitor.subscribe();
+    }
+
+    /**
+     * REST API endpoint to recommend how much of each ingredient to restock,
+     * from forecasts of how much orders will use over the coming hours fitted
+     * to order history by hour of the week.
+     *
+     * @param hours
+     *            how many hours the restock has to last, usually until the
+     *            next delivery
+     * @return the forecast for each ingredient by name, or bad request if the
+     *         hours aren't valid
+     */
+    @PreAuthorize ( "hasAnyRole('MANAGER', 'ADMIN')" )
+    @GetMapping ( "/forecast" )
+    public ResponseEntity<List<RestockForecastDto>> getForecast (
+            @RequestParam ( defaultValue = "24" ) final int hours ) {
+        if ( hours <= 0 || hours > MAX_FORECAST_HOURS ) {
+            log.warn( "Can't forecast: hours must be between 1 and {}.", MAX_FORECAST_HOURS );
+            return new ResponseEntity<>( null, HttpStatus.BAD_REQUEST );
+        }
+        return ResponseEntity.ok( demandForecaster.forecast( hours ) );
+    }
+
     /**
      * REST API endpoint to provide update access to the CoffeeMaker's singleton
      * Inventory.
@@ -91,6 +233,119 @@ public class InventoryController {
         return ResponseEntity.ok( savedInventoryDto );
     }
 
+    /**
+     * REST API endpoint to add a delivery to the inventory. Every line is
+     * applied in one batch; lines that aren't valid are reported and left out
+     * without stopping the rest.
+     *
+     * @param lines
+     *            name of each ingredient delivered and how much of it
+     * @return the result of each line, in the order given, with bad request
+     *         if no line could be applied
+     */
+    @PutMapping ( value = "/bulk", consumes = MediaType.APPLICATION_JSON_VALUE )
+    public ResponseEntity<List<RestockResultDto>> restockIngredients (
+            @RequestBody final List<IngredientDto> lines ) {
+        return restock( lines );
+    }
+
+    /**
+     * REST API endpoint to add a delivery uploaded as csv to the inventory.
+     * Each row is an ingredient name and the amount delivered, optionally
+     * after a "name,amount" header. The upload is read a row at a time as it
+     * arrives.
+     *
+     * @param body
+     *            the uploaded csv
+     * @return the result of each row, in the order given, with bad request
+     *         if no row could be applied or the upload couldn't be read
+     */
+    @PutMapping ( value = "/bulk", consumes = CSV )
+    public ResponseEntity<List<RestockResultDto>> restockIngredientsFromCsv ( final InputStream body ) {
+        final List<IngredientDto> lines;
+        try {
+            lines = parseManifest( new BufferedReader( new InputStreamReader( body, StandardCharsets.UTF_8 ) ) );
+        }
+        catch ( final IOException e ) {
+            log.warn( "Failed to read delivery manifest: {}", e.getMessage() );
+            return new ResponseEntity<>( null, HttpStatus.BAD_REQUEST );
+        }
+        return restock( lines );
+    }
+
+    /**
+     * Applies a delivery and logs how much of it went in.
+     *
+     * @param lines
+     *            name of each ingredient delivered and how much of it
+     * @return the result of each line, with bad request if no line could be
+     *         applied
+     */
+    private ResponseEntity<List<RestockResultDto>> restock ( final List<IngredientDto> lines ) {
+        final List<RestockResultDto> results = inventoryService.restockIngredients( lines );
+        final long applied = results.stream().filter( r -> HttpStatus.OK.value() == r.getStatus() ).count();
+        log.info( "Restocked {} of {} delivery lines", applied, results.size() );
+        if ( applied == 0 && !results.isEmpty() ) {
+            return new ResponseEntity<>( results, HttpStatus.BAD_REQUEST );
+        }
+        return ResponseEntity.ok( results );
+    }
+
+    /**
+     * Reads a csv delivery manifest. Names are everything before the last
+     * comma, so they may hold commas themselves, and may be quoted. A row
+     * whose amount isn't a whole number is kept with no amount so it is
+     * reported rather than dropped. Blank rows are skipped.
+     *
+     * @param reader
+     *            the manifest
+     * @return name and amount of each row
+     * @throws IOException
+     *             if the manifest can't be read
+     */
+    private static List<IngredientDto> parseManifest ( final BufferedReader reader ) throws IOException {
+        final List<IngredientDto> lines = new ArrayList<IngredientDto>();
+        boolean first = true;
+        for ( String row = reader.readLine(); null != row; row = reader.readLine() ) {
+            if ( row.isBlank() ) {
+                continue;
+            }
+            final int comma = row.lastIndexOf( ',' );
+            final String name = unquote( comma < 0 ? row : row.substring( 0, comma ) );
+            final String amount = comma < 0 ? "" : unquote( row.substring( comma + 1 ) );
+            if ( first && "amount".equalsIgnoreCase( amount ) ) {
+                // header
+                first = false;
+                continue;
+            }
+            first = false;
+            Integer parsed = null;
+            try {
+                parsed = Integer.valueOf( amount );
+            }
+            catch ( final NumberFormatException e ) {
+                // reported as a bad line
+            }
+            lines.add( new IngredientDto( null, name, parsed ) );
+        }
+        return lines;
+    }
+
+    /**
+     * Trims a csv field and takes off the quotes around it.
+     *
+     * @param field
+     *            the field as written
+     * @return the field's value
+     */
+    private static String unquote ( final String field ) {
+        final String trimmed = field.trim();
+        if ( trimmed.length() >= 2 && trimmed.startsWith( "\"" ) && trimmed.endsWith( "\"" ) ) {
+            return trimmed.substring( 1, trimmed.length() - 1 ).replace( "\"\"", "\"" );
+        }
+        return trimmed;
+    }
+
     /**
      * REST API endpoint to provide create access to the CoffeeMaker's singleton
      * Inventory.
@@ -2,11 +2,13 @@ package wolfcafe.controller;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -18,17 +20,25 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import wolfcafe.dto.CheckoutDto;
 import wolfcafe.dto.OrderDto;
-import wolfcafe.dto.RecipeDto;
+import wolfcafe.dto.OrderResultDto;
+import wolfcafe.dto.OrderTicketDto;
 import wolfcafe.entity.Ingredient;
 import wolfcafe.entity.MultiRecipe;
 import wolfcafe.exception.ResourceNotFoundException;
 import wolfcafe.exception.WolfCafeAPIException;
 import wolfcafe.service.AuthService;
 import wolfcafe.service.OrderService;
-import wolfcafe.service.RecipeService;
+import wolfcafe.service.impl.IdempotencyStore;
+import wolfcafe.service.impl.MenuCache;
+import wolfcafe.service.impl.MenuSnapshot;
+import wolfcafe.service.impl.OrderEventStream;
+import wolfcafe.service.impl.OrderIntake;
 
 /**
  * controller that handles API calls that deal with orders
@@ -40,95 +50,185 @@ public class OrderController {
 	
 	private static final Logger log = LoggerFactory.getLogger(OrderController.class);
 
+    /** most orders returned by one page of the order list */
+    private static final int    MAX_PAGE = 1000;
+
     /** reference to AuthService */
     @Autowired
     private AuthService   authService;
 
-    /** reference to RecipeService */
+    /** the cached menu orders are checked against */
     @Autowired
-    private RecipeService recipeService;
+    private MenuCache     menuCache;
 
     /** reference to OrderService */
     @Autowired
     private OrderService  orderService;
 
+    /** pushes order queue changes to staff screens */
+    @Autowired
+    private OrderEventStream orderEventStream;
+
+    /** orders already saved for each Idempotency-Key */
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    /** queues orders for placement off the request thread when enabled */
+    @Autowired
+    private OrderIntake      orderIntake;
+
     /**
      * creates an order associated with the user's auth token where the given
-     * orderDto is the order saved with the the user
+     * orderDto is the order saved with the the user. If an Idempotency-Key is
+     * given and an order was already saved with it, that order is returned
+     * instead of making a new one.
+     *
+     * If the order intake queue is enabled, a valid order is queued instead
+     * and the response is 202 Accepted with a ticket, which GET
+     * /api/orders/tickets/{id} reports on once the order has been placed.
      *
      * @param token
      *            the token in the auth header
+     * @param idempotencyKey
+     *            optional key identifying retries of the same request
      * @param orderDto
      *            the order to be saved
-     * @return the saved order as a dto
+     * @return the saved order as a dto, or the ticket for the queued order
      */
     @PostMapping
-    public ResponseEntity<OrderDto> makeOrder ( @RequestHeader ( "Authorization" ) final String token,
+    public ResponseEntity<?> makeOrder ( @RequestHeader ( "Authorization" ) final String token,
+            @RequestHeader ( value = "Idempotency-Key", required = false ) final String idempotencyKey,
             @RequestBody final OrderDto orderDto ) {
-    	
-        final String username = authService.getUsername( token.substring( 7 ) );
 
-        // preventing save collisions
-        orderDto.setId( 0L );
-        // should be false. If a person sent an api call trying to create a
-        // fulfilled order, we just count it as unfulfilled.
-        orderDto.setFulfilled( false );
+        final String username = authService.getUsername( token.substring( 7 ) );
+        return idempotent( username, "order", idempotencyKey, orderDto, () -> placeOrder( username, orderDto ) );
+    }
 
-        // checking that fields are not null, match previous, and are not 0.
-        // Very extensive.
+    /**
+     * places an order and records its history in one call and one
+     * transaction. The order is validated once and the saved order is used
+     * for the history, so there is never an order without history.
+     *
+     * @param token
+     *            the token in the auth header
+     * @param idempotencyKey
+     *            optional key identifying retries of the same request
+     * @param orderDto
+     *            the order to be saved
+     * @return the saved order and its history
+     */
+    @PostMapping ( "checkout" )
+    public ResponseEntity<?> checkout ( @RequestHeader ( "Authorization" ) final String token,
+            @RequestHeader ( value = "Idempotency-Key", required = false ) final String idempotencyKey,
+            @RequestBody final OrderDto orderDto ) {
+        final String username = authService.getUsername( token.substring( 7 ) );
+        return idempotent( username, "checkout", idempotencyKey, orderDto, () -> {
+            final String problem = validateOrder( orderDto, menuCache.get() );
+            if ( null != problem ) {
+                log.warn( "Can't check out: {}", problem );
+                return new ResponseEntity<>( orderDto, HttpStatus.NOT_FOUND );
+            }
+            try {
+                final CheckoutDto checkout = orderService.checkout( username, orderDto );
+                log.info( "Checked out order {} for {}, total {}", checkout.getOrder().getId(), username,
+                        checkout.getHistory().getTotal() );
+                return new ResponseEntity<>( checkout, HttpStatus.OK );
+            }
+            catch ( final IllegalArgumentException e ) {
+                // catch for not enough ingredients
+                log.warn( "Can't check out: {}", e.getMessage() );
+                return new ResponseEntity<>( orderDto, HttpStatus.BAD_REQUEST );
+            }
+        } );
+    }
 
-        // check for recipes being invalid
-        if ( null == orderDto.getRecipes() || 0 == orderDto.getRecipes().size() ) {
-        	log.warn("Can't make order: Orders must have at least one recipe.");
-            return new ResponseEntity<>( orderDto, HttpStatus.NOT_FOUND );
+    /**
+     * runs a request at most once per Idempotency-Key. If the key was already
+     * used successfully the saved response is returned instead of running the
+     * request again. Reusing a key with a different body is refused with 422
+     * Unprocessable Entity.
+     *
+     * @param <T>
+     *            type of the response body
+     * @param username
+     *            the user making the request, keys are per user so one
+     *            customer can't replay another's order
+     * @param endpoint
+     *            which endpoint the key is for
+     * @param idempotencyKey
+     *            the key from the request, or null to always run it
+     * @param body
+     *            the request body, which a retry has to repeat
+     * @param request
+     *            runs the request
+     * @return the response, saved or new
+     */
+    @SuppressWarnings ( "unchecked" )
+    private <T> ResponseEntity<T> idempotent ( final String username, final String endpoint,
+            final String idempotencyKey, final Object body, final Supplier<ResponseEntity<T>> request ) {
+        if ( null == idempotencyKey ) {
+            return request.get();
         }
 
-        for ( final MultiRecipe multiRecipe : orderDto.getRecipes() ) { // we
-                                                                        // need
-                                                                        // to
-                                                                        // check
-                                                                        // that
-                                                                        // every
-                                                                        // multiRecipe
-                                                                        // maps
-                                                                        // to a
-                                                                        // real
-                                                                        // recipe
-
-            RecipeDto realRecipe;
-            try {
-                realRecipe = recipeService.getRecipeByName( multiRecipe.getName() );
+        final String key = username + "\n" + endpoint + "\n" + idempotencyKey;
+        try {
+            final Object saved = idempotencyStore.begin( key, body );
+            if ( null != saved ) {
+                log.info( "Replaying {} response for repeated Idempotency-Key", endpoint );
+                return new ResponseEntity<>( (T) saved, HttpStatus.OK );
             }
-            // catch recipe name doesn't exist
-            catch ( final Exception e ) {
-            	log.warn("Can't make order: Unable to find recipe.");
-                return new ResponseEntity<>( orderDto, HttpStatus.NOT_FOUND );
+        }
+        catch ( final IllegalStateException e ) {
+            // the first attempt hasn't finished yet
+            log.warn( "Can't make order: request with the same Idempotency-Key is in progress." );
+            return new ResponseEntity<>( null, HttpStatus.CONFLICT );
+        }
+        catch ( final IllegalArgumentException e ) {
+            log.warn( "Can't make order: {}", e.getMessage() );
+            return new ResponseEntity<>( null, HttpStatus.UNPROCESSABLE_ENTITY );
+        }
+
+        ResponseEntity<T> response = null;
+        try {
+            response = request.get();
+            return response;
+        }
+        finally {
+            // a queued order's ticket is kept too, so a retry doesn't queue it
+            // again
+            if ( null != response && response.getStatusCode().is2xxSuccessful() ) {
+                idempotencyStore.complete( key, response.getBody() );
             }
-            multiRecipe.setId( 0L ); // preventing save collisions
-
-            // bad means invalid, doesn't match real part, or null
-            // check if amount is bad, price is bad, ingredients size is bad
-            if ( null == multiRecipe.getAmount() || null == multiRecipe.getIngredients()
-                    || realRecipe.getIngredients().size() != multiRecipe.getIngredients().size()
-                    || !realRecipe.getPrice().equals( multiRecipe.getPrice() ) || multiRecipe.getAmount() <= 0 ) {
-            	log.warn("Can't make order: Do not have enough ingredients, or did not pay correct price.");
-                return new ResponseEntity<>( orderDto, HttpStatus.NOT_FOUND );
+            else {
+                idempotencyStore.abandon( key );
             }
+        }
+    }
 
-            // we are expecting that all ingredients appear as they do in the
-            // recipe
-            for ( int i = 0; i < multiRecipe.getIngredients().size(); i++ ) {
-                final Ingredient ingredient = multiRecipe.getIngredients().get( i );
-                final Ingredient realIngredient = realRecipe.getIngredients().get( i );
-
-                // check if ingredient amount or name is bad
-                if ( !realIngredient.getName().equals( ingredient.getName() )
-                        || !realIngredient.getAmount().equals( ingredient.getAmount() ) ) {
-                	log.warn("Can't make order: invalid ingredient amount or name.");
-                    return new ResponseEntity<>( orderDto, HttpStatus.NOT_FOUND );
-                }
-                ingredient.setId( 0L ); // preventing save collisions
+    /**
+     * validates the given order against the recipes and saves it with the
+     * user, or queues it if the order intake is enabled
+     *
+     * @param username
+     *            the user making the order
+     * @param orderDto
+     *            the order to be saved
+     * @return the saved order as a dto, or the ticket for the queued order
+     */
+    private ResponseEntity<Object> placeOrder ( final String username, final OrderDto orderDto ) {
+        final String problem = validateOrder( orderDto, menuCache.get() );
+        if ( null != problem ) {
+            log.warn( "Can't make order: {}", problem );
+            return new ResponseEntity<>( orderDto, HttpStatus.NOT_FOUND );
+        }
+        if ( orderIntake.isEnabled() ) {
+            final OrderTicketDto ticket = orderIntake.submit( username, orderDto );
+            if ( null == ticket ) {
+                log.warn( "Can't make order: intake queue is full." );
+                return new ResponseEntity<>( orderDto, HttpStatus.SERVICE_UNAVAILABLE );
             }
+            return ResponseEntity.accepted().header( "Location", "/api/orders/tickets/" + ticket.getId() )
+                    .body( ticket );
         }
         try {
             // try to make the order
@@ -156,23 +256,205 @@ public class OrderController {
     }
 
     /**
-     * REST API GET endpoint for getting the list of orders
+     * checks that an order is well formed and matches the recipes it names,
+     * and clears the ids and fulfilled flag so it saves as a new order
      *
-     * @return a list of orders in the repository
+     * @param orderDto
+     *            the order to check
+     * @param menu
+     *            snapshot of the recipes to check against
+     * @return why the order is invalid, or null if it is valid
+     */
+    private String validateOrder ( final OrderDto orderDto, final MenuSnapshot menu ) {
+        // preventing save collisions
+        orderDto.setId( 0L );
+        // should be false. If a person sent an api call trying to create a
+        // fulfilled order, we just count it as unfulfilled.
+        orderDto.setFulfilled( false );
+
+        // check for recipes being invalid
+        if ( null == orderDto.getRecipes() || 0 == orderDto.getRecipes().size() ) {
+            return "Orders must have at least one recipe.";
+        }
+
+        // we need to check that every multiRecipe matches a real recipe,
+        // including every ingredient name and amount
+        for ( final MultiRecipe multiRecipe : orderDto.getRecipes() ) {
+            final MenuSnapshot.Problem problem = menu.check( multiRecipe );
+            if ( MenuSnapshot.Problem.UNKNOWN_RECIPE == problem ) {
+                return "Unable to find recipe.";
+            }
+            if ( MenuSnapshot.Problem.BAD_RECIPE == problem ) {
+                return "Do not have enough ingredients, or did not pay correct price.";
+            }
+            if ( MenuSnapshot.Problem.BAD_INGREDIENTS == problem ) {
+                return "invalid ingredient amount or name.";
+            }
+
+            // preventing save collisions
+            multiRecipe.setId( 0L );
+            for ( final Ingredient ingredient : multiRecipe.getIngredients() ) {
+                ingredient.setId( 0L );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * reports on an order queued by POST /api/orders. Users can only see
+     * their own tickets.
+     *
+     * @param token
+     *            the token in the auth header
+     * @param id
+     *            the ticket id
+     * @return the ticket, or 404 if there is no such ticket for the user or it
+     *         has expired
+     */
+    @GetMapping ( "tickets/{id}" )
+    public ResponseEntity<OrderTicketDto> getTicket ( @RequestHeader ( "Authorization" ) final String token,
+            @PathVariable final Long id ) {
+        final String username = authService.getUsername( token.substring( 7 ) );
+        final OrderTicketDto ticket = orderIntake.getTicket( id, username );
+        if ( null == ticket ) {
+            return new ResponseEntity<>( null, HttpStatus.NOT_FOUND );
+        }
+        return new ResponseEntity<>( ticket, HttpStatus.OK );
+    }
+
+    /**
+     * makes several orders for the user at once. Every order is checked
+     * against the same snapshot of the recipes and the ingredients for all of
+     * them come out of the inventory together. Unless partial is set, either
+     * every valid order is made or none are.
+     *
+     * @param token
+     *            the token in the auth header
+     * @param partial
+     *            whether to make the orders that fit when there aren't enough
+     *            ingredients for all of them
+     * @param orderDtos
+     *            the orders to be saved
+     * @return the result of each order, in the order given
+     */
+    @PostMapping ( "batch" )
+    public ResponseEntity<List<OrderResultDto>> makeOrders ( @RequestHeader ( "Authorization" ) final String token,
+            @RequestParam ( defaultValue = "false" ) final boolean partial,
+            @RequestBody final List<OrderDto> orderDtos ) {
+        final String username = authService.getUsername( token.substring( 7 ) );
+
+        // one snapshot of the recipes for the whole batch
+        final MenuSnapshot menu = menuCache.get();
+
+        final List<OrderResultDto> results = new ArrayList<OrderResultDto>();
+        final List<OrderDto> valid = new ArrayList<OrderDto>();
+        for ( int i = 0; i < orderDtos.size(); i++ ) {
+            final OrderDto orderDto = orderDtos.get( i );
+            final String problem = null == orderDto ? "Order is missing." : validateOrder( orderDto, menu );
+            if ( null != problem ) {
+                log.warn( "Can't make order {} of batch: {}", i, problem );
+                results.add( new OrderResultDto( i, HttpStatus.NOT_FOUND.value(), null, problem ) );
+            }
+            else {
+                results.add( null );
+                valid.add( orderDto );
+            }
+        }
+        if ( !partial && valid.size() != orderDtos.size() ) {
+            fillResults( results, HttpStatus.FAILED_DEPENDENCY, "Another order in the batch is invalid." );
+            return new ResponseEntity<>( results, HttpStatus.NOT_FOUND );
+        }
+
+        final List<OrderDto> saved;
+        try {
+            saved = valid.isEmpty() ? valid : orderService.makeOrders( username, valid, partial );
+        }
+        catch ( final IllegalArgumentException e ) {
+            // catch for not enough ingredients
+            log.warn( "Can't make batch of {} orders: {}", valid.size(), e.getMessage() );
+            fillResults( results, HttpStatus.BAD_REQUEST, "Not enough ingredients in inventory." );
+            return new ResponseEntity<>( results, HttpStatus.BAD_REQUEST );
+        }
+
+        int next = 0;
+        for ( int i = 0; i < results.size(); i++ ) {
+            if ( null == results.get( i ) ) {
+                final OrderDto savedOrderDto = saved.get( next++ );
+                results.set( i,
+                        null == savedOrderDto
+                                ? new OrderResultDto( i, HttpStatus.BAD_REQUEST.value(), null,
+                                        "Not enough ingredients in inventory." )
+                                : new OrderResultDto( i, HttpStatus.OK.value(), savedOrderDto, null ) );
+            }
+        }
+        log.info( "Batch of {} orders made for {}", saved.stream().filter( o -> null != o ).count(), username );
+        return new ResponseEntity<>( results, HttpStatus.OK );
+    }
+
+    /**
+     * fills in the result of every order that doesn't have one yet
+     *
+     * @param results
+     *            the results so far, null where an order has no result
+     * @param status
+     *            status to give those orders
+     * @param message
+     *            why those orders weren't made
+     */
+    private void fillResults ( final List<OrderResultDto> results, final HttpStatus status, final String message ) {
+        for ( int i = 0; i < results.size(); i++ ) {
+            if ( null == results.get( i ) ) {
+                results.set( i, new OrderResultDto( i, status.value(), null, message ) );
+            }
+        }
+    }
+
+    /**
+     * REST API GET endpoint for getting the list of orders. Only the id and
+     * fulfilled state are returned because customers and others can use this.
+     * Orders come in id order a page at a time; pass the last id of a page as
+     * after to get the next one. A full page comes with a Link header pointing
+     * at the next page.
+     *
+     * @param after
+     *            only orders with a larger id are listed
+     * @param limit
+     *            most orders to list, at most 1000
+     * @param fulfilled
+     *            only orders in this state are listed, or every order if not
+     *            given
+     * @return a page of orders in the repository
      */
     @GetMapping
-    public ResponseEntity<List<OrderDto>> getOrders () {
-
-        // remove everything except for id and fulfilled because customers and
-        // others can use this.
-        final List<OrderDto> sanitizedOrderDtos = new ArrayList<OrderDto>();
-        for ( final OrderDto orderDto : orderService.getOrders() ) {
-            final OrderDto sanitizedOrderDto = new OrderDto();
-            sanitizedOrderDto.setId( orderDto.getId() );
-            sanitizedOrderDto.setFulfilled( orderDto.getFulfilled() );
-            sanitizedOrderDtos.add( sanitizedOrderDto );
+    @CrossOrigin ( exposedHeaders = "Link" )
+    public ResponseEntity<List<OrderDto>> getOrders ( @RequestParam ( defaultValue = "0" ) final Long after,
+            @RequestParam ( defaultValue = "100" ) final int limit,
+            @RequestParam ( required = false ) final Boolean fulfilled ) {
+        if ( limit <= 0 || limit > MAX_PAGE ) {
+            log.warn( "Can't list orders: limit must be between 1 and {}.", MAX_PAGE );
+            return new ResponseEntity<>( null, HttpStatus.BAD_REQUEST );
+        }
+        final List<OrderDto> orders = orderService.getOrderSummaries( after, fulfilled, limit );
+        if ( orders.size() < limit ) {
+            return new ResponseEntity<>( orders, HttpStatus.OK );
         }
-        return new ResponseEntity<>( sanitizedOrderDtos, HttpStatus.OK );
+        // a full page, there may be more after it
+        final String next = "/api/orders?after=" + orders.get( orders.size() - 1 ).getId() + "&limit=" + limit
+                + ( null == fulfilled ? "" : "&fulfilled=" + fulfilled );
+        return ResponseEntity.ok().header( "Link", "<" + next + ">; rel=\"next\"" ).body( orders );
+    }
+
+    /**
+     * REST API GET mapping for a Server-Sent Events stream of changes to the
+     * order queue (ORDER_PLACED, ORDER_FULFILLED, ORDER_PICKED_UP), so staff
+     * screens don't have to poll the order list
+     *
+     * @return the event stream
+     */
+    @PreAuthorize ( "hasAnyRole('STAFF', 'MANAGER', 'ADMIN')" )
+    @GetMapping ( value = "stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE )
+    public SseEmitter streamOrders () {
+        return orderEventStream.subscribe();
     }
 
     /**
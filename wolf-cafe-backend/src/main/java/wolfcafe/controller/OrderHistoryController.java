@@ -1,12 +1,25 @@
 package wolfcafe.controller;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -15,11 +28,14 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import wolfcafe.dto.OrderDto;
 import wolfcafe.dto.OrderHistoryDto;
-import wolfcafe.dto.RecipeDto;
+import wolfcafe.dto.OrderHistoryExportDto;
+import wolfcafe.dto.OrderHistoryPageDto;
 import wolfcafe.entity.Ingredient;
 import wolfcafe.entity.MultiRecipe;
 import wolfcafe.entity.OrderHistory;
@@ -27,7 +43,10 @@ import wolfcafe.entity.User;
 import wolfcafe.repository.UserRepository;
 import wolfcafe.service.AuthService;
 import wolfcafe.service.OrderHistoryService;
-import wolfcafe.service.RecipeService;
+import wolfcafe.service.impl.HistoryVersions;
+import wolfcafe.service.impl.MenuCache;
+import wolfcafe.service.impl.OrderHistoryExporter;
+import wolfcafe.service.impl.MenuSnapshot;
 
 /**
  * controller that handles API calls that deal with orders
@@ -39,21 +58,35 @@ public class OrderHistoryController {
 	
 	private static final Logger log = LoggerFactory.getLogger(OrderController.class);
 
+    /** most orders returned by one page of history */
+    private static final int         MAX_PAGE = 1000;
+
+    /** fields history can be sorted by */
+    private static final Set<String> SORTABLE = Set.of( "id", "total", "username" );
+
     /** reference to AuthService */
     @Autowired
-    private AuthService         authService;
+    private AuthService          authService;
 
-    /** reference to RecipeService */
+    /** the cached menu orders are checked against */
     @Autowired
-    private RecipeService       recipeService;
+    private MenuCache            menuCache;
 
     /** reference to OrderHistoryService */
     @Autowired
-    private OrderHistoryService orderHistoryService;
+    private OrderHistoryService  orderHistoryService;
+
+    /** writes history exports */
+    @Autowired
+    private OrderHistoryExporter orderHistoryExporter;
 
     /** reference to the User Repository */
     @Autowired
-    private UserRepository      userRepository;
+    private UserRepository       userRepository;
+
+    /** versions of each user's history, for ETags */
+    @Autowired
+    private HistoryVersions      historyVersions;
 
     /**
      * creates an order associated with the user's auth token where the given
@@ -82,43 +115,31 @@ public class OrderHistoryController {
             return new ResponseEntity<>( orderDto, HttpStatus.NOT_FOUND );
         }
 
+        final MenuSnapshot menu = menuCache.get();
         for ( final MultiRecipe multiRecipe : orderDto.getRecipes() ) {
         	if (multiRecipe == null) {
                 log.error("Order creation failed: Null recipe provided by user [{}]", usernameOrEmail);
                 return new ResponseEntity<>(orderDto, HttpStatus.NOT_FOUND);
             }
-            RecipeDto realRecipe;
-            try {
-                realRecipe = recipeService.getRecipeByName( multiRecipe.getName() );
-            }
-            // catch recipe name doesn't exist
-            catch ( final Exception e ) {
+
+            // the recipe has to exist and every field has to match it,
+            // ingredients in the same order with the same amounts
+            final MenuSnapshot.Problem problem = menu.check( multiRecipe );
+            if ( MenuSnapshot.Problem.UNKNOWN_RECIPE == problem ) {
             	log.error("Order creation failed: Recipe [{}] not found for user [{}]", multiRecipe.getName(), usernameOrEmail);
                 return new ResponseEntity<>( orderDto, HttpStatus.NOT_FOUND );
             }
-            multiRecipe.setId( 0L ); // preventing save collisions
-
-            // bad means invalid, doesn't match real part, or null
-            // check if amount is bad, price is bad, ingredients size is bad
-            if ( null == multiRecipe.getAmount() || null == multiRecipe.getIngredients()
-                    || realRecipe.getIngredients().size() != multiRecipe.getIngredients().size()
-                    || !realRecipe.getPrice().equals( multiRecipe.getPrice() ) || multiRecipe.getAmount() <= 0 ) {
+            if ( MenuSnapshot.Problem.BAD_RECIPE == problem ) {
             	log.error("Order creation failed: Invalid recipe [{}] by user [{}]", multiRecipe.getName(), usernameOrEmail);
                 return new ResponseEntity<>( orderDto, HttpStatus.NOT_FOUND );
             }
+            if ( MenuSnapshot.Problem.BAD_INGREDIENTS == problem ) {
+            	log.error("Order creation failed: Ingredient mismatch in recipe [{}] for user [{}]", multiRecipe.getName(), usernameOrEmail);
+                return new ResponseEntity<>( orderDto, HttpStatus.NOT_FOUND );
+            }
 
-            // we are expecting that all ingredients appear as they do in the
-            // recipe
-            for ( int i = 0; i < multiRecipe.getIngredients().size(); i++ ) {
-                final Ingredient ingredient = multiRecipe.getIngredients().get( i );
-                final Ingredient realIngredient = realRecipe.getIngredients().get( i );
-
-                // check if ingredient price or name is bad
-                if ( !realIngredient.getName().equals( ingredient.getName() )
-                        || !realIngredient.getAmount().equals( ingredient.getAmount() ) ) {
-                	 log.error("Order creation failed: Ingredient mismatch in recipe [{}] for user [{}]", multiRecipe.getName(), usernameOrEmail);
-                    return new ResponseEntity<>( orderDto, HttpStatus.NOT_FOUND );
-                }
+            multiRecipe.setId( 0L ); // preventing save collisions
+            for ( final Ingredient ingredient : multiRecipe.getIngredients() ) {
                 ingredient.setId( 0L ); // preventing save collisions
             }
         }
@@ -174,14 +195,66 @@ public class OrderHistoryController {
     }
 
     /**
-     * gets the history of all orders that are picked up
+     * gets the history of all orders that are picked up. Without a page every
+     * picked up order is returned as a list, with a page just that page is
+     * returned along with the total count.
      *
-     * @return list of all picked up order history
+     * @param page
+     *            which page to get, starting at 0, or null for every order
+     * @param size
+     *            how many orders per page
+     * @param sort
+     *            field to sort by (id, total or username), optionally
+     *            followed by ",asc" or ",desc"
+     * @return list of all picked up order history, or the requested page
      */
     @GetMapping
-    public ResponseEntity<List<OrderHistory>> getOrderHistory () {
-        // no error since there are allowed to be 0 errors!
-        return new ResponseEntity<>( orderHistoryService.getOrderHistory(), HttpStatus.OK );
+    public ResponseEntity<?> getOrderHistory ( @RequestParam ( required = false ) final Integer page,
+            @RequestParam ( defaultValue = "50" ) final int size,
+            @RequestParam ( defaultValue = "id,desc" ) final String sort ) {
+        if ( null == page ) {
+            // no error since there are allowed to be 0 errors!
+            return new ResponseEntity<>( orderHistoryService.getOrderHistory(), HttpStatus.OK );
+        }
+        final Pageable pageable = pageRequest( page, size, sort );
+        if ( null == pageable ) {
+            return new ResponseEntity<>( "Invalid page, size or sort.", HttpStatus.BAD_REQUEST );
+        }
+        return new ResponseEntity<>( orderHistoryService.getOrderHistory( pageable ), HttpStatus.OK );
+    }
+
+    /**
+     * builds a page request from the paging parameters
+     *
+     * @param page
+     *            which page, starting at 0
+     * @param size
+     *            how many orders per page
+     * @param sort
+     *            field to sort by, optionally followed by ",asc" or ",desc"
+     * @return the page request, or null if any parameter is invalid
+     */
+    private Pageable pageRequest ( final int page, final int size, final String sort ) {
+        if ( page < 0 || size < 1 || size > MAX_PAGE ) {
+            return null;
+        }
+        final String[] parts = sort.split( "," );
+        if ( parts.length > 2 || !SORTABLE.contains( parts[0] ) ) {
+            return null;
+        }
+        Sort.Direction direction = Sort.Direction.ASC;
+        if ( 2 == parts.length ) {
+            direction = Sort.Direction.fromOptionalString( parts[1] ).orElse( null );
+            if ( null == direction ) {
+                return null;
+            }
+        }
+        // ties broken by id so pages don't overlap
+        Sort order = Sort.by( direction, parts[0] );
+        if ( !"id".equals( parts[0] ) ) {
+            order = order.and( Sort.by( direction, "id" ) );
+        }
+        return PageRequest.of( page, size, order );
     }
 
     /**
@@ -210,17 +283,61 @@ public class OrderHistoryController {
 
     /**
      * Gets the history of all orders that are picked up and belong to a
-     * specified user.
+     * specified user. Responses carry an ETag of the version of the user's
+     * history, which changes when one of their orders is picked up. A request
+     * with that ETag in If-None-Match gets 304 Not Modified without any
+     * history being read, or the user being looked up once they have been
+     * before.
      *
      * @param usernameOrEmail
      *            represents logged in users email or username
      * @param token
      *            the authorization token from the request header
-     * @return list of all picked up order history belonging to a specified user
+     * @param page
+     *            which page to get, starting at 0, or null for every order
+     * @param size
+     *            how many orders per page
+     * @param sort
+     *            field to sort by (id, total or username), optionally
+     *            followed by ",asc" or ",desc"
+     * @param cursor
+     *            read newest first from below this id, the nextCursor of the
+     *            last page, instead of by page number
+     * @param limit
+     *            most orders to read from the cursor, which is read from the
+     *            newest order if only this is given
+     * @param ifNoneMatch
+     *            ETags of the copies the client has
+     * @return list of all picked up order history belonging to a specified
+     *         user, the requested page of it, or 304 if it hasn't changed
      */
     @GetMapping ( "/{username}" )
     public ResponseEntity<?> getUserHistory ( @PathVariable ( "username" ) final String usernameOrEmail,
-            @RequestHeader ( "Authorization" ) final String token ) {
+            @RequestHeader ( "Authorization" ) final String token,
+            @RequestParam ( required = false ) final Integer page,
+            @RequestParam ( defaultValue = "50" ) final int size,
+            @RequestParam ( defaultValue = "id,desc" ) final String sort,
+            @RequestParam ( required = false ) final Long cursor,
+            @RequestParam ( required = false ) final Integer limit,
+            @RequestHeader ( value = HttpHeaders.IF_NONE_MATCH, required = false ) final String ifNoneMatch ) {
+        // answered from memory if the client's copy is current
+        final String known = historyVersions.etag( usernameOrEmail );
+        if ( null != known && matches( ifNoneMatch, known ) ) {
+            return ResponseEntity.status( HttpStatus.NOT_MODIFIED ).eTag( known ).build();
+        }
+
+        final boolean byCursor = null != cursor || null != limit;
+        final int cursorLimit = null == limit ? size : limit;
+        if ( byCursor && ( cursorLimit <= 0 || cursorLimit > MAX_PAGE ) ) {
+            return new ResponseEntity<>( "Invalid limit.", HttpStatus.BAD_REQUEST );
+        }
+        Pageable pageable = null;
+        if ( !byCursor && null != page ) {
+            pageable = pageRequest( page, size, sort );
+            if ( null == pageable ) {
+                return new ResponseEntity<>( "Invalid page, size or sort.", HttpStatus.BAD_REQUEST );
+            }
+        }
 
         // fetch the user by username
         final Optional<User> user = userRepository.findByUsernameOrEmail( usernameOrEmail, usernameOrEmail );
@@ -230,11 +347,114 @@ public class OrderHistoryController {
             // orders)
             final User userValid = user.get();
             final String username = userValid.getUsername();
-            return new ResponseEntity<>( orderHistoryService.getUserHistory( username ), HttpStatus.OK );
+            historyVersions.alias( usernameOrEmail, username );
+            // taken before reading, so a pickup during the read leaves an
+            // older ETag and the client fetches again
+            final String etag = historyVersions.etag( usernameOrEmail );
+            final ResponseEntity.BodyBuilder ok = ResponseEntity.ok().eTag( etag )
+                    .cacheControl( CacheControl.noCache().cachePrivate() );
+            if ( byCursor ) {
+                final List<OrderHistory> orders = orderHistoryService.getUserHistory( username, cursor,
+                        cursorLimit );
+                final Long nextCursor = orders.size() < cursorLimit ? null
+                        : orders.get( orders.size() - 1 ).getId();
+                return ok.body( new OrderHistoryPageDto( orders, nextCursor ) );
+            }
+            if ( null == pageable ) {
+                return ok.body( orderHistoryService.getUserHistory( username ) );
+            }
+            return ok.body( orderHistoryService.getUserHistory( username, pageable ) );
         }
         else {
             // return BAD_REQUEST if the user does not exist
             return new ResponseEntity<>( "User not found: " + usernameOrEmail, HttpStatus.BAD_REQUEST );
         }
     }
+
+    /**
+     * Checks whether an If-None-Match header names an ETag, ignoring whether
+     * the client marked it weak.
+     *
+     * @param ifNoneMatch
+     *            the header, or null if there wasn't one
+     * @param etag
+     *            the ETag
+     * @return true if the header names the ETag or is *
+     */
+    private static boolean matches ( final String ifNoneMatch, final String etag ) {
+        if ( null == ifNoneMatch ) {
+            return false;
+        }
+        for ( final String tag : ifNoneMatch.split( "," ) ) {
+            final String trimmed = tag.trim();
+            final String strong = trimmed.startsWith( "W/" ) ? trimmed.substring( 2 ) : trimmed;
+            if ( "*".equals( strong ) || etag.equals( strong ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Exports the history recorded in a time range as CSV or NDJSON, for
+     * accounting. The export is streamed from the database as it is written,
+     * so it doesn't have to fit in memory, and is gzipped if the client
+     * accepts it.
+     *
+     * @param format
+     *            csv or ndjson
+     * @param from
+     *            only history recorded at or after this, or from the start if
+     *            not given
+     * @param to
+     *            only history recorded before this, or to the end if not given
+     * @param acceptEncoding
+     *            encodings the client accepts
+     * @return the streamed export, or bad request if the format or range isn't
+     *         valid
+     */
+    @PreAuthorize ( "hasAnyRole('MANAGER', 'ADMIN')" )
+    @GetMapping ( "/export" )
+    public ResponseEntity<StreamingResponseBody> exportOrderHistory (
+            @RequestParam ( defaultValue = "csv" ) final String format,
+            @RequestParam ( required = false ) @DateTimeFormat (
+                    iso = DateTimeFormat.ISO.DATE_TIME ) final LocalDateTime from,
+            @RequestParam ( required = false ) @DateTimeFormat (
+                    iso = DateTimeFormat.ISO.DATE_TIME ) final LocalDateTime to,
+            @RequestHeader ( value = HttpHeaders.ACCEPT_ENCODING, required = false ) final String acceptEncoding ) {
+        final OrderHistoryExportDto.Format exportFormat;
+        try {
+            exportFormat = OrderHistoryExportDto.Format.valueOf( format.toUpperCase( Locale.ROOT ) );
+        }
+        catch ( final IllegalArgumentException e ) {
+            return new ResponseEntity<StreamingResponseBody>( HttpStatus.BAD_REQUEST );
+        }
+        if ( null != from && null != to && !from.isBefore( to ) ) {
+            return new ResponseEntity<StreamingResponseBody>( HttpStatus.BAD_REQUEST );
+        }
+
+        final boolean gzip = null != acceptEncoding && acceptEncoding.toLowerCase( Locale.ROOT ).contains( "gzip" );
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setContentType( OrderHistoryExportDto.Format.CSV == exportFormat ? new MediaType( "text", "csv" )
+                : new MediaType( "application", "x-ndjson" ) );
+        headers.set( HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"order-history." + exportFormat.name().toLowerCase( Locale.ROOT ) + "\"" );
+        headers.set( HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING );
+        if ( gzip ) {
+            headers.set( HttpHeaders.CONTENT_ENCODING, "gzip" );
+        }
+
+        log.info( "OrderHistory: exporting {} from {} to {}", exportFormat, from, to );
+        final StreamingResponseBody body = out -> {
+            if ( gzip ) {
+                final GZIPOutputStream zipped = new GZIPOutputStream( out, 8192 );
+                orderHistoryExporter.export( from, to, exportFormat, zipped );
+                zipped.finish();
+            }
+            else {
+                orderHistoryExporter.export( from, to, exportFormat, out );
+            }
+        };
+        return new ResponseEntity<StreamingResponseBody>( body, headers, HttpStatus.OK );
+    }
 }
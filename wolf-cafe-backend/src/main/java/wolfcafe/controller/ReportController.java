@@ -0,0 +1,149 @@
+package wolfcafe.controller;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import wolfcafe.dto.SalesBucketDto;
+import wolfcafe.dto.TopSellerDto;
+import wolfcafe.service.ReportService;
+import wolfcafe.service.impl.TopSellerTracker;
+
+/**
+ * controller that handles API calls for sales reports
+ */
+@CrossOrigin ( "*" )
+@RestController
+@RequestMapping ( "/api/reports" )
+public class ReportController {
+
+    /** reference to ReportService */
+    @Autowired
+    private ReportService    reportService;
+
+    /**
+     * the live top sellers counts, whose capacity is the longest list they
+     * can answer
+     */
+    @Autowired
+    private TopSellerTracker topSellerTracker;
+
+    /**
+     * Reports the units sold, revenue before tax, and units picked up of each
+     * recipe over a time range, bucketed by hour, day, or week. Reads the
+     * rollups kept as orders are placed, so the cost doesn't grow with the
+     * number of orders.
+     *
+     * @param from
+     *            start of the range, inclusive
+     * @param to
+     *            end of the range, exclusive
+     * @param granularity
+     *            hour, day, or week
+     * @param recipe
+     *            only report this recipe, if given
+     * @return sales in each bucket, or bad request if the range or granularity
+     *         isn't valid
+     */
+    @PreAuthorize ( "hasAnyRole('MANAGER', 'ADMIN')" )
+    @GetMapping ( "sales" )
+    public ResponseEntity<List<SalesBucketDto>> getSales (
+            @RequestParam @DateTimeFormat ( iso = DateTimeFormat.ISO.DATE_TIME ) final LocalDateTime from,
+            @RequestParam @DateTimeFormat ( iso = DateTimeFormat.ISO.DATE_TIME ) final LocalDateTime to,
+            @RequestParam ( defaultValue = "hour" ) final String granularity,
+            @RequestParam ( required = false ) final String recipe ) {
+        if ( !from.isBefore( to ) ) {
+            return new ResponseEntity<List<SalesBucketDto>>( HttpStatus.BAD_REQUEST );
+        }
+        final SalesBucketDto.Granularity bucket;
+        try {
+            bucket = SalesBucketDto.Granularity.valueOf( granularity.toUpperCase( Locale.ROOT ) );
+        }
+        catch ( final IllegalArgumentException e ) {
+            return new ResponseEntity<List<SalesBucketDto>>( HttpStatus.BAD_REQUEST );
+        }
+        return ResponseEntity.ok( reportService.getSales( from, to, bucket, recipe ) );
+    }
+
+    /**
+     * Lists the best selling recipes over the last hour, day or week. Answered
+     * from live counts, so it doesn't read history.
+     *
+     * @param window
+     *            hour, day, or week
+     * @param limit
+     *            most recipes to list, no more than the counters kept per
+     *            bucket
+     * @return the recipes and estimated units sold, best selling first, or bad
+     *         request if the window or limit isn't valid
+     */
+    @PreAuthorize ( "hasAnyRole('MANAGER', 'ADMIN')" )
+    @GetMapping ( "top-sellers" )
+    public ResponseEntity<List<TopSellerDto>> getTopSellers (
+            @RequestParam ( defaultValue = "day" ) final String window,
+            @RequestParam ( defaultValue = "10" ) final int limit ) {
+        final TopSellerDto.Window topWindow = topWindow( window, limit );
+        if ( null == topWindow ) {
+            return new ResponseEntity<List<TopSellerDto>>( HttpStatus.BAD_REQUEST );
+        }
+        return ResponseEntity.ok( reportService.getTopSellers( topWindow, limit ) );
+    }
+
+    /**
+     * Lists the most used ingredients over the last hour, day or week.
+     * Answered from live counts, so it doesn't read history.
+     *
+     * @param window
+     *            hour, day, or week
+     * @param limit
+     *            most ingredients to list, no more than the counters kept
+     *            per bucket
+     * @return the ingredients and estimated amounts used, most used first, or
+     *         bad request if the window or limit isn't valid
+     */
+    @PreAuthorize ( "hasAnyRole('MANAGER', 'ADMIN')" )
+    @GetMapping ( "top-ingredients" )
+    public ResponseEntity<List<TopSellerDto>> getTopIngredients (
+            @RequestParam ( defaultValue = "day" ) final String window,
+            @RequestParam ( defaultValue = "10" ) final int limit ) {
+        final TopSellerDto.Window topWindow = topWindow( window, limit );
+        if ( null == topWindow ) {
+            return new ResponseEntity<List<TopSellerDto>>( HttpStatus.BAD_REQUEST );
+        }
+        return ResponseEntity.ok( reportService.getTopIngredients( topWindow, limit ) );
+    }
+
+    /**
+     * Reads a top sellers window, checking the limit alongside it.
+     *
+     * @param window
+     *            hour, day, or week, in any case
+     * @param limit
+     *            most names to list
+     * @return the window, or null if it or the limit isn't valid
+     */
+    private TopSellerDto.Window topWindow ( final String window, final int limit ) {
+        // past the capacity the counts aren't tracked, so the tail would be
+        // made up
+        if ( limit <= 0 || limit > topSellerTracker.getCapacity() ) {
+            return null;
+        }
+        try {
+            return TopSellerDto.Window.valueOf( window.toUpperCase( Locale.ROOT ) );
+        }
+        catch ( final IllegalArgumentException e ) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package wolfcafe.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/** the order and order history saved by a checkout, for api calls */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CheckoutDto {
+    /** the saved order */
+    private OrderDto        order;
+
+    /** the history recorded for the order */
+    private OrderHistoryDto history;
+}
@@ -0,0 +1,46 @@
+package wolfcafe.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * an ingredient that is projected to run out soon, or that no longer is,
+ * pushed to managers over the inventory alert stream
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class LowStockAlertDto {
+
+    /** the kinds of alert */
+    public enum Type {
+        /** the ingredient will run out within the alert horizon */
+        LOW_STOCK,
+        /** the ingredient was low but no longer will run out soon */
+        RESTORED
+    }
+
+    /** what happened */
+    private Type    type;
+
+    /** Ingredient id */
+    private Long    ingredientId;
+
+    /** Ingredient name */
+    private String  name;
+
+    /** amount left in the inventory */
+    private Integer amount;
+
+    /** recent rate orders have used the ingredient at, per hour */
+    private Double  perHour;
+
+    /**
+     * minutes until the ingredient runs out at that rate, null if it isn't
+     * being used
+     */
+    private Long    minutesLeft;
+}
@@ -0,0 +1,36 @@
+package wolfcafe.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * a change to the order queue, published when it happens and pushed to staff
+ * screens over the order stream
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderEventDto {
+
+    /** the kinds of change to the order queue */
+    public enum Type {
+        /** a new order was placed */
+        ORDER_PLACED,
+        /** an order was marked fulfilled */
+        ORDER_FULFILLED,
+        /** an order was picked up and left the queue */
+        ORDER_PICKED_UP
+    }
+
+    /** what happened */
+    private Type    type;
+
+    /** Order id */
+    private Long    id;
+
+    /** whether the order is fulfilled after the change */
+    private Boolean fulfilled;
+}
@@ -0,0 +1,42 @@
+package wolfcafe.dto;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/** one order of an order history export */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderHistoryExportDto {
+
+    /** formats history can be exported in */
+    public enum Format {
+        /** comma separated values with a header row */
+        CSV,
+        /** one JSON object per line */
+        NDJSON
+    }
+
+    /** Order id */
+    private Long          id;
+
+    /** username of the user the order belongs to */
+    private String        username;
+
+    /** when the order was recorded */
+    private LocalDateTime createdAt;
+
+    /** whether the order was picked up */
+    private Boolean       pickedUp;
+
+    /** total of the order */
+    private Double        total;
+
+    /** recipes in the order and their amounts, like "Black Coffee: 3, Ham Wrap: 1" */
+    private String        recipes;
+}
@@ -0,0 +1,23 @@
+package wolfcafe.dto;
+
+import java.util.List;
+
+import wolfcafe.entity.OrderHistory;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/** a page of a user's history read by cursor, for api calls */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderHistoryPageDto {
+
+    /** the orders on the page, newest first */
+    private List<OrderHistory> orders;
+
+    /** cursor to pass for the next page, or null if this is the last */
+    private Long               nextCursor;
+}
@@ -0,0 +1,25 @@
+package wolfcafe.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/** the outcome of one order in a batch, for api calls */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderResultDto {
+    /** position of the order in the batch */
+    private Integer  index;
+
+    /** http status the order would have got on its own */
+    private Integer  status;
+
+    /** the saved order, null if it wasn't made */
+    private OrderDto order;
+
+    /** why the order wasn't made, null if it was */
+    private String   message;
+}
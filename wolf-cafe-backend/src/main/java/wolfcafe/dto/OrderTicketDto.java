@@ -0,0 +1,38 @@
+package wolfcafe.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/** where an order queued for placement has got to, for api calls */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderTicketDto {
+
+    /** what has happened to the queued order */
+    public enum Status {
+        /** still waiting to be placed */
+        PENDING,
+        /** the order was made */
+        PLACED,
+        /** there weren't enough ingredients for the order */
+        REJECTED,
+        /** the order couldn't be made for another reason */
+        FAILED
+    }
+
+    /** the ticket id */
+    private Long     id;
+
+    /** what has happened to the order */
+    private Status   status;
+
+    /** the saved order, null unless it was placed */
+    private OrderDto order;
+
+    /** why the order wasn't made, null unless it was rejected or failed */
+    private String   message;
+}
@@ -22,6 +22,12 @@ public class RecipeDto {
     /** Recipe ingredients */
     private List<Ingredient> ingredients;
 
+    /**
+     * servings the inventory has enough ingredients for, null if the recipe
+     * doesn't use up any ingredients
+     */
+    private Integer          servingsAvailable;
+
     /**
      * Default constructor for Recipe.
      */
@@ -124,4 +130,24 @@ public class RecipeDto {
     public List<Ingredient> getIngredients () {
         return ingredients;
     }
+
+    /**
+     * Gets how many servings the inventory has enough ingredients for.
+     *
+     * @return the servings, or null if the recipe doesn't use up any
+     *         ingredients
+     */
+    public Integer getServingsAvailable () {
+        return servingsAvailable;
+    }
+
+    /**
+     * Servings available to set.
+     *
+     * @param servingsAvailable
+     *            the servings to set
+     */
+    public void setServingsAvailable ( final Integer servingsAvailable ) {
+        this.servingsAvailable = servingsAvailable;
+    }
 }
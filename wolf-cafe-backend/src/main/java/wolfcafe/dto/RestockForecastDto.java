@@ -0,0 +1,32 @@
+package wolfcafe.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * how much of an ingredient orders are expected to use over the coming hours,
+ * and how much to restock to cover it, for api calls
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class RestockForecastDto {
+
+    /** Ingredient name */
+    private String  name;
+
+    /** amount left in the inventory */
+    private Integer amount;
+
+    /** amount orders are expected to use */
+    private Double  expected;
+
+    /**
+     * amount to add so the inventory covers the expected use plus a safety
+     * margin for how much use varies, 0 if there is already enough
+     */
+    private Integer recommended;
+}
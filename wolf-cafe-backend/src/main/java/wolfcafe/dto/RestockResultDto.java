@@ -0,0 +1,25 @@
+package wolfcafe.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/** the outcome of one line of a delivery manifest, for api calls */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class RestockResultDto {
+    /** position of the line in the manifest, not counting a csv header */
+    private Integer index;
+
+    /** name of the ingredient the line restocks */
+    private String  name;
+
+    /** http status the line would have got on its own */
+    private Integer status;
+
+    /** why the line wasn't applied, null if it was */
+    private String  message;
+}
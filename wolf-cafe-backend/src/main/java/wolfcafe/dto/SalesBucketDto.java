@@ -0,0 +1,41 @@
+package wolfcafe.dto;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/** sales of one recipe over one hour, day or week, for api calls */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SalesBucketDto {
+
+    /** how long each bucket of a report is */
+    public enum Granularity {
+        /** one bucket per hour */
+        HOUR,
+        /** one bucket per day */
+        DAY,
+        /** one bucket per week, starting on Monday */
+        WEEK
+    }
+
+    /** start of the bucket */
+    private LocalDateTime bucketStart;
+
+    /** name of the recipe */
+    private String        recipeName;
+
+    /** how many of the recipe were ordered */
+    private Long          units;
+
+    /** what those orders came to before tax */
+    private Long          revenue;
+
+    /** how many of the recipe were picked up */
+    private Long          pickedUpUnits;
+}
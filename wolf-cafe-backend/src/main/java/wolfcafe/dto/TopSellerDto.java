@@ -0,0 +1,36 @@
+package wolfcafe.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * how many of a recipe were sold, or of an ingredient used, over a recent
+ * window, for api calls. Counts are estimates that may be over by up to error
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TopSellerDto {
+
+    /** how far back a top sellers list looks */
+    public enum Window {
+        /** the last hour */
+        HOUR,
+        /** the last 24 hours */
+        DAY,
+        /** the last 7 days */
+        WEEK
+    }
+
+    /** name of the recipe or ingredient */
+    private String name;
+
+    /** estimated units sold, or amount used, in the window */
+    private Long   count;
+
+    /** most the count could be over by */
+    private Long   error;
+}
@@ -0,0 +1,69 @@
+package wolfcafe.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * One change to the amount of an inventory ingredient, and why it changed.
+ * Rows are only ever added, by InventoryLedger in the same transaction as the
+ * change itself, so the ledger always adds up to the amounts in the
+ * ingredient table.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table ( name = "inventory_movement", indexes = {
+        @Index ( name = "idx_inventory_movement_ingredient", columnList = "ingredient_id, id" ),
+        @Index ( name = "idx_inventory_movement_created_at", columnList = "created_at" ) } )
+public class InventoryMovement {
+
+    /** why an amount changed */
+    public static enum Type {
+        /** taken by an order */
+        ORDER,
+        /** a delivery was added */
+        RESTOCK,
+        /** set by hand, or the starting amount of a new ingredient */
+        ADJUSTMENT
+    }
+
+    /** row id, which also orders the movements */
+    @Id
+    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    private Long          id;
+
+    /** id of the ingredient that changed */
+    @Column ( nullable = false )
+    private Long          ingredientId;
+
+    /** why it changed */
+    @Enumerated ( EnumType.STRING )
+    @Column ( nullable = false, length = 16 )
+    private Type          type;
+
+    /** how much was added, negative if it was taken */
+    @Column ( nullable = false )
+    private Integer       delta;
+
+    /** id of the order behind the change, null if there isn't one */
+    private Long          referenceId;
+
+    /** when the change was made */
+    @Column ( nullable = false )
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,52 @@
+package wolfcafe.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * The amount of one inventory ingredient at the time a snapshot was taken.
+ * Every ingredient in a snapshot shares its time and the id of the last
+ * movement it includes, so the amounts at a later time are the snapshot plus
+ * only the movements after it.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table ( name = "inventory_snapshot", indexes = {
+        @Index ( name = "idx_inventory_snapshot_taken_at", columnList = "taken_at" ) } )
+public class InventorySnapshot {
+
+    /** row id */
+    @Id
+    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    private Long          id;
+
+    /** when the snapshot was taken */
+    @Column ( nullable = false )
+    private LocalDateTime takenAt;
+
+    /** id of the last movement included in the snapshot, 0 if there was none */
+    @Column ( nullable = false )
+    private Long          lastMovementId;
+
+    /** id of the ingredient */
+    @Column ( nullable = false )
+    private Long          ingredientId;
+
+    /** amount of the ingredient */
+    @Column ( nullable = false )
+    private Integer       amount;
+}
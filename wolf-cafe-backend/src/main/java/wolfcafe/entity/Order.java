@@ -8,6 +8,9 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
@@ -21,7 +24,8 @@ import lombok.Setter;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table ( name = "orders" )
+@Table ( name = "orders", indexes = { @Index ( name = "idx_orders_fulfilled_id", columnList = "fulfilled, id" ),
+        @Index ( name = "idx_orders_user_id", columnList = "user_id, id" ) } )
 public class Order {
     /** Order id */
     @Id
@@ -35,4 +39,25 @@ public class Order {
     @OneToMany ( cascade = CascadeType.ALL, fetch = FetchType.EAGER )
     private List<MultiRecipe> recipes;
 
+    /** the user who made the order */
+    @ManyToOne ( fetch = FetchType.LAZY )
+    @JoinColumn ( name = "user_id" )
+    private User              owner;
+
+    /**
+     * Creates an order that doesn't belong to a user yet.
+     *
+     * @param id
+     *            order id
+     * @param fulfilled
+     *            whether or not the order was fulfilled
+     * @param recipes
+     *            recipes with amounts
+     */
+    public Order ( final Long id, final Boolean fulfilled, final List<MultiRecipe> recipes ) {
+        this.id = id;
+        this.fulfilled = fulfilled;
+        this.recipes = recipes;
+    }
+
 }
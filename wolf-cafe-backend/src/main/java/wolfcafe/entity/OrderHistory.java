@@ -1,8 +1,23 @@
 package wolfcafe.entity;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.hibernate.annotations.BatchSize;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.OneToMany;
+import jakarta.persistence.OrderBy;
+import jakarta.persistence.PrePersist;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -15,7 +30,10 @@ import lombok.Setter;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table ( name = "order_history" )
+@Table ( name = "order_history", indexes = {
+        @Index ( name = "idx_order_history_username_picked_up", columnList = "username, picked_up" ),
+        @Index ( name = "idx_order_history_picked_up", columnList = "picked_up, id" ),
+        @Index ( name = "idx_order_history_created_at", columnList = "created_at, id" ) } )
 public class OrderHistory {
 
     /** Order id */
@@ -32,14 +50,17 @@ public class OrderHistory {
 
     /**
      * String representation of recipes in the order and the amount Format:
-     * "Black Coffee: 3, Ham Wrap: 1"
+     * "Black Coffee: 3, Ham Wrap: 1". Only stored for history recorded before
+     * lines were, newer history builds it from its lines when asked.
      */
     @Column ( name = "recipes_in_order" )
     private String  recipesInOrder;
 
     /**
      * String representation of ingredients in the order that are used and the
-     * amount Format: "Coffee Beans: 14, Ham: 6, Bread: 2"
+     * amount Format: "Coffee Beans: 14, Ham: 6, Bread: 2". Only stored for
+     * history recorded before ingredient rows were, newer history builds it
+     * from its ingredients when asked.
      */
     @Column ( name = "ingredients_used" )
     private String  ingredientsUsed;
@@ -56,4 +77,93 @@ public class OrderHistory {
     @Column ( name = "username" )
     private String  username;
 
+    /**
+     * when the order was recorded. Null for history recorded before this was
+     * kept
+     */
+    @Column ( name = "created_at", updatable = false )
+    private LocalDateTime createdAt;
+
+    /** the recipes in the order, one row each */
+    @JsonIgnore
+    @OneToMany ( mappedBy = "orderHistory", cascade = CascadeType.ALL, orphanRemoval = true )
+    @OrderBy ( "id" )
+    @BatchSize ( size = 50 )
+    private List<OrderHistoryLine>       lines       = new ArrayList<OrderHistoryLine>();
+
+    /** the ingredients the order used, one row each */
+    @JsonIgnore
+    @OneToMany ( mappedBy = "orderHistory", cascade = CascadeType.ALL, orphanRemoval = true )
+    @BatchSize ( size = 50 )
+    private List<OrderHistoryIngredient> ingredients = new ArrayList<OrderHistoryIngredient>();
+
+    /**
+     * Creates an order history with its recipes and ingredients given as
+     * strings.
+     *
+     * @param id
+     *            order id
+     * @param pickedUp
+     *            whether the order was picked up
+     * @param recipesInOrder
+     *            recipes in the order and their amounts
+     * @param ingredientsUsed
+     *            ingredients the order used and their amounts
+     * @param total
+     *            total of the order
+     * @param username
+     *            user the order belongs to
+     */
+    public OrderHistory ( final Long id, final Boolean pickedUp, final String recipesInOrder,
+            final String ingredientsUsed, final Double total, final String username ) {
+        this.id = id;
+        this.pickedUp = pickedUp;
+        this.recipesInOrder = recipesInOrder;
+        this.ingredientsUsed = ingredientsUsed;
+        this.total = total;
+        this.username = username;
+    }
+
+    /**
+     * Stamps the history with when it was recorded, unless it already was,
+     * as history written behind the order is.
+     */
+    @PrePersist
+    void stampCreatedAt () {
+        if ( null == createdAt ) {
+            createdAt = LocalDateTime.now();
+        }
+    }
+
+    /**
+     * Returns the recipes in the order and their amounts, built from the
+     * order's lines unless it was stored as a string.
+     *
+     * @return the recipes, like "Black Coffee: 3, Ham Wrap: 1"
+     */
+    public String getRecipesInOrder () {
+        if ( null != recipesInOrder || null == lines || lines.isEmpty() ) {
+            return recipesInOrder;
+        }
+        return lines.stream().map( line -> line.getRecipeName() + ": " + line.getQuantity() )
+                .collect( Collectors.joining( ", " ) );
+    }
+
+    /**
+     * Returns the ingredients the order used and their amounts, built from the
+     * order's ingredient rows unless it was stored as a string.
+     *
+     * @return the ingredients, like "Bread:2, Coffee Beans:14, Ham:6"
+     */
+    public String getIngredientsUsed () {
+        if ( null != ingredientsUsed || null == ingredients || ingredients.isEmpty() ) {
+            return ingredientsUsed;
+        }
+        // sorted here rather than by the database so the order doesn't
+        // depend on its collation
+        return ingredients.stream().sorted( Comparator.comparing( OrderHistoryIngredient::getIngredientName ) )
+                .map( ingredient -> ingredient.getIngredientName() + ":" + ingredient.getQuantity() )
+                .collect( Collectors.joining( ", " ) );
+    }
+
 }
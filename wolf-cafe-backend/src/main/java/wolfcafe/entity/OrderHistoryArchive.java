@@ -0,0 +1,66 @@
+package wolfcafe.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Picked up order history that has been moved out of order_history once it
+ * got old enough. Only picked up orders are archived, so there is no picked
+ * up flag, and the recipes and ingredients are kept as strings rather than
+ * rows so the table stands alone. The table can be range partitioned on
+ * created_at, see db/order_history_archive_partitions.sql.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table ( name = "order_history_archive", indexes = {
+        @Index ( name = "idx_order_history_archive_username", columnList = "username, id" ),
+        @Index ( name = "idx_order_history_archive_created_at", columnList = "created_at, id" ) } )
+public class OrderHistoryArchive {
+
+    /**
+     * stands in for when history recorded before times were kept was created,
+     * since the partitioning column can't be null
+     */
+    public static final LocalDateTime UNKNOWN_TIME = LocalDateTime.of( 1970, 1, 1, 0, 0 );
+
+    /** Order id */
+    @Id
+    @Column ( name = "id" )
+    private Long          id;
+
+    /** recipes in the order and their amounts, like "Black Coffee: 3" */
+    @Column ( name = "recipes_in_order", columnDefinition = "TEXT" )
+    private String        recipesInOrder;
+
+    /** ingredients the order used and their amounts, like "Coffee Beans:14" */
+    @Column ( name = "ingredients_used", columnDefinition = "TEXT" )
+    private String        ingredientsUsed;
+
+    /** total of the order */
+    @Column ( name = "total" )
+    private Double        total;
+
+    /** username of the user the order belongs to */
+    @Column ( name = "username" )
+    private String        username;
+
+    /** when the order was recorded, or UNKNOWN_TIME for older history */
+    @Column ( name = "created_at", nullable = false )
+    private LocalDateTime createdAt;
+
+    /** when the order was archived */
+    @Column ( name = "archived_at", nullable = false )
+    private LocalDateTime archivedAt;
+}
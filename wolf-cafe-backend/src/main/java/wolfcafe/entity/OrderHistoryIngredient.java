@@ -0,0 +1,69 @@
+package wolfcafe.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * The total amount of one ingredient an order used, across all of its
+ * recipes. The ingredient id is kept as a plain value, not a relationship, so
+ * history outlives ingredients being deleted.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table ( name = "order_history_ingredient" )
+public class OrderHistoryIngredient {
+
+    /** row id, handed out in blocks so rows are inserted in a batch */
+    @Id
+    @GeneratedValue ( strategy = GenerationType.SEQUENCE, generator = "order_history_ingredient_seq" )
+    @SequenceGenerator ( name = "order_history_ingredient_seq", sequenceName = "order_history_ingredient_seq",
+            allocationSize = 50 )
+    private Long         id;
+
+    /** the order history the ingredient belongs to */
+    @ManyToOne ( fetch = FetchType.LAZY )
+    @JoinColumn ( name = "order_history_id", nullable = false )
+    private OrderHistory orderHistory;
+
+    /** id of the inventory ingredient, null if it isn't in the inventory */
+    private Long         ingredientId;
+
+    /** name of the ingredient */
+    private String       ingredientName;
+
+    /** total amount of the ingredient the order used */
+    private Integer      quantity;
+
+    /**
+     * Creates an ingredient of an order's history.
+     *
+     * @param orderHistory
+     *            the order history the ingredient belongs to
+     * @param ingredientId
+     *            id of the inventory ingredient, null if it isn't in the
+     *            inventory
+     * @param ingredientName
+     *            name of the ingredient
+     * @param quantity
+     *            total amount used
+     */
+    public OrderHistoryIngredient ( final OrderHistory orderHistory, final Long ingredientId,
+            final String ingredientName, final Integer quantity ) {
+        this.orderHistory = orderHistory;
+        this.ingredientId = ingredientId;
+        this.ingredientName = ingredientName;
+        this.quantity = quantity;
+    }
+}
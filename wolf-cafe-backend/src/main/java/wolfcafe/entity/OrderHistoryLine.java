@@ -0,0 +1,74 @@
+package wolfcafe.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * One recipe of an order in its history, with how many were ordered and what
+ * each cost. The recipe id is kept as a plain value, not a relationship, so
+ * history outlives recipes being changed or deleted.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table ( name = "order_history_line" )
+public class OrderHistoryLine {
+
+    /** line id, handed out in blocks so lines are inserted in a batch */
+    @Id
+    @GeneratedValue ( strategy = GenerationType.SEQUENCE, generator = "order_history_line_seq" )
+    @SequenceGenerator ( name = "order_history_line_seq", sequenceName = "order_history_line_seq",
+            allocationSize = 50 )
+    private Long         id;
+
+    /** the order history the line belongs to */
+    @ManyToOne ( fetch = FetchType.LAZY )
+    @JoinColumn ( name = "order_history_id", nullable = false )
+    private OrderHistory orderHistory;
+
+    /** id of the recipe, null if it wasn't on the menu */
+    private Long         recipeId;
+
+    /** name of the recipe */
+    private String       recipeName;
+
+    /** how many of the recipe were ordered */
+    private Integer      quantity;
+
+    /** price of one of the recipe */
+    private Integer      unitPrice;
+
+    /**
+     * Creates a line of an order's history.
+     *
+     * @param orderHistory
+     *            the order history the line belongs to
+     * @param recipeId
+     *            id of the recipe, null if it isn't on the menu
+     * @param recipeName
+     *            name of the recipe
+     * @param quantity
+     *            how many were ordered
+     * @param unitPrice
+     *            price of one
+     */
+    public OrderHistoryLine ( final OrderHistory orderHistory, final Long recipeId, final String recipeName,
+            final Integer quantity, final Integer unitPrice ) {
+        this.orderHistory = orderHistory;
+        this.recipeId = recipeId;
+        this.recipeName = recipeName;
+        this.quantity = quantity;
+        this.unitPrice = unitPrice;
+    }
+}
@@ -0,0 +1,34 @@
+package wolfcafe.entity;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import wolfcafe.service.impl.MenuCache;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+/**
+ * Drops the cached menu whenever a recipe is saved or deleted, however it was
+ * changed.
+ */
+public class RecipeListener {
+
+    /** the cached menu */
+    @Autowired
+    private MenuCache menuCache;
+
+    /**
+     * Drops the cached menu after a recipe change.
+     *
+     * @param recipe
+     *            the changed recipe
+     */
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void recipeChanged ( final Recipe recipe ) {
+        if ( null != menuCache ) {
+            menuCache.invalidate();
+        }
+    }
+}
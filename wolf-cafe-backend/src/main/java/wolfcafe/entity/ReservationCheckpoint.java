@@ -0,0 +1,33 @@
+package wolfcafe.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Records how far the inventory reservation journal has been written back to
+ * the ingredient table. Singleton row, saved in the same transaction as the
+ * flushed amounts so a replay after a crash never applies a reservation twice.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table ( name = "reservation_checkpoint" )
+public class ReservationCheckpoint {
+
+    /** id of the singleton checkpoint row */
+    public static final Long SINGLETON_ID = 1L;
+
+    /** the id of the checkpoint. should be singleton */
+    @Id
+    private Long id;
+
+    /** sequence number of the last journal entry applied to the database */
+    private Long lastSequence;
+}
@@ -0,0 +1,58 @@
+package wolfcafe.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Sales of one recipe in one hour, kept up to date as orders are recorded and
+ * picked up so reports add up a few of these instead of reading every order.
+ * Rows are only ever added to by the upsert in ReportServiceImpl.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table ( name = "sales_rollup", uniqueConstraints = @UniqueConstraint ( name = "uk_sales_rollup_bucket_recipe",
+        columnNames = { "bucket_start", "recipe_name" } ) )
+public class SalesRollup {
+
+    /** row id */
+    @Id
+    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    private Long          id;
+
+    /** start of the hour the row covers */
+    @Column ( nullable = false )
+    private LocalDateTime bucketStart;
+
+    /** name of the recipe */
+    @Column ( nullable = false )
+    private String        recipeName;
+
+    /** id of the recipe, null if it wasn't on the menu */
+    private Long          recipeId;
+
+    /** how many of the recipe were ordered */
+    @Column ( nullable = false )
+    private Long          units;
+
+    /** what those orders came to before tax */
+    @Column ( nullable = false )
+    private Long          revenue;
+
+    /** how many of the recipe were picked up */
+    @Column ( nullable = false )
+    private Long          pickedUpUnits;
+}
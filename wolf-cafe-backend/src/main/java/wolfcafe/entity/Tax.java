@@ -1,6 +1,7 @@
 package wolfcafe.entity;
 
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
@@ -16,6 +17,7 @@ import lombok.Setter;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
+@EntityListeners ( TaxListener.class )
 @Table ( name = "Tax" )
 public class Tax {
     /** the id of the tax. should be singleton */
@@ -0,0 +1,34 @@
+package wolfcafe.entity;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import wolfcafe.service.impl.TaxRateCache;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+/**
+ * Drops the cached tax rate whenever the tax is saved or deleted, however it
+ * was changed.
+ */
+public class TaxListener {
+
+    /** the cached tax rate */
+    @Autowired
+    private TaxRateCache taxRateCache;
+
+    /**
+     * Drops the cached tax rate after a tax change.
+     *
+     * @param tax
+     *            the changed tax
+     */
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void taxChanged ( final Tax tax ) {
+        if ( null != taxRateCache ) {
+            taxRateCache.invalidate();
+        }
+    }
+}
@@ -14,6 +14,7 @@ import jakarta.persistence.JoinColumn;
 import jakarta.persistence.JoinTable;
 import jakarta.persistence.ManyToMany;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.OrderBy;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -52,8 +53,12 @@ public class User {
             inverseJoinColumns = @JoinColumn ( name = "role_id", referencedColumnName = "id" ) )
     private Collection<Role> roles;
 
-    /** the orders that the user has in */
-    @OneToMany ( fetch = FetchType.EAGER, cascade = CascadeType.ALL )
+    /**
+     * the orders that the user has in. Loaded only when asked for; order
+     * lookups for a user go through the owner column on the order instead.
+     */
+    @OneToMany ( mappedBy = "owner", fetch = FetchType.LAZY, cascade = CascadeType.ALL )
+    @OrderBy ( "id" )
     private List<Order>      orders;
 
 }
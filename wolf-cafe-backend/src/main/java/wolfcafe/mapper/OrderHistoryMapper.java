@@ -1,7 +1,10 @@
 package wolfcafe.mapper;
 
+import java.time.LocalDateTime;
+
 import wolfcafe.dto.OrderHistoryDto;
 import wolfcafe.entity.OrderHistory;
+import wolfcafe.entity.OrderHistoryArchive;
 
 /**
  * maps between an Order and OrderDto be warned: list parts are shallow copies
@@ -34,4 +37,40 @@ public class OrderHistoryMapper {
                 orderHistoryDto.getUsername() );
         return orderHistory;
     }
+
+    /**
+     * Converts a picked up OrderHistory entity to an OrderHistoryArchive
+     * entity, flattening its recipes and ingredients to strings.
+     *
+     * @param orderHistory
+     *            OrderHistory to convert
+     * @param archivedAt
+     *            when it is being archived
+     * @return OrderHistoryArchive entity
+     */
+    public static OrderHistoryArchive mapToOrderHistoryArchive ( final OrderHistory orderHistory,
+            final LocalDateTime archivedAt ) {
+        return new OrderHistoryArchive( orderHistory.getId(), orderHistory.getRecipesInOrder(),
+                orderHistory.getIngredientsUsed(), orderHistory.getTotal(), orderHistory.getUsername(),
+                null == orderHistory.getCreatedAt() ? OrderHistoryArchive.UNKNOWN_TIME : orderHistory.getCreatedAt(),
+                archivedAt );
+    }
+
+    /**
+     * Converts an OrderHistoryArchive entity back to an OrderHistory entity,
+     * so archived orders can be returned alongside current ones. The result
+     * isn't saved.
+     *
+     * @param archive
+     *            OrderHistoryArchive to convert
+     * @return OrderHistory entity
+     */
+    public static OrderHistory mapToOrderHistory ( final OrderHistoryArchive archive ) {
+        final OrderHistory orderHistory = new OrderHistory( archive.getId(), true, archive.getRecipesInOrder(),
+                archive.getIngredientsUsed(), archive.getTotal(), archive.getUsername() );
+        if ( !OrderHistoryArchive.UNKNOWN_TIME.equals( archive.getCreatedAt() ) ) {
+            orderHistory.setCreatedAt( archive.getCreatedAt() );
+        }
+        return orderHistory;
+    }
 }
@@ -6,8 +6,13 @@ package wolfcafe.repository;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import wolfcafe.entity.Ingredient;
+import jakarta.persistence.LockModeType;
 
 /**
  * IngredientRepository for working with the DB through the 
@@ -26,4 +31,34 @@ public interface IngredientRepository extends JpaRepository<Ingredient, Long> {
      */
     Optional<Ingredient> findByName(String name);
 
+    /**
+     * Finds the ingredient with the given id and locks it until the
+     * transaction ends, so its amount can't change between being read and
+     * being written back.
+     *
+     * @param id
+     *            id of the ingredient
+     * @return the ingredient, empty if it doesn't exist
+     */
+    @Lock ( LockModeType.PESSIMISTIC_WRITE )
+    @Query ( "SELECT i FROM Ingredient i WHERE i.id = :id" )
+    Optional<Ingredient> findByIdForUpdate ( @Param ( "id" ) Long id );
+
+    /**
+     * Removes the given amount from the ingredient with the given id, but only
+     * if there is at least that much of it left. The check and the subtraction
+     * happen in a single statement, so two orders racing for the same
+     * ingredient can never both succeed against the same stock.
+     * 
+     * @param id
+     *            id of the ingredient to take from
+     * @param amount
+     *            amount to take
+     * @return number of rows updated, 0 if there was not enough of the
+     *         ingredient (or it does not exist)
+     */
+    @Modifying ( flushAutomatically = true, clearAutomatically = true )
+    @Query ( "UPDATE Ingredient i SET i.amount = i.amount - :amount WHERE i.id = :id AND i.amount >= :amount" )
+    int decrementAmount ( @Param ( "id" ) Long id, @Param ( "amount" ) Integer amount );
+
 }
@@ -0,0 +1,91 @@
+package wolfcafe.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import wolfcafe.entity.InventoryMovement;
+
+/**
+ * InventoryMovementRepository for working with the DB through the
+ * JpaRepository.
+ */
+public interface InventoryMovementRepository extends JpaRepository<InventoryMovement, Long> {
+
+    /**
+     * Finds the movements after an id, oldest first.
+     *
+     * @param after
+     *            only movements with a larger id are found
+     * @param limit
+     *            most movements to find
+     * @return the movements, in id order
+     */
+    List<InventoryMovement> findByIdGreaterThanOrderById ( Long after, Limit limit );
+
+    /**
+     * Finds one ingredient's movements after an id, oldest first.
+     *
+     * @param ingredientId
+     *            id of the ingredient
+     * @param after
+     *            only movements with a larger id are found
+     * @param limit
+     *            most movements to find
+     * @return the movements, in id order
+     */
+    List<InventoryMovement> findByIngredientIdAndIdGreaterThanOrderById ( Long ingredientId, Long after,
+            Limit limit );
+
+    /**
+     * Returns the id of the newest movement.
+     *
+     * @return the largest id, 0 if there are no movements
+     */
+    @Query ( "SELECT COALESCE(MAX(m.id), 0) FROM InventoryMovement m" )
+    long findLastId ();
+
+    /**
+     * Adds up each ingredient's movements after an id made up to a time, to
+     * bring a snapshot forward to that time.
+     *
+     * @param after
+     *            only movements with a larger id are added
+     * @param at
+     *            only movements made at or before this are added
+     * @return pairs of ingredient id and the summed delta
+     */
+    @Query ( "SELECT m.ingredientId, SUM(m.delta) FROM InventoryMovement m WHERE m.id > :after AND m.createdAt <= :at "
+            + "GROUP BY m.ingredientId" )
+    List<Object[]> sumDeltasAfter ( @Param ( "after" ) Long after, @Param ( "at" ) LocalDateTime at );
+
+    /**
+     * Adds up each ingredient's movements made after a time, to take the
+     * current amounts back to that time.
+     *
+     * @param at
+     *            only movements made after this are added
+     * @return pairs of ingredient id and the summed delta
+     */
+    @Query ( "SELECT m.ingredientId, SUM(m.delta) FROM InventoryMovement m WHERE m.createdAt > :at "
+            + "GROUP BY m.ingredientId" )
+    List<Object[]> sumDeltasSince ( @Param ( "at" ) LocalDateTime at );
+
+    /**
+     * Streams the movements of one type made after a time, oldest first.
+     *
+     * @param type
+     *            the type of movement
+     * @param since
+     *            only movements made after this are streamed
+     * @return the movements, which must be closed and read in a transaction
+     */
+    @Query ( "SELECT m FROM InventoryMovement m WHERE m.type = :type AND m.createdAt > :since ORDER BY m.id" )
+    Stream<InventoryMovement> streamByTypeSince ( @Param ( "type" ) InventoryMovement.Type type,
+            @Param ( "since" ) LocalDateTime since );
+}
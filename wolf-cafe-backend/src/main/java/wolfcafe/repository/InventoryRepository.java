@@ -1,11 +1,53 @@
 package wolfcafe.repository;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import wolfcafe.entity.Ingredient;
 import wolfcafe.entity.Inventory;
+import jakarta.persistence.LockModeType;
 
 /**
  * InventoryRepository for working with the DB through the JpaRepository.
  */
 public interface InventoryRepository extends JpaRepository<Inventory, Long> {
+
+    /**
+     * Finds the ingredients held by the inventory that have one of the given
+     * names. Recipes and orders keep their own copies of ingredients in the
+     * same table, so this only looks at the ones the inventory owns.
+     *
+     * @param names
+     *            names of the ingredients to find
+     * @return the inventory's ingredients with those names
+     */
+    @Query ( "SELECT i FROM Inventory inv JOIN inv.ingredients i WHERE i.name IN :names" )
+    List<Ingredient> findInventoryIngredientsByNameIn ( @Param ( "names" ) Collection<String> names );
+
+    /**
+     * Finds every ingredient the inventory holds and share locks them, in id
+     * order like orders take them, so nothing can change their amounts until
+     * the transaction ends.
+     *
+     * @return the inventory's ingredients
+     */
+    @Lock ( LockModeType.PESSIMISTIC_READ )
+    @Query ( "SELECT i FROM Inventory inv JOIN inv.ingredients i ORDER BY i.id" )
+    List<Ingredient> lockInventoryIngredients ();
+
+    /**
+     * Returns whether the inventory holds the ingredient with the given id,
+     * rather than it being a recipe's or order's copy.
+     *
+     * @param id
+     *            id of the ingredient
+     * @return true if the inventory holds it
+     */
+    @Query ( "SELECT COUNT(i) > 0 FROM Inventory inv JOIN inv.ingredients i WHERE i.id = :id" )
+    boolean holdsIngredient ( @Param ( "id" ) Long id );
 }
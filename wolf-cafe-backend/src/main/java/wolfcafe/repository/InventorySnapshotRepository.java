@@ -0,0 +1,41 @@
+package wolfcafe.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import wolfcafe.entity.InventorySnapshot;
+
+/**
+ * InventorySnapshotRepository for working with the DB through the
+ * JpaRepository.
+ */
+public interface InventorySnapshotRepository extends JpaRepository<InventorySnapshot, Long> {
+
+    /**
+     * Finds a row of the newest snapshot taken at or before a time.
+     *
+     * @param at
+     *            the time
+     * @return a row of that snapshot, empty if none was taken by then
+     */
+    Optional<InventorySnapshot> findFirstByTakenAtLessThanEqualOrderByTakenAtDesc ( LocalDateTime at );
+
+    /**
+     * Finds a row of the newest snapshot.
+     *
+     * @return a row of the newest snapshot, empty if none has been taken
+     */
+    Optional<InventorySnapshot> findFirstByOrderByIdDesc ();
+
+    /**
+     * Finds every row of the snapshot that includes movements up to an id.
+     *
+     * @param lastMovementId
+     *            id of the last movement in the snapshot
+     * @return the snapshot's rows
+     */
+    List<InventorySnapshot> findByLastMovementId ( Long lastMovementId );
+}
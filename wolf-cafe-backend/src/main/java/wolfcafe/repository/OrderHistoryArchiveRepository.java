@@ -0,0 +1,95 @@
+package wolfcafe.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import wolfcafe.entity.OrderHistoryArchive;
+import jakarta.persistence.QueryHint;
+
+/**
+ * OrderHistoryArchiveRepository for working with the DB through the
+ * JpaRepository. Every archived order was picked up, so unlike
+ * OrderHistoryRepository nothing filters on it.
+ */
+public interface OrderHistoryArchiveRepository extends JpaRepository<OrderHistoryArchive, Long> {
+
+    /**
+     * Finds every archived order of a user.
+     *
+     * @param username
+     *            the user's username
+     * @param sort
+     *            order to return them in
+     * @return the user's archived orders
+     */
+    List<OrderHistoryArchive> findByUsername ( String username, Sort sort );
+
+    /**
+     * Finds a page of the archived orders of a user.
+     *
+     * @param username
+     *            the user's username
+     * @param pageable
+     *            which page, how big, and how it is sorted
+     * @return the page of the user's archived orders
+     */
+    Page<OrderHistoryArchive> findByUsername ( String username, Pageable pageable );
+
+    /**
+     * Counts the archived orders of a user.
+     *
+     * @param username
+     *            the user's username
+     * @return how many of the user's orders are archived
+     */
+    long countByUsername ( String username );
+
+    /**
+     * Finds the archived orders of a user with ids below a cursor, newest
+     * first.
+     *
+     * @param username
+     *            the user's username
+     * @param before
+     *            only orders with a smaller id are found
+     * @param limit
+     *            most orders to find
+     * @return the orders, in descending id order
+     */
+    List<OrderHistoryArchive> findByUsernameAndIdLessThanOrderByIdDesc ( String username, Long before, Limit limit );
+
+    /**
+     * Streams the archived history recorded in a time range for exporting,
+     * one row per order, in order id order. Archived recipes are kept as a
+     * string, so rows have no recipe line of their own. Streamed like
+     * OrderHistoryRepository.streamExportRows, so the stream has to be read,
+     * and closed, inside a transaction.
+     *
+     * @param from
+     *            only history recorded at or after this, or from the start if
+     *            null
+     * @param to
+     *            only history recorded before this, or to the end if null
+     * @return a row for each archived order
+     */
+    @QueryHints ( { @QueryHint ( name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE ),
+        @QueryHint ( name = HibernateHints.HINT_READ_ONLY, value = "true" ) } )
+    @Query ( "SELECT a.id AS id, a.username AS username, a.createdAt AS createdAt, true AS pickedUp, "
+            + "a.total AS total, a.recipesInOrder AS recipesInOrder, CAST(NULL AS String) AS recipeName, "
+            + "CAST(NULL AS Integer) AS quantity FROM OrderHistoryArchive a "
+            + "WHERE (:from IS NULL OR a.createdAt >= :from) AND (:to IS NULL OR a.createdAt < :to) "
+            + "ORDER BY a.id" )
+    Stream<OrderHistoryExportRow> streamExportRows ( @Param ( "from" ) LocalDateTime from,
+            @Param ( "to" ) LocalDateTime to );
+}
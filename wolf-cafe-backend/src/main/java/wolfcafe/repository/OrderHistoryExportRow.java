@@ -0,0 +1,67 @@
+package wolfcafe.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Projection of one line of an order's history for exporting, holding the
+ * order's columns alongside one of its recipes. An order has a row for each
+ * of its recipes, or a single row with no recipe if it has no lines.
+ */
+public interface OrderHistoryExportRow {
+
+    /**
+     * Returns the order's id.
+     *
+     * @return the id
+     */
+    Long getId ();
+
+    /**
+     * Returns the username of the user the order belongs to.
+     *
+     * @return the username
+     */
+    String getUsername ();
+
+    /**
+     * Returns when the order was recorded.
+     *
+     * @return when recorded, or null for older history
+     */
+    LocalDateTime getCreatedAt ();
+
+    /**
+     * Returns whether the order was picked up.
+     *
+     * @return true if picked up
+     */
+    Boolean getPickedUp ();
+
+    /**
+     * Returns the order's total.
+     *
+     * @return the total
+     */
+    Double getTotal ();
+
+    /**
+     * Returns the recipes as stored for history recorded before lines were.
+     *
+     * @return the stored recipes, or null if the order has lines
+     */
+    String getRecipesInOrder ();
+
+    /**
+     * Returns the name of the recipe on this line.
+     *
+     * @return the recipe name, or null if the order has no lines
+     */
+    String getRecipeName ();
+
+    /**
+     * Returns how many of the recipe were ordered.
+     *
+     * @return the quantity, or null if the order has no lines
+     */
+    Integer getQuantity ();
+}
@@ -0,0 +1,32 @@
+package wolfcafe.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Projection of one recipe or ingredient of a recorded order, with when the
+ * order was recorded.
+ */
+public interface OrderHistoryItemRow {
+
+    /**
+     * Returns when the order was recorded.
+     *
+     * @return when recorded
+     */
+    LocalDateTime getCreatedAt ();
+
+    /**
+     * Returns the name of the recipe or ingredient.
+     *
+     * @return the name
+     */
+    String getName ();
+
+    /**
+     * Returns how many of the recipe were ordered, or how much of the
+     * ingredient was used.
+     *
+     * @return the quantity
+     */
+    Integer getQuantity ();
+}
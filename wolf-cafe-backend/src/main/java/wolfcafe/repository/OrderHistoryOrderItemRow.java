@@ -0,0 +1,16 @@
+package wolfcafe.repository;
+
+/**
+ * Projection of one recipe or ingredient of a recorded order, with the
+ * order's id as well, for reading history again without counting an order
+ * twice.
+ */
+public interface OrderHistoryOrderItemRow extends OrderHistoryItemRow {
+
+    /**
+     * Returns the order's id.
+     *
+     * @return the id
+     */
+    Long getOrderId ();
+}
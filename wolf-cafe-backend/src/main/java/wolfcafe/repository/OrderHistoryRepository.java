@@ -1,12 +1,177 @@
 package wolfcafe.repository;
 
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 import wolfcafe.entity.OrderHistory;
+import jakarta.persistence.QueryHint;
 
 /**
  * OrderRepository for working with DB through JpaRepository
  */
 public interface OrderHistoryRepository extends JpaRepository<OrderHistory, Long> {
 
+    /**
+     * Finds every order that has been picked up.
+     *
+     * @param sort
+     *            order to return them in
+     * @return the picked up orders
+     */
+    List<OrderHistory> findByPickedUpTrue ( Sort sort );
+
+    /**
+     * Finds a page of the orders that have been picked up.
+     *
+     * @param pageable
+     *            which page, how big, and how it is sorted
+     * @return the page of picked up orders
+     */
+    Page<OrderHistory> findByPickedUpTrue ( Pageable pageable );
+
+    /**
+     * Finds every order a user has picked up. Served by the (username,
+     * picked_up) index.
+     *
+     * @param username
+     *            the user's username
+     * @param sort
+     *            order to return them in
+     * @return the user's picked up orders
+     */
+    List<OrderHistory> findByUsernameAndPickedUpTrue ( String username, Sort sort );
+
+    /**
+     * Finds a page of the orders a user has picked up. Served by the
+     * (username, picked_up) index.
+     *
+     * @param username
+     *            the user's username
+     * @param pageable
+     *            which page, how big, and how it is sorted
+     * @return the page of the user's picked up orders
+     */
+    Page<OrderHistory> findByUsernameAndPickedUpTrue ( String username, Pageable pageable );
+
+    /**
+     * Finds the orders a user has picked up with ids below a cursor, newest
+     * first. Served by the (username, picked_up) index, which ends in the id.
+     *
+     * @param username
+     *            the user's username
+     * @param before
+     *            only orders with a smaller id are found
+     * @param limit
+     *            most orders to find
+     * @return the orders, in descending id order
+     */
+    List<OrderHistory> findByUsernameAndPickedUpTrueAndIdLessThanOrderByIdDesc ( String username, Long before,
+            Limit limit );
+
+    /**
+     * Streams the history recorded in a time range for exporting, one row per
+     * recipe of each order, in order id order. A fetch size of
+     * Integer.MIN_VALUE has MySQL send rows as they are read rather than
+     * buffering the whole result, and rows are projections so the persistence
+     * context doesn't grow either. The stream has to be read, and closed,
+     * inside a transaction, and nothing else can use the connection until it
+     * is.
+     *
+     * @param from
+     *            only history recorded at or after this, or from the start if
+     *            null
+     * @param to
+     *            only history recorded before this, or to the end if null
+     * @return a row for each recipe of each order
+     */
+    @QueryHints ( { @QueryHint ( name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE ),
+        @QueryHint ( name = HibernateHints.HINT_READ_ONLY, value = "true" ) } )
+    @Query ( "SELECT h.id AS id, h.username AS username, h.createdAt AS createdAt, h.pickedUp AS pickedUp, "
+            + "h.total AS total, h.recipesInOrder AS recipesInOrder, l.recipeName AS recipeName, "
+            + "l.quantity AS quantity FROM OrderHistory h LEFT JOIN h.lines l "
+            + "WHERE (:from IS NULL OR h.createdAt >= :from) AND (:to IS NULL OR h.createdAt < :to) "
+            + "ORDER BY h.id, l.id" )
+    Stream<OrderHistoryExportRow> streamExportRows ( @Param ( "from" ) LocalDateTime from,
+            @Param ( "to" ) LocalDateTime to );
+
+    /**
+     * Finds the ids of picked up orders old enough to archive. History
+     * recorded before times were kept counts as old enough.
+     *
+     * @param before
+     *            orders recorded before this are found
+     * @param limit
+     *            most ids to find
+     * @return the ids, in id order
+     */
+    @Query ( "SELECT h.id FROM OrderHistory h WHERE h.pickedUp = true "
+            + "AND (h.createdAt IS NULL OR h.createdAt < :before) ORDER BY h.id" )
+    List<Long> findArchivableIds ( @Param ( "before" ) LocalDateTime before, Limit limit );
+
+    /**
+     * Streams the recipes of every order recorded since a time, for rebuilding
+     * in-memory counts. Streamed like the export, so the stream has to be read
+     * inside a transaction.
+     *
+     * @param since
+     *            only orders recorded at or after this
+     * @return a row for each recipe of each order
+     */
+    @QueryHints ( { @QueryHint ( name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE ),
+        @QueryHint ( name = HibernateHints.HINT_READ_ONLY, value = "true" ) } )
+    @Query ( "SELECT h.createdAt AS createdAt, l.recipeName AS name, l.quantity AS quantity "
+            + "FROM OrderHistory h JOIN h.lines l WHERE h.createdAt >= :since" )
+    Stream<OrderHistoryItemRow> streamLinesSince ( @Param ( "since" ) LocalDateTime since );
+
+    /**
+     * Streams the ingredients used by every order recorded since a time, for
+     * rebuilding in-memory counts. Streamed like the export, so the stream has
+     * to be read inside a transaction.
+     *
+     * @param since
+     *            only orders recorded at or after this
+     * @return a row for each ingredient of each order
+     */
+    @QueryHints ( { @QueryHint ( name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE ),
+        @QueryHint ( name = HibernateHints.HINT_READ_ONLY, value = "true" ) } )
+    @Query ( "SELECT h.createdAt AS createdAt, i.ingredientName AS name, i.quantity AS quantity "
+            + "FROM OrderHistory h JOIN h.ingredients i WHERE h.createdAt >= :since" )
+    Stream<OrderHistoryItemRow> streamIngredientsSince ( @Param ( "since" ) LocalDateTime since );
+
+    /**
+     * Returns when the first order since a time was recorded.
+     *
+     * @param since
+     *            only orders recorded at or after this
+     * @return when the oldest of them was recorded, null if there are none
+     */
+    @Query ( "SELECT MIN(h.createdAt) FROM OrderHistory h WHERE h.createdAt >= :since" )
+    LocalDateTime findFirstCreatedAtSince ( @Param ( "since" ) LocalDateTime since );
+
+    /**
+     * Streams the ingredients used by every order recorded since a time, with
+     * each order's id, for bringing in-memory models up to date with the
+     * orders they haven't seen yet. Streamed like the export, so the stream
+     * has to be read inside a transaction.
+     *
+     * @param since
+     *            only orders recorded at or after this
+     * @return a row for each ingredient of each order
+     */
+    @QueryHints ( { @QueryHint ( name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE ),
+        @QueryHint ( name = HibernateHints.HINT_READ_ONLY, value = "true" ) } )
+    @Query ( "SELECT h.id AS orderId, h.createdAt AS createdAt, i.ingredientName AS name, i.quantity AS quantity "
+            + "FROM OrderHistory h JOIN h.ingredients i WHERE h.createdAt >= :since" )
+    Stream<OrderHistoryOrderItemRow> streamOrderIngredientsSince ( @Param ( "since" ) LocalDateTime since );
 }
@@ -1,6 +1,13 @@
 package wolfcafe.repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import wolfcafe.entity.Order;
 
@@ -9,4 +16,52 @@ import wolfcafe.entity.Order;
  */
 public interface OrderRepository extends JpaRepository<Order, Long> {
 
+    /**
+     * Lists the id and fulfilled state of the orders after the given id, in id
+     * order. Only those two columns are read, and paging is by the last id seen
+     * rather than an offset, so each page costs the same however many orders
+     * there are.
+     *
+     * @param after
+     *            only orders with a larger id are listed
+     * @param fulfilled
+     *            only orders in this state are listed, or every order if null
+     * @param limit
+     *            most orders to list
+     * @return the orders, in id order
+     */
+    @Query ( "SELECT o.id AS id, o.fulfilled AS fulfilled FROM Order o WHERE o.id > :after "
+            + "AND (:fulfilled IS NULL OR o.fulfilled = :fulfilled) ORDER BY o.id" )
+    List<OrderSummary> findSummaries ( @Param ( "after" ) Long after, @Param ( "fulfilled" ) Boolean fulfilled,
+            Limit limit );
+
+    /**
+     * Finds an order by its id, but only if it belongs to the given user.
+     *
+     * @param id
+     *            id of the order
+     * @param ownerId
+     *            id of the user the order has to belong to
+     * @return the order, or empty if the user has no order with that id
+     */
+    Optional<Order> findByIdAndOwnerId ( Long id, Long ownerId );
+
+    /**
+     * Lists a user's orders, in id order.
+     *
+     * @param ownerId
+     *            id of the user
+     * @return the user's orders
+     */
+    List<Order> findByOwnerIdOrderById ( Long ownerId );
+
+    /**
+     * Returns which of the given order ids are in the database.
+     *
+     * @param ids
+     *            ids of the orders
+     * @return the ids of the orders that exist
+     */
+    @Query ( "SELECT o.id FROM Order o WHERE o.id IN :ids" )
+    List<Long> findExistingIds ( @Param ( "ids" ) Collection<Long> ids );
 }
@@ -0,0 +1,22 @@
+package wolfcafe.repository;
+
+/**
+ * Projection of an order holding only what the order list shows, so listing
+ * orders doesn't load their recipes and ingredients.
+ */
+public interface OrderSummary {
+
+    /**
+     * Returns the order's id.
+     *
+     * @return the id
+     */
+    Long getId ();
+
+    /**
+     * Returns whether the order is fulfilled.
+     *
+     * @return true if fulfilled
+     */
+    Boolean getFulfilled ();
+}
@@ -0,0 +1,12 @@
+package wolfcafe.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import wolfcafe.entity.ReservationCheckpoint;
+
+/**
+ * ReservationCheckpointRepository for working with the DB through the
+ * JpaRepository.
+ */
+public interface ReservationCheckpointRepository extends JpaRepository<ReservationCheckpoint, Long> {
+}
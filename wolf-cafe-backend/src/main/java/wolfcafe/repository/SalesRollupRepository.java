@@ -0,0 +1,40 @@
+package wolfcafe.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import wolfcafe.entity.SalesRollup;
+
+/**
+ * SalesRollupRepository for working with the DB through the JpaRepository.
+ */
+public interface SalesRollupRepository extends JpaRepository<SalesRollup, Long> {
+
+    /**
+     * Finds the hourly rows in a time range.
+     *
+     * @param from
+     *            start of the range, inclusive
+     * @param to
+     *            end of the range, exclusive
+     * @return the rows, in time order
+     */
+    List<SalesRollup> findByBucketStartGreaterThanEqualAndBucketStartLessThanOrderByBucketStart ( LocalDateTime from,
+            LocalDateTime to );
+
+    /**
+     * Finds the hourly rows for one recipe in a time range.
+     *
+     * @param recipeName
+     *            name of the recipe
+     * @param from
+     *            start of the range, inclusive
+     * @param to
+     *            end of the range, exclusive
+     * @return the rows, in time order
+     */
+    List<SalesRollup> findByRecipeNameAndBucketStartGreaterThanEqualAndBucketStartLessThanOrderByBucketStart (
+            String recipeName, LocalDateTime from, LocalDateTime to );
+}
@@ -1,6 +1,8 @@
 package wolfcafe.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import wolfcafe.entity.User;
 
@@ -33,6 +35,15 @@ public interface UserRepository extends JpaRepository<User, Long> {
      */
     Optional<User> findByUsernameOrEmail(String username, String email);
 
+    /**
+     * Returns just the id of the user with the given username or email,
+     * without loading the user.
+     * @param username user's username or email
+     * @return id of the user or empty if there isn't one
+     */
+    @Query("SELECT u.id FROM User u WHERE u.username = :username OR u.email = :username")
+    Optional<Long> findIdByUsernameOrEmail(@Param("username") String username);
+
     /**
      * Returns true if a user exists with the given username.
      * @param username username to search
@@ -1,6 +1,12 @@
 package wolfcafe.service;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import wolfcafe.dto.IngredientDto;
 import wolfcafe.dto.InventoryDto;
+import wolfcafe.dto.RestockResultDto;
 import wolfcafe.entity.Ingredient;
 import wolfcafe.exception.ResourceNotFoundException;
 
@@ -51,6 +57,18 @@ public interface InventoryService {
      */
     InventoryDto updateInventory ( InventoryDto inventoryDto );
 
+    /**
+     * Adds a delivery to the inventory. The ingredients are looked up in one
+     * query and every amount is added in one batch. Lines that aren't valid
+     * are reported and left out, without stopping the rest from being
+     * applied. Lines for the same ingredient are added together.
+     *
+     * @param lines
+     *            name of each ingredient delivered and how much of it
+     * @return the result of each line, in the order given
+     */
+    List<RestockResultDto> restockIngredients ( List<IngredientDto> lines );
+
     /**
      * Returns true if the ingredient already exists in the inventory.
      *
@@ -73,4 +91,43 @@ public interface InventoryService {
      */
     boolean checkIngredient ( Ingredient recIngredient );
 
+    /**
+     * Takes the given amounts out of the inventory. Every ingredient is
+     * decremented with its own conditional update, so concurrent orders only
+     * contend on the ingredients they share. Either every amount is taken or,
+     * if any ingredient runs short, none are.
+     *
+     * @param demand
+     *            amount to take for each ingredient, keyed by ingredient name
+     * @throws IllegalArgumentException
+     *             if an ingredient isn't in the inventory or there isn't
+     *             enough of it
+     */
+    void deductIngredients ( Map<String, Integer> demand );
+
+    /**
+     * Takes the given amounts out of the inventory for an order, recording
+     * the order in the inventory ledger. Either every amount is taken or, if
+     * any ingredient runs short, none are.
+     *
+     * @param demand
+     *            amount to take for each ingredient, keyed by ingredient name
+     * @param orderId
+     *            id of the order taking them, or null if there isn't just one
+     * @throws IllegalArgumentException
+     *             if an ingredient isn't in the inventory or there isn't
+     *             enough of it
+     */
+    void deductIngredients ( Map<String, Integer> demand, Long orderId );
+
+    /**
+     * Returns how much of each of the named ingredients is in the inventory.
+     * Names that aren't in the inventory are left out.
+     *
+     * @param names
+     *            names of the ingredients to look up
+     * @return amount of each ingredient, keyed by name
+     */
+    Map<String, Integer> getIngredientAmounts ( Collection<String> names );
+
 }
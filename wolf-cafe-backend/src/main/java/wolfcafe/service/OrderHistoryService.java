@@ -2,6 +2,9 @@ package wolfcafe.service;
 
 import java.util.List;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
 import wolfcafe.dto.OrderDto;
 import wolfcafe.dto.OrderHistoryDto;
 import wolfcafe.entity.OrderHistory;
@@ -23,6 +26,18 @@ public interface OrderHistoryService {
      */
     OrderHistoryDto makeOrderHistory ( final String usernameOrEmail, final OrderDto orderDto );
 
+    /**
+     * Records the history of an order for a user that has already been looked
+     * up, so the user isn't fetched again
+     *
+     * @param username
+     *            the username of the user the order belongs to
+     * @param orderDto
+     *            the saved order to add to history
+     * @return the OrderHistoryDto for the order
+     */
+    OrderHistoryDto recordOrderHistory ( final String username, final OrderDto orderDto );
+
     /**
      * Method to update a order status so that it is recognizable as picked up
      *
@@ -41,6 +56,15 @@ public interface OrderHistoryService {
      */
     List<OrderHistory> getOrderHistory ();
 
+    /**
+     * Gets one page of the history of all picked up orders.
+     *
+     * @param pageable
+     *            which page, how big, and how it is sorted
+     * @return the page of picked up orders
+     */
+    Page<OrderHistory> getOrderHistory ( Pageable pageable );
+
     /**
      * Method that gets the history of all orders for a specified user. Since we
      * only considered picked-uped orders as apart of history this only returns
@@ -52,6 +76,33 @@ public interface OrderHistoryService {
      */
     List<OrderHistory> getUserHistory ( String username );
 
+    /**
+     * Gets one page of the picked up orders for a specified user.
+     *
+     * @param username
+     *            the username of user we want the orders of
+     * @param pageable
+     *            which page, how big, and how it is sorted
+     * @return the page of the user's picked up orders
+     */
+    Page<OrderHistory> getUserHistory ( String username, Pageable pageable );
+
+    /**
+     * Gets the picked up orders of a specified user with ids below a cursor,
+     * newest first, archived ones included. Each page starts where the last
+     * one ended, so it costs the same however deep it is.
+     *
+     * @param username
+     *            the username of user we want the orders of
+     * @param before
+     *            only orders with a smaller id are returned, or the newest if
+     *            null
+     * @param limit
+     *            most orders to return
+     * @return the orders, in descending id order
+     */
+    List<OrderHistory> getUserHistory ( String username, Long before, int limit );
+
     /**
      * Method that gets the history of an order by an id
      *
@@ -2,6 +2,7 @@ package wolfcafe.service;
 
 import java.util.List;
 
+import wolfcafe.dto.CheckoutDto;
 import wolfcafe.dto.OrderDto;
 import wolfcafe.exception.ResourceNotFoundException;
 import wolfcafe.exception.WolfCafeAPIException;
@@ -22,6 +23,65 @@ public interface OrderService {
      */
     OrderDto makeOrder ( final String username, final OrderDto orderDto );
 
+    /**
+     * makes an order and records its history in one transaction, so there is
+     * never an order without history
+     *
+     * @param username
+     *            the name of the person making the order
+     * @param orderDto
+     *            the order the person is trying to make, already validated
+     * @return the saved order and its history
+     * @throws ResourceNotFoundException
+     *             if the user does not exist
+     * @throws IllegalArgumentException
+     *             if there are not enough ingredients
+     */
+    CheckoutDto checkout ( final String username, final OrderDto orderDto );
+
+    /**
+     * makes several orders for one user in a single transaction, taking the
+     * combined ingredients out of the inventory at once. If partial is false
+     * either every order is made or, if there aren't enough ingredients for
+     * all of them, none are. If partial is true orders are accepted in the
+     * given order until the inventory runs short and the rest are skipped.
+     *
+     * @param username
+     *            the name of the person making the orders
+     * @param orderDtos
+     *            the orders the person is trying to make
+     * @param partial
+     *            whether to make the orders that fit when not all of them do
+     * @return the saved orders, in the same positions as the given orders,
+     *         with null for any order that was skipped
+     * @throws ResourceNotFoundException
+     *             if the user does not exist
+     * @throws IllegalArgumentException
+     *             if partial is false and there are not enough ingredients
+     */
+    List<OrderDto> makeOrders ( final String username, final List<OrderDto> orderDtos, final boolean partial );
+
+    /**
+     * makes orders for several users in a single transaction, taking the
+     * combined ingredients out of the inventory at once. Orders are accepted
+     * the same way as makeOrders for one user.
+     *
+     * @param usernames
+     *            the name of the person making each order
+     * @param orderDtos
+     *            the orders, in the same positions as the names
+     * @param partial
+     *            whether to make the orders that fit when not all of them do
+     * @return the saved orders, in the same positions as the given orders,
+     *         with null for any order that was skipped
+     * @throws ResourceNotFoundException
+     *             if any of the users does not exist
+     * @throws IllegalArgumentException
+     *             if partial is false and there are not enough ingredients
+     */
+    List<OrderDto> makeOrders ( final List<String> usernames, final List<OrderDto> orderDtos,
+            final boolean partial );
+
     /**
      * gets a list of order dtos in the system
      *
@@ -29,6 +89,21 @@ public interface OrderService {
      */
     List<OrderDto> getOrders ();
 
+    /**
+     * gets the id and fulfilled state of a page of orders, in id order,
+     * without loading their recipes
+     *
+     * @param after
+     *            only orders with a larger id are listed, so the last id of
+     *            one page gets the next
+     * @param fulfilled
+     *            only orders in this state are listed, or every order if null
+     * @param limit
+     *            most orders to list
+     * @return order dtos holding only id and fulfilled
+     */
+    List<OrderDto> getOrderSummaries ( Long after, Boolean fulfilled, int limit );
+
     /**
      * fulfills an order with the given id
      *
@@ -0,0 +1,71 @@
+package wolfcafe.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import wolfcafe.dto.SalesBucketDto;
+import wolfcafe.dto.TopSellerDto;
+import wolfcafe.entity.OrderHistory;
+
+/**
+ * Interface defining the sales reporting behaviors.
+ */
+public interface ReportService {
+
+    /**
+     * Adds an order's recipes to the sales for the hour the order was
+     * recorded in.
+     *
+     * @param orderHistory
+     *            history of the order, with its lines
+     */
+    void recordSale ( OrderHistory orderHistory );
+
+    /**
+     * Adds an order's recipes to the pickups for the current hour.
+     *
+     * @param orderHistory
+     *            history of the order, with its lines
+     */
+    void recordPickup ( OrderHistory orderHistory );
+
+    /**
+     * Reports sales by recipe over a time range.
+     *
+     * @param from
+     *            start of the range, inclusive
+     * @param to
+     *            end of the range, exclusive
+     * @param granularity
+     *            how long each bucket is
+     * @param recipeName
+     *            only report this recipe, or every recipe if null
+     * @return sales of each recipe in each bucket, in time then name order
+     */
+    List<SalesBucketDto> getSales ( LocalDateTime from, LocalDateTime to, SalesBucketDto.Granularity granularity,
+            String recipeName );
+
+    /**
+     * Returns the best selling recipes over a recent window, from live counts
+     * rather than history.
+     *
+     * @param window
+     *            the last hour, day or week
+     * @param limit
+     *            most recipes to return
+     * @return the recipes and estimated units sold, best selling first
+     */
+    List<TopSellerDto> getTopSellers ( TopSellerDto.Window window, int limit );
+
+    /**
+     * Returns the most used ingredients over a recent window, from live
+     * counts rather than history.
+     *
+     * @param window
+     *            the last hour, day or week
+     * @param limit
+     *            most ingredients to return
+     * @return the ingredients and estimated amounts used, most used first
+     */
+    List<TopSellerDto> getTopIngredients ( TopSellerDto.Window window, int limit );
+}
@@ -0,0 +1,427 @@
+package wolfcafe.service.impl;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import wolfcafe.dto.RestockForecastDto;
+import wolfcafe.entity.Ingredient;
+import wolfcafe.repository.OrderHistoryOrderItemRow;
+import wolfcafe.repository.OrderHistoryRepository;
+
+/**
+ * Forecasts how much of each ingredient orders will use over the coming hours,
+ * and so how much to restock, from the ingredients recorded in order history.
+ *
+ * Each ingredient has a seasonal model with a slot for every hour of the week.
+ * A slot holds an exponentially weighted mean and variance of the amount used
+ * in that hour, one observation a week, so Monday mornings are forecast from
+ * past Monday mornings and recent weeks count the most. The models are fitted
+ * over the last few weeks of history at startup, then brought up to date every
+ * night by reading only the orders recorded since a day before the last
+ * refresh and skipping the ones already fitted. History can be written after
+ * history with higher ids, so orders are told apart by id rather than picked
+ * up from the highest id seen. Ingredients are fitted in parallel on
+ * the fork/join pool, and the new models replace the old ones all at once, so
+ * forecasts never see half a refresh.
+ */
+@Component
+public class DemandForecaster {
+
+    private static final Logger               log          = LoggerFactory.getLogger( DemandForecaster.class );
+
+    /** hours in a week, one slot each */
+    private static final int                  SLOTS        = 7 * 24;
+
+    /** how far before the last refresh orders recorded late are still fitted */
+    private static final long                 LATE_DAYS    = 1;
+
+    /** reference to OrderHistoryRepository */
+    private final OrderHistoryRepository      orderHistoryRepository;
+
+    /** the inventory's ingredients, for the amounts left */
+    private final InventoryCache              inventoryCache;
+
+    /** used to read history in a read-only transaction */
+    private final TransactionTemplate         readOnly;
+
+    /** weeks of history fitted at startup */
+    private final int                         weeks;
+
+    /** weight of the newest week in each slot once it has enough weeks */
+    private final double                      smoothing;
+
+    /** standard deviations of safety stock added to the expected use */
+    private final double                      safetyZ;
+
+    /** the fitted models, keyed by ingredient name, replaced on each refresh */
+    private volatile Map<String, Model>       models       = Map.of();
+
+    /**
+     * when each order read so far was recorded, keyed by order id, kept until
+     * it's too old to be read again so no order is counted twice
+     */
+    private final Map<Long, LocalDateTime>    counted      = new HashMap<Long, LocalDateTime>();
+
+    /** start of the first hour fitted */
+    private LocalDateTime                     fittedFrom;
+
+    /** end of the last hour fitted */
+    private LocalDateTime                     fittedThrough;
+
+    /**
+     * amounts used in hours that aren't over yet, keyed by ingredient name
+     * then the start of the hour, fitted once they are
+     */
+    private final Map<String, Map<LocalDateTime, Long>> pending = new HashMap<String, Map<LocalDateTime, Long>>();
+
+    /**
+     * Creates the forecaster.
+     *
+     * @param orderHistoryRepository
+     *            reference to OrderHistoryRepository
+     * @param inventoryCache
+     *            the inventory's ingredients, for the amounts left
+     * @param transactionManager
+     *            used to read history in a read-only transaction
+     * @param weeks
+     *            weeks of history fitted at startup
+     * @param smoothing
+     *            weight of the newest week in each slot, between 0 and 1
+     * @param safetyZ
+     *            standard deviations of safety stock added to the expected use
+     */
+    public DemandForecaster ( final OrderHistoryRepository orderHistoryRepository,
+            final InventoryCache inventoryCache, final PlatformTransactionManager transactionManager,
+            @Value ( "${app.inventory.forecast.weeks:8}" ) final int weeks,
+            @Value ( "${app.inventory.forecast.smoothing:0.3}" ) final double smoothing,
+            @Value ( "${app.inventory.forecast.safety-z:1.65}" ) final double safetyZ ) {
+        this.orderHistoryRepository = orderHistoryRepository;
+        this.inventoryCache = inventoryCache;
+        this.readOnly = new TransactionTemplate( transactionManager );
+        this.readOnly.setReadOnly( true );
+        this.weeks = weeks;
+        this.smoothing = smoothing;
+        this.safetyZ = safetyZ;
+    }
+
+    /**
+     * Forecasts each inventory ingredient's use over the coming hours,
+     * starting with the current one.
+     *
+     * @param hours
+     *            how many hours to forecast, usually until the next delivery
+     * @return the forecast for each ingredient in the inventory, by name
+     */
+    public List<RestockForecastDto> forecast ( final int hours ) {
+        final Map<String, Model> fitted = models;
+        final LocalDateTime from = LocalDateTime.now().truncatedTo( ChronoUnit.HOURS );
+        final List<RestockForecastDto> forecasts = new ArrayList<RestockForecastDto>();
+        for ( final Ingredient ingredient : inventoryCache.get().values() ) {
+            final Model model = fitted.get( ingredient.getName() );
+            double expected = 0;
+            double variance = 0;
+            if ( null != model ) {
+                for ( int i = 0; i < hours; i++ ) {
+                    final int slot = slot( from.plusHours( i ) );
+                    expected += model.mean[slot];
+                    variance += model.variance[slot];
+                }
+            }
+            final long needed = (long) Math.ceil( expected + safetyZ * Math.sqrt( variance ) );
+            final int recommended = (int) Math.max( 0, Math.min( Integer.MAX_VALUE, needed - ingredient.getAmount() ) );
+            forecasts.add( new RestockForecastDto( ingredient.getName(), ingredient.getAmount(), expected,
+                    recommended ) );
+        }
+        forecasts.sort( Comparator.comparing( RestockForecastDto::getName ) );
+        return forecasts;
+    }
+
+    /**
+     * Refits the models from scratch over the last few weeks of history,
+     * starting from the first order recorded in them so a new cafe isn't
+     * forecast from weeks it wasn't open.
+     */
+    @EventListener ( ApplicationReadyEvent.class )
+    public synchronized void rebuild () {
+        final LocalDateTime midnight = LocalDate.now().atStartOfDay();
+        final LocalDateTime first = readOnly.execute(
+                status -> orderHistoryRepository.findFirstCreatedAtSince( midnight.minusWeeks( weeks ) ) );
+        models = Map.of();
+        pending.clear();
+        counted.clear();
+        fittedFrom = null == first || first.isAfter( midnight ) ? midnight : first.truncatedTo( ChronoUnit.HOURS );
+        fittedThrough = fittedFrom;
+        refresh( midnight );
+    }
+
+    /**
+     * Brings the models up to date every night with the day's orders.
+     */
+    @Scheduled ( cron = "${app.inventory.forecast.refresh-cron:0 30 0 * * *}" )
+    public void refresh () {
+        refresh( LocalDate.now().atStartOfDay() );
+    }
+
+    /**
+     * Brings the models up to date with the orders recorded since the last
+     * refresh. Every hour before until is fitted; orders in later hours wait
+     * for a refresh after their hour is over. Orders recorded late, in hours
+     * already fitted, are added to the weeks they belong to.
+     *
+     * @param until
+     *            fit the hours before this, rounded down to the hour
+     */
+    public synchronized void refresh ( final LocalDateTime until ) {
+        if ( null == fittedThrough ) {
+            rebuild();
+        }
+        final LocalDateTime end = until.truncatedTo( ChronoUnit.HOURS );
+        final LocalDateTime since = fittedThrough.minusDays( LATE_DAYS ).isAfter( fittedFrom )
+                ? fittedThrough.minusDays( LATE_DAYS ) : fittedFrom;
+        final Map<String, Map<LocalDateTime, Long>> late = new HashMap<String, Map<LocalDateTime, Long>>();
+        final long[] rows = new long[1];
+        // orders recorded before since are never read again
+        counted.values().removeIf( createdAt -> createdAt.isBefore( since ) );
+        final Map<Long, LocalDateTime> read = new HashMap<Long, LocalDateTime>();
+        readOnly.executeWithoutResult( status -> {
+            try ( Stream<OrderHistoryOrderItemRow> used = orderHistoryRepository
+                    .streamOrderIngredientsSince( since ) ) {
+                used.forEach( row -> {
+                    if ( counted.containsKey( row.getOrderId() ) ) {
+                        return;
+                    }
+                    read.put( row.getOrderId(), row.getCreatedAt() );
+                    final LocalDateTime hour = row.getCreatedAt().truncatedTo( ChronoUnit.HOURS );
+                    final Map<String, Map<LocalDateTime, Long>> into = hour.isBefore( fittedThrough ) ? late
+                            : pending;
+                    into.computeIfAbsent( row.getName(), name -> new HashMap<LocalDateTime, Long>() )
+                            .merge( hour, (long) row.getQuantity(), Long::sum );
+                    rows[0]++;
+                } );
+            }
+        } );
+        counted.putAll( read );
+
+        final LocalDateTime from = fittedThrough;
+        final LocalDateTime to = end.isAfter( from ) ? end : from;
+        final Set<String> names = new HashSet<String>( models.keySet() );
+        names.addAll( pending.keySet() );
+        names.addAll( late.keySet() );
+        final Map<String, Model> fitted = new ConcurrentHashMap<String, Model>();
+        ForkJoinPool.commonPool().invoke( new Fit( names.toArray( new String[0] ), 0, names.size(), models,
+                late, from, to, fitted ) );
+
+        for ( final Map<LocalDateTime, Long> hours : pending.values() ) {
+            hours.keySet().removeIf( hour -> hour.isBefore( to ) );
+        }
+        pending.values().removeIf( Map::isEmpty );
+        fittedThrough = to;
+        models = Map.copyOf( fitted );
+        log.info( "Demand forecasts for {} ingredients fitted through {} from {} new history rows", fitted.size(),
+                to, rows[0] );
+    }
+
+    /**
+     * Returns the slot of the week an hour falls in.
+     *
+     * @param hour
+     *            the hour
+     * @return the slot, Monday midnight first
+     */
+    private static int slot ( final LocalDateTime hour ) {
+        return ( hour.getDayOfWeek().getValue() - 1 ) * 24 + hour.getHour();
+    }
+
+    /**
+     * Fits a range of ingredients, splitting it in half until each half is a
+     * single ingredient.
+     */
+    private final class Fit extends RecursiveAction {
+
+        private static final long                                serialVersionUID = 1L;
+
+        /** names of the ingredients */
+        private final String[]                                   names;
+
+        /** first ingredient of the range */
+        private final int                                        start;
+
+        /** one past the last ingredient of the range */
+        private final int                                        stop;
+
+        /** the models before the refresh, never serialized */
+        private final transient Map<String, Model>               previous;
+
+        /** amounts used in hours already fitted, never serialized */
+        private final transient Map<String, Map<LocalDateTime, Long>> late;
+
+        /** start of the first hour to fit */
+        private final LocalDateTime                              from;
+
+        /** end of the last hour to fit */
+        private final LocalDateTime                              to;
+
+        /** where the fitted models are put, never serialized */
+        private final transient Map<String, Model>               fitted;
+
+        /**
+         * Creates the task.
+         *
+         * @param names
+         *            names of the ingredients
+         * @param start
+         *            first ingredient of the range
+         * @param stop
+         *            one past the last ingredient of the range
+         * @param previous
+         *            the models before the refresh
+         * @param late
+         *            amounts used in hours already fitted
+         * @param from
+         *            start of the first hour to fit
+         * @param to
+         *            end of the last hour to fit
+         * @param fitted
+         *            where the fitted models are put
+         */
+        Fit ( final String[] names, final int start, final int stop, final Map<String, Model> previous,
+                final Map<String, Map<LocalDateTime, Long>> late, final LocalDateTime from, final LocalDateTime to,
+                final Map<String, Model> fitted ) {
+            this.names = names;
+            this.start = start;
+            this.stop = stop;
+            this.previous = previous;
+            this.late = late;
+            this.from = from;
+            this.to = to;
+            this.fitted = fitted;
+        }
+
+        @Override
+        protected void compute () {
+            if ( stop - start > 1 ) {
+                final int middle = ( start + stop ) >>> 1;
+                invokeAll( new Fit( names, start, middle, previous, late, from, to, fitted ),
+                        new Fit( names, middle, stop, previous, late, from, to, fitted ) );
+                return;
+            }
+            for ( int i = start; i < stop; i++ ) {
+                final String name = names[i];
+                final Model model = null == previous.get( name ) ? new Model() : previous.get( name ).copy();
+                late.getOrDefault( name, Map.of() ).forEach( ( hour, amount ) -> {
+                    // the week it belongs to has been pushed back by every
+                    // week fitted after it
+                    final long after = ( Duration.between( hour, from ).toHours() - 1 ) / SLOTS;
+                    final int slot = slot( hour );
+                    model.mean[slot] += model.weight( slot ) * Math.pow( 1 - smoothing, after ) * amount;
+                } );
+                final Map<LocalDateTime, Long> hours = pending.getOrDefault( name, Map.of() );
+                for ( LocalDateTime hour = from; hour.isBefore( to ); hour = hour.plusHours( 1 ) ) {
+                    model.add( slot( hour ), hours.getOrDefault( hour, 0L ) );
+                }
+                fitted.put( name, model );
+            }
+        }
+    }
+
+    /**
+     * One ingredient's model, the mean and variance of its use in each hour of
+     * the week.
+     */
+    private final class Model {
+
+        /** weighted mean of the amount used in each slot */
+        private final double[] mean;
+
+        /** weighted variance of the amount used in each slot */
+        private final double[] variance;
+
+        /** weeks observed in each slot */
+        private final int[]    count;
+
+        /**
+         * Creates a model with nothing observed.
+         */
+        Model () {
+            this( new double[SLOTS], new double[SLOTS], new int[SLOTS] );
+        }
+
+        /**
+         * Creates a model.
+         *
+         * @param mean
+         *            weighted mean of each slot
+         * @param variance
+         *            weighted variance of each slot
+         * @param count
+         *            weeks observed in each slot
+         */
+        private Model ( final double[] mean, final double[] variance, final int[] count ) {
+            this.mean = mean;
+            this.variance = variance;
+            this.count = count;
+        }
+
+        /**
+         * Copies the model, so it can be refitted while the original is still
+         * forecast from.
+         *
+         * @return the copy
+         */
+        Model copy () {
+            return new Model( mean.clone(), variance.clone(), count.clone() );
+        }
+
+        /**
+         * Returns the weight the newest week in a slot has. Until a slot has
+         * seen enough weeks its weeks are weighted equally, so the first one
+         * isn't given too little weight against the empty start.
+         *
+         * @param slot
+         *            the slot
+         * @return the weight, between 0 and 1
+         */
+        double weight ( final int slot ) {
+            return Math.max( smoothing, 1.0 / Math.max( 1, count[slot] ) );
+        }
+
+        /**
+         * Adds a week's observation of a slot.
+         *
+         * @param slot
+         *            the slot
+         * @param amount
+         *            amount used in the hour
+         */
+        void add ( final int slot, final long amount ) {
+            count[slot]++;
+            final double weight = weight( slot );
+            final double difference = amount - mean[slot];
+            mean[slot] += weight * difference;
+            variance[slot] = ( 1 - weight ) * ( variance[slot] + weight * difference * difference );
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package wolfcafe.service.impl;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Fans events out to Server-Sent Event subscribers. Every subscriber has its
+ * own bounded buffer drained on its own virtual thread, so a slow client never
+ * holds up the publisher or the other clients. A client that falls so far
+ * behind that its buffer fills is disconnected; EventSource clients reconnect
+ * on their own and can reload whatever they missed.
+ *
+ * @param <T>
+ *            type of the events
+ */
+public class EventBroadcaster<T> {
+
+    private static final Logger             log         = LoggerFactory.getLogger( EventBroadcaster.class );
+
+    /** events buffered per subscriber before it is dropped */
+    private final int                       capacity;
+
+    /** how long a subscription stays open, in milliseconds */
+    private final long                      timeoutMs;
+
+    /** current subscribers */
+    private final Set<Subscriber>           subscribers = ConcurrentHashMap.newKeySet();
+
+    /** sends to the subscribers */
+    private final ExecutorService           senders     = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Creates a broadcaster.
+     *
+     * @param capacity
+     *            events buffered per subscriber before it is dropped
+     * @param timeoutMs
+     *            how long a subscription stays open, in milliseconds
+     */
+    public EventBroadcaster ( final int capacity, final long timeoutMs ) {
+        this.capacity = capacity;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Opens a new subscription.
+     *
+     * @return the emitter to return from the controller
+     */
+    public SseEmitter subscribe () {
+        final SseEmitter emitter = new SseEmitter( timeoutMs );
+        final Subscriber subscriber = new Subscriber( emitter );
+        emitter.onCompletion( () -> subscribers.remove( subscriber ) );
+        emitter.onTimeout( () -> subscribers.remove( subscriber ) );
+        emitter.onError( e -> subscribers.remove( subscriber ) );
+        subscribers.add( subscriber );
+        return emitter;
+    }
+
+    /**
+     * Sends an event to every subscriber. Never blocks.
+     *
+     * @param name
+     *            the SSE event name
+     * @param event
+     *            the event data
+     */
+    public void publish ( final String name, final T event ) {
+        for ( final Subscriber subscriber : subscribers ) {
+            subscriber.offer( SseEmitter.event().name( name ).data( event ) );
+        }
+    }
+
+    /**
+     * Returns how many clients are subscribed.
+     *
+     * @return number of subscribers
+     */
+    public int getSubscriberCount () {
+        return subscribers.size();
+    }
+
+    /**
+     * Disconnects every subscriber and stops sending.
+     */
+    public void shutdown () {
+        for ( final Subscriber subscriber : subscribers ) {
+            subscriber.emitter.complete();
+        }
+        subscribers.clear();
+        senders.shutdownNow();
+    }
+
+    /**
+     * One client and the events waiting to be sent to it.
+     */
+    private final class Subscriber {
+        /** the client's connection */
+        private final SseEmitter                                   emitter;
+        /** events waiting to be sent */
+        private final BlockingQueue<SseEmitter.SseEventBuilder>    queue;
+        /** whether a sender is draining the queue */
+        private final AtomicBoolean                                draining = new AtomicBoolean();
+
+        /**
+         * Creates a subscriber.
+         *
+         * @param emitter
+         *            the client's connection
+         */
+        private Subscriber ( final SseEmitter emitter ) {
+            this.emitter = emitter;
+            this.queue = new ArrayBlockingQueue<SseEmitter.SseEventBuilder>( capacity );
+        }
+
+        /**
+         * Buffers an event and makes sure a sender is running.
+         *
+         * @param event
+         *            the event to send
+         */
+        private void offer ( final SseEmitter.SseEventBuilder event ) {
+            if ( !queue.offer( event ) ) {
+                log.warn( "Dropping event subscriber that fell {} events behind", capacity );
+                subscribers.remove( this );
+                emitter.complete();
+                return;
+            }
+            if ( draining.compareAndSet( false, true ) ) {
+                senders.execute( this::drain );
+            }
+        }
+
+        /**
+         * Sends buffered events until the buffer is empty.
+         */
+        private void drain () {
+            do {
+                try {
+                    SseEmitter.SseEventBuilder event;
+                    while ( null != ( event = queue.poll() ) ) {
+                        emitter.send( event );
+                    }
+                }
+                catch ( final IOException | IllegalStateException e ) {
+                    // client went away
+                    subscribers.remove( this );
+                    queue.clear();
+                }
+                finally {
+                    draining.set( false );
+                }
+                // an event may have arrived after the last poll but before the
+                // flag was cleared
+            }
+            while ( !queue.isEmpty() && draining.compareAndSet( false, true ) );
+        }
+    }
+}
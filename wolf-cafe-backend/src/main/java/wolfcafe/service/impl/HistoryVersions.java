@@ -0,0 +1,97 @@
+package wolfcafe.service.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps a version of each user's history, bumped whenever one of their orders
+ * is picked up, so a client can be told its copy is still current without
+ * reading any history. The version is combined with when the application
+ * started, since versions aren't kept across restarts, to make an ETag.
+ *
+ * Users can be looked up by username or email, so the email a user was
+ * looked up by is remembered and answers from then on without a query.
+ */
+@Component
+public class HistoryVersions {
+
+    /**
+     * when the application started, so ETags from before a restart never
+     * match
+     */
+    private final long                    epoch    = System.currentTimeMillis();
+
+    /** version of each user's history, by username */
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * username of each user, by the username or email they were looked up by
+     */
+    private final Map<String, String>     aliases  = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Remembers which user a username or email belongs to.
+     *
+     * @param usernameOrEmail
+     *            what the user was looked up by
+     * @param username
+     *            the user's username
+     */
+    public void alias ( final String usernameOrEmail, final String username ) {
+        aliases.put( usernameOrEmail, username );
+    }
+
+    /**
+     * Returns the ETag of a user's history, if the user has been looked up by
+     * this username or email before.
+     *
+     * @param usernameOrEmail
+     *            what the user is looked up by
+     * @return the ETag, or null if it isn't known which user this is
+     */
+    public String etag ( final String usernameOrEmail ) {
+        final String username = aliases.get( usernameOrEmail );
+        if ( null == username ) {
+            return null;
+        }
+        final AtomicLong version = versions.get( username );
+        return "\"" + epoch + "-" + ( null == version ? 0 : version.get() ) + "\"";
+    }
+
+    /**
+     * Bumps the version of a user's history. If a transaction is running the
+     * version is bumped once it commits, so a client that refetches on the new
+     * version sees the change.
+     *
+     * @param username
+     *            the user's username
+     */
+    public void bump ( final String username ) {
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCommit () {
+                    increment( username );
+                }
+            } );
+        }
+        else {
+            increment( username );
+        }
+    }
+
+    /**
+     * Bumps the version of a user's history now.
+     *
+     * @param username
+     *            the user's username
+     */
+    private void increment ( final String username ) {
+        versions.computeIfAbsent( username, name -> new AtomicLong() ).incrementAndGet();
+    }
+}
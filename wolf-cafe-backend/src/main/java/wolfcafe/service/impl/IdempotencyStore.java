@@ -0,0 +1,182 @@
+package wolfcafe.service.impl;
+
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Remembers the response saved for each Idempotency-Key so a retried request
+ * gets the original response back instead of placing the order again. A hash
+ * of the request body is kept with each key, so a key reused for a different
+ * request is refused rather than answered with another order. Keys are kept
+ * for a limited time and only the most recent ones are kept once the store is
+ * full.
+ */
+@Component
+public class IdempotencyStore {
+
+    /** most keys kept at once, the oldest are dropped past this */
+    @Value ( "${app.orders.idempotency.max-entries:10000}" )
+    private int                               maxEntries;
+
+    /** how long a key is remembered for */
+    @Value ( "${app.orders.idempotency.ttl-ms:86400000}" )
+    private long                              ttlMs;
+
+    /** serializes request bodies to hash them */
+    @Autowired
+    private ObjectMapper                      objectMapper;
+
+    /** saved responses by key, oldest first */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    /**
+     * Claims a key for a new request, or returns the response already saved
+     * for it.
+     *
+     * @param key
+     *            the idempotency key
+     * @param body
+     *            the request body, which a retry with the key has to repeat
+     * @return the response saved for the key, or null if the caller should go
+     *         ahead and make the order
+     * @throws IllegalArgumentException
+     *             if the key was already used with a different body
+     * @throws IllegalStateException
+     *             if another request with the key is still in progress
+     */
+    public Object begin ( final String key, final Object body ) {
+        final byte[] hash = hash( body );
+        synchronized ( this ) {
+            return begin( key, hash );
+        }
+    }
+
+    /**
+     * Claims a key for a new request, or returns the response already saved
+     * for it.
+     *
+     * @param key
+     *            the idempotency key
+     * @param hash
+     *            hash of the request body
+     * @return the response saved for the key, or null if the caller should go
+     *         ahead and make the order
+     */
+    private Object begin ( final String key, final byte[] hash ) {
+        evict();
+        final Entry entry = entries.get( key );
+        if ( null == entry ) {
+            entries.put( key, new Entry( System.currentTimeMillis(), hash, null ) );
+            return null;
+        }
+        if ( !MessageDigest.isEqual( entry.hash, hash ) ) {
+            throw new IllegalArgumentException( "Idempotency-Key was already used for a different request." );
+        }
+        if ( null == entry.response ) {
+            throw new IllegalStateException( "Request with this key is already in progress." );
+        }
+        return entry.response;
+    }
+
+    /**
+     * Records the response for a claimed key once its order is saved.
+     *
+     * @param key
+     *            the idempotency key
+     * @param response
+     *            the response body
+     */
+    public synchronized void complete ( final String key, final Object response ) {
+        final Entry entry = entries.get( key );
+        if ( null != entry ) {
+            entries.put( key, new Entry( entry.createdAt, entry.hash, response ) );
+        }
+    }
+
+    /**
+     * Releases a claimed key when the request didn't save an order, so it can
+     * be retried.
+     *
+     * @param key
+     *            the idempotency key
+     */
+    public synchronized void abandon ( final String key ) {
+        final Entry entry = entries.get( key );
+        if ( null != entry && null == entry.response ) {
+            entries.remove( key );
+        }
+    }
+
+    /**
+     * Drops expired keys, then the oldest keys past the size limit.
+     */
+    private void evict () {
+        final long cutoff = System.currentTimeMillis() - ttlMs;
+        final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ( it.hasNext() ) {
+            final Map.Entry<String, Entry> next = it.next();
+            if ( next.getValue().createdAt >= cutoff && entries.size() < maxEntries ) {
+                break;
+            }
+            it.remove();
+        }
+    }
+
+    /**
+     * Hashes a request body as it would be serialized to JSON.
+     *
+     * @param body
+     *            the request body
+     * @return its SHA-256 hash
+     */
+    private byte[] hash ( final Object body ) {
+        try {
+            return MessageDigest.getInstance( "SHA-256" ).digest( objectMapper.writeValueAsBytes( body ) );
+        }
+        catch ( final JsonProcessingException e ) {
+            throw new UncheckedIOException( "Could not serialize request body.", e );
+        }
+        catch ( final NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * A claimed key and the response saved for it, if any.
+     */
+    private static final class Entry {
+        /** when the key was claimed */
+        private final long   createdAt;
+        /** hash of the request body the key was claimed with */
+        private final byte[] hash;
+        /** the saved response, null while in progress */
+        private final Object response;
+
+        /**
+         * Creates an entry.
+         *
+         * @param createdAt
+         *            when the key was claimed
+         * @param hash
+         *            hash of the request body the key was claimed with
+         * @param response
+         *            the saved response, null while in progress
+         */
+        private Entry ( final long createdAt, final byte[] hash, final Object response ) {
+            this.createdAt = createdAt;
+            this.hash = hash;
+            this.response = response;
+        }
+    }
+}
@@ -4,15 +4,20 @@
 package wolfcafe.service.impl;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import wolfcafe.dto.IngredientDto;
 import wolfcafe.dto.InventoryDto;
 import wolfcafe.entity.Ingredient;
 import wolfcafe.entity.Inventory;
+import wolfcafe.entity.InventoryMovement;
 import wolfcafe.exception.ResourceNotFoundException;
 import wolfcafe.mapper.IngredientMapper;
 import wolfcafe.mapper.InventoryMapper;
@@ -36,6 +41,21 @@ public class IngredientServiceImpl implements IngredientService {
     /** Reference to InventoryService (and InventoryServiceImpl). */
 	@Autowired
 	private InventoryService inventoryService;
+	/** In-memory reservations, told to reload whenever an ingredient changes */
+	@Autowired
+	private InventoryReservationEngine reservationEngine;
+	/** The inventory's ingredients by name, dropped whenever an ingredient changes */
+	@Autowired
+	private InventoryCache inventoryCache;
+	/** Records the starting amounts of new ingredients and changes made by hand */
+	@Autowired
+	private InventoryLedger inventoryLedger;
+	/** Servings on the menu, dropped whenever an ingredient is deleted */
+	@Autowired
+	private ServingsIndex servingsIndex;
+	/** Used to update an ingredient and record it in one transaction */
+	@Autowired
+	private PlatformTransactionManager transactionManager;
 
 	/**
 	 * Creates the ingredient.
@@ -45,6 +65,7 @@ public class IngredientServiceImpl implements IngredientService {
 	 * attempting to add a negative amount
 	 */
 	@Override
+	@Transactional
 	public IngredientDto createIngredient(IngredientDto ingredientDto) {
 		
 		Ingredient ingredient = IngredientMapper.mapToIngredient(ingredientDto);		
@@ -56,7 +77,11 @@ public class IngredientServiceImpl implements IngredientService {
 			if (ingredientDto.getAmount() >= 0) {
 				Ingredient savedIngredient = ingredientRepository.save(ingredient);
 				inventory.addIngredient(savedIngredient);
-				inventoryRepository.save(inventory);
+				inventoryRepository.saveAndFlush(inventory);
+				inventoryLedger.record(InventoryMovement.Type.ADJUSTMENT, null,
+						Map.of(savedIngredient.getId(), savedIngredient.getAmount()));
+				reservationEngine.resync();
+				inventoryCache.invalidate();
 				return IngredientMapper.mapToIngredientDto(savedIngredient);
 			} else {
 				throw new IllegalArgumentException("Ingredient amount cannot be negative.");
@@ -101,6 +126,9 @@ public class IngredientServiceImpl implements IngredientService {
 				() -> new ResourceNotFoundException("Ingredient does not exist with id " + ingredientId)
 		);
 		ingredientRepository.delete(ingredient);
+		reservationEngine.resync();
+		inventoryCache.invalidate();
+		servingsIndex.invalidate();
 	}
 
 	/**
@@ -109,6 +137,9 @@ public class IngredientServiceImpl implements IngredientService {
 	@Override
 	public void deleteAllIngredients() {
 		ingredientRepository.deleteAll();
+		reservationEngine.resync();
+		inventoryCache.invalidate();
+		servingsIndex.invalidate();
 	}
 	
 	/**
@@ -120,14 +151,29 @@ public class IngredientServiceImpl implements IngredientService {
 	 */
 	@Override
 	public IngredientDto updateIngredient(Long ingredientId, IngredientDto ingredientDto) {
-		Ingredient ingredient = ingredientRepository.findById(ingredientId).orElseThrow(
-				() -> new ResourceNotFoundException("Ingredient does not exist with id " + ingredientId)
-		);
-		
-		ingredient.setName(ingredientDto.getName());
-		ingredient.setAmount(ingredientDto.getAmount());
-		
-		Ingredient savedIngredient = ingredientRepository.save(ingredient);
+		// write back outstanding reservations first so they aren't applied on
+		// top of the new amount
+		reservationEngine.flush();
+		// the row is locked while it's changed, so the ledger records exactly
+		// how far the amount moved
+		Ingredient savedIngredient = new TransactionTemplate(transactionManager).execute(status -> {
+			Ingredient ingredient = ingredientRepository.findByIdForUpdate(ingredientId).orElseThrow(
+					() -> new ResourceNotFoundException("Ingredient does not exist with id " + ingredientId)
+			);
+			Integer before = ingredient.getAmount();
+			
+			ingredient.setName(ingredientDto.getName());
+			ingredient.setAmount(ingredientDto.getAmount());
+			
+			Ingredient saved = ingredientRepository.saveAndFlush(ingredient);
+			if (null != before && null != saved.getAmount() && inventoryRepository.holdsIngredient(ingredientId)) {
+				inventoryLedger.record(InventoryMovement.Type.ADJUSTMENT, null,
+						Map.of(ingredientId, saved.getAmount() - before));
+			}
+			return saved;
+		});
+		reservationEngine.resync();
+		inventoryCache.invalidate();
 		return IngredientMapper.mapToIngredientDto(savedIngredient);
 	}
 	
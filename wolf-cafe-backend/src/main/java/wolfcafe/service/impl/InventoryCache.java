@@ -0,0 +1,108 @@
+package wolfcafe.service.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import wolfcafe.entity.Ingredient;
+import wolfcafe.entity.Inventory;
+import wolfcafe.repository.InventoryRepository;
+
+/**
+ * Holds the inventory's ingredients indexed by name. The index is loaded on
+ * first use and thrown away whenever the inventory changes, so looking up
+ * ingredients by name doesn't read the whole inventory each time.
+ */
+@Component
+public class InventoryCache {
+
+    /** Connection to the repository to work with the inventory DAO + database */
+    @Autowired
+    private InventoryRepository               inventoryRepository;
+
+    /** the cached index, null until the next use rebuilds it */
+    private volatile Map<String, Ingredient>  index;
+
+    /** bumped on every change, so a rebuild racing a change isn't kept */
+    private final AtomicLong                  version = new AtomicLong();
+
+    /**
+     * Returns copies of the inventory's ingredients, keyed by name. The map
+     * can't be changed; it is empty if there is no inventory yet.
+     *
+     * @return the inventory's ingredients by name
+     */
+    public Map<String, Ingredient> get () {
+        final Map<String, Ingredient> cached = index;
+        if ( null != cached ) {
+            return cached;
+        }
+        final long seen = version.get();
+        final Map<String, Ingredient> built = new HashMap<String, Ingredient>();
+        final List<Inventory> inventory = inventoryRepository.findAll();
+        if ( !inventory.isEmpty() ) {
+            for ( final Ingredient ingredient : inventory.get( 0 ).getIngredients() ) {
+                built.put( ingredient.getName(), copy( ingredient ) );
+            }
+        }
+        final Map<String, Ingredient> unmodifiable = Collections.unmodifiableMap( built );
+        // inside a transaction we may be looking at uncommitted amounts, so
+        // only keep indexes built outside of one
+        if ( !TransactionSynchronizationManager.isActualTransactionActive() && version.get() == seen ) {
+            index = unmodifiable;
+        }
+        return unmodifiable;
+    }
+
+    /**
+     * Returns a copy of the named ingredient, which the caller is free to
+     * change.
+     *
+     * @param name
+     *            name of the ingredient
+     * @return copy of the ingredient, or null if it isn't in the inventory
+     */
+    public Ingredient get ( final String name ) {
+        final Ingredient ingredient = get().get( name );
+        return null == ingredient ? null : copy( ingredient );
+    }
+
+    /**
+     * Drops the cached index. Inside a transaction it is dropped again once
+     * the transaction finishes, in case it was rebuilt in between.
+     */
+    public void invalidate () {
+        version.incrementAndGet();
+        index = null;
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCompletion ( final int status ) {
+                    version.incrementAndGet();
+                    index = null;
+                }
+            } );
+        }
+    }
+
+    /**
+     * Copies an ingredient, so the cached ones can't be changed through what
+     * callers are handed.
+     *
+     * @param ingredient
+     *            the ingredient to copy
+     * @return the copy
+     */
+    private static Ingredient copy ( final Ingredient ingredient ) {
+        final Ingredient copy = new Ingredient( ingredient.getName(), ingredient.getAmount() );
+        copy.setId( ingredient.getId() );
+        return copy;
+    }
+}
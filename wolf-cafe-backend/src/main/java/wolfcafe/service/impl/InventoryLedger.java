@@ -0,0 +1,240 @@
+package wolfcafe.service.impl;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import wolfcafe.dto.IngredientDto;
+import wolfcafe.entity.Ingredient;
+import wolfcafe.entity.Inventory;
+import wolfcafe.entity.InventoryMovement;
+import wolfcafe.entity.InventorySnapshot;
+import wolfcafe.repository.InventoryMovementRepository;
+import wolfcafe.repository.InventoryRepository;
+import wolfcafe.repository.InventorySnapshotRepository;
+
+/**
+ * Records every change to the inventory's amounts in the append-only
+ * inventory_movement table, with why it was made, so stock can be audited
+ * and its level at any past time worked out. Movements are inserted in one
+ * batch per change, in the same transaction as the change, after the amounts
+ * themselves are updated.
+ *
+ * The amounts are snapshotted on a schedule, so the level at a past time is
+ * the snapshot before it plus only the movements in between rather than the
+ * whole ledger.
+ *
+ * Every change is also passed on to the LowStockMonitor and the ServingsIndex,
+ * so ingredients about to run out are caught and the servings on the menu
+ * kept up to date whichever way the amounts changed.
+ */
+@Component
+public class InventoryLedger {
+
+    private static final Logger                 log              = LoggerFactory.getLogger( InventoryLedger.class );
+
+    /** adds one movement */
+    private static final String                 INSERT_MOVEMENT  = "INSERT INTO inventory_movement "
+            + "(ingredient_id, type, delta, reference_id, created_at) VALUES (?, ?, ?, ?, ?)";
+
+    /** adds one ingredient's row of a snapshot */
+    private static final String                 INSERT_SNAPSHOT  = "INSERT INTO inventory_snapshot "
+            + "(taken_at, last_movement_id, ingredient_id, amount) VALUES (?, ?, ?, ?)";
+
+    /** whether snapshots are taken */
+    @Value ( "${app.inventory.snapshot.enabled:true}" )
+    private boolean                             snapshotsEnabled;
+
+    /** Connection to the repository to work with the movement DAO + database */
+    @Autowired
+    private InventoryMovementRepository         movementRepository;
+
+    /** Connection to the repository to work with the snapshot DAO + database */
+    @Autowired
+    private InventorySnapshotRepository         snapshotRepository;
+
+    /** Connection to the repository to work with the inventory DAO + database */
+    @Autowired
+    private InventoryRepository                 inventoryRepository;
+
+    /** used to insert movements and snapshots in batches */
+    @Autowired
+    private JdbcTemplate                        jdbcTemplate;
+
+    /** watches the orders for ingredients about to run out */
+    @Autowired
+    private LowStockMonitor                     lowStockMonitor;
+
+    /** servings of each recipe the inventory has enough for */
+    @Autowired
+    private ServingsIndex                       servingsIndex;
+
+    /** used to take each snapshot in its own transaction */
+    @Autowired
+    private PlatformTransactionManager          transactionManager;
+
+    /**
+     * Records a change to some of the inventory's amounts. Call it after the
+     * amounts are updated and in the same transaction, so the ledger and the
+     * amounts are committed together.
+     *
+     * @param type
+     *            why the amounts changed
+     * @param referenceId
+     *            id of the order behind the change, or null
+     * @param deltas
+     *            how much each ingredient changed by, keyed by ingredient id.
+     *            Ingredients that didn't change are skipped
+     */
+    public void record ( final InventoryMovement.Type type, final Long referenceId,
+            final Map<Long, Integer> deltas ) {
+        final Timestamp now = Timestamp.valueOf( LocalDateTime.now() );
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        for ( final Map.Entry<Long, Integer> entry : new TreeMap<Long, Integer>( deltas ).entrySet() ) {
+            if ( 0 != entry.getValue() ) {
+                rows.add( new Object[] { entry.getKey(), type.name(), entry.getValue(), referenceId, now } );
+            }
+        }
+        if ( !rows.isEmpty() ) {
+            jdbcTemplate.batchUpdate( INSERT_MOVEMENT, rows );
+            lowStockMonitor.record( type, deltas );
+            servingsIndex.record( deltas.keySet() );
+        }
+    }
+
+    /**
+     * Returns movements oldest first, a page at a time.
+     *
+     * @param ingredientId
+     *            only this ingredient's movements, or every ingredient's if
+     *            null
+     * @param after
+     *            only movements with a larger id are returned
+     * @param limit
+     *            most movements to return
+     * @return the movements, in id order
+     */
+    public List<InventoryMovement> getMovements ( final Long ingredientId, final long after, final int limit ) {
+        if ( null == ingredientId ) {
+            return movementRepository.findByIdGreaterThanOrderById( after, Limit.of( limit ) );
+        }
+        return movementRepository.findByIngredientIdAndIdGreaterThanOrderById( ingredientId, after,
+                Limit.of( limit ) );
+    }
+
+    /**
+     * Works out how much of each inventory ingredient there was at a time.
+     * Starts from the newest snapshot taken by then and adds the movements
+     * made since, or if there's no snapshot that old, takes the movements made
+     * since back off the current amounts. Ingredients no longer in the
+     * inventory are left out.
+     *
+     * @param at
+     *            the time
+     * @return the amount of each ingredient, in id order
+     */
+    @Transactional ( readOnly = true )
+    public List<IngredientDto> getLevels ( final LocalDateTime at ) {
+        final Map<Long, String> names = new HashMap<Long, String>();
+        final Map<Long, Long> levels = new TreeMap<Long, Long>();
+        final List<Inventory> inventory = inventoryRepository.findAll();
+        final List<Ingredient> current = inventory.isEmpty() ? new ArrayList<Ingredient>()
+                : inventory.get( 0 ).getIngredients();
+        for ( final Ingredient ingredient : current ) {
+            names.put( ingredient.getId(), ingredient.getName() );
+        }
+
+        final Optional<InventorySnapshot> snapshot = snapshotRepository
+                .findFirstByTakenAtLessThanEqualOrderByTakenAtDesc( at );
+        if ( snapshot.isPresent() ) {
+            final long lastMovementId = snapshot.get().getLastMovementId();
+            for ( final InventorySnapshot row : snapshotRepository.findByLastMovementId( lastMovementId ) ) {
+                levels.put( row.getIngredientId(), (long) row.getAmount() );
+            }
+            addDeltas( levels, movementRepository.sumDeltasAfter( lastMovementId, at ), 1 );
+        }
+        else {
+            for ( final Ingredient ingredient : current ) {
+                levels.put( ingredient.getId(), (long) ingredient.getAmount() );
+            }
+            addDeltas( levels, movementRepository.sumDeltasSince( at ), -1 );
+        }
+
+        final List<IngredientDto> result = new ArrayList<IngredientDto>();
+        levels.forEach( ( id, amount ) -> {
+            if ( names.containsKey( id ) ) {
+                result.add( new IngredientDto( id, names.get( id ), amount.intValue() ) );
+            }
+        } );
+        return result;
+    }
+
+    /**
+     * Snapshots the inventory's amounts, unless nothing has moved since the
+     * last snapshot. The ingredients are share locked first, so no change is
+     * half way through: every movement up to the newest one read is in the
+     * amounts, and every later one comes after the snapshot.
+     */
+    @Scheduled ( fixedDelayString = "${app.inventory.snapshot.interval-ms:3600000}",
+            initialDelayString = "${app.inventory.snapshot.interval-ms:3600000}" )
+    public void snapshot () {
+        if ( !snapshotsEnabled ) {
+            return;
+        }
+        final Integer taken = new TransactionTemplate( transactionManager ).execute( status -> {
+            final List<Ingredient> ingredients = inventoryRepository.lockInventoryIngredients();
+            final long lastMovementId = movementRepository.findLastId();
+            final Optional<InventorySnapshot> previous = snapshotRepository.findFirstByOrderByIdDesc();
+            if ( previous.isPresent() && previous.get().getLastMovementId() == lastMovementId ) {
+                return 0;
+            }
+            final Timestamp now = Timestamp.valueOf( LocalDateTime.now() );
+            final List<Object[]> rows = new ArrayList<Object[]>();
+            for ( final Ingredient ingredient : ingredients ) {
+                rows.add( new Object[] { now, lastMovementId, ingredient.getId(), ingredient.getAmount() } );
+            }
+            if ( !rows.isEmpty() ) {
+                jdbcTemplate.batchUpdate( INSERT_SNAPSHOT, rows );
+            }
+            return rows.size();
+        } );
+        if ( null != taken && taken > 0 ) {
+            log.info( "Snapshotted {} inventory ingredients", taken );
+        }
+    }
+
+    /**
+     * Adds summed movements to levels.
+     *
+     * @param levels
+     *            amount of each ingredient, keyed by id
+     * @param sums
+     *            pairs of ingredient id and summed delta
+     * @param sign
+     *            1 to add the deltas, -1 to take them off
+     */
+    private static void addDeltas ( final Map<Long, Long> levels, final List<Object[]> sums, final int sign ) {
+        for ( final Object[] sum : sums ) {
+            final Long id = (Long) sum[0];
+            final long delta = ( (Number) sum[1] ).longValue();
+            levels.merge( id, sign * delta, Long::sum );
+        }
+    }
+}
@@ -0,0 +1,636 @@
+package wolfcafe.service.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import wolfcafe.entity.Ingredient;
+import wolfcafe.entity.Inventory;
+import wolfcafe.entity.InventoryMovement;
+import wolfcafe.entity.ReservationCheckpoint;
+import wolfcafe.repository.InventoryRepository;
+import wolfcafe.repository.ReservationCheckpointRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Keeps the live ingredient counts in memory so orders can reserve stock
+ * without a database round trip. Each ingredient has its own slot that is
+ * decremented with compare-and-set, so orders only contend on the ingredients
+ * they share. A reservation made inside a transaction is held in memory until
+ * the transaction is about to commit, and is then appended to a local journal,
+ * so an order that never commits is never journaled or written back. The
+ * summed deltas are written back to the ingredient table in one JDBC batch
+ * every flush interval.
+ *
+ * Turned off unless app.inventory.reservation.enabled is true, in which case
+ * the database lags the live counts by up to one flush interval.
+ */
+@Component
+public class InventoryReservationEngine {
+
+    private static final Logger                   log         = LoggerFactory
+            .getLogger( InventoryReservationEngine.class );
+
+    /** whether orders reserve against the engine instead of the database */
+    @Value ( "${app.inventory.reservation.enabled:false}" )
+    private boolean                               enabled;
+
+    /** file reservations are journaled to before they're acknowledged */
+    @Value ( "${app.inventory.reservation.journal:inventory-reservations.journal}" )
+    private String                                journalPath;
+
+    /** Connection to the repository to work with the inventory DAO + database */
+    @Autowired
+    private InventoryRepository                   inventoryRepository;
+
+    /** Connection to the repository holding the flush checkpoint */
+    @Autowired
+    private ReservationCheckpointRepository       checkpointRepository;
+
+    /** used to write the flushed deltas back in one batch */
+    @Autowired
+    private JdbcTemplate                          jdbcTemplate;
+
+    /** records the flushed reservations as orders */
+    @Autowired
+    private InventoryLedger                       inventoryLedger;
+
+    /** the inventory's ingredients by name, dropped after every flush */
+    @Autowired
+    private InventoryCache                        inventoryCache;
+
+    /** used to flush the deltas and checkpoint in one transaction */
+    @Autowired
+    private PlatformTransactionManager            transactionManager;
+
+    /** live counts, keyed by ingredient name */
+    private final Map<String, Slot>               slots       = new ConcurrentHashMap<String, Slot>();
+
+    /**
+     * reservations share the read lock, taking a consistent flush snapshot
+     * (or swapping the slots) needs the write lock
+     */
+    private final ReentrantReadWriteLock          lock        = new ReentrantReadWriteLock();
+
+    /** keeps flushing and reloading from overlapping */
+    private final Object                          syncMonitor = new Object();
+
+    /** sequence number of the last journal entry written */
+    private final AtomicLong                      sequence    = new AtomicLong();
+
+    /** sequence number of the last journal entry written back */
+    private long                                  flushedSequence;
+
+    /** open handle to the journal */
+    private FileChannel                           journal;
+
+    /**
+     * Replays anything left in the journal by a crash and opens it for
+     * appending.
+     *
+     * @throws IOException
+     *             if the journal can't be read or opened
+     */
+    @PostConstruct
+    public void init () throws IOException {
+        if ( !enabled ) {
+            return;
+        }
+        flushedSequence = replayJournal();
+        sequence.set( flushedSequence );
+        journal = openJournal();
+    }
+
+    /**
+     * Writes back any outstanding reservations before shutting down.
+     *
+     * @throws IOException
+     *             if the journal can't be closed
+     */
+    @PreDestroy
+    public void shutdown () throws IOException {
+        if ( !enabled ) {
+            return;
+        }
+        flush();
+        journal.close();
+    }
+
+    /**
+     * Returns whether orders should reserve against the engine.
+     *
+     * @return true if the engine is turned on
+     */
+    public boolean isEnabled () {
+        return enabled;
+    }
+
+    /**
+     * Reserves the given amounts. Either every amount is reserved or none are.
+     * If called inside a transaction the reservation is only journaled once
+     * the transaction is about to commit, and is released again if it rolls
+     * back.
+     *
+     * @param demand
+     *            amount to reserve for each ingredient, keyed by ingredient
+     *            name
+     * @throws IllegalArgumentException
+     *             if an ingredient isn't in the inventory or there isn't
+     *             enough of it
+     */
+    public void reserve ( final Map<String, Integer> demand ) {
+        if ( demand.isEmpty() ) {
+            return;
+        }
+        if ( !slots.keySet().containsAll( demand.keySet() ) ) {
+            reload();
+        }
+
+        final boolean deferred = TransactionSynchronizationManager.isSynchronizationActive();
+        final Map<Slot, Integer> taken = new HashMap<Slot, Integer>();
+        lock.readLock().lock();
+        try {
+            for ( final Map.Entry<String, Integer> entry : demand.entrySet() ) {
+                final Slot slot = slots.get( entry.getKey() );
+                if ( slot == null ) {
+                    giveBack( taken );
+                    throw new IllegalArgumentException( "Ingredient " + entry.getKey() + " does not exist." );
+                }
+                if ( entry.getValue() < 0 ) {
+                    giveBack( taken );
+                    throw new IllegalArgumentException( "Ingredient amount cannot be negative." );
+                }
+                if ( !slot.tryTake( entry.getValue() ) ) {
+                    giveBack( taken );
+                    throw new IllegalArgumentException( "Not enough ingredients in inventory." );
+                }
+                taken.put( slot, entry.getValue() );
+            }
+
+            if ( deferred ) {
+                // held rather than journaled, so a crash before the commit
+                // doesn't replay it
+                taken.forEach( ( slot, amount ) -> slot.held.add( amount ) );
+            }
+            else {
+                try {
+                    append( taken, 1 );
+                }
+                catch ( final IOException e ) {
+                    giveBack( taken );
+                    throw new UncheckedIOException( "Could not journal inventory reservation.", e );
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        if ( deferred ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                /** whether the reservation made it into the journal */
+                private boolean journaled;
+
+                @Override
+                public void beforeCommit ( final boolean readOnly ) {
+                    // throwing here rolls the transaction back
+                    journalHeld( taken );
+                    journaled = true;
+                }
+
+                @Override
+                public void afterCompletion ( final int status ) {
+                    if ( status == STATUS_COMMITTED ) {
+                        return;
+                    }
+                    if ( journaled ) {
+                        release( demand );
+                    }
+                    else {
+                        unhold( taken );
+                    }
+                }
+            } );
+        }
+    }
+
+    /**
+     * Puts previously reserved amounts back.
+     *
+     * @param demand
+     *            amount to put back for each ingredient, keyed by ingredient
+     *            name
+     */
+    public void release ( final Map<String, Integer> demand ) {
+        lock.readLock().lock();
+        try {
+            final Map<Slot, Integer> returned = new HashMap<Slot, Integer>();
+            for ( final Map.Entry<String, Integer> entry : demand.entrySet() ) {
+                final Slot slot = slots.get( entry.getKey() );
+                if ( slot != null ) {
+                    slot.available.addAndGet( entry.getValue() );
+                    returned.put( slot, entry.getValue() );
+                }
+            }
+            append( returned, -1 );
+        }
+        catch ( final IOException e ) {
+            log.warn( "Could not journal inventory release: {}", e.getMessage() );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the live counts so they are reloaded from the database. Called
+     * whenever the inventory is changed outside of the engine (restocks,
+     * ingredient edits); inside a transaction the reload waits for the commit
+     * so it sees the new amounts.
+     */
+    public void resync () {
+        if ( !enabled ) {
+            return;
+        }
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCommit () {
+                    reload();
+                }
+            } );
+        }
+        else {
+            reload();
+        }
+    }
+
+    /**
+     * Writes the reservations made since the last flush back to the
+     * ingredient table, along with the journal checkpoint, in one transaction.
+     */
+    @Scheduled ( fixedDelayString = "${app.inventory.reservation.flush-interval-ms:500}" )
+    public void flush () {
+        if ( !enabled ) {
+            return;
+        }
+        synchronized ( syncMonitor ) {
+            final Map<Long, Long> deltas = new HashMap<Long, Long>();
+            final long upTo;
+            lock.writeLock().lock();
+            try {
+                for ( final Slot slot : slots.values() ) {
+                    final long delta = slot.pending.sumThenReset();
+                    if ( delta != 0 ) {
+                        deltas.put( slot.id, delta );
+                    }
+                }
+                upTo = sequence.get();
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+            if ( upTo == flushedSequence ) {
+                return;
+            }
+
+            final boolean applied;
+            try {
+                applied = writeBack( deltas, upTo );
+            }
+            catch ( final RuntimeException e ) {
+                // keep the deltas for the next attempt, the journal still has
+                // them if we go down before then
+                for ( final Slot slot : slots.values() ) {
+                    if ( deltas.containsKey( slot.id ) ) {
+                        slot.pending.add( deltas.get( slot.id ) );
+                    }
+                }
+                log.warn( "Could not flush inventory reservations: {}", e.getMessage() );
+                return;
+            }
+            flushedSequence = upTo;
+            inventoryCache.invalidate();
+            compactJournal( upTo );
+            if ( !applied ) {
+                // the database has less than the live counts thought, so
+                // start again from what it has
+                reload();
+            }
+        }
+    }
+
+    /**
+     * Loads the live counts from the inventory, keeping any deltas that
+     * haven't been flushed yet and any reservations still waiting on their
+     * transaction. Ingredients that are still there keep their slot, so those
+     * reservations finish against the live count.
+     */
+    private void reload () {
+        synchronized ( syncMonitor ) {
+            lock.writeLock().lock();
+            try {
+                final List<Inventory> inventory = inventoryRepository.findAll();
+                final Map<String, Slot> loaded = new HashMap<String, Slot>();
+                if ( !inventory.isEmpty() ) {
+                    for ( final Ingredient ingredient : inventory.get( 0 ).getIngredients() ) {
+                        final Slot previous = slots.get( ingredient.getName() );
+                        if ( null != previous && previous.id.equals( ingredient.getId() ) ) {
+                            previous.available.set(
+                                    ingredient.getAmount() - previous.pending.sum() - previous.held.sum() );
+                            loaded.put( ingredient.getName(), previous );
+                        }
+                        else {
+                            loaded.put( ingredient.getName(), new Slot( ingredient.getId(), ingredient.getAmount() ) );
+                        }
+                    }
+                }
+                slots.clear();
+                slots.putAll( loaded );
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies the deltas and moves the checkpoint in one transaction. An
+     * ingredient is never taken below zero: if it was deleted, or cut below
+     * what was reserved since the live counts were loaded, its delta is
+     * dropped.
+     *
+     * @param deltas
+     *            amount to take from each ingredient, keyed by id
+     * @param upTo
+     *            sequence number of the last journal entry included
+     * @return false if any delta was dropped
+     */
+    private boolean writeBack ( final Map<Long, Long> deltas, final long upTo ) {
+        final List<Long> ids = new ArrayList<Long>( deltas.keySet() );
+        final List<Object[]> args = new ArrayList<Object[]>();
+        for ( final Long id : ids ) {
+            args.add( new Object[] { deltas.get( id ), id, deltas.get( id ) } );
+        }
+        return new TransactionTemplate( transactionManager ).execute( status -> {
+            boolean applied = true;
+            if ( !args.isEmpty() ) {
+                final int[] counts = jdbcTemplate
+                        .batchUpdate( "UPDATE ingredient SET amount = amount - ? WHERE id = ? AND amount >= ?", args );
+                // reservations are summed, so the ledger can't say which
+                // orders they were for
+                final Map<Long, Integer> movements = new HashMap<Long, Integer>();
+                for ( int i = 0; i < counts.length; i++ ) {
+                    if ( 0 == counts[i] ) {
+                        log.warn( "Dropped reserved amount {} of ingredient {}, not enough left in the database",
+                                deltas.get( ids.get( i ) ), ids.get( i ) );
+                        applied = false;
+                    }
+                    else {
+                        movements.put( ids.get( i ), (int) -deltas.get( ids.get( i ) ) );
+                    }
+                }
+                inventoryLedger.record( InventoryMovement.Type.ORDER, null, movements );
+            }
+            checkpointRepository.save( new ReservationCheckpoint( ReservationCheckpoint.SINGLETON_ID, upTo ) );
+            return applied;
+        } );
+    }
+
+    /**
+     * Journals one reservation (or release) as a single write, one line per
+     * ingredient: sequence, ingredient id, amount.
+     *
+     * @param amounts
+     *            amount for each slot
+     * @param sign
+     *            1 for a reservation, -1 for a release
+     * @throws IOException
+     *             if the journal can't be written
+     */
+    private void append ( final Map<Slot, Integer> amounts, final int sign ) throws IOException {
+        if ( amounts.isEmpty() ) {
+            return;
+        }
+        final StringBuilder lines = new StringBuilder();
+        for ( final Map.Entry<Slot, Integer> entry : amounts.entrySet() ) {
+            lines.append( sequence.incrementAndGet() ).append( ',' ).append( entry.getKey().id ).append( ',' )
+                    .append( (long) sign * entry.getValue() ).append( '\n' );
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap( lines.toString().getBytes( StandardCharsets.UTF_8 ) );
+        while ( buffer.hasRemaining() ) {
+            journal.write( buffer );
+        }
+        journal.force( false );
+        // only written back once it's in the journal
+        amounts.forEach( ( slot, amount ) -> slot.pending.add( (long) sign * amount ) );
+    }
+
+    /**
+     * Journals a reservation that was held for its transaction, now that the
+     * transaction is about to commit.
+     *
+     * @param taken
+     *            amount held from each slot
+     * @throws UncheckedIOException
+     *             if the journal can't be written
+     */
+    private void journalHeld ( final Map<Slot, Integer> taken ) {
+        lock.readLock().lock();
+        try {
+            append( taken, 1 );
+            taken.forEach( ( slot, amount ) -> slot.held.add( -amount ) );
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( "Could not journal inventory reservation.", e );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Puts back amounts held for a transaction that didn't commit.
+     *
+     * @param taken
+     *            amount held from each slot
+     */
+    private void unhold ( final Map<Slot, Integer> taken ) {
+        lock.readLock().lock();
+        try {
+            taken.forEach( ( slot, amount ) -> slot.held.add( -amount ) );
+            giveBack( taken );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Puts back amounts taken by a reservation that couldn't complete.
+     *
+     * @param taken
+     *            amount taken from each slot
+     */
+    private void giveBack ( final Map<Slot, Integer> taken ) {
+        for ( final Map.Entry<Slot, Integer> entry : taken.entrySet() ) {
+            entry.getKey().available.addAndGet( entry.getValue() );
+        }
+    }
+
+    /**
+     * Applies any journal entries past the checkpoint, left there by a crash,
+     * and empties the journal.
+     *
+     * @return the sequence number to continue from
+     * @throws IOException
+     *             if the journal can't be read
+     */
+    private long replayJournal () throws IOException {
+        final long checkpoint = checkpointRepository.findById( ReservationCheckpoint.SINGLETON_ID )
+                .map( ReservationCheckpoint::getLastSequence ).orElse( 0L );
+        final Path path = Paths.get( journalPath );
+        if ( !Files.exists( path ) ) {
+            return checkpoint;
+        }
+
+        final Map<Long, Long> deltas = new HashMap<Long, Long>();
+        long last = checkpoint;
+        for ( final String line : Files.readAllLines( path, StandardCharsets.UTF_8 ) ) {
+            final String[] fields = line.split( "," );
+            if ( fields.length != 3 ) {
+                // torn write, never acknowledged
+                continue;
+            }
+            final long seq = Long.parseLong( fields[0] );
+            if ( seq > checkpoint ) {
+                deltas.merge( Long.parseLong( fields[1] ), Long.parseLong( fields[2] ), Long::sum );
+                last = Math.max( last, seq );
+            }
+        }
+        if ( last > checkpoint ) {
+            log.info( "Replaying {} journaled inventory reservations", last - checkpoint );
+            writeBack( deltas, last );
+        }
+        Files.write( path, new byte[0] );
+        return last;
+    }
+
+    /**
+     * Rewrites the journal without the entries that have been written back.
+     *
+     * @param upTo
+     *            sequence number of the last entry written back
+     */
+    private void compactJournal ( final long upTo ) {
+        lock.writeLock().lock();
+        try {
+            final Path path = Paths.get( journalPath );
+            final List<String> remaining = new ArrayList<String>();
+            for ( final String line : Files.readAllLines( path, StandardCharsets.UTF_8 ) ) {
+                final int comma = line.indexOf( ',' );
+                if ( comma > 0 && Long.parseLong( line.substring( 0, comma ) ) > upTo ) {
+                    remaining.add( line );
+                }
+            }
+            final Path compacted = Paths.get( journalPath + ".tmp" );
+            Files.write( compacted, remaining, StandardCharsets.UTF_8 );
+            journal.close();
+            Files.move( compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            journal = openJournal();
+        }
+        catch ( final IOException e ) {
+            // entries up to the checkpoint are skipped on replay anyway
+            log.warn( "Could not compact inventory reservation journal: {}", e.getMessage() );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Opens the journal for appending.
+     *
+     * @return the journal channel
+     * @throws IOException
+     *             if the journal can't be opened
+     */
+    private FileChannel openJournal () throws IOException {
+        return FileChannel.open( Paths.get( journalPath ), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND );
+    }
+
+    /**
+     * Live count of one ingredient.
+     */
+    private static final class Slot {
+        /** id of the inventory ingredient */
+        private final Long       id;
+        /** amount left to reserve */
+        private final AtomicLong available;
+        /** amount reserved and journaled but not yet written back */
+        private final LongAdder  pending   = new LongAdder();
+        /** amount reserved by transactions that haven't committed yet */
+        private final LongAdder  held      = new LongAdder();
+
+        /**
+         * Creates a slot.
+         *
+         * @param id
+         *            id of the inventory ingredient
+         * @param available
+         *            amount left to reserve
+         */
+        private Slot ( final Long id, final long available ) {
+            this.id = id;
+            this.available = new AtomicLong( available );
+        }
+
+        /**
+         * Takes the amount if there is enough left.
+         *
+         * @param amount
+         *            amount to take
+         * @return true if it was taken
+         */
+        private boolean tryTake ( final long amount ) {
+            while ( true ) {
+                final long current = available.get();
+                if ( current < amount ) {
+                    return false;
+                }
+                if ( available.compareAndSet( current, current - amount ) ) {
+                    return true;
+                }
+            }
+        }
+    }
+}
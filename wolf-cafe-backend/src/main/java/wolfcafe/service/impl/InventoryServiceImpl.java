@@ -2,18 +2,32 @@
 package wolfcafe.service.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import wolfcafe.dto.IngredientDto;
 import wolfcafe.dto.InventoryDto;
+import wolfcafe.dto.RestockResultDto;
 import wolfcafe.entity.Ingredient;
 import wolfcafe.entity.Inventory;
+import wolfcafe.entity.InventoryMovement;
 import wolfcafe.exception.ResourceNotFoundException;
 import wolfcafe.mapper.InventoryMapper;
+import wolfcafe.repository.IngredientRepository;
 import wolfcafe.repository.InventoryRepository;
 import wolfcafe.service.InventoryService;
+import jakarta.persistence.EntityManager;
 
 /**
  * Implementation of the InventoryService interface.
@@ -25,7 +39,38 @@ public class InventoryServiceImpl implements InventoryService {
      * Connection to the repository to work with the inventory DAO + database
      */
     @Autowired
-    private InventoryRepository inventoryRepository;
+    private InventoryRepository  inventoryRepository;
+
+    /**
+     * Connection to the repository to work with the ingredient DAO + database
+     */
+    @Autowired
+    private IngredientRepository ingredientRepository;
+
+    /**
+     * In-memory reservations, told to reload whenever the inventory changes
+     */
+    @Autowired
+    private InventoryReservationEngine reservationEngine;
+
+    /**
+     * The inventory's ingredients by name, dropped whenever the inventory
+     * changes
+     */
+    @Autowired
+    private InventoryCache       inventoryCache;
+
+    /** records why the amounts change */
+    @Autowired
+    private InventoryLedger      inventoryLedger;
+
+    /** used to apply a delivery in one batch */
+    @Autowired
+    private JdbcTemplate         jdbcTemplate;
+
+    /** kept in step with the amounts the batch changes */
+    @Autowired
+    private EntityManager        entityManager;
 
     /**
      * Creates the inventory.
@@ -37,10 +82,27 @@ public class InventoryServiceImpl implements InventoryService {
      *             if attempting to add a negative amount
      */
     @Override
+    @Transactional
     public InventoryDto createInventory ( final InventoryDto inventoryDto ) {
         if ( validateIngredients( inventoryDto.getIngredients() ) ) {
             final Inventory inventory = InventoryMapper.mapToInventory( inventoryDto );
-            final Inventory savedInventory = inventoryRepository.save( inventory );
+            final Set<String> added = new HashSet<String>();
+            for ( final Ingredient ingredient : inventory.getIngredients() ) {
+                if ( null == ingredient.getId() ) {
+                    added.add( ingredient.getName() );
+                }
+            }
+            final Inventory savedInventory = inventoryRepository.saveAndFlush( inventory );
+            // new ingredients start the ledger with their starting amounts
+            final Map<Long, Integer> deltas = new HashMap<Long, Integer>();
+            for ( final Ingredient ingredient : savedInventory.getIngredients() ) {
+                if ( added.contains( ingredient.getName() ) ) {
+                    deltas.put( ingredient.getId(), ingredient.getAmount() );
+                }
+            }
+            inventoryLedger.record( InventoryMovement.Type.ADJUSTMENT, null, deltas );
+            reservationEngine.resync();
+            inventoryCache.invalidate();
             return InventoryMapper.mapToInventoryDto( savedInventory );
         }
         else {
@@ -75,13 +137,7 @@ public class InventoryServiceImpl implements InventoryService {
      */
     @Override
     public Ingredient getInventoryIngredient ( final String name ) {
-        final List<Ingredient> ingredients = getInventory().getIngredients();
-        for ( int i = 0; i < ingredients.size(); i++ ) {
-            if ( ingredients.get( i ).getName().equals( name ) ) {
-                return ingredients.get( i );
-            }
-        }
-        return null;
+        return inventoryCache.get( name );
     }
 
     /**
@@ -97,16 +153,24 @@ public class InventoryServiceImpl implements InventoryService {
      *             attempting to add a negative amount
      */
     @Override
+    @Transactional
     public InventoryDto updateInventory ( final InventoryDto inventoryDto ) {
         final Inventory inventory = inventoryRepository.findById( 1L ).orElseThrow(
                 () -> new ResourceNotFoundException( "Inventory does not exist with id of " + inventoryDto.getId() ) );
 
+        // index the inventory just read rather than looking each ingredient up
+        final Map<String, Ingredient> stocked = new HashMap<String, Ingredient>();
+        for ( final Ingredient ingredient : inventory.getIngredients() ) {
+            stocked.put( ingredient.getName(), ingredient );
+        }
+
+        final Map<Long, Long> totals = new HashMap<Long, Long>();
         final List<Ingredient> toAdd = inventoryDto.getIngredients();
         for ( int i = 0; i < toAdd.size(); i++ ) {
-            final Ingredient current = getInventoryIngredient( toAdd.get( i ).getName() );
+            final Ingredient current = stocked.get( toAdd.get( i ).getName() );
             if ( current != null ) {
                 if ( toAdd.get( i ).getAmount() >= 0 ) {
-                    current.setAmount( current.getAmount() + toAdd.get( i ).getAmount() );
+                    totals.merge( current.getId(), (long) toAdd.get( i ).getAmount(), Long::sum );
                 }
                 else {
                     throw new IllegalArgumentException( "Ingredient amount cannot be negative." );
@@ -117,9 +181,76 @@ public class InventoryServiceImpl implements InventoryService {
             }
         }
 
-        final Inventory savedInventory = inventoryRepository.save( inventory );
+        // added to what's there rather than overwritten, so orders and
+        // reservations made in the meantime aren't lost
+        addAmounts( totals );
+        return InventoryMapper.mapToInventoryDto( inventoryRepository.findById( 1L ).get() );
+    }
+
+    /**
+     * Adds a delivery to the inventory. The ingredients are looked up in one
+     * query and every amount is added in one batch. Lines that aren't valid
+     * are reported and left out, without stopping the rest from being
+     * applied. Lines for the same ingredient are added together.
+     *
+     * @param lines
+     *            name of each ingredient delivered and how much of it
+     * @return the result of each line, in the order given
+     */
+    @Override
+    @Transactional
+    public List<RestockResultDto> restockIngredients ( final List<IngredientDto> lines ) {
+        final List<String> names = new ArrayList<String>();
+        for ( final IngredientDto line : lines ) {
+            if ( null != line && null != line.getName() ) {
+                names.add( line.getName() );
+            }
+        }
+        final Map<String, Ingredient> stocked = new HashMap<String, Ingredient>();
+        if ( !names.isEmpty() ) {
+            for ( final Ingredient ingredient : inventoryRepository.findInventoryIngredientsByNameIn( names ) ) {
+                stocked.put( ingredient.getName(), ingredient );
+            }
+        }
 
-        return InventoryMapper.mapToInventoryDto( savedInventory );
+        final List<RestockResultDto> results = new ArrayList<RestockResultDto>();
+        // total to add to each ingredient, summed up as longs so a line that
+        // would overflow the amount can be turned away on its own
+        final Map<Long, Long> totals = new HashMap<Long, Long>();
+        for ( int i = 0; i < lines.size(); i++ ) {
+            final IngredientDto line = lines.get( i );
+            final String name = null == line ? null : line.getName();
+            final Ingredient ingredient = null == name ? null : stocked.get( name );
+            String problem = null;
+            HttpStatus status = HttpStatus.BAD_REQUEST;
+            if ( null == name || name.isBlank() ) {
+                problem = "Ingredient name is missing.";
+            }
+            else if ( null == line.getAmount() ) {
+                problem = "Ingredient amount must be a whole number.";
+            }
+            else if ( line.getAmount() < 0 ) {
+                problem = "Ingredient amount cannot be negative.";
+            }
+            else if ( null == ingredient ) {
+                problem = "Ingredient " + name + " does not exist.";
+                status = HttpStatus.NOT_FOUND;
+            }
+            else {
+                final long total = totals.getOrDefault( ingredient.getId(), 0L ) + line.getAmount();
+                if ( ingredient.getAmount() + total > Integer.MAX_VALUE ) {
+                    problem = "Ingredient amount is too large.";
+                }
+                else {
+                    totals.put( ingredient.getId(), total );
+                }
+            }
+            results.add( null == problem ? new RestockResultDto( i, name, HttpStatus.OK.value(), null )
+                    : new RestockResultDto( i, name, status.value(), problem ) );
+        }
+
+        addAmounts( totals );
+        return results;
     }
 
     /**
@@ -162,6 +293,129 @@ public class InventoryServiceImpl implements InventoryService {
         }
     }
 
+    /**
+     * Takes the given amounts out of the inventory. Every ingredient is
+     * decremented with its own conditional update, so concurrent orders only
+     * contend on the ingredients they share. Either every amount is taken or,
+     * if any ingredient runs short, none are.
+     *
+     * @param demand
+     *            amount to take for each ingredient, keyed by ingredient name
+     * @throws IllegalArgumentException
+     *             if an ingredient isn't in the inventory or there isn't
+     *             enough of it
+     */
+    @Override
+    @Transactional
+    public void deductIngredients ( final Map<String, Integer> demand ) {
+        deductIngredients( demand, null );
+    }
+
+    /**
+     * Takes the given amounts out of the inventory for an order, recording
+     * the order in the inventory ledger. Every ingredient is decremented with
+     * its own conditional update, so concurrent orders only contend on the
+     * ingredients they share. Either every amount is taken or, if any
+     * ingredient runs short, none are.
+     *
+     * @param demand
+     *            amount to take for each ingredient, keyed by ingredient name
+     * @param orderId
+     *            id of the order taking them, or null if there isn't just one
+     * @throws IllegalArgumentException
+     *             if an ingredient isn't in the inventory or there isn't
+     *             enough of it
+     */
+    @Override
+    @Transactional
+    public void deductIngredients ( final Map<String, Integer> demand, final Long orderId ) {
+        if ( demand.isEmpty() ) {
+            return;
+        }
+
+        final Map<String, Ingredient> stocked = new HashMap<String, Ingredient>();
+        for ( final Ingredient ingredient : inventoryRepository.findInventoryIngredientsByNameIn( demand.keySet() ) ) {
+            stocked.put( ingredient.getName(), ingredient );
+        }
+
+        final List<Ingredient> toDeduct = new ArrayList<Ingredient>();
+        for ( final Map.Entry<String, Integer> entry : demand.entrySet() ) {
+            final Ingredient ingredient = stocked.get( entry.getKey() );
+            if ( ingredient == null ) {
+                throw new IllegalArgumentException( "Ingredient " + entry.getKey() + " does not exist." );
+            }
+            if ( entry.getValue() < 0 ) {
+                throw new IllegalArgumentException( "Ingredient amount cannot be negative." );
+            }
+            toDeduct.add( ingredient );
+        }
+
+        // always lock rows in id order so two orders sharing ingredients can't
+        // deadlock each other
+        toDeduct.sort( Comparator.comparing( Ingredient::getId ) );
+        for ( final Ingredient ingredient : toDeduct ) {
+            final Integer amount = demand.get( ingredient.getName() );
+            if ( amount > 0 && ingredientRepository.decrementAmount( ingredient.getId(), amount ) == 0 ) {
+                // throwing rolls back every decrement already made
+                throw new IllegalArgumentException( "Not enough ingredients in inventory." );
+            }
+        }
+        final Map<Long, Integer> deltas = new HashMap<Long, Integer>();
+        for ( final Ingredient ingredient : toDeduct ) {
+            deltas.put( ingredient.getId(), -demand.get( ingredient.getName() ) );
+        }
+        inventoryLedger.record( InventoryMovement.Type.ORDER, orderId, deltas );
+        inventoryCache.invalidate();
+    }
+
+    /**
+     * Returns how much of each of the named ingredients is in the inventory.
+     * Names that aren't in the inventory are left out.
+     *
+     * @param names
+     *            names of the ingredients to look up
+     * @return amount of each ingredient, keyed by name
+     */
+    @Override
+    public Map<String, Integer> getIngredientAmounts ( final Collection<String> names ) {
+        final Map<String, Integer> amounts = new HashMap<String, Integer>();
+        if ( names.isEmpty() ) {
+            return amounts;
+        }
+        for ( final Ingredient ingredient : inventoryRepository.findInventoryIngredientsByNameIn( names ) ) {
+            amounts.put( ingredient.getName(), ingredient.getAmount() );
+        }
+        return amounts;
+    }
+
+    /**
+     * Adds amounts to inventory ingredients in one batch and records them as
+     * a restock.
+     *
+     * @param totals
+     *            amount to add to each ingredient, keyed by id
+     */
+    private void addAmounts ( final Map<Long, Long> totals ) {
+        if ( totals.isEmpty() ) {
+            return;
+        }
+        // rows are locked in id order, the same as orders take them in
+        final List<Object[]> args = new ArrayList<Object[]>();
+        final Map<Long, Integer> deltas = new HashMap<Long, Integer>();
+        totals.entrySet().stream().sorted( Map.Entry.comparingByKey() ).forEach( entry -> {
+            args.add( new Object[] { entry.getValue(), entry.getKey() } );
+            deltas.put( entry.getKey(), entry.getValue().intValue() );
+        } );
+        // like the conditional decrement, write out pending changes first and
+        // drop the loaded entities after, since they're now stale
+        entityManager.flush();
+        jdbcTemplate.batchUpdate( "UPDATE ingredient SET amount = amount + ? WHERE id = ?", args );
+        entityManager.clear();
+        inventoryLedger.record( InventoryMovement.Type.RESTOCK, null, deltas );
+        reservationEngine.resync();
+        inventoryCache.invalidate();
+    }
+
     /**
      * Helper function to determine if a list of ingredients have valid amounts.
      *
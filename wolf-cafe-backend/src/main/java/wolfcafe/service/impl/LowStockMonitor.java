@@ -0,0 +1,389 @@
+package wolfcafe.service.impl;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import wolfcafe.dto.LowStockAlertDto;
+import wolfcafe.entity.Ingredient;
+import wolfcafe.entity.InventoryMovement;
+import wolfcafe.repository.IngredientRepository;
+import wolfcafe.repository.InventoryMovementRepository;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Watches how fast orders use each ingredient and tells the managers
+ * subscribed to GET /api/inventory/alerts/stream when one is projected to run
+ * out within the alert horizon, so shortages are found before orders start
+ * failing.
+ *
+ * Each ingredient keeps an exponentially decayed sum of what orders took from
+ * it, updated in constant time per movement; dividing by the decay time
+ * gives a recent rate of use and the amount left over that rate the time to
+ * run out. An alert is raised once the time to run out drops under the
+ * horizon and only cleared again once it is back over the horizon times the
+ * clear factor, so an ingredient hovering around the horizon doesn't flap.
+ *
+ * Rates live in memory, and are rebuilt from the inventory ledger when the
+ * application starts.
+ */
+@Component
+public class LowStockMonitor {
+
+    private static final Logger                      log     = LoggerFactory.getLogger( LowStockMonitor.class );
+
+    /** milliseconds in an hour */
+    private static final double                      HOUR_MS = 60 * 60 * 1000.0;
+
+    /** reference to InventoryMovementRepository, for rebuilding */
+    private final InventoryMovementRepository        movementRepository;
+
+    /** the inventory's ingredients, for listing the current alerts */
+    private final InventoryCache                     inventoryCache;
+
+    /** reference to IngredientRepository, for the amounts left */
+    private final IngredientRepository               ingredientRepository;
+
+    /** decay time of the rate of use, in milliseconds */
+    private final double                             decayMs;
+
+    /** alert when an ingredient will run out within this many milliseconds */
+    private final double                             horizonMs;
+
+    /** clear an alert once the time to run out is this many horizons */
+    private final double                             clearFactor;
+
+    /** the subscribed managers */
+    private final EventBroadcaster<LowStockAlertDto> broadcaster;
+
+    /** checks committed changes one at a time, in the order they committed */
+    private final ExecutorService                    checker = Executors.newSingleThreadExecutor();
+
+    /** rate of use of each ingredient, keyed by ingredient id */
+    private final Map<Long, Rate>                    rates   = new ConcurrentHashMap<Long, Rate>();
+
+    /**
+     * Creates the monitor.
+     *
+     * @param movementRepository
+     *            reference to InventoryMovementRepository, for rebuilding
+     * @param inventoryCache
+     *            the inventory's ingredients, for listing the current alerts
+     * @param ingredientRepository
+     *            reference to IngredientRepository, for the amounts left
+     * @param decayMinutes
+     *            how quickly older orders stop counting towards the rate of
+     *            use; an order's weight falls by e every this many minutes
+     * @param horizonMinutes
+     *            alert when an ingredient will run out within this many
+     *            minutes
+     * @param clearFactor
+     *            clear an alert once the time to run out is this many
+     *            horizons
+     * @param buffer
+     *            alerts buffered per manager before they are disconnected
+     * @param timeoutMs
+     *            how long a subscription stays open before the manager has to
+     *            reconnect
+     */
+    public LowStockMonitor ( final InventoryMovementRepository movementRepository,
+            final InventoryCache inventoryCache, final IngredientRepository ingredientRepository,
+            @Value ( "${app.inventory.low-stock.decay-minutes:60}" ) final long decayMinutes,
+            @Value ( "${app.inventory.low-stock.horizon-minutes:120}" ) final long horizonMinutes,
+            @Value ( "${app.inventory.low-stock.clear-factor:1.5}" ) final double clearFactor,
+            @Value ( "${app.inventory.low-stock.stream.buffer:64}" ) final int buffer,
+            @Value ( "${app.inventory.low-stock.stream.timeout-ms:1800000}" ) final long timeoutMs ) {
+        this.movementRepository = movementRepository;
+        this.inventoryCache = inventoryCache;
+        this.ingredientRepository = ingredientRepository;
+        this.decayMs = decayMinutes * 60 * 1000.0;
+        this.horizonMs = horizonMinutes * 60 * 1000.0;
+        this.clearFactor = clearFactor;
+        this.broadcaster = new EventBroadcaster<LowStockAlertDto>( buffer, timeoutMs );
+    }
+
+    /**
+     * Subscribes a new manager.
+     *
+     * @return the emitter to return from the controller
+     */
+    public SseEmitter subscribe () {
+        return broadcaster.subscribe();
+    }
+
+    /**
+     * Takes in a change to the inventory's amounts. Orders add to the rates of
+     * use, and every ingredient that changed is checked against the horizon.
+     * If a transaction is running this waits for it to commit, so a change
+     * that is rolled back is never counted, and then happens in the
+     * background.
+     *
+     * @param type
+     *            why the amounts changed
+     * @param deltas
+     *            how much each ingredient changed by, keyed by ingredient id
+     */
+    public void record ( final InventoryMovement.Type type, final Map<Long, Integer> deltas ) {
+        if ( deltas.isEmpty() ) {
+            return;
+        }
+        final Map<Long, Integer> changed = new HashMap<Long, Integer>( deltas );
+        final long now = System.currentTimeMillis();
+        final Runnable check = () -> {
+            if ( InventoryMovement.Type.ORDER == type ) {
+                changed.forEach( ( id, delta ) -> {
+                    if ( delta < 0 ) {
+                        rates.computeIfAbsent( id, key -> new Rate() ).add( -delta, now, decayMs );
+                    }
+                } );
+            }
+            check( changed.keySet(), true );
+        };
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCommit () {
+                    // off this thread, so the amounts are read outside the
+                    // transaction that just committed
+                    checker.execute( check );
+                }
+            } );
+        }
+        else {
+            check.run();
+        }
+    }
+
+    /**
+     * Returns the ingredients currently projected to run out within the
+     * horizon, for managers that have just subscribed.
+     *
+     * @return the low ingredients, soonest to run out first
+     */
+    public List<LowStockAlertDto> getAlerts () {
+        final List<LowStockAlertDto> alerts = new ArrayList<LowStockAlertDto>();
+        final long now = System.currentTimeMillis();
+        for ( final Ingredient ingredient : inventoryCache.get().values() ) {
+            final Rate rate = rates.get( ingredient.getId() );
+            if ( null != rate && rate.isAlerting() ) {
+                alerts.add( alert( LowStockAlertDto.Type.LOW_STOCK, ingredient, rate.perMs( now, decayMs ) ) );
+            }
+        }
+        alerts.sort( Comparator.comparing( LowStockAlertDto::getMinutesLeft,
+                Comparator.nullsLast( Comparator.naturalOrder() ) ) );
+        return alerts;
+    }
+
+    /**
+     * Rebuilds the rates from the orders in the inventory ledger, far enough
+     * back that anything older would have decayed away, and works out which
+     * ingredients are low without alerting anyone. Orders committed while
+     * this runs could be counted twice, which is why it runs at startup.
+     */
+    @EventListener ( ApplicationReadyEvent.class )
+    @Transactional ( readOnly = true )
+    public void rebuild () {
+        rates.clear();
+        final LocalDateTime since = LocalDateTime.now().minusSeconds( (long) ( 10 * decayMs / 1000 ) );
+        final long[] rows = new long[1];
+        try ( Stream<InventoryMovement> movements = movementRepository
+                .streamByTypeSince( InventoryMovement.Type.ORDER, since ) ) {
+            movements.forEach( movement -> {
+                if ( movement.getDelta() < 0 ) {
+                    rates.computeIfAbsent( movement.getIngredientId(), key -> new Rate() ).add(
+                            -movement.getDelta(),
+                            movement.getCreatedAt().atZone( ZoneId.systemDefault() ).toInstant().toEpochMilli(),
+                            decayMs );
+                }
+                rows[0]++;
+            } );
+        }
+        check( rates.keySet(), false );
+        log.info( "Low stock rates rebuilt from {} inventory movements", rows[0] );
+    }
+
+    /**
+     * Stops checking and disconnects every manager on shutdown.
+     */
+    @PreDestroy
+    public void shutdown () {
+        checker.shutdownNow();
+        broadcaster.shutdown();
+    }
+
+    /**
+     * Checks ingredients against the horizon, raising or clearing their
+     * alerts.
+     *
+     * @param ids
+     *            ids of the ingredients to check
+     * @param publish
+     *            whether to send the raised and cleared alerts to the
+     *            subscribed managers
+     */
+    private void check ( final Iterable<Long> ids, final boolean publish ) {
+        // only the ingredients that changed are read, not the whole inventory
+        final Map<Long, Ingredient> stocked = new HashMap<Long, Ingredient>();
+        for ( final Ingredient ingredient : ingredientRepository.findAllById( ids ) ) {
+            stocked.put( ingredient.getId(), ingredient );
+        }
+        final long now = System.currentTimeMillis();
+        for ( final Long id : ids ) {
+            final Ingredient ingredient = stocked.get( id );
+            if ( null == ingredient ) {
+                // no longer in the inventory
+                rates.remove( id );
+                continue;
+            }
+            final Rate rate = rates.computeIfAbsent( id, key -> new Rate() );
+            final double perMs = rate.perMs( now, decayMs );
+            final double msLeft = msLeft( ingredient.getAmount(), perMs );
+            final LowStockAlertDto.Type changed = rate.update( msLeft < horizonMs,
+                    msLeft > horizonMs * clearFactor );
+            if ( null != changed ) {
+                final LowStockAlertDto alert = alert( changed, ingredient, perMs );
+                if ( LowStockAlertDto.Type.LOW_STOCK == changed ) {
+                    log.warn( "Ingredient {} is low: {} left, runs out in {} minutes", alert.getName(),
+                            alert.getAmount(), alert.getMinutesLeft() );
+                }
+                if ( publish ) {
+                    broadcaster.publish( changed.name(), alert );
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out how long an amount lasts.
+     *
+     * @param amount
+     *            amount left
+     * @param perMs
+     *            rate of use per millisecond
+     * @return milliseconds until it runs out, infinite if it isn't being used
+     */
+    private static double msLeft ( final int amount, final double perMs ) {
+        if ( amount <= 0 ) {
+            return 0;
+        }
+        return perMs > 0 ? amount / perMs : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Builds an alert for an ingredient.
+     *
+     * @param type
+     *            what happened
+     * @param ingredient
+     *            the ingredient, with the amount left
+     * @param perMs
+     *            rate of use per millisecond
+     * @return the alert
+     */
+    private static LowStockAlertDto alert ( final LowStockAlertDto.Type type, final Ingredient ingredient,
+            final double perMs ) {
+        final double msLeft = msLeft( ingredient.getAmount(), perMs );
+        final Long minutesLeft = Double.isInfinite( msLeft ) ? null : Math.round( msLeft / 60000 );
+        return new LowStockAlertDto( type, ingredient.getId(), ingredient.getName(), ingredient.getAmount(),
+                perMs * HOUR_MS, minutesLeft );
+    }
+
+    /**
+     * The decayed amount of one ingredient orders have taken, and whether it
+     * is being alerted on.
+     */
+    private static final class Rate {
+
+        /** amount taken, each order's share decayed since it was taken */
+        private double  decayed;
+
+        /** when decayed was last brought up to date, in epoch milliseconds */
+        private long    updatedAt;
+
+        /** whether an alert is raised */
+        private boolean alerting;
+
+        /**
+         * Adds an amount taken at a time.
+         *
+         * @param amount
+         *            amount taken
+         * @param time
+         *            when, in epoch milliseconds
+         * @param decayMs
+         *            decay time, in milliseconds
+         */
+        synchronized void add ( final long amount, final long time, final double decayMs ) {
+            if ( time >= updatedAt ) {
+                decayed = decayed * Math.exp( ( updatedAt - time ) / decayMs ) + amount;
+                updatedAt = time;
+            }
+            else {
+                // late arrival, decay it to the current time instead
+                decayed += amount * Math.exp( ( time - updatedAt ) / decayMs );
+            }
+        }
+
+        /**
+         * Returns the rate of use at a time.
+         *
+         * @param now
+         *            the time, in epoch milliseconds
+         * @param decayMs
+         *            decay time, in milliseconds
+         * @return amount used per millisecond
+         */
+        synchronized double perMs ( final long now, final double decayMs ) {
+            return decayed * Math.exp( Math.min( 0, updatedAt - now ) / decayMs ) / decayMs;
+        }
+
+        /**
+         * Raises or clears the alert.
+         *
+         * @param low
+         *            whether the ingredient is under the horizon
+         * @param clear
+         *            whether it is far enough over the horizon to clear
+         * @return the alert raised or cleared, or null if nothing changed
+         */
+        synchronized LowStockAlertDto.Type update ( final boolean low, final boolean clear ) {
+            if ( !alerting && low ) {
+                alerting = true;
+                return LowStockAlertDto.Type.LOW_STOCK;
+            }
+            if ( alerting && clear ) {
+                alerting = false;
+                return LowStockAlertDto.Type.RESTORED;
+            }
+            return null;
+        }
+
+        /**
+         * Returns whether an alert is raised.
+         *
+         * @return true if it is
+         */
+        synchronized boolean isAlerting () {
+            return alerting;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package wolfcafe.service.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import wolfcafe.repository.RecipeRepository;
+
+/**
+ * Holds the current MenuSnapshot. The snapshot is built on first use and
+ * thrown away whenever a recipe changes, so orders are validated without
+ * querying recipes.
+ */
+@Component
+public class MenuCache {
+
+    /**
+     * Connection to the repository to work with the DAO + database. Lazy
+     * because recipe changes reach this class from an entity listener while
+     * the repositories are still being set up.
+     */
+    @Lazy
+    @Autowired
+    private RecipeRepository      recipeRepository;
+
+    /** the cached snapshot, null until the next use rebuilds it */
+    private volatile MenuSnapshot snapshot;
+
+    /** bumped on every change, so a rebuild racing a change isn't kept */
+    private final AtomicLong      version = new AtomicLong();
+
+    /**
+     * Returns the current menu.
+     *
+     * @return snapshot of the recipes
+     */
+    public MenuSnapshot get () {
+        final MenuSnapshot cached = snapshot;
+        if ( null != cached ) {
+            return cached;
+        }
+        final long seen = version.get();
+        final MenuSnapshot built = new MenuSnapshot( recipeRepository.findAll() );
+        // inside a transaction we may be looking at uncommitted recipes, so
+        // only keep snapshots built outside of one
+        if ( !TransactionSynchronizationManager.isActualTransactionActive() && version.get() == seen ) {
+            snapshot = built;
+        }
+        return built;
+    }
+
+    /**
+     * Drops the cached menu. Inside a transaction it is dropped again once
+     * the transaction finishes, in case it was rebuilt in between.
+     */
+    public void invalidate () {
+        version.incrementAndGet();
+        snapshot = null;
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCompletion ( final int status ) {
+                    version.incrementAndGet();
+                    snapshot = null;
+                }
+            } );
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package wolfcafe.service.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import wolfcafe.entity.Ingredient;
+import wolfcafe.entity.MultiRecipe;
+import wolfcafe.entity.Recipe;
+
+/**
+ * Immutable copy of the menu used to validate orders without going to the
+ * database. Each recipe is kept as its price plus a fingerprint of its
+ * ingredient names and amounts, in recipe order, so checking an ordered recipe
+ * is a map lookup and an array comparison.
+ */
+public final class MenuSnapshot {
+
+    /** Why an ordered recipe doesn't match the menu. */
+    public enum Problem {
+        /** no recipe on the menu has that name */
+        UNKNOWN_RECIPE,
+        /** amount, price or number of ingredients is wrong */
+        BAD_RECIPE,
+        /** an ingredient name or amount doesn't match the recipe */
+        BAD_INGREDIENTS
+    }
+
+    /** recipes on the menu, keyed by name */
+    private final Map<String, Entry> entries;
+
+    /**
+     * Builds a snapshot of the given recipes.
+     *
+     * @param recipes
+     *            every recipe on the menu
+     */
+    public MenuSnapshot ( final List<Recipe> recipes ) {
+        final Map<String, Entry> built = new HashMap<String, Entry>();
+        for ( final Recipe recipe : recipes ) {
+            built.put( recipe.getName(), new Entry( recipe ) );
+        }
+        this.entries = Collections.unmodifiableMap( built );
+    }
+
+    /**
+     * Returns the id of the named recipe.
+     *
+     * @param name
+     *            the recipe's name
+     * @return the recipe's id, or null if it isn't on the menu
+     */
+    public Long getRecipeId ( final String name ) {
+        final Entry entry = null == name ? null : entries.get( name );
+        return null == entry ? null : entry.id;
+    }
+
+    /**
+     * Returns how much of each ingredient one serving of each recipe takes.
+     *
+     * @return ingredient amounts keyed by ingredient name, keyed by recipe id
+     */
+    public Map<Long, Map<String, Integer>> getServingAmounts () {
+        final Map<Long, Map<String, Integer>> amounts = new HashMap<Long, Map<String, Integer>>();
+        for ( final Entry entry : entries.values() ) {
+            final Map<String, Integer> serving = new HashMap<String, Integer>();
+            for ( int i = 0; i < entry.names.length; i++ ) {
+                serving.merge( entry.names[i], entry.amounts[i], Integer::sum );
+            }
+            amounts.put( entry.id, serving );
+        }
+        return amounts;
+    }
+
+    /**
+     * Checks an ordered recipe against the menu.
+     *
+     * @param multiRecipe
+     *            the ordered recipe
+     * @return what's wrong with it, or null if it matches the menu
+     */
+    public Problem check ( final MultiRecipe multiRecipe ) {
+        final Entry entry = null == multiRecipe || null == multiRecipe.getName() ? null
+                : entries.get( multiRecipe.getName() );
+        if ( null == entry ) {
+            return Problem.UNKNOWN_RECIPE;
+        }
+
+        final List<Ingredient> ingredients = multiRecipe.getIngredients();
+        if ( null == multiRecipe.getAmount() || null == ingredients || entry.names.length != ingredients.size()
+                || !entry.price.equals( multiRecipe.getPrice() ) || multiRecipe.getAmount() <= 0 ) {
+            return Problem.BAD_RECIPE;
+        }
+
+        // ingredients have to appear exactly as they do in the recipe
+        for ( int i = 0; i < entry.names.length; i++ ) {
+            final Ingredient ingredient = ingredients.get( i );
+            if ( null == ingredient || !entry.names[i].equals( ingredient.getName() )
+                    || null == ingredient.getAmount() || entry.amounts[i] != ingredient.getAmount() ) {
+                return Problem.BAD_INGREDIENTS;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One recipe on the menu.
+     */
+    private static final class Entry {
+        /** id of the recipe */
+        private final Long     id;
+        /** price of the recipe */
+        private final Integer  price;
+        /** ingredient names, in recipe order */
+        private final String[] names;
+        /** ingredient amounts, in recipe order */
+        private final int[]    amounts;
+
+        /**
+         * Copies what validation needs out of a recipe.
+         *
+         * @param recipe
+         *            the recipe
+         */
+        private Entry ( final Recipe recipe ) {
+            this.id = recipe.getId();
+            this.price = recipe.getPrice();
+            final List<Ingredient> ingredients = recipe.getIngredients();
+            this.names = new String[ingredients.size()];
+            this.amounts = new int[ingredients.size()];
+            for ( int i = 0; i < ingredients.size(); i++ ) {
+                names[i] = ingredients.get( i ).getName();
+                amounts[i] = ingredients.get( i ).getAmount();
+            }
+        }
+    }
+}
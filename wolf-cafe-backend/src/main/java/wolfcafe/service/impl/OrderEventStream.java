@@ -0,0 +1,63 @@
+package wolfcafe.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import wolfcafe.dto.OrderEventDto;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pushes order queue changes published by the order service to the staff
+ * screens subscribed to GET /api/orders/stream. Changes are only sent once the
+ * transaction that made them commits.
+ */
+@Component
+public class OrderEventStream {
+
+    /** the subscribed screens */
+    private final EventBroadcaster<OrderEventDto> broadcaster;
+
+    /**
+     * Creates the stream.
+     *
+     * @param buffer
+     *            events buffered per screen before it is disconnected
+     * @param timeoutMs
+     *            how long a subscription stays open before the screen has to
+     *            reconnect
+     */
+    public OrderEventStream ( @Value ( "${app.orders.stream.buffer:256}" ) final int buffer,
+            @Value ( "${app.orders.stream.timeout-ms:1800000}" ) final long timeoutMs ) {
+        this.broadcaster = new EventBroadcaster<OrderEventDto>( buffer, timeoutMs );
+    }
+
+    /**
+     * Subscribes a new screen.
+     *
+     * @return the emitter to return from the controller
+     */
+    public SseEmitter subscribe () {
+        return broadcaster.subscribe();
+    }
+
+    /**
+     * Sends a committed order change to every screen.
+     *
+     * @param event
+     *            the change
+     */
+    @TransactionalEventListener ( fallbackExecution = true )
+    public void onOrderEvent ( final OrderEventDto event ) {
+        broadcaster.publish( event.getType().name(), event );
+    }
+
+    /**
+     * Disconnects every screen on shutdown.
+     */
+    @PreDestroy
+    public void shutdown () {
+        broadcaster.shutdown();
+    }
+}
@@ -0,0 +1,177 @@
+package wolfcafe.service.impl;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import wolfcafe.entity.OrderHistory;
+import wolfcafe.mapper.OrderHistoryMapper;
+import wolfcafe.repository.OrderHistoryRepository;
+import jakarta.persistence.EntityManager;
+
+/**
+ * Moves picked up history older than a configured age out of order_history
+ * into order_history_archive, so the table orders are recorded in and read
+ * from stays small. Runs on a schedule, a batch at a time with each batch in
+ * its own short transaction, so it never holds locks on much of the table.
+ * Each run archives at most a set number of batches, so a large backlog is
+ * worked through over several runs rather than holding up the scheduler's
+ * other tasks.
+ * OrderHistoryService reads both tables, so archiving doesn't change what the
+ * api returns.
+ *
+ * Off by default.
+ */
+@Component
+public class OrderHistoryArchiver {
+
+    private static final Logger        log                = LoggerFactory.getLogger( OrderHistoryArchiver.class );
+
+    /** copies a batch into the archive */
+    private static final String        INSERT_ARCHIVE     = "INSERT INTO order_history_archive "
+            + "(id, recipes_in_order, ingredients_used, total, username, created_at, archived_at) VALUES "
+            + "(:id, :recipesInOrder, :ingredientsUsed, :total, :username, :createdAt, :archivedAt)";
+
+    /** deletes a batch's ingredient rows */
+    private static final String        DELETE_INGREDIENTS = "DELETE FROM order_history_ingredient "
+            + "WHERE order_history_id IN (:ids)";
+
+    /** deletes a batch's line rows */
+    private static final String        DELETE_LINES       = "DELETE FROM order_history_line "
+            + "WHERE order_history_id IN (:ids)";
+
+    /** deletes a batch from order_history */
+    private static final String        DELETE_HISTORY     = "DELETE FROM order_history WHERE id IN (:ids)";
+
+    /** whether history is archived at all */
+    @Value ( "${app.history.archive.enabled:false}" )
+    private boolean                    enabled;
+
+    /** how many days old picked up history has to be to be archived */
+    @Value ( "${app.history.archive.max-age-days:90}" )
+    private int                        maxAgeDays;
+
+    /** most orders archived in one transaction */
+    @Value ( "${app.history.archive.batch-size:500}" )
+    private int                        batchSize;
+
+    /** most batches archived by one scheduled run */
+    @Value ( "${app.history.archive.max-batches-per-run:20}" )
+    private int                        maxBatchesPerRun;
+
+    /** reference to OrderHistoryRepository */
+    @Autowired
+    private OrderHistoryRepository     orderHistoryRepository;
+
+    /** used to copy and delete each batch with a handful of statements */
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /** used to run each batch in its own transaction */
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /** used to let go of the histories once they're deleted */
+    @Autowired
+    private EntityManager              entityManager;
+
+    /**
+     * Archives old history on a schedule, if archiving is enabled.
+     */
+    @Scheduled ( fixedDelayString = "${app.history.archive.interval-ms:3600000}",
+            initialDelayString = "${app.history.archive.interval-ms:3600000}" )
+    public void scheduledArchive () {
+        if ( enabled ) {
+            archive( LocalDateTime.now().minusDays( maxAgeDays ), maxBatchesPerRun );
+        }
+    }
+
+    /**
+     * Archives every picked up order recorded before a time, along with any
+     * history recorded before times were kept, a batch at a time until there
+     * is none left.
+     *
+     * @param before
+     *            orders recorded before this are archived
+     * @return how many orders were archived
+     */
+    public int archive ( final LocalDateTime before ) {
+        return archive( before, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Archives picked up orders recorded before a time, along with any history
+     * recorded before times were kept, a batch at a time until there is none
+     * left or the most batches have been archived. Whatever is left is
+     * archived by a later run.
+     *
+     * @param before
+     *            orders recorded before this are archived
+     * @param maxBatches
+     *            most batches to archive
+     * @return how many orders were archived
+     */
+    public int archive ( final LocalDateTime before, final int maxBatches ) {
+        final TransactionTemplate transaction = new TransactionTemplate( transactionManager );
+        int archived = 0;
+        int batch;
+        int batches = 0;
+        do {
+            batch = transaction.execute( status -> archiveBatch( before ) );
+            archived += batch;
+            batches++;
+        }
+        while ( batch == batchSize && batches < maxBatches );
+        if ( archived > 0 ) {
+            log.info( "OrderHistory: archived {} orders recorded before {}", archived, before );
+        }
+        return archived;
+    }
+
+    /**
+     * Copies one batch of old picked up orders into the archive and deletes
+     * them, with their lines and ingredients, from order_history.
+     *
+     * @param before
+     *            orders recorded before this are archived
+     * @return how many orders were archived
+     */
+    private int archiveBatch ( final LocalDateTime before ) {
+        final List<Long> ids = orderHistoryRepository.findArchivableIds( before, Limit.of( batchSize ) );
+        if ( ids.isEmpty() ) {
+            return 0;
+        }
+        // lines and ingredients are fetched in batches to build the strings
+        final List<OrderHistory> histories = orderHistoryRepository.findAllById( ids );
+        final LocalDateTime archivedAt = LocalDateTime.now();
+        final SqlParameterSource[] rows = new SqlParameterSource[histories.size()];
+        for ( int i = 0; i < rows.length; i++ ) {
+            rows[i] = new BeanPropertySqlParameterSource(
+                    OrderHistoryMapper.mapToOrderHistoryArchive( histories.get( i ), archivedAt ) );
+        }
+        jdbcTemplate.batchUpdate( INSERT_ARCHIVE, rows );
+
+        final Map<String, List<Long>> params = Map.of( "ids", ids );
+        jdbcTemplate.update( DELETE_INGREDIENTS, params );
+        jdbcTemplate.update( DELETE_LINES, params );
+        jdbcTemplate.update( DELETE_HISTORY, params );
+        // the rows are gone, so the entities mustn't be flushed or found again
+        for ( final OrderHistory history : histories ) {
+            entityManager.detach( history );
+        }
+        return ids.size();
+    }
+}
@@ -0,0 +1,190 @@
+package wolfcafe.service.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import wolfcafe.dto.OrderHistoryExportDto;
+import wolfcafe.entity.OrderHistoryArchive;
+import wolfcafe.repository.OrderHistoryArchiveRepository;
+import wolfcafe.repository.OrderHistoryExportRow;
+import wolfcafe.repository.OrderHistoryRepository;
+
+/**
+ * Writes order history out as CSV or NDJSON for accounting. Rows are streamed
+ * from the database and written as they arrive, so an export holds one order
+ * in memory at a time however much history there is. Archived history is
+ * written first, then the history still in order_history.
+ */
+@Component
+public class OrderHistoryExporter {
+
+    /** header row of a CSV export */
+    private static final String           CSV_HEADER = "id,username,created_at,picked_up,total,recipes";
+
+    /** reference to OrderHistoryRepository */
+    @Autowired
+    private OrderHistoryRepository        orderHistoryRepository;
+
+    /** reference to OrderHistoryArchiveRepository */
+    @Autowired
+    private OrderHistoryArchiveRepository orderHistoryArchiveRepository;
+
+    /** writes NDJSON lines, configured like the rest of the api */
+    @Autowired
+    private ObjectMapper                  objectMapper;
+
+    /**
+     * Writes the history recorded in a time range to a stream, archived
+     * history first and then the rest, each in order id order. Runs in its own
+     * read-only transaction, which the database streams need to stay open and
+     * which keeps an order being archived meanwhile from showing up twice or
+     * not at all. MySQL can only stream one result at a time on a connection,
+     * so the archive is read to the end before order_history is queried.
+     *
+     * @param from
+     *            only history recorded at or after this, or from the start if
+     *            null
+     * @param to
+     *            only history recorded before this, or to the end if null
+     * @param format
+     *            format to write in
+     * @param out
+     *            stream to write to, left open
+     * @throws IOException
+     *             if writing fails, for instance because the client went away
+     */
+    @Transactional ( readOnly = true )
+    public void export ( final LocalDateTime from, final LocalDateTime to, final OrderHistoryExportDto.Format format,
+            final OutputStream out ) throws IOException {
+        final Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+        if ( OrderHistoryExportDto.Format.CSV == format ) {
+            writer.write( CSV_HEADER );
+            writer.write( '\n' );
+        }
+        try ( Stream<OrderHistoryExportRow> rows = orderHistoryArchiveRepository.streamExportRows( from, to ) ) {
+            write( writer, format, rows );
+        }
+        try ( Stream<OrderHistoryExportRow> rows = orderHistoryRepository.streamExportRows( from, to ) ) {
+            write( writer, format, rows );
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes every order in a stream of export rows.
+     *
+     * @param writer
+     *            writer to write to
+     * @param format
+     *            format to write in
+     * @param rows
+     *            the rows, with each order's rows next to each other
+     * @throws IOException
+     *             if writing fails
+     */
+    private void write ( final Writer writer, final OrderHistoryExportDto.Format format,
+            final Stream<OrderHistoryExportRow> rows ) throws IOException {
+        final Iterator<OrderHistoryExportRow> iterator = rows.iterator();
+        OrderHistoryExportDto order = null;
+        final StringBuilder recipes = new StringBuilder();
+        while ( iterator.hasNext() ) {
+            final OrderHistoryExportRow row = iterator.next();
+            // rows of an order are next to each other, so an order is done
+            // when the id changes
+            if ( null == order || !order.getId().equals( row.getId() ) ) {
+                if ( null != order ) {
+                    write( writer, format, order, recipes );
+                }
+                // the archive can't hold a null time, so older history is
+                // written without one either way
+                final LocalDateTime createdAt = OrderHistoryArchive.UNKNOWN_TIME.equals( row.getCreatedAt() ) ? null
+                        : row.getCreatedAt();
+                order = new OrderHistoryExportDto( row.getId(), row.getUsername(), createdAt, row.getPickedUp(),
+                        row.getTotal(), row.getRecipesInOrder() );
+                recipes.setLength( 0 );
+            }
+            if ( null != row.getRecipeName() ) {
+                if ( recipes.length() > 0 ) {
+                    recipes.append( ", " );
+                }
+                recipes.append( row.getRecipeName() ).append( ": " ).append( row.getQuantity() );
+            }
+        }
+        if ( null != order ) {
+            write( writer, format, order, recipes );
+        }
+    }
+
+    /**
+     * Writes one order, taking its recipes from its lines unless they were
+     * stored as a string.
+     *
+     * @param writer
+     *            writer to write to
+     * @param format
+     *            format to write in
+     * @param order
+     *            the order
+     * @param recipes
+     *            the order's recipes built from its lines
+     * @throws IOException
+     *             if writing fails
+     */
+    private void write ( final Writer writer, final OrderHistoryExportDto.Format format,
+            final OrderHistoryExportDto order, final StringBuilder recipes ) throws IOException {
+        if ( null == order.getRecipes() ) {
+            order.setRecipes( recipes.toString() );
+        }
+        if ( OrderHistoryExportDto.Format.NDJSON == format ) {
+            // the writer belongs to the caller, so the mapper mustn't close it
+            objectMapper.writer().without( JsonGenerator.Feature.AUTO_CLOSE_TARGET ).writeValue( writer, order );
+        }
+        else {
+            writer.write( String.valueOf( order.getId() ) );
+            writer.write( ',' );
+            writer.write( csv( order.getUsername() ) );
+            writer.write( ',' );
+            writer.write( null == order.getCreatedAt() ? "" : order.getCreatedAt().toString() );
+            writer.write( ',' );
+            writer.write( String.valueOf( Boolean.TRUE.equals( order.getPickedUp() ) ) );
+            writer.write( ',' );
+            writer.write( null == order.getTotal() ? "" : order.getTotal().toString() );
+            writer.write( ',' );
+            writer.write( csv( order.getRecipes() ) );
+        }
+        writer.write( '\n' );
+    }
+
+    /**
+     * Quotes a CSV field if it holds a comma, quote or line break, doubling
+     * any quotes in it.
+     *
+     * @param value
+     *            the field
+     * @return the field as it is written
+     */
+    static String csv ( final String value ) {
+        if ( null == value ) {
+            return "";
+        }
+        if ( value.indexOf( ',' ) < 0 && value.indexOf( '"' ) < 0 && value.indexOf( '\n' ) < 0
+                && value.indexOf( '\r' ) < 0 ) {
+            return value;
+        }
+        return '"' + value.replace( "\"", "\"\"" ) + '"';
+    }
+}
@@ -1,24 +1,41 @@
 package wolfcafe.service.impl;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.function.Function;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import wolfcafe.dto.OrderDto;
 import wolfcafe.dto.OrderHistoryDto;
 import wolfcafe.entity.Ingredient;
 import wolfcafe.entity.MultiRecipe;
 import wolfcafe.entity.OrderHistory;
+import wolfcafe.entity.OrderHistoryArchive;
+import wolfcafe.entity.OrderHistoryIngredient;
+import wolfcafe.entity.OrderHistoryLine;
 import wolfcafe.entity.User;
 import wolfcafe.mapper.OrderHistoryMapper;
+import wolfcafe.repository.InventoryRepository;
+import wolfcafe.repository.OrderHistoryArchiveRepository;
 import wolfcafe.repository.OrderHistoryRepository;
 import wolfcafe.repository.UserRepository;
 import wolfcafe.service.OrderHistoryService;
+import wolfcafe.service.ReportService;
 import wolfcafe.service.TaxService;
 import lombok.AllArgsConstructor;
 
@@ -31,15 +48,39 @@ public class OrderHistoryServiceImpl implements OrderHistoryService {
 
     /** Reference to TaxService */
     @Autowired
-    private final TaxService             taxService;
+    private final TaxService                    taxService;
 
     /** reference to OrderHistoryRepository */
     @Autowired
-    private final OrderHistoryRepository orderHistoryRepository;
+    private final OrderHistoryRepository        orderHistoryRepository;
 
     /** reference to OrderHistoryRepository */
     @Autowired
-    private final UserRepository         userRepository;
+    private final UserRepository                userRepository;
+
+    /** reference to InventoryRepository, for the ids of used ingredients */
+    @Autowired
+    private final InventoryRepository           inventoryRepository;
+
+    /** the cached menu, for the ids of ordered recipes */
+    @Autowired
+    private final MenuCache                     menuCache;
+
+    /** reference to ReportService, to keep the sales rollups current */
+    @Autowired
+    private final ReportService                 reportService;
+
+    /** reference to OrderHistoryArchiveRepository, for archived history */
+    @Autowired
+    private final OrderHistoryArchiveRepository orderHistoryArchiveRepository;
+
+    /** writes history behind the order, when enabled */
+    @Autowired
+    private final OrderHistoryWriter            orderHistoryWriter;
+
+    /** versions of each user's history, bumped on pickup */
+    @Autowired
+    private final HistoryVersions               historyVersions;
 
     /**
      * Helper method to calculate total for an order
@@ -98,6 +139,27 @@ public class OrderHistoryServiceImpl implements OrderHistoryService {
      * @return a string representation of ingredients of recipes in the order
      */
     String ingredientsInOrder ( final List<MultiRecipe> recipes ) {
+        final Map<String, Integer> ingredientAmounts = ingredientAmounts( recipes );
+
+        // creates a string builder to turn it into a string
+        final StringBuilder result = new StringBuilder();
+        for ( final Map.Entry<String, Integer> entry : ingredientAmounts.entrySet() ) {
+            if ( result.length() > 0 ) {
+                result.append( ", " );
+            }
+            result.append( entry.getKey() ).append( ":" ).append( entry.getValue() );
+        }
+        return result.toString();
+    }
+
+    /**
+     * Helper method to total up the ingredients of recipes in order
+     *
+     * @param recipes
+     *            the recipes in the order
+     * @return total amount of each ingredient the order used, in name order
+     */
+    Map<String, Integer> ingredientAmounts ( final List<MultiRecipe> recipes ) {
         // uses a map to allow for pair value, and a tree to keep alphabetic
         // order, this way we can have consistent results for testing
         final Map<String, Integer> ingredientAmounts = new TreeMap<>();
@@ -114,16 +176,36 @@ public class OrderHistoryServiceImpl implements OrderHistoryService {
                 ingredientAmounts.merge( ingredientName, totalAmount, Integer::sum );
             }
         }
+        return ingredientAmounts;
+    }
 
-        // creates a string builder to turn it into a string
-        final StringBuilder result = new StringBuilder();
-        for ( final Map.Entry<String, Integer> entry : ingredientAmounts.entrySet() ) {
-            if ( result.length() > 0 ) {
-                result.append( ", " );
-            }
-            result.append( entry.getKey() ).append( ":" ).append( entry.getValue() );
+    /**
+     * Helper method to add a row for each recipe and each ingredient of an
+     * order to its history
+     *
+     * @param orderHistory
+     *            the history to add the rows to
+     * @param recipes
+     *            the recipes in the order
+     */
+    void addLines ( final OrderHistory orderHistory, final List<MultiRecipe> recipes ) {
+        // one row per recipe, with its id from the menu
+        final MenuSnapshot menu = menuCache.get();
+        for ( final MultiRecipe recipe : recipes ) {
+            orderHistory.getLines().add( new OrderHistoryLine( orderHistory, menu.getRecipeId( recipe.getName() ),
+                    recipe.getName(), recipe.getAmount(), recipe.getPrice() ) );
         }
-        return result.toString();
+
+        // one row per ingredient, with its id from the inventory looked up in
+        // one query
+        final Map<String, Integer> ingredientAmounts = ingredientAmounts( recipes );
+        final Map<String, Long> ingredientIds = new HashMap<String, Long>();
+        for ( final Ingredient ingredient : inventoryRepository
+                .findInventoryIngredientsByNameIn( ingredientAmounts.keySet() ) ) {
+            ingredientIds.put( ingredient.getName(), ingredient.getId() );
+        }
+        ingredientAmounts.forEach( ( name, amount ) -> orderHistory.getIngredients()
+                .add( new OrderHistoryIngredient( orderHistory, ingredientIds.get( name ), name, amount ) ) );
     }
 
     /**
@@ -135,27 +217,11 @@ public class OrderHistoryServiceImpl implements OrderHistoryService {
      *         user
      */
     @Override
+    @Transactional
     public OrderHistoryDto makeOrderHistory ( final String usernameOrEmail, final OrderDto orderDto ) {
-        // gets id of order
-        final Long id = orderDto.getId();
-        // gets recipes of order it is making a history object for
-        final List<MultiRecipe> recipes = orderDto.getRecipes();
-        // uses the recipe list and helper methods to get necessary fields
-        // including:
-        // total, string representation of recipes and ingredients.
-        final Double total = calcTotal( recipes );
-        final String recipesUsedInOrder = recipesInOrder( recipes );
-        final String ingredientsUsedInOrder = ingredientsInOrder( recipes );
         final Optional<User> user = userRepository.findByUsernameOrEmail( usernameOrEmail, usernameOrEmail );
         if ( user.isPresent() ) {
-            final User validUser = user.get();
-            // makes a orderHistory entity and saves it
-            final OrderHistory orderHistory = new OrderHistory( id, false, recipesUsedInOrder, ingredientsUsedInOrder,
-                    total, validUser.getUsername() );
-            orderHistoryRepository.save( orderHistory );
-            // turns it into a Dto and returns it
-            final OrderHistoryDto orderHistoryDto = OrderHistoryMapper.mapToOrderHistoryDto( orderHistory );
-            return orderHistoryDto;
+            return recordOrderHistory( user.get().getUsername(), orderDto );
         }
         else {
             // returns null if it fails, but since it uses info of a logged in
@@ -164,6 +230,45 @@ public class OrderHistoryServiceImpl implements OrderHistoryService {
         }
     }
 
+    /**
+     * Records the history of an order for a user that has already been looked
+     * up, so the user isn't fetched again
+     *
+     * @param username
+     *            the username of the user the order belongs to
+     * @param orderDto
+     *            the saved order to add to history
+     * @return the OrderHistoryDto for the order
+     */
+    @Override
+    @Transactional
+    public OrderHistoryDto recordOrderHistory ( final String username, final OrderDto orderDto ) {
+        // gets id of order
+        final Long id = orderDto.getId();
+        // gets recipes of order it is making a history object for
+        final List<MultiRecipe> recipes = orderDto.getRecipes();
+        // uses the recipe list and helper methods to get the total
+        final Double total = calcTotal( recipes );
+        // makes a orderHistory entity with a row for each recipe and
+        // ingredient and saves it. The rows are inserted in one batch, and the
+        // string representations are built from them when asked for
+        final OrderHistory orderHistory = new OrderHistory( id, false, null, null, total, username );
+        orderHistory.setCreatedAt( LocalDateTime.now() );
+        addLines( orderHistory, recipes );
+        if ( orderHistoryWriter.isEnabled() ) {
+            // inserted, and its sales rolled up, in a later batch once the
+            // order commits
+            orderHistoryWriter.submit( orderHistory );
+        }
+        else {
+            orderHistoryRepository.save( orderHistory );
+            // adds the order to this hour's sales in the same transaction
+            reportService.recordSale( orderHistory );
+        }
+        // turns it into a Dto and returns it
+        return OrderHistoryMapper.mapToOrderHistoryDto( orderHistory );
+    }
+
     /**
      * Method to update a order status so that it is recognizable as picked up
      *
@@ -172,7 +277,12 @@ public class OrderHistoryServiceImpl implements OrderHistoryService {
      * @return false if not found, true if found and updated
      */
     @Override
+    @Transactional
     public boolean updateOrderHistoryStatus ( final Long id ) {
+        // history still waiting to be written behind is written first
+        if ( orderHistoryWriter.isPending( id ) ) {
+            orderHistoryWriter.flush();
+        }
         // tries to find the order history using given id
         final OrderHistory orderHistoryBeingUpdated = orderHistoryRepository.findById( id ).orElse( null );
         // returns false if not found
@@ -180,6 +290,13 @@ public class OrderHistoryServiceImpl implements OrderHistoryService {
             return false;
         }
 
+        // counts the pickup once, even if the status is updated again, and
+        // tells clients holding the user's history that it changed
+        if ( !Boolean.TRUE.equals( orderHistoryBeingUpdated.getPickedUp() ) ) {
+            reportService.recordPickup( orderHistoryBeingUpdated );
+            historyVersions.bump( orderHistoryBeingUpdated.getUsername() );
+        }
+
         // if found then it sets picked up to true
         orderHistoryBeingUpdated.setPickedUp( true );
 
@@ -191,44 +308,58 @@ public class OrderHistoryServiceImpl implements OrderHistoryService {
     /**
      * Method that gets the history of all orders. Since we only considered
      * picked-uped orders as apart of history this only returns orders that meet
-     * that requirement
+     * that requirement. Archived orders are included.
      *
      * @return the history of all picked up orders
      */
     @Override
     public List<OrderHistory> getOrderHistory () {
-        // gets all the order histories
-        final List<OrderHistory> allOrderHistory = orderHistoryRepository.findAll();
-        // makes a list to store the picked up ones
-        final List<OrderHistory> pickedUpOrders = new ArrayList<OrderHistory>();
-        // iterates through all order histories and adds the ones that have been
-        // picked up to the list
-        for ( final OrderHistory orderHistory : allOrderHistory ) {
-            if ( orderHistory.getPickedUp() ) {
-                pickedUpOrders.add( orderHistory );
-            }
-        }
-        // returns the list of picked up ones
-        return pickedUpOrders;
+        // filtered by the query rather than reading the whole table
+        return union( orderHistoryRepository.findByPickedUpTrue( Sort.by( "id" ) ),
+                orderHistoryArchiveRepository.findAll( Sort.by( "id" ) ) );
     }
 
     /**
-     * Method that gets the history of an order by an id
+     * Gets one page of the history of all picked up orders, archived ones
+     * included.
+     *
+     * @param pageable
+     *            which page, how big, and how it is sorted
+     * @return the page of picked up orders
+     */
+    @Override
+    public Page<OrderHistory> getOrderHistory ( final Pageable pageable ) {
+        return union( pageable, orderHistoryRepository::findByPickedUpTrue, orderHistoryArchiveRepository::findAll );
+    }
+
+    /**
+     * Method that gets the history of an order by an id, looking in the
+     * queue of history still to be written and then the archive if it isn't
+     * current
      *
      * @param id
      *            the id of the order it is getting
      *
-     * @return the history of all picked up orders
+     * @return the history of the order, or null if there is none
      */
     @Override
     public OrderHistory getHistoryById ( final Long id ) {
-        return orderHistoryRepository.findById( id ).orElse( null );
+        final Optional<OrderHistory> orderHistory = orderHistoryRepository.findById( id );
+        if ( orderHistory.isPresent() ) {
+            return orderHistory.get();
+        }
+        final OrderHistory pending = orderHistoryWriter.getPending( id );
+        if ( null != pending ) {
+            return pending;
+        }
+        return orderHistoryArchiveRepository.findById( id ).map( OrderHistoryMapper::mapToOrderHistory )
+                .orElse( null );
     }
 
     /**
      * Method that gets the history of all orders for a specified user. Since we
      * only considered picked-uped orders as apart of history this only returns
-     * orders that meet that requirement
+     * orders that meet that requirement. Archived orders are included.
      *
      * @param username
      *            the username of user we want the orders of
@@ -236,20 +367,143 @@ public class OrderHistoryServiceImpl implements OrderHistoryService {
      */
     @Override
     public List<OrderHistory> getUserHistory ( final String username ) {
-        // gets all the order histories
-        final List<OrderHistory> allOrderHistory = orderHistoryRepository.findAll();
-        // makes a list to store the picked up ones that belong to the specified
-        // user
-        final List<OrderHistory> pickedUpOrders = new ArrayList<OrderHistory>();
-        // iterates through all order histories and adds the ones that have been
-        // picked up and belong to the specified user to the list
-        for ( final OrderHistory orderHistory : allOrderHistory ) {
-            if ( orderHistory.getPickedUp() && orderHistory.getUsername().equals( username )) {
-                pickedUpOrders.add( orderHistory );
+        return union( orderHistoryRepository.findByUsernameAndPickedUpTrue( username, Sort.by( "id" ) ),
+                orderHistoryArchiveRepository.findByUsername( username, Sort.by( "id" ) ) );
+    }
+
+    /**
+     * Gets one page of the picked up orders for a specified user, archived
+     * ones included.
+     *
+     * @param username
+     *            the username of user we want the orders of
+     * @param pageable
+     *            which page, how big, and how it is sorted
+     * @return the page of the user's picked up orders
+     */
+    @Override
+    public Page<OrderHistory> getUserHistory ( final String username, final Pageable pageable ) {
+        return union( pageable, page -> orderHistoryRepository.findByUsernameAndPickedUpTrue( username, page ),
+                page -> orderHistoryArchiveRepository.findByUsername( username, page ) );
+    }
+
+    /**
+     * Gets the picked up orders of a specified user with ids below a cursor,
+     * newest first, archived ones included. Both tables are read from the
+     * cursor by index, so a page costs the same however deep it is.
+     *
+     * @param username
+     *            the username of user we want the orders of
+     * @param before
+     *            only orders with a smaller id are returned, or the newest if
+     *            null
+     * @param limit
+     *            most orders to return
+     * @return the orders, in descending id order
+     */
+    @Override
+    public List<OrderHistory> getUserHistory ( final String username, final Long before, final int limit ) {
+        final Long cursor = null == before ? Long.MAX_VALUE : before;
+        final List<OrderHistory> merged = new ArrayList<OrderHistory>( orderHistoryRepository
+                .findByUsernameAndPickedUpTrueAndIdLessThanOrderByIdDesc( username, cursor, Limit.of( limit ) ) );
+        for ( final OrderHistoryArchive archive : orderHistoryArchiveRepository
+                .findByUsernameAndIdLessThanOrderByIdDesc( username, cursor, Limit.of( limit ) ) ) {
+            merged.add( OrderHistoryMapper.mapToOrderHistory( archive ) );
+        }
+        merged.sort( Comparator.comparing( OrderHistory::getId ).reversed() );
+        return merged.size() > limit ? new ArrayList<OrderHistory>( merged.subList( 0, limit ) ) : merged;
+    }
+
+    /**
+     * Puts current and archived history, each in id order, together in id
+     * order.
+     *
+     * @param current
+     *            current history
+     * @param archived
+     *            archived history
+     * @return all of it
+     */
+    private List<OrderHistory> union ( final List<OrderHistory> current, final List<OrderHistoryArchive> archived ) {
+        if ( archived.isEmpty() ) {
+            return current;
+        }
+        final List<OrderHistory> all = new ArrayList<OrderHistory>( current.size() + archived.size() );
+        all.addAll( current );
+        for ( final OrderHistoryArchive archive : archived ) {
+            all.add( OrderHistoryMapper.mapToOrderHistory( archive ) );
+        }
+        all.sort( Comparator.comparing( OrderHistory::getId ) );
+        return all;
+    }
+
+    /**
+     * Gets a page of current and archived history together. Either table could
+     * hold any of the page's rows, so both are read, sorted the same way, up
+     * to the end of the page and merged. When nothing is archived the current
+     * table's page is returned as is.
+     *
+     * @param pageable
+     *            which page, how big, and how it is sorted
+     * @param current
+     *            reads a page of current history
+     * @param archived
+     *            reads a page of archived history
+     * @return the page
+     */
+    private Page<OrderHistory> union ( final Pageable pageable, final Function<Pageable, Page<OrderHistory>> current,
+            final Function<Pageable, Page<OrderHistoryArchive>> archived ) {
+        final Pageable window = PageRequest.of( 0,
+                (int) Math.min( pageable.getOffset() + pageable.getPageSize(), Integer.MAX_VALUE ),
+                pageable.getSort() );
+        final Page<OrderHistoryArchive> archivedRows = archived.apply( window );
+        if ( 0 == archivedRows.getTotalElements() ) {
+            return current.apply( pageable );
+        }
+        final Page<OrderHistory> currentRows = current.apply( window );
+
+        final List<OrderHistory> merged = new ArrayList<OrderHistory>( currentRows.getContent() );
+        for ( final OrderHistoryArchive archive : archivedRows ) {
+            merged.add( OrderHistoryMapper.mapToOrderHistory( archive ) );
+        }
+        merged.sort( comparator( pageable.getSort() ) );
+        final int from = (int) Math.min( pageable.getOffset(), merged.size() );
+        final int to = Math.min( from + pageable.getPageSize(), merged.size() );
+        return new PageImpl<OrderHistory>( new ArrayList<OrderHistory>( merged.subList( from, to ) ), pageable,
+                currentRows.getTotalElements() + archivedRows.getTotalElements() );
+    }
+
+    /**
+     * Compares history the way the database sorts it, for merging pages of
+     * current and archived history. Nulls come first, and usernames ignore
+     * case like the database's collation.
+     *
+     * @param sort
+     *            how the history is sorted, by id, total or username
+     * @return the comparator, with id breaking ties
+     */
+    static Comparator<OrderHistory> comparator ( final Sort sort ) {
+        Comparator<OrderHistory> comparator = null;
+        for ( final Sort.Order order : sort ) {
+            Comparator<OrderHistory> field;
+            if ( "total".equals( order.getProperty() ) ) {
+                field = Comparator.comparing( OrderHistory::getTotal,
+                        Comparator.nullsFirst( Comparator.<Double> naturalOrder() ) );
+            }
+            else if ( "username".equals( order.getProperty() ) ) {
+                field = Comparator.comparing( OrderHistory::getUsername,
+                        Comparator.nullsFirst( String.CASE_INSENSITIVE_ORDER ) );
+            }
+            else {
+                field = Comparator.comparing( OrderHistory::getId );
+            }
+            if ( order.isDescending() ) {
+                field = field.reversed();
             }
+            comparator = null == comparator ? field : comparator.thenComparing( field );
         }
-        // returns the list of picked up ones that belong to the specified user
-        return pickedUpOrders;
+        final Comparator<OrderHistory> byId = Comparator.comparing( OrderHistory::getId );
+        return null == comparator ? byId : comparator.thenComparing( byId );
     }
 
 }
@@ -0,0 +1,890 @@
+package wolfcafe.service.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLDataException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import wolfcafe.entity.OrderHistory;
+import wolfcafe.entity.OrderHistoryIngredient;
+import wolfcafe.entity.OrderHistoryLine;
+import wolfcafe.repository.OrderHistoryRepository;
+import wolfcafe.repository.OrderRepository;
+import wolfcafe.service.ReportService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+
+/**
+ * Writes order history behind the request, so checkout doesn't wait on the
+ * insert. Just before the order's transaction commits its history is appended
+ * to a local journal, one JSON line each, and once it has committed it is
+ * queued. Checkouts journaling at the same time share one force of the
+ * journal to disk rather than forcing it one after another. A background thread writes the queue in JDBC batches whenever
+ * batch-size orders are waiting or every flush interval, and empties the
+ * journal once everything in it is written. History left in the journal by a
+ * crash is written on startup, apart from history of orders whose
+ * transaction never committed.
+ *
+ * If the queue is full the caller writes the queue, and its own history,
+ * itself, so a backlog slows checkout down rather than losing history or
+ * growing without bound.
+ *
+ * History that fails to write stays pending and in the journal, and is tried
+ * again, backing off while the database stays unavailable. Only history that
+ * can never be written, such as one breaking a constraint, is given up on,
+ * and it is moved to a dead letter file next to the journal rather than
+ * dropped.
+ *
+ * Off by default, in which case history is saved in the order's transaction
+ * as before.
+ */
+@Component
+public class OrderHistoryWriter {
+
+    private static final Logger            log         = LoggerFactory.getLogger( OrderHistoryWriter.class );
+
+    /** longest the flusher waits before trying failed history again */
+    private static final long              MAX_BACKOFF_MS = 60000;
+
+    /** writes and reads journal lines */
+    private final Gson                     gson        = new Gson();
+
+    /** whether history is written behind at all */
+    private final boolean                  enabled;
+
+    /** most orders written in one batch */
+    private final int                      batchSize;
+
+    /** longest a queued order waits before it is written */
+    private final long                     flushIntervalMs;
+
+    /** file history is journaled to until it's written */
+    private final String                   journalPath;
+
+    /** file history that can never be written is moved to */
+    private final String                   deadLetterPath;
+
+    /** history waiting to be written */
+    private final BlockingQueue<Pending>   queue;
+
+    /**
+     * history whose write failed, to be tried again, oldest first. Only used
+     * holding the write lock
+     */
+    private final List<Pending>            retries     = new ArrayList<Pending>();
+
+    /** when the flusher next tries the failed history again */
+    private long                           retryAt;
+
+    /** how long the flusher waited after the last failure, 0 after a success */
+    private long                           backoffMs;
+
+    /**
+     * history journaled but not yet written, by order id. Includes the batch
+     * being written
+     */
+    private final Map<Long, Pending>       pending     = new ConcurrentHashMap<Long, Pending>();
+
+    /**
+     * history journaled whose transaction hasn't finished, so the journal
+     * isn't emptied before it is queued
+     */
+    private final Set<Pending>             committing  = ConcurrentHashMap.newKeySet();
+
+    /** held while writing, so a flush waits for a batch already on its way */
+    private final ReentrantLock            writeLock   = new ReentrantLock();
+
+    /**
+     * held while journaling, so the journal is only emptied when nothing is
+     * pending
+     */
+    private final Object                   journalLock = new Object();
+
+    /**
+     * held by the one thread forcing the journal, which forces everything
+     * appended so far for the threads waiting behind it
+     */
+    private final ReentrantLock            forceLock   = new ReentrantLock();
+
+    /**
+     * bytes ever appended to the journal, counting on across truncates. Only
+     * used holding the journal lock
+     */
+    private long                           appended;
+
+    /** bytes of {@link #appended} known to be forced to disk */
+    private volatile long                  forced;
+
+    /** woken when a full batch is waiting */
+    private final Object                   signal      = new Object();
+
+    /** used to insert the history */
+    @Autowired
+    private EntityManager                  entityManager;
+
+    /** used to write each batch in its own transaction */
+    @Autowired
+    private PlatformTransactionManager     transactionManager;
+
+    /** reference to ReportService, to roll up sales as they're written */
+    @Autowired
+    private ReportService                  reportService;
+
+    /**
+     * reference to OrderHistoryRepository, to skip history that's already
+     * written
+     */
+    @Autowired
+    private OrderHistoryRepository         orderHistoryRepository;
+
+    /**
+     * reference to OrderRepository, to skip replaying history of orders that
+     * never committed
+     */
+    @Autowired
+    private OrderRepository                orderRepository;
+
+    /** open handle to the journal, opened again if an interrupt closes it */
+    private FileChannel                    journal;
+
+    /** the thread writing the queue */
+    private Thread                         flusher;
+
+    /** cleared on shutdown to stop the flusher */
+    private volatile boolean               running     = true;
+
+    /**
+     * Creates the writer. The flusher is started once the bean is ready.
+     *
+     * @param enabled
+     *            whether history is written behind
+     * @param capacity
+     *            most orders waiting at once, callers write it themselves
+     *            past that
+     * @param batchSize
+     *            most orders written in one batch
+     * @param flushIntervalMs
+     *            longest a queued order waits before it is written
+     * @param journalPath
+     *            file history is journaled to until it's written
+     */
+    public OrderHistoryWriter ( @Value ( "${app.history.write-behind.enabled:false}" ) final boolean enabled,
+            @Value ( "${app.history.write-behind.capacity:4096}" ) final int capacity,
+            @Value ( "${app.history.write-behind.batch-size:200}" ) final int batchSize,
+            @Value ( "${app.history.write-behind.flush-interval-ms:200}" ) final long flushIntervalMs,
+            @Value ( "${app.history.write-behind.journal:order-history.journal}" ) final String journalPath ) {
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.journalPath = journalPath;
+        this.deadLetterPath = journalPath + ".dead";
+        this.queue = new ArrayBlockingQueue<Pending>( capacity );
+    }
+
+    /**
+     * Writes anything left in the journal by a crash, then opens it and starts
+     * the flusher.
+     *
+     * @throws IOException
+     *             if the journal can't be read or opened
+     */
+    @PostConstruct
+    public void start () throws IOException {
+        if ( !enabled ) {
+            return;
+        }
+        replayJournal();
+        journal = openJournal();
+        flusher = Thread.ofVirtual().name( "order-history-writer" ).start( this::work );
+    }
+
+    /**
+     * Stops the flusher and writes whatever is still queued.
+     *
+     * @throws IOException
+     *             if the journal can't be closed
+     */
+    @PreDestroy
+    public void shutdown () throws IOException {
+        if ( !enabled ) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join( flushIntervalMs * 10 );
+        }
+        catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        journal.close();
+    }
+
+    /**
+     * Returns whether history is written behind rather than saved in the
+     * order's transaction.
+     *
+     * @return true if written behind
+     */
+    public boolean isEnabled () {
+        return enabled;
+    }
+
+    /**
+     * Queues an order's history to be written. If a transaction is running it
+     * is journaled just before the transaction commits and queued once it has,
+     * so a crash straight after the commit can't lose it and history is never
+     * written for an order that was rolled back.
+     *
+     * @param orderHistory
+     *            the history, with its lines and ingredients, not yet saved
+     */
+    public void submit ( final OrderHistory orderHistory ) {
+        final Pending entry = Pending.of( orderHistory );
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                /** whether the history made it into the journal */
+                private boolean journaled;
+
+                @Override
+                public void beforeCommit ( final boolean readOnly ) {
+                    committing.add( entry );
+                    journaled = journal( entry );
+                }
+
+                @Override
+                public void afterCommit () {
+                    enqueue( entry, journaled );
+                }
+
+                @Override
+                public void afterCompletion ( final int status ) {
+                    // a rolled back order's line stays in the journal until
+                    // it is emptied, and is dropped if it is replayed
+                    committing.remove( entry );
+                }
+            } );
+        }
+        else {
+            committing.add( entry );
+            try {
+                enqueue( entry, journal( entry ) );
+            }
+            finally {
+                committing.remove( entry );
+            }
+        }
+    }
+
+    /**
+     * Returns whether an order's history is queued or being written.
+     *
+     * @param id
+     *            the order id
+     * @return true if it isn't in the database yet
+     */
+    public boolean isPending ( final Long id ) {
+        return pending.containsKey( id );
+    }
+
+    /**
+     * Returns an order's history if it hasn't been written yet.
+     *
+     * @param id
+     *            the order id
+     * @return the history, not saved, or null if it isn't pending
+     */
+    public OrderHistory getPending ( final Long id ) {
+        final Pending entry = pending.get( id );
+        return null == entry ? null : entry.toOrderHistory();
+    }
+
+    /**
+     * Writes everything queued now, waiting for a batch that's already being
+     * written, and empties the journal if nothing is left pending. History
+     * that failed to write before is tried again first.
+     */
+    public void flush () {
+        flush( true );
+    }
+
+    /**
+     * Writes everything queued, trying history that failed to write before
+     * first. While failed history still can't be written the queue is left
+     * alone, since it would most likely fail too.
+     *
+     * @param now
+     *            true to try failed history again straight away, false to
+     *            wait until its backoff is over
+     */
+    private void flush ( final boolean now ) {
+        writeLock.lock();
+        try {
+            if ( !retries.isEmpty() ) {
+                if ( !now && System.currentTimeMillis() < retryAt ) {
+                    return;
+                }
+                final List<Pending> failed = new ArrayList<Pending>( retries );
+                retries.clear();
+                for ( int i = 0; i < failed.size(); i += batchSize ) {
+                    write( failed.subList( i, Math.min( i + batchSize, failed.size() ) ) );
+                }
+                if ( !retries.isEmpty() ) {
+                    return;
+                }
+            }
+            final List<Pending> batch = new ArrayList<Pending>( batchSize );
+            while ( queue.drainTo( batch, batchSize ) > 0 ) {
+                write( batch );
+                batch.clear();
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+        compactJournal();
+    }
+
+    /**
+     * Appends one order's history to the journal and waits until it is
+     * forced to disk.
+     *
+     * @param entry
+     *            the history
+     * @return true if it was journaled, false if it has to be written without
+     *         being queued
+     */
+    private boolean journal ( final Pending entry ) {
+        final String line = gson.toJson( entry ) + "\n";
+        boolean interrupted = false;
+        try {
+            final long end;
+            synchronized ( journalLock ) {
+                try {
+                    reopenJournal();
+                    end = append( line );
+                }
+                catch ( final ClosedChannelException e ) {
+                    // an interrupt closes the channel for every thread, so it
+                    // is opened again. The line is started afresh in case part
+                    // of it got written, and the interrupt is held back until
+                    // the line is forced
+                    interrupted = Thread.interrupted();
+                    reopenJournal();
+                    end = append( "\n" + line );
+                }
+            }
+            // forced outside the journal lock, so other checkouts can append
+            // meanwhile and share the next force
+            while ( forced < end ) {
+                try {
+                    force( end );
+                }
+                catch ( final ClosedChannelException e ) {
+                    // closed by an interrupt mid force, which is tried again
+                    // on the reopened channel unless shutting down
+                    interrupted = Thread.interrupted() || interrupted;
+                    if ( !running ) {
+                        throw e;
+                    }
+                }
+            }
+            return true;
+        }
+        catch ( final IOException e ) {
+            log.warn( "Could not journal order history {}, writing it directly: {}", entry.id, e.getMessage() );
+            return false;
+        }
+        finally {
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Writes a line to the journal without forcing it. Called holding the
+     * journal lock.
+     *
+     * @param line
+     *            the line
+     * @return how far the journal has to be forced for the line to be on disk
+     * @throws IOException
+     *             if it can't be written
+     */
+    private long append ( final String line ) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap( line.getBytes( StandardCharsets.UTF_8 ) );
+        while ( buffer.hasRemaining() ) {
+            appended += journal.write( buffer );
+        }
+        return appended;
+    }
+
+    /**
+     * Forces the journal to disk at least as far as the given position. One
+     * thread forces at a time, taking in everything appended before it
+     * started, so checkouts that append while a force is under way wait for
+     * the next one between them rather than forcing one each. A thread whose
+     * position was forced while it waited returns without forcing.
+     *
+     * @param end
+     *            the position that has to be on disk
+     * @throws IOException
+     *             if the journal can't be forced
+     */
+    private void force ( final long end ) throws IOException {
+        forceLock.lock();
+        try {
+            if ( forced >= end ) {
+                return;
+            }
+            final FileChannel channel;
+            final long upTo;
+            synchronized ( journalLock ) {
+                // forcing a reopened channel still covers lines written
+                // through the one an interrupt closed, it's the same file
+                reopenJournal();
+                channel = journal;
+                upTo = appended;
+            }
+            channel.force( false );
+            forced = upTo;
+        }
+        finally {
+            forceLock.unlock();
+        }
+    }
+
+    /**
+     * Opens the journal again if it has been closed, which happens to a
+     * FileChannel when a thread using it is interrupted. Called holding the
+     * journal lock.
+     *
+     * @throws IOException
+     *             if it can't be opened, or the writer is shutting down
+     */
+    private void reopenJournal () throws IOException {
+        if ( journal.isOpen() ) {
+            return;
+        }
+        if ( !running ) {
+            throw new ClosedChannelException();
+        }
+        log.warn( "Order history journal was closed, opening it again" );
+        journal = openJournal();
+    }
+
+    /**
+     * Opens the journal for appending, creating it if need be.
+     *
+     * @return the open journal
+     * @throws IOException
+     *             if it can't be opened
+     */
+    private FileChannel openJournal () throws IOException {
+        return FileChannel.open( Paths.get( journalPath ), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND );
+    }
+
+    /**
+     * Queues one order's history, or writes it on the calling thread if the
+     * queue is full or it couldn't be journaled.
+     *
+     * @param entry
+     *            the history
+     * @param journaled
+     *            whether it is in the journal
+     */
+    private void enqueue ( final Pending entry, final boolean journaled ) {
+        boolean queued = false;
+        if ( journaled ) {
+            pending.put( entry.id, entry );
+            queued = queue.offer( entry );
+        }
+        if ( queued ) {
+            if ( queue.size() >= batchSize ) {
+                synchronized ( signal ) {
+                    signal.notifyAll();
+                }
+            }
+            return;
+        }
+        // the queue is full, so the caller does the writing
+        flush();
+        writeLock.lock();
+        try {
+            write( List.of( entry ) );
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Flusher loop, writing the queue whenever a full batch is waiting or the
+     * flush interval passes.
+     */
+    private void work () {
+        while ( running ) {
+            try {
+                synchronized ( signal ) {
+                    if ( queue.size() < batchSize ) {
+                        signal.wait( flushIntervalMs );
+                    }
+                }
+                flush( false );
+            }
+            catch ( final InterruptedException e ) {
+                // shutting down, whatever is left is flushed by shutdown
+            }
+            catch ( final RuntimeException e ) {
+                log.error( "Order history writer failed: {}", e.getMessage(), e );
+            }
+        }
+    }
+
+    /**
+     * Inserts a batch of history in one new transaction, rolling up its sales
+     * at the same time, then stops tracking it as pending. If the database
+     * can't be written to the batch stays pending and is tried again later. If
+     * the batch breaks a constraint each order is tried alone, so one bad
+     * order doesn't hold up the rest, and the bad one is moved to the dead
+     * letter file. Called holding the write lock.
+     *
+     * @param batch
+     *            the history to insert
+     */
+    private void write ( final List<Pending> batch ) {
+        final TransactionTemplate transaction = new TransactionTemplate( transactionManager );
+        // a transaction of its own even when the caller is finishing one
+        transaction.setPropagationBehavior( TransactionDefinition.PROPAGATION_REQUIRES_NEW );
+        try {
+            transaction.executeWithoutResult( status -> insert( batch ) );
+        }
+        catch ( final RuntimeException e ) {
+            if ( !isPermanent( e ) ) {
+                retry( batch, e );
+                return;
+            }
+            if ( batch.size() > 1 ) {
+                log.warn( "Could not write order history batch, writing one at a time: {}", e.getMessage() );
+                for ( final Pending entry : batch ) {
+                    write( List.of( entry ) );
+                }
+                return;
+            }
+            deadLetter( batch.get( 0 ), e );
+        }
+        backoffMs = 0;
+        for ( final Pending entry : batch ) {
+            pending.remove( entry.id );
+        }
+    }
+
+    /**
+     * Keeps history whose write failed to try again, backing off a little
+     * more each time it fails in a row. It stays pending, so the journal
+     * keeps it until it is written.
+     *
+     * @param batch
+     *            the history that failed
+     * @param e
+     *            why it failed
+     */
+    private void retry ( final List<Pending> batch, final RuntimeException e ) {
+        retries.addAll( batch );
+        backoffMs = 0 == backoffMs ? flushIntervalMs : Math.min( MAX_BACKOFF_MS, backoffMs * 2 );
+        retryAt = System.currentTimeMillis() + backoffMs;
+        log.warn( "Could not write {} order histories, trying again in {} ms: {}", batch.size(), backoffMs,
+                e.getMessage() );
+    }
+
+    /**
+     * Returns whether a write failed in a way trying again can't fix, like
+     * breaking a constraint, rather than because the database couldn't be
+     * reached.
+     *
+     * @param e
+     *            why the write failed
+     * @return true if the history can never be written
+     */
+    private static boolean isPermanent ( final Throwable e ) {
+        for ( Throwable cause = e; null != cause; cause = cause.getCause() ) {
+            if ( cause instanceof DataIntegrityViolationException
+                    || cause instanceof SQLIntegrityConstraintViolationException
+                    || cause instanceof SQLDataException ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves history that can never be written to the dead letter file, one
+     * JSON line like the journal, to be looked at by hand. The dead letter
+     * file is never emptied by the writer.
+     *
+     * @param entry
+     *            the history
+     * @param e
+     *            why it can't be written
+     */
+    private void deadLetter ( final Pending entry, final RuntimeException e ) {
+        final String line = gson.toJson( entry );
+        try {
+            Files.writeString( Paths.get( deadLetterPath ), line + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND,
+                    StandardOpenOption.SYNC );
+            log.error( "Could not write order history {}, moved it to {}", entry.id, deadLetterPath, e );
+        }
+        catch ( final IOException io ) {
+            log.error( "Could not write order history, or move it to {}: {}", deadLetterPath, line, e );
+        }
+    }
+
+    /**
+     * Persists a batch of history, skipping any already in the database, as
+     * history replayed after a crash can be. Persisting rather than saving
+     * means no select for each order, just one for the batch, and the inserts
+     * go out in JDBC batches.
+     *
+     * @param batch
+     *            the history to insert
+     */
+    private void insert ( final List<Pending> batch ) {
+        final Set<Long> ids = new HashSet<Long>();
+        for ( final Pending entry : batch ) {
+            ids.add( entry.id );
+        }
+        for ( final OrderHistory written : orderHistoryRepository.findAllById( ids ) ) {
+            ids.remove( written.getId() );
+        }
+        for ( final Pending entry : batch ) {
+            if ( ids.remove( entry.id ) ) {
+                final OrderHistory orderHistory = entry.toOrderHistory();
+                entityManager.persist( orderHistory );
+                reportService.recordSale( orderHistory );
+            }
+        }
+    }
+
+    /**
+     * Empties the journal if everything in it has been written.
+     */
+    private void compactJournal () {
+        synchronized ( journalLock ) {
+            if ( null == journal || !pending.isEmpty() || !committing.isEmpty() ) {
+                return;
+            }
+            try {
+                reopenJournal();
+                journal.truncate( 0 );
+            }
+            catch ( final IOException e ) {
+                // written history is skipped on replay anyway
+                log.warn( "Could not empty order history journal: {}", e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * Writes any history left in the journal by a crash, skipping what made
+     * it to the database, and empties the journal once all of it is written. History is journaled before
+     * its order commits, so history of an order that isn't in the database is
+     * dropped. An order is only deleted once its history is written, so that
+     * doesn't drop anything that still needs writing.
+     *
+     * @throws IOException
+     *             if the journal can't be read
+     */
+    private void replayJournal () throws IOException {
+        final Path path = Paths.get( journalPath );
+        if ( !Files.exists( path ) ) {
+            return;
+        }
+        final Map<Long, Pending> entries = new LinkedHashMap<Long, Pending>();
+        for ( final String line : Files.readAllLines( path, StandardCharsets.UTF_8 ) ) {
+            try {
+                final Pending entry = gson.fromJson( line, Pending.class );
+                if ( null != entry && null != entry.id ) {
+                    entries.put( entry.id, entry );
+                }
+            }
+            catch ( final JsonParseException e ) {
+                // torn write, never queued
+            }
+        }
+        if ( !entries.isEmpty() ) {
+            log.info( "Replaying {} journaled order histories", entries.size() );
+            final List<Pending> all = new ArrayList<Pending>( entries.values() );
+            int dropped = 0;
+            for ( int i = 0; i < all.size(); i += batchSize ) {
+                final List<Pending> batch = new ArrayList<Pending>(
+                        all.subList( i, Math.min( i + batchSize, all.size() ) ) );
+                final Set<Long> ids = new HashSet<Long>();
+                for ( final Pending entry : batch ) {
+                    ids.add( entry.id );
+                }
+                final Set<Long> committed = new HashSet<Long>( orderRepository.findExistingIds( ids ) );
+                final int size = batch.size();
+                batch.removeIf( entry -> !committed.contains( entry.id ) );
+                dropped += size - batch.size();
+                if ( !batch.isEmpty() ) {
+                    // pending until written, so a failed write is tried again
+                    for ( final Pending entry : batch ) {
+                        pending.put( entry.id, entry );
+                    }
+                    writeLock.lock();
+                    try {
+                        write( batch );
+                    }
+                    finally {
+                        writeLock.unlock();
+                    }
+                }
+            }
+            if ( dropped > 0 ) {
+                log.info( "Dropped {} journaled order histories whose orders never committed or are gone",
+                        dropped );
+            }
+        }
+        // kept if any of it still has to be written
+        if ( pending.isEmpty() ) {
+            Files.write( path, new byte[0] );
+        }
+    }
+
+    /**
+     * An order's history as it is journaled, one JSON line. Times are kept as
+     * strings since Gson can't read java.time types itself.
+     */
+    private static final class Pending {
+        /** order id */
+        private Long       id;
+        /** username of the user the order belongs to */
+        private String     username;
+        /** total of the order */
+        private Double     total;
+        /** when the order was recorded */
+        private String     createdAt;
+        /** the recipes in the order */
+        private List<Line> lines;
+        /** the ingredients the order used */
+        private List<Used> ingredients;
+
+        /**
+         * Copies an order's history.
+         *
+         * @param orderHistory
+         *            the history
+         * @return the copy
+         */
+        static Pending of ( final OrderHistory orderHistory ) {
+            final Pending entry = new Pending();
+            entry.id = orderHistory.getId();
+            entry.username = orderHistory.getUsername();
+            entry.total = orderHistory.getTotal();
+            entry.createdAt = null == orderHistory.getCreatedAt() ? null : orderHistory.getCreatedAt().toString();
+            entry.lines = new ArrayList<Line>();
+            for ( final OrderHistoryLine line : orderHistory.getLines() ) {
+                final Line copy = new Line();
+                copy.recipeId = line.getRecipeId();
+                copy.recipeName = line.getRecipeName();
+                copy.quantity = line.getQuantity();
+                copy.unitPrice = line.getUnitPrice();
+                entry.lines.add( copy );
+            }
+            entry.ingredients = new ArrayList<Used>();
+            for ( final OrderHistoryIngredient ingredient : orderHistory.getIngredients() ) {
+                final Used copy = new Used();
+                copy.ingredientId = ingredient.getIngredientId();
+                copy.ingredientName = ingredient.getIngredientName();
+                copy.quantity = ingredient.getQuantity();
+                entry.ingredients.add( copy );
+            }
+            return entry;
+        }
+
+        /**
+         * Builds a new, unsaved history from the copy.
+         *
+         * @return the history
+         */
+        OrderHistory toOrderHistory () {
+            final OrderHistory orderHistory = new OrderHistory( id, false, null, null, total, username );
+            if ( null != createdAt ) {
+                orderHistory.setCreatedAt( LocalDateTime.parse( createdAt ) );
+            }
+            for ( final Line line : lines ) {
+                orderHistory.getLines().add( new OrderHistoryLine( orderHistory, line.recipeId, line.recipeName,
+                        line.quantity, line.unitPrice ) );
+            }
+            for ( final Used used : ingredients ) {
+                orderHistory.getIngredients().add( new OrderHistoryIngredient( orderHistory, used.ingredientId,
+                        used.ingredientName, used.quantity ) );
+            }
+            return orderHistory;
+        }
+    }
+
+    /**
+     * One recipe of a journaled order.
+     */
+    private static final class Line {
+        /** id of the recipe, null if it wasn't on the menu */
+        private Long    recipeId;
+        /** name of the recipe */
+        private String  recipeName;
+        /** how many were ordered */
+        private Integer quantity;
+        /** price of one */
+        private Integer unitPrice;
+    }
+
+    /**
+     * One ingredient of a journaled order.
+     */
+    private static final class Used {
+        /** id of the inventory ingredient, null if it isn't in the inventory */
+        private Long    ingredientId;
+        /** name of the ingredient */
+        private String  ingredientName;
+        /** how much was used */
+        private Integer quantity;
+    }
+}
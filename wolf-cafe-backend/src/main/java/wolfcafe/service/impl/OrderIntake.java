@@ -0,0 +1,338 @@
+package wolfcafe.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import wolfcafe.dto.OrderDto;
+import wolfcafe.dto.OrderTicketDto;
+import wolfcafe.service.OrderService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Queues orders for placement off the request thread. POST /api/orders hands
+ * a validated order to the queue and gets a ticket back straight away, and a
+ * few workers on virtual threads take orders off the queue in small batches.
+ * Every order in a batch, whoever made it, is placed with one call to
+ * makeOrders, so the inventory is updated once per batch rather than once per
+ * order. The result is kept on the ticket until it expires.
+ *
+ * Off by default, in which case orders are placed on the request thread as
+ * before.
+ */
+@Component
+public class OrderIntake {
+
+    private static final Logger            log     = LoggerFactory.getLogger( OrderIntake.class );
+
+    /** how long a worker waits for an order before checking for shutdown */
+    private static final long              POLL_MS = 500;
+
+    /** places the orders */
+    private final OrderService             orderService;
+
+    /** whether orders are queued at all */
+    private final boolean                  enabled;
+
+    /** how many workers drain the queue */
+    private final int                      workerCount;
+
+    /** most orders a worker takes off the queue at once */
+    private final int                      batchSize;
+
+    /** how long a finished ticket is kept for */
+    private final long                     ticketTtlMs;
+
+    /** orders waiting to be placed */
+    private final BlockingQueue<Ticket>    queue;
+
+    /** every ticket that hasn't expired, by id */
+    private final Map<Long, Ticket>        tickets = new ConcurrentHashMap<Long, Ticket>();
+
+    /** id of the last ticket handed out */
+    private final AtomicLong               lastId  = new AtomicLong();
+
+    /** the running workers */
+    private final List<Thread>             workers = new ArrayList<Thread>();
+
+    /** cleared on shutdown to stop the workers */
+    private volatile boolean               running = true;
+
+    /**
+     * Creates the intake. Workers are started once the bean is ready.
+     *
+     * @param orderService
+     *            places the orders
+     * @param enabled
+     *            whether orders are queued
+     * @param capacity
+     *            most orders waiting at once, more are turned away
+     * @param workerCount
+     *            how many workers drain the queue
+     * @param batchSize
+     *            most orders a worker takes off the queue at once
+     * @param ticketTtlMs
+     *            how long a finished ticket is kept for
+     */
+    public OrderIntake ( final OrderService orderService,
+            @Value ( "${app.orders.intake.enabled:false}" ) final boolean enabled,
+            @Value ( "${app.orders.intake.capacity:1024}" ) final int capacity,
+            @Value ( "${app.orders.intake.workers:4}" ) final int workerCount,
+            @Value ( "${app.orders.intake.batch-size:32}" ) final int batchSize,
+            @Value ( "${app.orders.intake.ticket-ttl-ms:600000}" ) final long ticketTtlMs ) {
+        this.orderService = orderService;
+        this.enabled = enabled;
+        this.workerCount = workerCount;
+        this.batchSize = batchSize;
+        this.ticketTtlMs = ticketTtlMs;
+        this.queue = new ArrayBlockingQueue<Ticket>( capacity );
+    }
+
+    /**
+     * Starts the workers if queueing is enabled.
+     */
+    @PostConstruct
+    public void start () {
+        if ( !enabled ) {
+            return;
+        }
+        // workers spend nearly all their time waiting on the database, which
+        // virtual threads do without holding a platform thread
+        for ( int i = 0; i < workerCount; i++ ) {
+            workers.add( Thread.ofVirtual().name( "order-intake-" + i ).start( this::work ) );
+        }
+        log.info( "Order intake started with {} workers", workerCount );
+    }
+
+    /**
+     * Returns whether orders are queued instead of placed on the request
+     * thread.
+     *
+     * @return true if orders are queued
+     */
+    public boolean isEnabled () {
+        return enabled;
+    }
+
+    /**
+     * Queues a validated order for placement.
+     *
+     * @param username
+     *            the user making the order
+     * @param orderDto
+     *            the order, already validated
+     * @return the pending ticket, or null if the queue is full
+     */
+    public OrderTicketDto submit ( final String username, final OrderDto orderDto ) {
+        final Ticket ticket = new Ticket( lastId.incrementAndGet(), username, orderDto );
+        tickets.put( ticket.id, ticket );
+        if ( !queue.offer( ticket ) ) {
+            tickets.remove( ticket.id );
+            return null;
+        }
+        return ticket.toDto();
+    }
+
+    /**
+     * Gets a ticket, if it belongs to the given user.
+     *
+     * @param id
+     *            id of the ticket
+     * @param username
+     *            the user asking
+     * @return the ticket, or null if there is no such ticket for the user
+     */
+    public OrderTicketDto getTicket ( final Long id, final String username ) {
+        final Ticket ticket = tickets.get( id );
+        if ( null == ticket || !ticket.username.equals( username ) ) {
+            return null;
+        }
+        return ticket.toDto();
+    }
+
+    /**
+     * Places every order still waiting in the queue on the calling thread.
+     *
+     * @return how many orders were taken off the queue
+     */
+    public int drain () {
+        int drained = 0;
+        final List<Ticket> batch = new ArrayList<Ticket>();
+        while ( 0 != queue.drainTo( batch, batchSize ) ) {
+            drained += batch.size();
+            place( batch );
+            batch.clear();
+        }
+        return drained;
+    }
+
+    /**
+     * Drops finished tickets once they have been kept long enough.
+     */
+    @Scheduled ( fixedDelayString = "${app.orders.intake.ticket-ttl-ms:600000}" )
+    public void expireTickets () {
+        final long cutoff = System.currentTimeMillis() - ticketTtlMs;
+        tickets.values().removeIf( ticket -> null != ticket.result && ticket.finishedAt < cutoff );
+    }
+
+    /**
+     * Stops the workers, then places whatever they left in the queue so no
+     * accepted order is lost.
+     */
+    @PreDestroy
+    public void shutdown () {
+        running = false;
+        for ( final Thread worker : workers ) {
+            try {
+                worker.join();
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        final int drained = drain();
+        if ( 0 != drained ) {
+            log.info( "Placed {} queued orders on shutdown", drained );
+        }
+    }
+
+    /**
+     * Worker loop. Waits for an order, then takes whatever else is queued up
+     * to the batch size and places them together.
+     */
+    private void work () {
+        final List<Ticket> batch = new ArrayList<Ticket>();
+        while ( running ) {
+            try {
+                final Ticket first = queue.poll( POLL_MS, TimeUnit.MILLISECONDS );
+                if ( null == first ) {
+                    continue;
+                }
+                batch.add( first );
+            }
+            catch ( final InterruptedException e ) {
+                return;
+            }
+            queue.drainTo( batch, batchSize - 1 );
+            place( batch );
+            batch.clear();
+        }
+    }
+
+    /**
+     * Places a batch of orders together in one transaction, whichever users
+     * made them, taking their combined ingredients out of the inventory at
+     * once. Orders that don't fit are rejected and the rest still go through.
+     *
+     * @param batch
+     *            the tickets to place
+     */
+    private void place ( final List<Ticket> batch ) {
+        final List<String> usernames = new ArrayList<String>();
+        final List<OrderDto> orderDtos = new ArrayList<OrderDto>();
+        for ( final Ticket ticket : batch ) {
+            usernames.add( ticket.username );
+            orderDtos.add( ticket.order );
+        }
+        try {
+            final List<OrderDto> saved = orderService.makeOrders( usernames, orderDtos, true );
+            for ( int i = 0; i < batch.size(); i++ ) {
+                finish( batch.get( i ), saved.get( i ) );
+            }
+            log.info( "Placed {} queued orders", batch.size() );
+        }
+        catch ( final RuntimeException e ) {
+            // the inventory changed under the batch, or one of the users is
+            // gone. Fall back to one order at a time so one bad order doesn't
+            // hold up the others.
+            for ( final Ticket ticket : batch ) {
+                try {
+                    finish( ticket, orderService.makeOrder( ticket.username, ticket.order ) );
+                }
+                catch ( final IllegalArgumentException ex ) {
+                    finish( ticket, null );
+                }
+                catch ( final RuntimeException ex ) {
+                    fail( ticket, ex );
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a ticket.
+     *
+     * @param ticket
+     *            the ticket
+     * @param saved
+     *            the saved order, or null if there weren't enough ingredients
+     */
+    private void finish ( final Ticket ticket, final OrderDto saved ) {
+        if ( null == saved ) {
+            log.warn( "Can't make queued order {}: not enough ingredients.", ticket.id );
+            ticket.finish( new OrderTicketDto( ticket.id, OrderTicketDto.Status.REJECTED, null,
+                    "Not enough ingredients in inventory." ) );
+        }
+        else {
+            ticket.finish( new OrderTicketDto( ticket.id, OrderTicketDto.Status.PLACED, saved, null ) );
+        }
+    }
+
+    /**
+     * Records that a ticket couldn't be placed.
+     *
+     * @param ticket
+     *            the ticket
+     * @param e
+     *            what went wrong
+     */
+    private void fail ( final Ticket ticket, final RuntimeException e ) {
+        log.error( "Can't make queued order {}: {}", ticket.id, e.getMessage() );
+        ticket.finish( new OrderTicketDto( ticket.id, OrderTicketDto.Status.FAILED, null, e.getMessage() ) );
+    }
+
+    /**
+     * An order waiting to be placed, and its result once it has been.
+     */
+    private static final class Ticket {
+        /** ticket id */
+        private final long              id;
+        /** the user making the order */
+        private final String            username;
+        /** the order */
+        private final OrderDto          order;
+        /** the outcome, null while pending */
+        private volatile OrderTicketDto result;
+        /** when the outcome was recorded */
+        private volatile long           finishedAt;
+
+        private Ticket ( final long id, final String username, final OrderDto order ) {
+            this.id = id;
+            this.username = username;
+            this.order = order;
+        }
+
+        private void finish ( final OrderTicketDto outcome ) {
+            finishedAt = System.currentTimeMillis();
+            result = outcome;
+        }
+
+        private OrderTicketDto toDto () {
+            final OrderTicketDto outcome = result;
+            return null != outcome ? outcome : new OrderTicketDto( id, OrderTicketDto.Status.PENDING, null, null );
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package wolfcafe.service.impl;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Copies order owners out of the users_orders join table, which held them
+ * before orders recorded their owner in orders.user_id. Runs once the
+ * application is ready, and does nothing on databases created since (where
+ * the table was never made) or already backfilled. db/backfill_order_owners.sql
+ * does the same by hand.
+ *
+ * Until the backfill has run, order lookups by owner also check the join
+ * table, so orders placed before the change can still be listed and picked
+ * up.
+ */
+@Component
+public class OrderOwnerBackfill {
+
+    private static final Logger log          = LoggerFactory.getLogger( OrderOwnerBackfill.class );
+
+    /** orders users_orders has an owner for that orders doesn't yet */
+    private static final String COUNT_LEGACY = "SELECT COUNT(*) FROM users_orders uo "
+            + "JOIN orders o ON o.id = uo.orders_id WHERE o.user_id IS NULL";
+
+    /** copies the owners over */
+    private static final String BACKFILL     = "UPDATE orders o JOIN users_orders uo ON uo.orders_id = o.id "
+            + "SET o.user_id = uo.user_id WHERE o.user_id IS NULL";
+
+    /**
+     * drops the copied rows, whose foreign key would otherwise keep their
+     * orders from being deleted
+     */
+    private static final String DROP_COPIED  = "DELETE uo FROM users_orders uo "
+            + "JOIN orders o ON o.id = uo.orders_id WHERE o.user_id = uo.user_id";
+
+    /** used to read and copy the join table, which has no entity */
+    @Autowired
+    private JdbcTemplate                jdbcTemplate;
+
+    /** used to copy the owners in one transaction */
+    @Autowired
+    private PlatformTransactionManager  transactionManager;
+
+    /**
+     * whether users_orders still has owners to copy, null until it has been
+     * checked
+     */
+    private volatile Boolean            pending;
+
+    /**
+     * Copies the owners over, if there are any left to copy.
+     */
+    @EventListener ( ApplicationReadyEvent.class )
+    public void backfill () {
+        if ( !detect() ) {
+            return;
+        }
+        final int copied = new TransactionTemplate( transactionManager ).execute( status -> {
+            final int updated = jdbcTemplate.update( BACKFILL );
+            jdbcTemplate.update( DROP_COPIED );
+            return updated;
+        } );
+        log.info( "Copied the owners of {} orders from users_orders", copied );
+        pending = false;
+    }
+
+    /**
+     * Checks again whether users_orders has owners orders doesn't.
+     *
+     * @return true if there are owners to copy
+     */
+    public boolean detect () {
+        boolean found;
+        try {
+            found = jdbcTemplate.queryForObject( COUNT_LEGACY, Long.class ) > 0;
+        }
+        catch ( final BadSqlGrammarException e ) {
+            // no join table, the database was created after the change
+            found = false;
+        }
+        pending = found;
+        return found;
+    }
+
+    /**
+     * Returns whether users_orders may still have owners orders doesn't.
+     *
+     * @return true if lookups by owner should check the join table too
+     */
+    public boolean isPending () {
+        final Boolean checked = pending;
+        return null == checked ? detect() : checked;
+    }
+
+    /**
+     * Lists the orders a user owns only through the join table.
+     *
+     * @param ownerId
+     *            id of the user
+     * @return ids of the orders, in id order
+     */
+    public List<Long> findLegacyOrderIds ( final Long ownerId ) {
+        if ( !isPending() ) {
+            return List.of();
+        }
+        return jdbcTemplate.queryForList( "SELECT uo.orders_id FROM users_orders uo JOIN orders o "
+                + "ON o.id = uo.orders_id WHERE uo.user_id = ? AND o.user_id IS NULL ORDER BY uo.orders_id",
+                Long.class, ownerId );
+    }
+
+    /**
+     * Returns whether the join table says a user owns an order.
+     *
+     * @param orderId
+     *            id of the order
+     * @param ownerId
+     *            id of the user
+     * @return true if the join table has the user as the order's owner
+     */
+    public boolean isLegacyOwner ( final Long orderId, final Long ownerId ) {
+        return isPending() && jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM users_orders WHERE orders_id = ? AND user_id = ?", Long.class, orderId,
+                ownerId ) > 0;
+    }
+
+    /**
+     * Drops an order's join table row before the order is deleted.
+     *
+     * @param orderId
+     *            id of the order
+     */
+    public void forget ( final Long orderId ) {
+        if ( isPending() ) {
+            jdbcTemplate.update( "DELETE FROM users_orders WHERE orders_id = ?", orderId );
+        }
+    }
+}
@@ -1,26 +1,37 @@
 package wolfcafe.service.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.hibernate.Hibernate;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import wolfcafe.dto.CheckoutDto;
 import wolfcafe.dto.OrderDto;
+import wolfcafe.dto.OrderEventDto;
 import wolfcafe.entity.Ingredient;
-import wolfcafe.entity.Inventory;
 import wolfcafe.entity.MultiRecipe;
 import wolfcafe.entity.Order;
 import wolfcafe.entity.User;
 import wolfcafe.exception.ResourceNotFoundException;
 import wolfcafe.exception.WolfCafeAPIException;
 import wolfcafe.mapper.OrderMapper;
-import wolfcafe.repository.InventoryRepository;
 import wolfcafe.repository.OrderRepository;
 import wolfcafe.repository.UserRepository;
+import wolfcafe.service.InventoryService;
+import wolfcafe.service.OrderHistoryService;
 import wolfcafe.service.OrderService;
 import lombok.AllArgsConstructor;
 
@@ -34,12 +45,24 @@ public class OrderServiceImpl implements OrderService {
     /** reference to UserReporitory */
     private final UserRepository      userRepository;
 
-    /** reference to InventoryRepository */
-    private final InventoryRepository inventoryRepository;
+    /** reference to InventoryService */
+    private final InventoryService    inventoryService;
 
     /** reference to OrderRepository */
     private final OrderRepository     orderRepository;
 
+    /** in-memory reservations, used instead of the database when enabled */
+    private final InventoryReservationEngine reservationEngine;
+
+    /** reference to OrderHistoryService */
+    private final OrderHistoryService orderHistoryService;
+
+    /** publishes order queue changes, delivered to listeners after commit */
+    private final ApplicationEventPublisher eventPublisher;
+
+    /** owners of orders placed before orders recorded them, until copied */
+    private final OrderOwnerBackfill  ownerBackfill;
+
     /**
      * reference to
      *
@@ -59,53 +82,253 @@ public class OrderServiceImpl implements OrderService {
      *             if there are not enough ingredients
      */
     @Override
+    @Transactional
     public OrderDto makeOrder ( final String username, final OrderDto orderDto ) {
-        // get the user
-        final User user = getUser( username );
+        return OrderMapper.mapToOrderDto( placeOrder( getUser( username ), orderDto ) );
+    }
 
-        // get the inventory. Should never give an array out of bounds exception
-        // in practice, because
-        // creating a recipe requires at least one ingredient. in inventory
-        final Inventory inventory = inventoryRepository.findAll().get( 0 );
+    /**
+     * makes an order and records its history in one transaction, so there is
+     * never an order without history
+     *
+     * @param username
+     *            the name of the person making the order
+     * @param orderDto
+     *            the order the person is trying to make, already validated
+     * @return the saved order and its history
+     * @throws ResourceNotFoundException
+     *             if the user does not exist
+     * @throws IllegalArgumentException
+     *             if there are not enough ingredients
+     */
+    @Override
+    @Transactional
+    public CheckoutDto checkout ( final String username, final OrderDto orderDto ) {
+        final User user = getUser( username );
+        final OrderDto savedOrderDto = OrderMapper.mapToOrderDto( placeOrder( user, orderDto ) );
+        // the user was already looked up, so history doesn't fetch it again
+        return new CheckoutDto( savedOrderDto,
+                orderHistoryService.recordOrderHistory( user.getUsername(), savedOrderDto ) );
+    }
 
-        // initializing spent ingredients map
-        final Map<String, Integer> spentIngredients = new HashMap<String, Integer>();
-        for ( final Ingredient ingredient : inventory.getIngredients() ) {
-            spentIngredients.put( ingredient.getName(), 0 );
+    /**
+     * takes the order's ingredients out of the inventory and saves the order
+     * with the user
+     *
+     * @param user
+     *            the user making the order
+     * @param orderDto
+     *            the order the user is trying to make
+     * @return the saved order
+     * @throws IllegalArgumentException
+     *             if there are not enough ingredients
+     */
+    private Order placeOrder ( final User user, final OrderDto orderDto ) {
+        // take the ingredients out of the inventory. Each ingredient is its own
+        // conditional update, if any of them run short the whole order
+        // (including the decrements already made, and the order itself) is
+        // rolled back. The order is saved first so the inventory ledger can
+        // point at it. With the reservation engine on the counts are taken in
+        // memory instead and written back in the background.
+        final Map<String, Integer> demand = ingredientDemand( orderDto.getRecipes() );
+        final Order savedOrder;
+        if ( reservationEngine.isEnabled() ) {
+            reservationEngine.reserve( demand );
+            savedOrder = saveOrder( user, OrderMapper.mapToOrder( orderDto ) );
         }
-
-        // populating spent ingredients map
-        for ( final MultiRecipe multiRecipe : orderDto.getRecipes() ) {
-            for ( final Ingredient ingredient : multiRecipe.getIngredients() ) {
-                spentIngredients.put( ingredient.getName(), ingredient.getAmount() * multiRecipe.getAmount()
-                        + spentIngredients.get( ingredient.getName() ) );
-            }
+        else {
+            savedOrder = saveOrder( user, OrderMapper.mapToOrder( orderDto ) );
+            inventoryService.deductIngredients( demand, savedOrder.getId() );
         }
+        publish( OrderEventDto.Type.ORDER_PLACED, savedOrder );
+        return savedOrder;
+    }
 
-        // testing revealed that somehow the ingredients were being edited in
-        // repository before save.
-        // instead of moving between dto/entity, I just did it after checking
-        // every amount independently before subtraction.
-        for ( final Ingredient ingredient : inventory.getIngredients() ) {
-            if ( ingredient.getAmount() < spentIngredients.get( ingredient.getName() ) ) {
-                throw new IllegalArgumentException( "Not enough ingredients in inventory." );
-            }
+    /**
+     * saves an order as belonging to the user. Only the order is written, the
+     * user's other orders aren't loaded or saved again.
+     *
+     * @param user
+     *            the user making the order
+     * @param order
+     *            the order to save
+     * @return the saved order
+     */
+    private Order saveOrder ( final User user, final Order order ) {
+        order.setOwner( user );
+        final Order savedOrder = orderRepository.save( order );
+        // keep the user's side in step if it has already been loaded
+        if ( Hibernate.isInitialized( user.getOrders() ) ) {
+            user.getOrders().add( savedOrder );
         }
-        for ( final Ingredient ingredient : inventory.getIngredients() ) {
-            ingredient.setAmount( ingredient.getAmount() - spentIngredients.get( ingredient.getName() ) );
+        return savedOrder;
+    }
 
+    /**
+     * publishes a change to the order queue
+     *
+     * @param type
+     *            what happened
+     * @param order
+     *            the order it happened to
+     */
+    private void publish ( final OrderEventDto.Type type, final Order order ) {
+        eventPublisher.publishEvent( new OrderEventDto( type, order.getId(), order.getFulfilled() ) );
+    }
+
+    /**
+     * makes several orders for one user in a single transaction, taking the
+     * combined ingredients out of the inventory at once
+     *
+     * @param username
+     *            the name of the person making the orders
+     * @param orderDtos
+     *            the orders the person is trying to make
+     * @param partial
+     *            whether to make the orders that fit when not all of them do
+     * @return the saved orders, in the same positions as the given orders,
+     *         with null for any order that was skipped
+     * @throws ResourceNotFoundException
+     *             if the user does not exist
+     * @throws IllegalArgumentException
+     *             if partial is false and there are not enough ingredients
+     */
+    @Override
+    @Transactional
+    public List<OrderDto> makeOrders ( final String username, final List<OrderDto> orderDtos,
+            final boolean partial ) {
+        return placeOrders( Collections.nCopies( orderDtos.size(), getUser( username ) ), orderDtos, partial );
+    }
+
+    /**
+     * makes orders for several users in a single transaction, taking the
+     * combined ingredients out of the inventory at once. Each user is looked
+     * up once however many of the orders are theirs.
+     *
+     * @param usernames
+     *            the name of the person making each order
+     * @param orderDtos
+     *            the orders, in the same positions as the names
+     * @param partial
+     *            whether to make the orders that fit when not all of them do
+     * @return the saved orders, in the same positions as the given orders,
+     *         with null for any order that was skipped
+     * @throws ResourceNotFoundException
+     *             if any of the users does not exist
+     * @throws IllegalArgumentException
+     *             if partial is false and there are not enough ingredients
+     */
+    @Override
+    @Transactional
+    public List<OrderDto> makeOrders ( final List<String> usernames, final List<OrderDto> orderDtos,
+            final boolean partial ) {
+        final Map<String, User> users = new HashMap<String, User>();
+        final List<User> owners = new ArrayList<User>();
+        for ( final String username : usernames ) {
+            owners.add( users.computeIfAbsent( username, this::getUser ) );
         }
+        return placeOrders( owners, orderDtos, partial );
+    }
 
-        // save the order
-        final Order order = OrderMapper.mapToOrder( orderDto );
-        user.getOrders().add( order );
+    /**
+     * takes the combined ingredients of the orders out of the inventory and
+     * saves every order that was accepted with its user
+     *
+     * @param owners
+     *            the user making each order
+     * @param orderDtos
+     *            the orders, in the same positions as the users
+     * @param partial
+     *            whether to make the orders that fit when not all of them do
+     * @return the saved orders, in the same positions as the given orders,
+     *         with null for any order that was skipped
+     * @throws IllegalArgumentException
+     *             if partial is false and there are not enough ingredients
+     */
+    private List<OrderDto> placeOrders ( final List<User> owners, final List<OrderDto> orderDtos,
+            final boolean partial ) {
+        final List<Map<String, Integer>> demands = new ArrayList<Map<String, Integer>>();
+        for ( final OrderDto orderDto : orderDtos ) {
+            demands.add( ingredientDemand( orderDto.getRecipes() ) );
+        }
 
-        final OrderDto savedOrderDto = OrderMapper.mapToOrderDto( userRepository.save( user ).getOrders().getLast() );
+        // work out which orders go through
+        final List<Boolean> accepted = new ArrayList<Boolean>();
+        if ( reservationEngine.isEnabled() ) {
+            // reserving in memory is cheap, so just try each order in turn. If
+            // one fails without partial the rollback releases the rest.
+            for ( final Map<String, Integer> demand : demands ) {
+                try {
+                    reservationEngine.reserve( demand );
+                    accepted.add( true );
+                }
+                catch ( final IllegalArgumentException e ) {
+                    if ( !partial ) {
+                        throw e;
+                    }
+                    accepted.add( false );
+                }
+            }
+        }
+        else {
+            final Map<String, Integer> combined = new HashMap<String, Integer>();
+            if ( partial ) {
+                // accept orders against one snapshot of the inventory until it
+                // runs short
+                final Set<String> names = new HashSet<String>();
+                for ( final Map<String, Integer> demand : demands ) {
+                    names.addAll( demand.keySet() );
+                }
+                final Map<String, Integer> stock = inventoryService.getIngredientAmounts( names );
+                for ( final Map<String, Integer> demand : demands ) {
+                    final boolean fits = demand.entrySet().stream().allMatch(
+                            e -> stock.containsKey( e.getKey() ) && stock.get( e.getKey() ) >= e.getValue() );
+                    if ( fits ) {
+                        demand.forEach( ( name, amount ) -> stock.merge( name, -amount, Integer::sum ) );
+                        demand.forEach( ( name, amount ) -> combined.merge( name, amount, Integer::sum ) );
+                    }
+                    accepted.add( fits );
+                }
+            }
+            else {
+                for ( final Map<String, Integer> demand : demands ) {
+                    demand.forEach( ( name, amount ) -> combined.merge( name, amount, Integer::sum ) );
+                    accepted.add( true );
+                }
+            }
+            // one conditional update per ingredient for the whole batch. If
+            // the inventory changed since the snapshot this fails and the whole
+            // batch is rolled back.
+            inventoryService.deductIngredients( combined );
+        }
 
-        // save the inventory
-        inventoryRepository.save( inventory );
+        // save every accepted order
+        final List<OrderDto> saved = new ArrayList<OrderDto>( Collections.nCopies( orderDtos.size(), null ) );
+        for ( int i = 0; i < orderDtos.size(); i++ ) {
+            if ( accepted.get( i ) ) {
+                final Order savedOrder = saveOrder( owners.get( i ), OrderMapper.mapToOrder( orderDtos.get( i ) ) );
+                publish( OrderEventDto.Type.ORDER_PLACED, savedOrder );
+                saved.set( i, OrderMapper.mapToOrderDto( savedOrder ) );
+            }
+        }
+        return saved;
+    }
 
-        return savedOrderDto;
+    /**
+     * Totals up how much of each ingredient an order uses
+     *
+     * @param recipes
+     *            the recipes in the order
+     * @return the amount of each ingredient the order uses, keyed by name
+     */
+    static Map<String, Integer> ingredientDemand ( final List<MultiRecipe> recipes ) {
+        final Map<String, Integer> demand = new HashMap<String, Integer>();
+        for ( final MultiRecipe multiRecipe : recipes ) {
+            for ( final Ingredient ingredient : multiRecipe.getIngredients() ) {
+                demand.merge( ingredient.getName(), ingredient.getAmount() * multiRecipe.getAmount(), Integer::sum );
+            }
+        }
+        return demand;
     }
 
     /**
@@ -119,6 +342,26 @@ public class OrderServiceImpl implements OrderService {
         return orders.stream().map( ( order ) -> OrderMapper.mapToOrderDto( order ) ).collect( Collectors.toList() );
     }
 
+    /**
+     * gets the id and fulfilled state of a page of orders, in id order,
+     * without loading their recipes
+     *
+     * @param after
+     *            only orders with a larger id are listed, so the last id of
+     *            one page gets the next
+     * @param fulfilled
+     *            only orders in this state are listed, or every order if null
+     * @param limit
+     *            most orders to list
+     * @return order dtos holding only id and fulfilled
+     */
+    @Override
+    public List<OrderDto> getOrderSummaries ( final Long after, final Boolean fulfilled, final int limit ) {
+        return orderRepository.findSummaries( after, fulfilled, Limit.of( limit ) ).stream()
+                .map( ( summary ) -> new OrderDto( summary.getId(), summary.getFulfilled(), null ) )
+                .collect( Collectors.toList() );
+    }
+
     /**
      * fulfills an order with the given id
      *
@@ -139,6 +382,7 @@ public class OrderServiceImpl implements OrderService {
         }
         order.setFulfilled( true );
         final Order savedOrder = orderRepository.save( order );
+        publish( OrderEventDto.Type.ORDER_FULFILLED, savedOrder );
         return OrderMapper.mapToOrderDto( savedOrder );
     }
 
@@ -180,6 +424,20 @@ public class OrderServiceImpl implements OrderService {
         return user;
     }
 
+    /**
+     * Gets the id of a user without loading the user
+     *
+     * @param username
+     *            the username or email of the user
+     * @return the id of the user
+     * @throws ResourceNotFoundException
+     *             if no user exists with the given username
+     */
+    private Long getUserId ( final String username ) {
+        return userRepository.findIdByUsernameOrEmail( username ).orElseThrow(
+                () -> new ResourceNotFoundException( "User does not exist with username: " + username + "." ) );
+    }
+
     /**
      * picks up an order, deleting it from the database
      *
@@ -195,29 +453,31 @@ public class OrderServiceImpl implements OrderService {
      *             the order is not fulfilled (400/bad request)
      */
     @Override
+    @Transactional
     public OrderDto pickupOrder ( final String username, final Long id ) {
-
-        final User user = getUser( username );
-
-        final List<Order> orders = user.getOrders();
-
-        OrderDto foundOrder = null;
-        for ( int i = 0; i < orders.size(); i++ ) {
-            if ( orders.get( i ).getId().equals( id ) ) {
-                if ( !orders.get( i ).getFulfilled() ) {
-                    throw new WolfCafeAPIException( HttpStatus.BAD_REQUEST, "Order is no longer able to be fulfilled" );
-                }
-                foundOrder = OrderMapper.mapToOrderDto( orders.remove( i ) );
-                break;
-            }
+        // looked up by owner and id together, so another user's order looks
+        // the same as one that doesn't exist. Orders from before owners were
+        // recorded on the order are checked against the old join table.
+        final Long userId = getUserId( username );
+        final Order order = orderRepository.findByIdAndOwnerId( id, userId )
+                .or( () -> ownerBackfill.isLegacyOwner( id, userId ) ? orderRepository.findById( id )
+                        : Optional.empty() )
+                .orElseThrow( () -> new WolfCafeAPIException( HttpStatus.GONE,
+                        "User does not have an order with an id of " + id ) );
+        if ( !order.getFulfilled() ) {
+            throw new WolfCafeAPIException( HttpStatus.BAD_REQUEST, "Order is no longer able to be fulfilled" );
         }
+        final OrderDto foundOrder = OrderMapper.mapToOrderDto( order );
 
-        if ( null == foundOrder ) {
-            throw new WolfCafeAPIException( HttpStatus.GONE, "User does not have an order with an id of " + id );
+        // if the owner's orders are already loaded, take it out of them too so
+        // the delete isn't undone by the cascade
+        final User owner = order.getOwner();
+        if ( null != owner && Hibernate.isInitialized( owner ) && Hibernate.isInitialized( owner.getOrders() ) ) {
+            owner.getOrders().remove( order );
         }
-
-        userRepository.save( user );
-        orderRepository.deleteById( id );
+        ownerBackfill.forget( id );
+        orderRepository.delete( order );
+        eventPublisher.publishEvent( new OrderEventDto( OrderEventDto.Type.ORDER_PICKED_UP, id, true ) );
         return foundOrder;
     }
 
@@ -232,8 +492,17 @@ public class OrderServiceImpl implements OrderService {
      */
     @Override
     public List<OrderDto> getOrdersByCustomer ( final String username ) {
-        final User user = getUser( username );
-        return user.getOrders().stream().map( ( order ) -> OrderMapper.mapToOrderDto( order ) )
-                .collect( Collectors.toList() );
+        final Long userId = getUserId( username );
+        // read before the owner column, so an order copied over in between
+        // shows up in one or the other
+        final List<Long> legacyIds = ownerBackfill.findLegacyOrderIds( userId );
+        final List<Order> orders = new ArrayList<Order>( orderRepository.findByOwnerIdOrderById( userId ) );
+        if ( !legacyIds.isEmpty() ) {
+            final Set<Long> owned = orders.stream().map( Order::getId ).collect( Collectors.toSet() );
+            orders.addAll( orderRepository
+                    .findAllById( legacyIds.stream().filter( id -> !owned.contains( id ) ).toList() ) );
+            orders.sort( Comparator.comparing( Order::getId ) );
+        }
+        return orders.stream().map( ( order ) -> OrderMapper.mapToOrderDto( order ) ).collect( Collectors.toList() );
     }
 }
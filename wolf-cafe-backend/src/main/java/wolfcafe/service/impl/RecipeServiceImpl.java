@@ -32,6 +32,12 @@ public class RecipeServiceImpl implements RecipeService {
     /** Reference to InventoryService (and InventoryServiceImpl). */
 	@Autowired
 	private InventoryService inventoryService;
+	/** The cached menu, dropped whenever a recipe changes. */
+	@Autowired
+	private MenuCache menuCache;
+	/** Servings of each recipe the inventory has enough ingredients for. */
+	@Autowired
+	private ServingsIndex servingsIndex;
 	
     /**
      * Creates a recipe with the given information.
@@ -72,6 +78,7 @@ public class RecipeServiceImpl implements RecipeService {
 	    }
 		Recipe recipe = RecipeMapper.mapToRecipe(recipeDto);
 		Recipe savedRecipe = recipeRepository.save(recipe);
+		menuCache.invalidate();
 		return RecipeMapper.mapToRecipeDto(savedRecipe);
 	}
 	
@@ -100,7 +107,7 @@ public class RecipeServiceImpl implements RecipeService {
 		Recipe recipe = recipeRepository.findByName(recipeName).orElseThrow(
 				() -> new ResourceNotFoundException("Recipe does not exist with name " + recipeName)
 		);
-		return RecipeMapper.mapToRecipeDto(recipe);		
+		return withServings(RecipeMapper.mapToRecipeDto(recipe));
 	}
 	
 	/**
@@ -119,13 +126,25 @@ public class RecipeServiceImpl implements RecipeService {
 	}
 
 	/**
-	 * Returns a list of all the recipes.
+	 * Returns a list of all the recipes, each with how many servings the
+	 * inventory has enough ingredients for.
 	 * @return all the recipes
 	 */
 	@Override
 	public List<RecipeDto> getAllRecipes() {
 		List<Recipe> recipes = recipeRepository.findAll();
-		return recipes.stream().map((recipe) -> RecipeMapper.mapToRecipeDto(recipe)).collect(Collectors.toList());
+		return recipes.stream().map((recipe) -> withServings(RecipeMapper.mapToRecipeDto(recipe))).collect(Collectors.toList());
+	}
+
+	/**
+	 * Fills in how many servings of a recipe the inventory has enough
+	 * ingredients for, from the servings index rather than the inventory.
+	 * @param recipeDto the recipe
+	 * @return the same recipe
+	 */
+	private RecipeDto withServings(RecipeDto recipeDto) {
+		recipeDto.setServingsAvailable(servingsIndex.getServings(recipeDto.getId()));
+		return recipeDto;
 	}
 	
 	/**
@@ -170,6 +189,7 @@ public class RecipeServiceImpl implements RecipeService {
 		recipe.setIngredients(recipeDto.getIngredients());
 						
 		Recipe savedRecipe = recipeRepository.save(recipe);
+		menuCache.invalidate();
 		
 		return RecipeMapper.mapToRecipeDto(savedRecipe);
 	}
@@ -192,6 +212,7 @@ public class RecipeServiceImpl implements RecipeService {
 		}
 		
 		recipeRepository.delete(recipe);
+		menuCache.invalidate();
 	}
 	
 	/**
@@ -201,6 +222,6 @@ public class RecipeServiceImpl implements RecipeService {
 	 * @return boolean based on ingredient status in the inventory
 	 */
 	private boolean validateIngredient(Ingredient ingredient) {
-	    return inventoryService.isDuplicateName(inventoryService.getInventory(), ingredient.getName());
+	    return inventoryService.getInventoryIngredient(ingredient.getName()) != null;
 	}
 }
@@ -0,0 +1,205 @@
+package wolfcafe.service.impl;
+
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import wolfcafe.dto.SalesBucketDto;
+import wolfcafe.dto.TopSellerDto;
+import wolfcafe.entity.OrderHistory;
+import wolfcafe.entity.OrderHistoryLine;
+import wolfcafe.entity.SalesRollup;
+import wolfcafe.repository.SalesRollupRepository;
+import wolfcafe.service.ReportService;
+import lombok.AllArgsConstructor;
+
+/**
+ * implementation of ReportService interface. Sales are kept per recipe per
+ * hour in sales_rollup, added to as orders are recorded and picked up, so a
+ * report reads one row per recipe per hour in its range however many orders
+ * there were. Days and weeks are added up from the hours.
+ */
+@Service
+@AllArgsConstructor
+public class ReportServiceImpl implements ReportService {
+
+    /**
+     * adds to the row for a recipe's hour, creating it if it's the first sale
+     * that hour
+     */
+    private static final String         UPSERT = "INSERT INTO sales_rollup "
+            + "(bucket_start, recipe_name, recipe_id, units, revenue, picked_up_units) VALUES (?, ?, ?, ?, ?, ?) "
+            + "AS new ON DUPLICATE KEY UPDATE units = sales_rollup.units + new.units, "
+            + "revenue = sales_rollup.revenue + new.revenue, "
+            + "picked_up_units = sales_rollup.picked_up_units + new.picked_up_units, "
+            + "recipe_id = COALESCE(new.recipe_id, sales_rollup.recipe_id)";
+
+    /** runs the upserts */
+    private final JdbcTemplate          jdbcTemplate;
+
+    /** reference to SalesRollupRepository */
+    private final SalesRollupRepository salesRollupRepository;
+
+    /** live counts of recent sales */
+    private final TopSellerTracker      topSellerTracker;
+
+    /**
+     * Adds an order's recipes to the sales for the hour it was recorded in,
+     * and to the live counts of recent sales. History written behind can get
+     * here well after the order, so the order's own time is used rather than
+     * the time now.
+     *
+     * @param orderHistory
+     *            history of the order, with its lines
+     */
+    @Override
+    public void recordSale ( final OrderHistory orderHistory ) {
+        final LocalDateTime createdAt = orderHistory.getCreatedAt();
+        add( orderHistory, true, null == createdAt ? LocalDateTime.now() : createdAt );
+        topSellerTracker.record( orderHistory );
+    }
+
+    /**
+     * Adds an order's recipes to the pickups for the current hour.
+     *
+     * @param orderHistory
+     *            history of the order, with its lines
+     */
+    @Override
+    public void recordPickup ( final OrderHistory orderHistory ) {
+        add( orderHistory, false, LocalDateTime.now() );
+    }
+
+    /**
+     * Upserts one row per line of the order in a single batch, inside the
+     * caller's transaction so the rollup can't drift from the history.
+     *
+     * @param orderHistory
+     *            history of the order
+     * @param sale
+     *            true to add to the sales, false to add to the pickups
+     * @param time
+     *            when the sale or pickup happened, which picks the hour
+     */
+    private void add ( final OrderHistory orderHistory, final boolean sale, final LocalDateTime time ) {
+        final List<OrderHistoryLine> lines = orderHistory.getLines();
+        // history recorded before lines were has nothing to add
+        if ( null == lines || lines.isEmpty() ) {
+            return;
+        }
+        final Timestamp bucket = Timestamp.valueOf( time.truncatedTo( ChronoUnit.HOURS ) );
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        for ( final OrderHistoryLine line : lines ) {
+            final long quantity = line.getQuantity();
+            if ( sale ) {
+                rows.add( new Object[] { bucket, line.getRecipeName(), line.getRecipeId(), quantity,
+                        quantity * line.getUnitPrice(), 0L } );
+            }
+            else {
+                rows.add( new Object[] { bucket, line.getRecipeName(), line.getRecipeId(), 0L, 0L, quantity } );
+            }
+        }
+        jdbcTemplate.batchUpdate( UPSERT, rows );
+    }
+
+    /**
+     * Reports sales by recipe over a time range, adding up the hourly rows
+     * into buckets of the given length.
+     *
+     * @param from
+     *            start of the range, inclusive
+     * @param to
+     *            end of the range, exclusive
+     * @param granularity
+     *            how long each bucket is
+     * @param recipeName
+     *            only report this recipe, or every recipe if null
+     * @return sales of each recipe in each bucket, in time then name order
+     */
+    @Override
+    public List<SalesBucketDto> getSales ( final LocalDateTime from, final LocalDateTime to,
+            final SalesBucketDto.Granularity granularity, final String recipeName ) {
+        final List<SalesRollup> rows = null == recipeName
+                ? salesRollupRepository.findByBucketStartGreaterThanEqualAndBucketStartLessThanOrderByBucketStart(
+                        from, to )
+                : salesRollupRepository
+                        .findByRecipeNameAndBucketStartGreaterThanEqualAndBucketStartLessThanOrderByBucketStart(
+                                recipeName, from, to );
+
+        // buckets in time order, recipes in name order within each
+        final Map<LocalDateTime, Map<String, SalesBucketDto>> buckets = new TreeMap<LocalDateTime,
+                Map<String, SalesBucketDto>>();
+        for ( final SalesRollup row : rows ) {
+            final LocalDateTime start = bucketStart( row.getBucketStart(), granularity );
+            final SalesBucketDto bucket = buckets.computeIfAbsent( start, k -> new TreeMap<String, SalesBucketDto>() )
+                    .computeIfAbsent( row.getRecipeName(),
+                            name -> new SalesBucketDto( start, name, 0L, 0L, 0L ) );
+            bucket.setUnits( bucket.getUnits() + row.getUnits() );
+            bucket.setRevenue( bucket.getRevenue() + row.getRevenue() );
+            bucket.setPickedUpUnits( bucket.getPickedUpUnits() + row.getPickedUpUnits() );
+        }
+
+        final List<SalesBucketDto> report = new ArrayList<SalesBucketDto>();
+        for ( final Map<String, SalesBucketDto> recipes : buckets.values() ) {
+            report.addAll( recipes.values() );
+        }
+        return report;
+    }
+
+    /**
+     * Finds the start of the bucket an hour falls in.
+     *
+     * @param hour
+     *            start of the hour
+     * @param granularity
+     *            how long each bucket is
+     * @return start of the bucket
+     */
+    static LocalDateTime bucketStart ( final LocalDateTime hour, final SalesBucketDto.Granularity granularity ) {
+        switch ( granularity ) {
+            case DAY:
+                return hour.truncatedTo( ChronoUnit.DAYS );
+            case WEEK:
+                return hour.truncatedTo( ChronoUnit.DAYS ).with( TemporalAdjusters.previousOrSame( DayOfWeek.MONDAY ) );
+            default:
+                return hour.truncatedTo( ChronoUnit.HOURS );
+        }
+    }
+
+    /**
+     * Returns the best selling recipes over a recent window.
+     *
+     * @param window
+     *            the last hour, day or week
+     * @param limit
+     *            most recipes to return
+     * @return the recipes and estimated units sold, best selling first
+     */
+    @Override
+    public List<TopSellerDto> getTopSellers ( final TopSellerDto.Window window, final int limit ) {
+        return topSellerTracker.getTopRecipes( window, limit );
+    }
+
+    /**
+     * Returns the most used ingredients over a recent window.
+     *
+     * @param window
+     *            the last hour, day or week
+     * @param limit
+     *            most ingredients to return
+     * @return the ingredients and estimated amounts used, most used first
+     */
+    @Override
+    public List<TopSellerDto> getTopIngredients ( final TopSellerDto.Window window, final int limit ) {
+        return topSellerTracker.getTopIngredients( window, limit );
+    }
+}
@@ -0,0 +1,250 @@
+package wolfcafe.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import wolfcafe.entity.Ingredient;
+import wolfcafe.repository.IngredientRepository;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Keeps how many servings of each recipe on the menu the inventory has enough
+ * ingredients for, so the menu can show it without reading the inventory.
+ *
+ * The index is built from the cached menu and inventory on first use, along
+ * with an inverted index from each ingredient to the recipes that use it.
+ * After every committed change to the inventory's amounts only the changed
+ * ingredients are read back, and only the recipes using them recounted. It is
+ * rebuilt when the menu changes, and thrown away when ingredients are
+ * deleted. With reservations turned on, the counts lag orders by up to one
+ * flush interval, like the database.
+ */
+@Component
+public class ServingsIndex {
+
+    /** the cached menu */
+    @Autowired
+    private MenuCache                  menuCache;
+
+    /** the inventory's ingredients by name */
+    @Autowired
+    private InventoryCache             inventoryCache;
+
+    /** Connection to the repository to read back changed ingredients */
+    @Autowired
+    private IngredientRepository       ingredientRepository;
+
+    /** the cached index, null until the next use rebuilds it */
+    private volatile Index             index;
+
+    /** bumped on every change, so a rebuild racing a change isn't kept */
+    private final AtomicLong           version = new AtomicLong();
+
+    /** applies committed changes one at a time, in the order they committed */
+    private final ExecutorService      updater = Executors.newSingleThreadExecutor();
+
+    /**
+     * Returns how many servings of a recipe the inventory has enough
+     * ingredients for.
+     *
+     * @param recipeId
+     *            id of the recipe
+     * @return the servings, or null if the recipe isn't on the menu or doesn't
+     *         use up any ingredients
+     */
+    public Integer getServings ( final Long recipeId ) {
+        return current().servings.get( recipeId );
+    }
+
+    /**
+     * Takes in a change to some of the inventory's amounts. If a transaction
+     * is running this waits for it to commit, and then happens in the
+     * background.
+     *
+     * @param ingredientIds
+     *            ids of the ingredients that changed
+     */
+    public void record ( final Collection<Long> ingredientIds ) {
+        if ( ingredientIds.isEmpty() ) {
+            return;
+        }
+        final List<Long> ids = new ArrayList<Long>( ingredientIds );
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCommit () {
+                    // off this thread, so the amounts are read outside the
+                    // transaction that just committed
+                    updater.execute( () -> update( ids ) );
+                }
+            } );
+        }
+        else {
+            update( ids );
+        }
+    }
+
+    /**
+     * Drops the cached index. Inside a transaction it is dropped again once
+     * the transaction finishes, in case it was rebuilt in between.
+     */
+    public void invalidate () {
+        version.incrementAndGet();
+        index = null;
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCompletion ( final int status ) {
+                    version.incrementAndGet();
+                    index = null;
+                }
+            } );
+        }
+    }
+
+    /**
+     * Stops applying changes on shutdown.
+     */
+    @PreDestroy
+    public void shutdown () {
+        updater.shutdownNow();
+    }
+
+    /**
+     * Returns the index for the current menu, building it if the menu changed
+     * or it was dropped.
+     *
+     * @return the index
+     */
+    private Index current () {
+        final MenuSnapshot menu = menuCache.get();
+        final Index cached = index;
+        if ( null != cached && cached.menu == menu ) {
+            return cached;
+        }
+        final long seen = version.get();
+        final Index built = new Index( menu, inventoryCache.get() );
+        // inside a transaction we may be looking at uncommitted amounts, so
+        // only keep indexes built outside of one
+        if ( !TransactionSynchronizationManager.isActualTransactionActive() && version.get() == seen ) {
+            index = built;
+        }
+        return built;
+    }
+
+    /**
+     * Reads back changed ingredients and recounts the recipes that use them.
+     *
+     * @param ids
+     *            ids of the ingredients that changed
+     */
+    private void update ( final List<Long> ids ) {
+        version.incrementAndGet();
+        final Index cached = index;
+        if ( null == cached ) {
+            return;
+        }
+        for ( final Ingredient ingredient : ingredientRepository.findAllById( ids ) ) {
+            cached.set( ingredient.getName(), ingredient.getAmount() );
+        }
+    }
+
+    /**
+     * Servings of each recipe on one version of the menu.
+     */
+    private static final class Index {
+
+        /** the menu the index was built from */
+        private final MenuSnapshot                    menu;
+
+        /** amount of each ingredient a serving takes, keyed by recipe id */
+        private final Map<Long, Map<String, Integer>> needs;
+
+        /** ids of the recipes using each ingredient, keyed by name */
+        private final Map<String, List<Long>>         recipes  = new HashMap<String, List<Long>>();
+
+        /** amount of each ingredient in the inventory, keyed by name */
+        private final Map<String, Integer>            amounts  = new HashMap<String, Integer>();
+
+        /** servings of each recipe, keyed by recipe id */
+        private final Map<Long, Integer>              servings = new ConcurrentHashMap<Long, Integer>();
+
+        /**
+         * Builds the index.
+         *
+         * @param menu
+         *            the menu
+         * @param inventory
+         *            the inventory's ingredients by name
+         */
+        private Index ( final MenuSnapshot menu, final Map<String, Ingredient> inventory ) {
+            this.menu = menu;
+            this.needs = menu.getServingAmounts();
+            for ( final Ingredient ingredient : inventory.values() ) {
+                amounts.put( ingredient.getName(), ingredient.getAmount() );
+            }
+            needs.forEach( ( recipeId, serving ) -> {
+                for ( final String name : serving.keySet() ) {
+                    recipes.computeIfAbsent( name, key -> new ArrayList<Long>() ).add( recipeId );
+                }
+                count( recipeId );
+            } );
+        }
+
+        /**
+         * Sets an ingredient's amount and recounts the recipes that use it.
+         *
+         * @param name
+         *            name of the ingredient
+         * @param amount
+         *            its amount
+         */
+        private synchronized void set ( final String name, final Integer amount ) {
+            final List<Long> using = recipes.get( name );
+            if ( null == using ) {
+                // no recipe on the menu uses it
+                return;
+            }
+            amounts.put( name, amount );
+            for ( final Long recipeId : using ) {
+                count( recipeId );
+            }
+        }
+
+        /**
+         * Counts the servings of a recipe, the fewest its ingredients allow.
+         *
+         * @param recipeId
+         *            id of the recipe
+         */
+        private void count ( final Long recipeId ) {
+            Integer fewest = null;
+            for ( final Map.Entry<String, Integer> need : needs.get( recipeId ).entrySet() ) {
+                if ( need.getValue() <= 0 ) {
+                    continue;
+                }
+                final Integer amount = amounts.get( need.getKey() );
+                final int allowed = null == amount || amount <= 0 ? 0 : amount / need.getValue();
+                fewest = null == fewest ? allowed : Math.min( fewest, allowed );
+            }
+            if ( null == fewest ) {
+                servings.remove( recipeId );
+            }
+            else {
+                servings.put( recipeId, fewest );
+            }
+        }
+    }
+}
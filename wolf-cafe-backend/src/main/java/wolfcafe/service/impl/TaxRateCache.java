@@ -0,0 +1,81 @@
+package wolfcafe.service.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import wolfcafe.entity.Tax;
+import wolfcafe.repository.TaxRepository;
+
+/**
+ * Holds the current tax rate. The rate is read on first use and thrown away
+ * whenever the tax row changes, so checking out doesn't query the tax table
+ * for every order.
+ */
+@Component
+public class TaxRateCache {
+
+    /**
+     * Connection to the repository to work with the DAO + database. Lazy
+     * because tax changes reach this class from an entity listener while the
+     * repositories are still being set up.
+     */
+    @Lazy
+    @Autowired
+    private TaxRepository       taxRepository;
+
+    /** the cached rate, null until the next use reads it */
+    private volatile Double     rate;
+
+    /** bumped on every change, so a read racing a change isn't kept */
+    private final AtomicLong    version  = new AtomicLong();
+
+    /** transactions that changed the rate and haven't finished yet */
+    private final AtomicInteger changing = new AtomicInteger();
+
+    /**
+     * Returns the current tax rate.
+     *
+     * @return the rate, or the default rate if none is stored
+     */
+    public Double get () {
+        final Double cached = rate;
+        if ( null != cached ) {
+            return cached;
+        }
+        final long seen = version.get();
+        final Double read = taxRepository.findFirstByOrderByIdAsc().map( Tax::getRate )
+                .orElse( TaxServiceImpl.DEFAULT_RATE );
+        // checkouts read the rate inside their own transactions, so it is
+        // kept unless a transaction that changed it hasn't finished yet
+        if ( 0 == changing.get() && version.get() == seen ) {
+            rate = read;
+        }
+        return read;
+    }
+
+    /**
+     * Drops the cached rate. Inside a transaction nothing is cached again
+     * until it finishes, in case the change is rolled back.
+     */
+    public void invalidate () {
+        version.incrementAndGet();
+        rate = null;
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            changing.incrementAndGet();
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCompletion ( final int status ) {
+                    version.incrementAndGet();
+                    rate = null;
+                    changing.decrementAndGet();
+                }
+            } );
+        }
+    }
+}
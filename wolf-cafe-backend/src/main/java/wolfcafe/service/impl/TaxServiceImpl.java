@@ -21,6 +21,10 @@ public class TaxServiceImpl implements TaxService {
     @Autowired
     private TaxRepository taxRepository;
 
+    /** the cached tax rate, so calculating tax doesn't query it each time */
+    @Autowired
+    private TaxRateCache taxRateCache;
+
     /** Mapper to convert between Tax and TaxDto */
     private final TaxMapper taxMapper = new TaxMapper();
     
@@ -43,16 +47,14 @@ public class TaxServiceImpl implements TaxService {
     }
     
     /**
-     * Calculates the taxes based on the stored rate.
+     * Calculates the taxes based on the stored rate, read through the cache.
      *
      * @param preTax the total amount before tax
      * @return the calculated tax amount
      */
     @Override
     public Double calcTax(final Double preTax) {
-        final Optional<Tax> optionalTax = taxRepository.findFirstByOrderByIdAsc();
-        Double rate = DEFAULT_RATE; // Default rate
-            rate = optionalTax.get().getRate();
+        final Double rate = taxRateCache.get();
 
         return ((double) Math.round(preTax * rate * 100)) / 100;
     }
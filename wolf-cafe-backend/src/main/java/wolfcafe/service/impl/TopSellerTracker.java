@@ -0,0 +1,412 @@
+package wolfcafe.service.impl;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import wolfcafe.dto.TopSellerDto;
+import wolfcafe.entity.OrderHistory;
+import wolfcafe.entity.OrderHistoryIngredient;
+import wolfcafe.entity.OrderHistoryLine;
+import wolfcafe.repository.OrderHistoryItemRow;
+import wolfcafe.repository.OrderHistoryRepository;
+
+/**
+ * Keeps live counts of the best selling recipes and most used ingredients
+ * over the last hour, day and week, without reading history to answer.
+ *
+ * Each window is a ring of time buckets, five minute buckets for the hour and
+ * hourly ones for the day and week, and each bucket counts with a
+ * Space-Saving summary of a fixed number of counters. Once a bucket's
+ * counters are full, a new name takes over the smallest counter, so the
+ * names sold most are always kept and memory never grows. A list merges the
+ * buckets in its window, a fixed amount of work however many orders there
+ * were. Windows move a bucket at a time, so the hour covers 55 to 60 minutes.
+ *
+ * Counts live in memory, and are rebuilt from the last week of history when
+ * the application starts.
+ */
+@Component
+public class TopSellerTracker {
+
+    private static final Logger           log              = LoggerFactory.getLogger( TopSellerTracker.class );
+
+    /** length of the buckets the hour is counted in */
+    private static final long             MINUTE_BUCKET_MS = 5 * 60 * 1000L;
+
+    /** length of the buckets the day and week are counted in */
+    private static final long             HOUR_BUCKET_MS   = 60 * 60 * 1000L;
+
+    /** five minute buckets kept, an hour's worth */
+    private static final int              MINUTE_BUCKETS   = 12;
+
+    /** hourly buckets kept, a week's worth */
+    private static final int              HOUR_BUCKETS     = 7 * 24;
+
+    /** reference to OrderHistoryRepository, for rebuilding */
+    private final OrderHistoryRepository orderHistoryRepository;
+
+    /** counters kept per bucket */
+    private final int                    capacity;
+
+    /** units sold of each recipe */
+    private final Windows                recipes;
+
+    /** amount used of each ingredient */
+    private final Windows                ingredients;
+
+    /**
+     * Creates the tracker.
+     *
+     * @param orderHistoryRepository
+     *            reference to OrderHistoryRepository, for rebuilding
+     * @param capacity
+     *            counters kept per bucket. Names beyond this many in one
+     *            bucket share the smallest counters
+     */
+    public TopSellerTracker ( final OrderHistoryRepository orderHistoryRepository,
+            @Value ( "${app.reports.top-sellers.capacity:100}" ) final int capacity ) {
+        this.orderHistoryRepository = orderHistoryRepository;
+        this.capacity = capacity;
+        this.recipes = new Windows( capacity );
+        this.ingredients = new Windows( capacity );
+    }
+
+    /**
+     * Returns how many counters are kept per bucket, which is the longest
+     * list that can be asked for.
+     *
+     * @return counters per bucket
+     */
+    public int getCapacity () {
+        return capacity;
+    }
+
+    /**
+     * Counts a recorded order's recipes and ingredients at the time the order
+     * was recorded, or now for history without a time. If a transaction is
+     * running they are counted once it commits, so an order that is rolled
+     * back is never counted.
+     *
+     * @param orderHistory
+     *            history of the order, with its lines and ingredients
+     */
+    public void record ( final OrderHistory orderHistory ) {
+        final List<OrderHistoryLine> lines = new ArrayList<OrderHistoryLine>( orderHistory.getLines() );
+        final List<OrderHistoryIngredient> used = new ArrayList<OrderHistoryIngredient>(
+                orderHistory.getIngredients() );
+        if ( lines.isEmpty() && used.isEmpty() ) {
+            return;
+        }
+        // written behind history can be counted well after the order
+        final long time = null == orderHistory.getCreatedAt() ? System.currentTimeMillis()
+                : millis( orderHistory.getCreatedAt() );
+        final Runnable count = () -> {
+            for ( final OrderHistoryLine line : lines ) {
+                recipes.add( line.getRecipeName(), line.getQuantity(), time );
+            }
+            for ( final OrderHistoryIngredient ingredient : used ) {
+                ingredients.add( ingredient.getIngredientName(), ingredient.getQuantity(), time );
+            }
+        };
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCommit () {
+                    count.run();
+                }
+            } );
+        }
+        else {
+            count.run();
+        }
+    }
+
+    /**
+     * Returns the best selling recipes over a window.
+     *
+     * @param window
+     *            how far back to look
+     * @param limit
+     *            most recipes to return
+     * @return the recipes, best selling first
+     */
+    public List<TopSellerDto> getTopRecipes ( final TopSellerDto.Window window, final int limit ) {
+        return recipes.top( window, limit, System.currentTimeMillis() );
+    }
+
+    /**
+     * Returns the most used ingredients over a window.
+     *
+     * @param window
+     *            how far back to look
+     * @param limit
+     *            most ingredients to return
+     * @return the ingredients, most used first
+     */
+    public List<TopSellerDto> getTopIngredients ( final TopSellerDto.Window window, final int limit ) {
+        return ingredients.top( window, limit, System.currentTimeMillis() );
+    }
+
+    /**
+     * Rebuilds the counts from the last week of history, streaming the rows
+     * rather than loading the orders. History recorded before times were kept
+     * isn't counted. Orders committed while this runs could be counted twice,
+     * which is why it runs at startup.
+     */
+    @EventListener ( ApplicationReadyEvent.class )
+    @Transactional ( readOnly = true )
+    public void rebuild () {
+        recipes.clear();
+        ingredients.clear();
+        final LocalDateTime since = LocalDateTime.now().minusDays( 7 );
+        final long[] rows = new long[1];
+        try ( Stream<OrderHistoryItemRow> lines = orderHistoryRepository.streamLinesSince( since ) ) {
+            lines.forEach( row -> {
+                recipes.add( row.getName(), row.getQuantity(), millis( row.getCreatedAt() ) );
+                rows[0]++;
+            } );
+        }
+        try ( Stream<OrderHistoryItemRow> used = orderHistoryRepository.streamIngredientsSince( since ) ) {
+            used.forEach( row -> {
+                ingredients.add( row.getName(), row.getQuantity(), millis( row.getCreatedAt() ) );
+                rows[0]++;
+            } );
+        }
+        log.info( "Top sellers rebuilt from {} history rows", rows[0] );
+    }
+
+    /**
+     * Converts a recorded time to epoch milliseconds.
+     *
+     * @param time
+     *            the time, in the default zone like it was recorded in
+     * @return epoch milliseconds
+     */
+    private static long millis ( final LocalDateTime time ) {
+        return time.atZone( ZoneId.systemDefault() ).toInstant().toEpochMilli();
+    }
+
+    /**
+     * The buckets counting one kind of name, five minute ones for the hour
+     * and hourly ones for the day and week.
+     */
+    private static final class Windows {
+
+        /** the hour's buckets, indexed by slot modulo MINUTE_BUCKETS */
+        private final SpaceSaving[] minutes = new SpaceSaving[MINUTE_BUCKETS];
+
+        /** the week's buckets, indexed by slot modulo HOUR_BUCKETS */
+        private final SpaceSaving[] hours   = new SpaceSaving[HOUR_BUCKETS];
+
+        /**
+         * Creates empty buckets.
+         *
+         * @param capacity
+         *            counters kept per bucket
+         */
+        Windows ( final int capacity ) {
+            for ( int i = 0; i < minutes.length; i++ ) {
+                minutes[i] = new SpaceSaving( capacity );
+            }
+            for ( int i = 0; i < hours.length; i++ ) {
+                hours[i] = new SpaceSaving( capacity );
+            }
+        }
+
+        /**
+         * Counts an amount of a name at a time.
+         *
+         * @param name
+         *            the recipe or ingredient
+         * @param amount
+         *            how many were sold or used
+         * @param time
+         *            when, in epoch milliseconds
+         */
+        synchronized void add ( final String name, final long amount, final long time ) {
+            add( minutes, time / MINUTE_BUCKET_MS, name, amount );
+            add( hours, time / HOUR_BUCKET_MS, name, amount );
+        }
+
+        /**
+         * Counts an amount of a name in the bucket for a slot, starting the
+         * bucket over if it last held an older slot. A slot older than the
+         * one its bucket holds has already left the window.
+         *
+         * @param ring
+         *            the buckets
+         * @param slot
+         *            the time divided by the bucket length
+         * @param name
+         *            the recipe or ingredient
+         * @param amount
+         *            how many were sold or used
+         */
+        private static void add ( final SpaceSaving[] ring, final long slot, final String name,
+                final long amount ) {
+            final SpaceSaving bucket = ring[(int) ( slot % ring.length )];
+            if ( slot > bucket.slot ) {
+                bucket.reset( slot );
+            }
+            if ( slot == bucket.slot ) {
+                bucket.add( name, amount );
+            }
+        }
+
+        /**
+         * Merges the buckets in a window and returns its largest counts.
+         *
+         * @param window
+         *            how far back to look
+         * @param limit
+         *            most names to return
+         * @param now
+         *            the current time, in epoch milliseconds
+         * @return the names, largest count first
+         */
+        synchronized List<TopSellerDto> top ( final TopSellerDto.Window window, final int limit,
+                final long now ) {
+            final Map<String, TopSellerDto> merged = new HashMap<String, TopSellerDto>();
+            switch ( window ) {
+                case HOUR:
+                    merge( merged, minutes, now / MINUTE_BUCKET_MS, MINUTE_BUCKETS );
+                    break;
+                case DAY:
+                    merge( merged, hours, now / HOUR_BUCKET_MS, 24 );
+                    break;
+                default:
+                    merge( merged, hours, now / HOUR_BUCKET_MS, HOUR_BUCKETS );
+                    break;
+            }
+            final List<TopSellerDto> top = new ArrayList<TopSellerDto>( merged.values() );
+            top.sort( Comparator.comparing( TopSellerDto::getCount ).reversed()
+                    .thenComparing( TopSellerDto::getName ) );
+            return new ArrayList<TopSellerDto>( top.subList( 0, Math.min( limit, top.size() ) ) );
+        }
+
+        /**
+         * Adds the counters of the buckets for the latest slots into a map.
+         *
+         * @param merged
+         *            counts so far, by name
+         * @param ring
+         *            the buckets
+         * @param current
+         *            the current slot
+         * @param slots
+         *            how many slots back to go, the current one included
+         */
+        private static void merge ( final Map<String, TopSellerDto> merged, final SpaceSaving[] ring,
+                final long current, final int slots ) {
+            for ( final SpaceSaving bucket : ring ) {
+                if ( bucket.slot > current - slots && bucket.slot <= current ) {
+                    for ( final Map.Entry<String, long[]> counter : bucket.counters.entrySet() ) {
+                        final TopSellerDto total = merged.computeIfAbsent( counter.getKey(),
+                                name -> new TopSellerDto( name, 0L, 0L ) );
+                        total.setCount( total.getCount() + counter.getValue()[0] );
+                        total.setError( total.getError() + counter.getValue()[1] );
+                    }
+                }
+            }
+        }
+
+        /**
+         * Empties every bucket.
+         */
+        synchronized void clear () {
+            for ( final SpaceSaving bucket : minutes ) {
+                bucket.reset( -1 );
+            }
+            for ( final SpaceSaving bucket : hours ) {
+                bucket.reset( -1 );
+            }
+        }
+    }
+
+    /**
+     * Space-Saving summary of one bucket. Keeps at most capacity counters of
+     * count and error. A name without a counter when they're all taken
+     * replaces the smallest, inheriting its count as error, so any name's
+     * count is over by at most its error and never under.
+     */
+    private static final class SpaceSaving {
+
+        /** most counters kept */
+        private final int                 capacity;
+
+        /** count and error of each counted name */
+        private final Map<String, long[]> counters;
+
+        /** time slot the bucket holds, or -1 if empty */
+        private long                      slot = -1;
+
+        /**
+         * Creates an empty summary.
+         *
+         * @param capacity
+         *            most counters kept
+         */
+        SpaceSaving ( final int capacity ) {
+            this.capacity = capacity;
+            this.counters = new HashMap<String, long[]>( capacity * 2 );
+        }
+
+        /**
+         * Empties the summary for a new time slot.
+         *
+         * @param newSlot
+         *            the slot it now holds
+         */
+        void reset ( final long newSlot ) {
+            counters.clear();
+            slot = newSlot;
+        }
+
+        /**
+         * Counts an amount of a name.
+         *
+         * @param name
+         *            the recipe or ingredient
+         * @param amount
+         *            how many were sold or used
+         */
+        void add ( final String name, final long amount ) {
+            final long[] counter = counters.get( name );
+            if ( null != counter ) {
+                counter[0] += amount;
+                return;
+            }
+            if ( counters.size() < capacity ) {
+                counters.put( name, new long[] { amount, 0 } );
+                return;
+            }
+            // full, so the name takes over the smallest counter. Scanning is
+            // fine for the few hundred counters a bucket holds
+            Map.Entry<String, long[]> smallest = null;
+            for ( final Map.Entry<String, long[]> entry : counters.entrySet() ) {
+                if ( null == smallest || entry.getValue()[0] < smallest.getValue()[0] ) {
+                    smallest = entry;
+                }
+            }
+            final long floor = smallest.getValue()[0];
+            counters.remove( smallest.getKey() );
+            counters.put( name, new long[] { floor + amount, floor } );
+        }
+    }
+}
@@ -0,0 +1,22 @@
+-- Copies order owners out of the users_orders join table into
+-- orders.user_id, where they have been kept since orders started recording
+-- their owner. OrderOwnerBackfill runs the same statements when the
+-- application starts; this is for running it by hand ahead of a deploy.
+-- Safe to run more than once.
+--
+-- The copied join table rows are deleted too, since their foreign key
+-- would otherwise keep the orders from being picked up. The table itself
+-- can be dropped once it is empty.
+
+START TRANSACTION;
+
+UPDATE orders o
+    JOIN users_orders uo ON uo.orders_id = o.id
+    SET o.user_id = uo.user_id
+    WHERE o.user_id IS NULL;
+
+DELETE uo FROM users_orders uo
+    JOIN orders o ON o.id = uo.orders_id
+    WHERE o.user_id = uo.user_id;
+
+COMMIT;
@@ -0,0 +1,40 @@
+-- Range partitions order_history_archive by month of created_at, so old
+-- months can be dropped, and range reads only touch the months they cover.
+-- Run once after the application has created the table. MySQL needs the
+-- partitioning column in the primary key.
+--
+-- History recorded before created_at was kept is archived with the
+-- 1970-01-01 stand in time and lands in p_legacy.
+
+ALTER TABLE order_history_archive
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, created_at);
+
+ALTER TABLE order_history_archive
+    PARTITION BY RANGE COLUMNS (created_at) (
+        PARTITION p_legacy VALUES LESS THAN ('2000-01-01'),
+        PARTITION p2026_01 VALUES LESS THAN ('2026-02-01'),
+        PARTITION p2026_02 VALUES LESS THAN ('2026-03-01'),
+        PARTITION p2026_03 VALUES LESS THAN ('2026-04-01'),
+        PARTITION p2026_04 VALUES LESS THAN ('2026-05-01'),
+        PARTITION p2026_05 VALUES LESS THAN ('2026-06-01'),
+        PARTITION p2026_06 VALUES LESS THAN ('2026-07-01'),
+        PARTITION p2026_07 VALUES LESS THAN ('2026-08-01'),
+        PARTITION p2026_08 VALUES LESS THAN ('2026-09-01'),
+        PARTITION p2026_09 VALUES LESS THAN ('2026-10-01'),
+        PARTITION p2026_10 VALUES LESS THAN ('2026-11-01'),
+        PARTITION p2026_11 VALUES LESS THAN ('2026-12-01'),
+        PARTITION p2026_12 VALUES LESS THAN ('2027-01-01'),
+        PARTITION p_future VALUES LESS THAN (MAXVALUE)
+    );
+
+-- Before each month starts, split its partition off p_future, for example
+--
+-- ALTER TABLE order_history_archive REORGANIZE PARTITION p_future INTO (
+--     PARTITION p2027_01 VALUES LESS THAN ('2027-02-01'),
+--     PARTITION p_future VALUES LESS THAN (MAXVALUE)
+-- );
+--
+-- and drop a month that no longer needs keeping with
+--
+-- ALTER TABLE order_history_archive DROP PARTITION p2026_01;
@@ -235,4 +235,65 @@ public class InventoryControllerTest {
                 .andExpect( jsonPath( "$.ingredients[2].amount" ).value( ingredientsList2.get( 2 ).getAmount() ) );
     }
 
+    /**
+     * Tests the PUT /api/inventory/bulk endpoint, with json and csv.
+     *
+     * @throws Exception
+     *             if issue when running the test.
+     */
+    @Test
+    @Transactional
+    @WithMockUser(username = "staff", roles = "STAFF")
+    public void testRestockIngredients () throws Exception {
+        ingredientService.createIngredient( new IngredientDto( null, "coffee", 1 ) );
+        ingredientService.createIngredient( new IngredientDto( null, "milk", 2 ) );
+
+        final List<IngredientDto> lines = new ArrayList<IngredientDto>();
+        lines.add( new IngredientDto( null, "coffee", 10 ) );
+        lines.add( new IngredientDto( null, "sugar", 5 ) );
+        lines.add( new IngredientDto( null, "milk", -1 ) );
+        lines.add( new IngredientDto( null, "coffee", 5 ) );
+
+        // the bad lines are reported, the rest still go in
+        mvc.perform( put( "/api/inventory/bulk" )
+                .contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( lines ) )
+                .accept( MediaType.APPLICATION_JSON ) )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 4 ) )
+                .andExpect( jsonPath( "$[0].status" ).value( 200 ) )
+                .andExpect( jsonPath( "$[1].status" ).value( 404 ) )
+                .andExpect( jsonPath( "$[1].message" ).value( "Ingredient sugar does not exist." ) )
+                .andExpect( jsonPath( "$[2].status" ).value( 400 ) )
+                .andExpect( jsonPath( "$[2].message" ).value( "Ingredient amount cannot be negative." ) )
+                .andExpect( jsonPath( "$[3].status" ).value( 200 ) );
+        mvc.perform( get( "/api/inventory" ) )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.ingredients[0].amount" ).value( 16 ) )
+                .andExpect( jsonPath( "$.ingredients[1].amount" ).value( 2 ) );
+
+        mvc.perform( put( "/api/inventory/bulk" )
+                .contentType( "text/csv" )
+                .content( "name,amount\ncoffee,4\n\n\"milk\", 3\nmilk,lots\n" )
+                .accept( MediaType.APPLICATION_JSON ) )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 3 ) )
+                .andExpect( jsonPath( "$[0].status" ).value( 200 ) )
+                .andExpect( jsonPath( "$[1].name" ).value( "milk" ) )
+                .andExpect( jsonPath( "$[1].status" ).value( 200 ) )
+                .andExpect( jsonPath( "$[2].status" ).value( 400 ) );
+        mvc.perform( get( "/api/inventory" ) )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.ingredients[0].amount" ).value( 20 ) )
+                .andExpect( jsonPath( "$.ingredients[1].amount" ).value( 5 ) );
+
+        // nothing could be applied
+        mvc.perform( put( "/api/inventory/bulk" )
+                .contentType( "text/csv" )
+                .content( "sugar,1\n" )
+                .accept( MediaType.APPLICATION_JSON ) )
+                .andExpect( status().isBadRequest() )
+                .andExpect( jsonPath( "$[0].status" ).value( 404 ) );
+    }
+
 }
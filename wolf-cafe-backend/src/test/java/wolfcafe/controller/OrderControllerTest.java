@@ -9,7 +9,9 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.ArrayList;
@@ -26,12 +28,14 @@ import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.transaction.annotation.Transactional;
 
 import wolfcafe.TestUtils;
 import wolfcafe.dto.IngredientDto;
 import wolfcafe.dto.LoginDto;
 import wolfcafe.dto.OrderDto;
+import wolfcafe.dto.OrderEventDto;
 import wolfcafe.dto.RecipeDto;
 import wolfcafe.dto.RegisterDto;
 import wolfcafe.entity.Ingredient;
@@ -45,6 +49,7 @@ import wolfcafe.service.IngredientService;
 import wolfcafe.service.InventoryService;
 import wolfcafe.service.OrderService;
 import wolfcafe.service.RecipeService;
+import wolfcafe.service.impl.OrderEventStream;
 import jakarta.persistence.EntityManager;
 
 /**
@@ -98,6 +103,10 @@ class OrderControllerTest {
     @Autowired
     private AuthService       authService;
 
+    /** reference to the order queue stream */
+    @Autowired
+    private OrderEventStream  orderEventStream;
+
     /** an valid order to be tested */
     private OrderDto          order1;
 
@@ -490,7 +499,18 @@ class OrderControllerTest {
         mvc.perform( get( "/api/orders" ).contentType( MediaType.APPLICATION_JSON ).accept( MediaType.APPLICATION_JSON )
                 .header( "Authorization", adminToken ) ).andExpect( status().isOk() )
                 .andExpect( jsonPath( "$[0].id" ).value( "" + id1 ) )
-                .andExpect( jsonPath( "$[1].id" ).value( "" + id2 ) );
+                .andExpect( jsonPath( "$[1].id" ).value( "" + id2 ) )
+                .andExpect( header().doesNotExist( "Link" ) );
+
+        // a full page links to the next one
+        mvc.perform( get( "/api/orders" ).param( "limit", "1" ).accept( MediaType.APPLICATION_JSON )
+                .header( "Authorization", adminToken ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 1 ) )
+                .andExpect( jsonPath( "$[0].id" ).value( "" + id1 ) )
+                .andExpect( header().string( "Link", "</api/orders?after=" + id1 + "&limit=1>; rel=\"next\"" ) );
+        mvc.perform( get( "/api/orders" ).param( "after", "" + id1 ).param( "limit", "1" )
+                .accept( MediaType.APPLICATION_JSON ).header( "Authorization", adminToken ) )
+                .andExpect( status().isOk() ).andExpect( jsonPath( "$[0].id" ).value( "" + id2 ) );
 
     }
 
@@ -736,4 +756,153 @@ class OrderControllerTest {
                 .andExpect( jsonPath( "$[0].fulfilled" ).value( "" + false ) );
     }
 
+    /**
+     * tests that retrying an order with the same Idempotency-Key returns the
+     * original order instead of making it again
+     *
+     * @throws Exception
+     *             if something goes wrong
+     */
+    @Test
+    @Transactional
+    void testMakeOrderIdempotencyKey () throws Exception {
+        final RegisterDto user1 = new RegisterDto( "Alex", "user1", "alex@gmail.com", "pass1", null );
+        authService.register( user1, false );
+        final String token1 = "Bearer "
+                + authService.login( new LoginDto( user1.getUsername(), user1.getPassword() ) ).getAccessToken();
+
+        final String first = mvc
+                .perform( post( "/api/orders" ).contentType( MediaType.APPLICATION_JSON )
+                        .content( TestUtils.asJsonString( order2 ) ).accept( MediaType.APPLICATION_JSON )
+                        .header( "Authorization", token1 ).header( "Idempotency-Key", "retry-1" ) )
+                .andExpect( status().isOk() ).andReturn().getResponse().getContentAsString();
+
+        final String second = mvc
+                .perform( post( "/api/orders" ).contentType( MediaType.APPLICATION_JSON )
+                        .content( TestUtils.asJsonString( order2 ) ).accept( MediaType.APPLICATION_JSON )
+                        .header( "Authorization", token1 ).header( "Idempotency-Key", "retry-1" ) )
+                .andExpect( status().isOk() ).andReturn().getResponse().getContentAsString();
+
+        // same order back, coffee only taken once
+        assertEquals( first, second );
+        assertEquals( 15, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+        assertEquals( 1, orderService.getOrdersByCustomer( user1.getUsername() ).size() );
+
+        // the same key with a different order is refused, not replayed
+        mvc.perform( post( "/api/orders" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( order1 ) ).accept( MediaType.APPLICATION_JSON )
+                .header( "Authorization", token1 ).header( "Idempotency-Key", "retry-1" ) )
+                .andExpect( status().isUnprocessableEntity() );
+        assertEquals( 1, orderService.getOrdersByCustomer( user1.getUsername() ).size() );
+
+        // a new key is a new order, which there isn't enough coffee for
+        mvc.perform( post( "/api/orders" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( order2 ) ).accept( MediaType.APPLICATION_JSON )
+                .header( "Authorization", token1 ).header( "Idempotency-Key", "retry-2" ) )
+                .andExpect( status().isBadRequest() );
+    }
+
+    /**
+     * tests making a batch of orders
+     *
+     * @throws Exception
+     *             if something goes wrong
+     */
+    @Test
+    @Transactional
+    void testMakeOrdersBatch () throws Exception {
+        final RegisterDto user1 = new RegisterDto( "Alex", "user1", "alex@gmail.com", "pass1", null );
+        authService.register( user1, false );
+        final String token1 = "Bearer "
+                + authService.login( new LoginDto( user1.getUsername(), user1.getPassword() ) ).getAccessToken();
+
+        // one bad order fails the whole batch without partial
+        mvc.perform( post( "/api/orders/batch" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( Arrays.asList( order2, invalid1 ) ) )
+                .accept( MediaType.APPLICATION_JSON ).header( "Authorization", token1 ) )
+                .andExpect( status().isNotFound() ).andExpect( jsonPath( "$[0].status" ).value( 424 ) )
+                .andExpect( jsonPath( "$[1].status" ).value( 404 ) );
+        assertEquals( 33, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+
+        // with partial the good order is still made
+        mvc.perform( post( "/api/orders/batch?partial=true" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( Arrays.asList( order2, invalid1 ) ) )
+                .accept( MediaType.APPLICATION_JSON ).header( "Authorization", token1 ) )
+                .andExpect( status().isOk() ).andExpect( jsonPath( "$[0].status" ).value( 200 ) )
+                .andExpect( jsonPath( "$[0].order.id" ).isNumber() )
+                .andExpect( jsonPath( "$[1].status" ).value( 404 ) );
+        assertEquals( 15, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+    }
+
+    /**
+     * tests checking out, which makes the order and its history together
+     *
+     * @throws Exception
+     *             if something goes wrong
+     */
+    @Test
+    @Transactional
+    void testCheckout () throws Exception {
+        final RegisterDto user1 = new RegisterDto( "Alex", "user1", "alex@gmail.com", "pass1", null );
+        authService.register( user1, false );
+        final String token1 = "Bearer "
+                + authService.login( new LoginDto( user1.getUsername(), user1.getPassword() ) ).getAccessToken();
+
+        mvc.perform( post( "/api/orders/checkout" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( order2 ) ).accept( MediaType.APPLICATION_JSON )
+                .header( "Authorization", token1 ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.order.id" ).isNumber() )
+                .andExpect( jsonPath( "$.history.username" ).value( "user1" ) )
+                .andExpect( jsonPath( "$.history.recipesInOrder" ).value( "Just Coffee: 2" ) );
+        assertEquals( 15, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+
+        // invalid orders are rejected like POST /api/orders
+        mvc.perform( post( "/api/orders/checkout" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( invalid5 ) ).accept( MediaType.APPLICATION_JSON )
+                .header( "Authorization", token1 ) ).andExpect( status().isNotFound() );
+
+        // not enough coffee left for a second one
+        mvc.perform( post( "/api/orders/checkout" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( order2 ) ).accept( MediaType.APPLICATION_JSON )
+                .header( "Authorization", token1 ) ).andExpect( status().isBadRequest() );
+    }
+
+    /**
+     * tests the order queue stream
+     *
+     * @throws Exception
+     *             if something goes wrong
+     */
+    @Test
+    @WithMockUser ( username = "staff", roles = "STAFF" )
+    void testStreamOrders () throws Exception {
+        final MvcResult result = mvc.perform( get( "/api/orders/stream" ).accept( MediaType.TEXT_EVENT_STREAM ) )
+                .andExpect( request().asyncStarted() ).andReturn();
+
+        orderEventStream.onOrderEvent( new OrderEventDto( OrderEventDto.Type.ORDER_FULFILLED, 7L, true ) );
+
+        // events are sent from the subscriber's own thread
+        final long deadline = System.currentTimeMillis() + 5000;
+        while ( !result.getResponse().getContentAsString().contains( "ORDER_FULFILLED" )
+                && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 20 );
+        }
+        final String body = result.getResponse().getContentAsString();
+        assertTrue( body.contains( "event:ORDER_FULFILLED" ) );
+        assertTrue( body.contains( "\"id\":7" ) );
+    }
+
+    /**
+     * tests that customers can't subscribe to the order queue stream
+     *
+     * @throws Exception
+     *             if something goes wrong
+     */
+    @Test
+    @WithMockUser ( username = "customer", roles = "CUSTOMER" )
+    void testStreamOrdersForbidden () throws Exception {
+        mvc.perform( get( "/api/orders/stream" ).accept( MediaType.TEXT_EVENT_STREAM ) )
+                .andExpect( status().isForbidden() );
+    }
+
 }
@@ -486,6 +486,26 @@ class OrderHistoryControllerTest {
             assertTrue( history.getPickedUp() );
         }
 
+        // one page at a time, with the total
+        mvc.perform( get( "/api/orders/history" ).param( "page", "0" ).param( "size", "1" )
+                .header( "Authorization", token1 ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.content.length()" ).value( 1 ) )
+                .andExpect( jsonPath( "$.totalElements" ).value( 2 ) )
+                .andExpect( jsonPath( "$.content[0].id" ).value( Math.max( order1.getId(), order2.getId() ) ) );
+        mvc.perform( get( "/api/orders/history" ).param( "page", "1" ).param( "size", "1" ).param( "sort", "id,desc" )
+                .header( "Authorization", token1 ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.content[0].id" ).value( Math.min( order1.getId(), order2.getId() ) ) );
+        mvc.perform( get( "/api/orders/history/" + register1.getUsername() ).param( "page", "0" )
+                .param( "sort", "total" ).header( "Authorization", token1 ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.totalElements" ).value( 1 ) );
+        // bad paging parameters
+        mvc.perform( get( "/api/orders/history" ).param( "page", "0" ).param( "sort", "password" )
+                .header( "Authorization", token1 ) ).andExpect( status().isBadRequest() );
+        mvc.perform( get( "/api/orders/history" ).param( "page", "-1" ).header( "Authorization", token1 ) )
+                .andExpect( status().isBadRequest() );
+        mvc.perform( get( "/api/orders/history" ).param( "page", "0" ).param( "size", "0" )
+                .header( "Authorization", token1 ) ).andExpect( status().isBadRequest() );
+
         final Long nonExistentOrderId = 999L;
         // tries updating the order status for a fake order
         mvc.perform( put( "/api/orders/history/status/{id}", nonExistentOrderId ).header( "Authorization", token1 ) )
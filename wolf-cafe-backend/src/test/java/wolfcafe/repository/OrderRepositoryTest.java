@@ -1,6 +1,7 @@
 package wolfcafe.repository;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
@@ -19,6 +20,7 @@ import org.springframework.transaction.annotation.Transactional;
 import wolfcafe.entity.Ingredient;
 import wolfcafe.entity.MultiRecipe;
 import wolfcafe.entity.Order;
+import wolfcafe.entity.User;
 
 /**
  * tests OrderRepository
@@ -32,6 +34,10 @@ class OrderRepositoryTest {
     @Autowired
     private OrderRepository orderRepository;
 
+    /** reference to UserRepository, for owners of orders */
+    @Autowired
+    private UserRepository  userRepository;
+
     /** an order to be tested */
     private Order           order1;
 
@@ -122,4 +128,34 @@ class OrderRepositoryTest {
 
     }
 
+    @Transactional
+    @Test
+    void testFindByOwner () {
+        final User user1 = userRepository
+                .save( new User( null, "alex", "user1", "user1@gmail.com", "pass", null, null ) );
+        final User user2 = userRepository
+                .save( new User( null, "maddy", "user2", "user2@gmail.com", "pass", null, null ) );
+
+        order1.setOwner( user1 );
+        order2.setOwner( user1 );
+        final Order savedOrder1 = orderRepository.save( order1 );
+        final Order savedOrder2 = orderRepository.save( order2 );
+
+        assertEquals( user1.getId(), userRepository.findIdByUsernameOrEmail( "user1" ).get() );
+        assertEquals( user1.getId(), userRepository.findIdByUsernameOrEmail( "user1@gmail.com" ).get() );
+        assertFalse( userRepository.findIdByUsernameOrEmail( "user3" ).isPresent() );
+
+        // only found for the user that owns it
+        final Optional<Order> actual1 = orderRepository.findByIdAndOwnerId( savedOrder1.getId(), user1.getId() );
+        assertTrue( actual1.isPresent() );
+        checkEquals( order1, actual1.get() );
+        assertFalse( orderRepository.findByIdAndOwnerId( savedOrder1.getId(), user2.getId() ).isPresent() );
+
+        final List<Order> orders = orderRepository.findByOwnerIdOrderById( user1.getId() );
+        assertEquals( 2, orders.size() );
+        assertEquals( savedOrder1.getId(), orders.get( 0 ).getId() );
+        assertEquals( savedOrder2.getId(), orders.get( 1 ).getId() );
+        assertTrue( orderRepository.findByOwnerIdOrderById( user2.getId() ).isEmpty() );
+    }
+
 }
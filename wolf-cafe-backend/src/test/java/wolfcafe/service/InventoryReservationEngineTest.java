@@ -0,0 +1,116 @@
+package wolfcafe.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import wolfcafe.dto.IngredientDto;
+import wolfcafe.service.impl.InventoryReservationEngine;
+
+/**
+ * Tests the in-memory inventory reservations.
+ */
+@ActiveProfiles ( "localtest" )
+@SpringBootTest ( properties = { "app.inventory.reservation.enabled=true",
+        "app.inventory.reservation.flush-interval-ms=3600000",
+        "app.inventory.reservation.journal=target/test-reservations.journal" } )
+class InventoryReservationEngineTest {
+
+    /** Reference to the engine under test */
+    @Autowired
+    private InventoryReservationEngine engine;
+
+    /** Reference to IngredientService (and IngredientServiceImpl). */
+    @Autowired
+    private IngredientService          ingredientService;
+
+    /** Reference to InventoryService (and InventoryServiceImpl). */
+    @Autowired
+    private InventoryService           inventoryService;
+
+    /** used to truncate the inventory and read back the flushed amounts */
+    @Autowired
+    private JdbcTemplate               jdbcTemplate;
+
+    /** used to reserve inside a transaction that rolls back */
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp () throws Exception {
+        jdbcTemplate.execute( "SET FOREIGN_KEY_CHECKS = 0" );
+        jdbcTemplate.execute( "TRUNCATE TABLE inventory" );
+        jdbcTemplate.execute( "SET FOREIGN_KEY_CHECKS = 1" );
+
+        ingredientService.deleteAllIngredients();
+        ingredientService.createIngredient( new IngredientDto( 1L, "coffee", 10 ) );
+        ingredientService.createIngredient( new IngredientDto( 2L, "milk", 5 ) );
+    }
+
+    @Test
+    void testReserveAndFlush () {
+        engine.reserve( Map.of( "coffee", 4, "milk", 2 ) );
+
+        // shortfall on one ingredient takes nothing
+        assertThrows( IllegalArgumentException.class, () -> engine.reserve( Map.of( "coffee", 1, "milk", 4 ) ) );
+        assertThrows( IllegalArgumentException.class, () -> engine.reserve( Map.of( "sugar", 1 ) ) );
+
+        engine.reserve( Map.of( "coffee", 6, "milk", 3 ) );
+        assertThrows( IllegalArgumentException.class, () -> engine.reserve( Map.of( "coffee", 1 ) ) );
+
+        engine.flush();
+        assertEquals( 0, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+        assertEquals( 0, inventoryService.getInventoryIngredient( "milk" ).getAmount() );
+    }
+
+    @Test
+    void testRelease () {
+        engine.reserve( Map.of( "coffee", 10 ) );
+        engine.release( Map.of( "coffee", 10 ) );
+        engine.reserve( Map.of( "coffee", 7 ) );
+
+        engine.flush();
+        assertEquals( 3, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+        assertEquals( 5, inventoryService.getInventoryIngredient( "milk" ).getAmount() );
+    }
+
+    @Test
+    void testRolledBackReservation () {
+        new TransactionTemplate( transactionManager ).executeWithoutResult( status -> {
+            engine.reserve( Map.of( "coffee", 10 ) );
+            // nothing is left while the transaction holds it
+            assertThrows( IllegalArgumentException.class, () -> engine.reserve( Map.of( "coffee", 1 ) ) );
+            status.setRollbackOnly();
+        } );
+
+        engine.flush();
+        assertEquals( 10, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+        engine.reserve( Map.of( "coffee", 10 ) );
+    }
+
+    @Test
+    void testFlushNeverGoesNegative () {
+        engine.reserve( Map.of( "coffee", 8 ) );
+        // cut behind the engine's back
+        jdbcTemplate.update( "UPDATE ingredient SET amount = 5 WHERE name = 'coffee'" );
+
+        engine.flush();
+        assertEquals( 5, jdbcTemplate.queryForObject( "SELECT amount FROM ingredient WHERE name = 'coffee'",
+                Integer.class ) );
+
+        // the live counts were reloaded from the database
+        assertThrows( IllegalArgumentException.class, () -> engine.reserve( Map.of( "coffee", 6 ) ) );
+        engine.reserve( Map.of( "coffee", 5 ) );
+    }
+
+}
@@ -2,23 +2,33 @@ package wolfcafe.service;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.transaction.annotation.Transactional;
 
 import wolfcafe.dto.IngredientDto;
 import wolfcafe.dto.InventoryDto;
+import wolfcafe.dto.LowStockAlertDto;
 import wolfcafe.entity.Ingredient;
+import wolfcafe.entity.InventoryMovement;
 import wolfcafe.exception.ResourceNotFoundException;
-import jakarta.persistence.EntityManager;
+import wolfcafe.repository.InventoryMovementRepository;
+import wolfcafe.service.impl.InventoryLedger;
+import wolfcafe.service.impl.LowStockMonitor;
 
 /**
  * Tests InventoryService (and InventoryServiceImpl).
@@ -27,10 +37,6 @@ import jakarta.persistence.EntityManager;
 @SpringBootTest
 public class InventoryServiceTest {
 
-    /** Reference to EntityManager */
-    @Autowired
-    private EntityManager     entityManager;
-
     /** Reference to InventoryService (and InventoryServiceImpl). */
     @Autowired
     private InventoryService  inventoryService;
@@ -39,6 +45,22 @@ public class InventoryServiceTest {
     @Autowired
     private IngredientService ingredientService;
 
+    /** Reference to InventoryLedger. */
+    @Autowired
+    private InventoryLedger   inventoryLedger;
+
+    /** Reference to InventoryMovementRepository. */
+    @Autowired
+    private InventoryMovementRepository movementRepository;
+
+    /** Reference to LowStockMonitor. */
+    @Autowired
+    private LowStockMonitor   lowStockMonitor;
+
+    /** used to truncate the inventory and read back committed amounts */
+    @Autowired
+    private JdbcTemplate      jdbcTemplate;
+
     /**
      * Sets up the test case. We assume only one inventory row. Because
      * inventory is treated as a singleton (only one row), we must truncate for
@@ -53,9 +75,10 @@ public class InventoryServiceTest {
         // inventory");
         // query.executeUpdate();
 
-        entityManager.createNativeQuery( "SET FOREIGN_KEY_CHECKS = 0" ).executeUpdate();
-        entityManager.createNativeQuery( "TRUNCATE TABLE inventory" ).executeUpdate();
-        entityManager.createNativeQuery( "SET FOREIGN_KEY_CHECKS = 1" ).executeUpdate();
+        // through jdbc, so tests that run outside a transaction can set up too
+        jdbcTemplate.execute( "SET FOREIGN_KEY_CHECKS = 0" );
+        jdbcTemplate.execute( "TRUNCATE TABLE inventory" );
+        jdbcTemplate.execute( "SET FOREIGN_KEY_CHECKS = 1" );
     }
 
     /**
@@ -195,4 +218,182 @@ public class InventoryServiceTest {
                 () -> inventoryService.updateInventory( inventoryDto3 ) );
         assertEquals( "Ingredient amount cannot be negative.", ex2.getMessage() );
     }
+
+    /**
+     * Tests InventoryService.deductIngredients().
+     */
+    @Test
+    @Transactional
+    public void testDeductIngredients () {
+        ingredientService.createIngredient( new IngredientDto( 1L, "coffee", 10 ) );
+        ingredientService.createIngredient( new IngredientDto( 2L, "milk", 8 ) );
+        ingredientService.createIngredient( new IngredientDto( 3L, "cream", 2 ) );
+
+        final Map<String, Integer> demand = new HashMap<String, Integer>();
+        demand.put( "coffee", 4 );
+        demand.put( "cream", 2 );
+        inventoryService.deductIngredients( demand );
+
+        final List<Ingredient> ingredients = inventoryService.getInventory().getIngredients();
+        assertAll( "Ingredient contents", 
+                () -> assertEquals( 6, ingredients.get( 0 ).getAmount() ),
+                () -> assertEquals( 8, ingredients.get( 1 ).getAmount() ),
+                () -> assertEquals( 0, ingredients.get( 2 ).getAmount() ) );
+
+        // not enough of the first ingredient taken, so nothing changes
+        final Map<String, Integer> tooMuch = new HashMap<String, Integer>();
+        tooMuch.put( "coffee", 7 );
+        final Exception ex1 = assertThrows( IllegalArgumentException.class,
+                () -> inventoryService.deductIngredients( tooMuch ) );
+        assertEquals( "Not enough ingredients in inventory.", ex1.getMessage() );
+        assertEquals( 6, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+
+        // ingredient that doesn't exist in the inventory
+        final Map<String, Integer> fake = new HashMap<String, Integer>();
+        fake.put( "fake", 1 );
+        final Exception ex2 = assertThrows( IllegalArgumentException.class,
+                () -> inventoryService.deductIngredients( fake ) );
+        assertEquals( "Ingredient fake does not exist.", ex2.getMessage() );
+    }
+
+    /**
+     * Tests that InventoryService.deductIngredients() puts back the
+     * ingredients it already took when a later one runs short. This runs
+     * outside a test transaction, so the deduction's own transaction is the
+     * one rolled back and the amounts are read back as committed.
+     */
+    @Test
+    public void testDeductIngredientsRollback () {
+        ingredientService.deleteAllIngredients();
+        ingredientService.createIngredient( new IngredientDto( 1L, "coffee", 10 ) );
+        ingredientService.createIngredient( new IngredientDto( 2L, "milk", 1 ) );
+
+        // coffee has the lower id, so it is decremented before milk runs short
+        final Map<String, Integer> demand = new HashMap<String, Integer>();
+        demand.put( "coffee", 4 );
+        demand.put( "milk", 2 );
+        final Exception ex = assertThrows( IllegalArgumentException.class,
+                () -> inventoryService.deductIngredients( demand ) );
+        assertEquals( "Not enough ingredients in inventory.", ex.getMessage() );
+
+        final String amount = "SELECT amount FROM ingredient WHERE name = ?";
+        assertEquals( 10, jdbcTemplate.queryForObject( amount, Integer.class, "coffee" ) );
+        assertEquals( 1, jdbcTemplate.queryForObject( amount, Integer.class, "milk" ) );
+
+        ingredientService.deleteAllIngredients();
+    }
+
+    /**
+     * Tests looking up inventory ingredients by name across restocks.
+     */
+    @Test
+    @Transactional
+    public void testGetInventoryIngredient () {
+        ingredientService.createIngredient( new IngredientDto( 1L, "coffee", 10 ) );
+        ingredientService.createIngredient( new IngredientDto( 2L, "milk", 8 ) );
+        assertEquals( 10, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+        assertNull( inventoryService.getInventoryIngredient( "cream" ) );
+
+        // what's handed out is a copy
+        inventoryService.getInventoryIngredient( "coffee" ).setAmount( 100 );
+        assertEquals( 10, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+
+        final List<Ingredient> restock = new ArrayList<Ingredient>();
+        restock.add( new Ingredient( "coffee", 5 ) );
+        restock.add( new Ingredient( "milk", 2 ) );
+        inventoryService.updateInventory( new InventoryDto( 1L, restock ) );
+        assertEquals( 15, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+        assertEquals( 10, inventoryService.getInventoryIngredient( "milk" ).getAmount() );
+
+        ingredientService.createIngredient( new IngredientDto( 3L, "cream", 2 ) );
+        assertEquals( 2, inventoryService.getInventoryIngredient( "cream" ).getAmount() );
+    }
+
+    /**
+     * Tests the inventory ledger records each change and works out past
+     * levels, with and without a snapshot.
+     */
+    @Test
+    @Transactional
+    public void testInventoryLedger () {
+        final long start = movementRepository.findLastId();
+        final LocalDateTime before = LocalDateTime.now().minusSeconds( 1 );
+        ingredientService.createIngredient( new IngredientDto( 1L, "coffee", 10 ) );
+        ingredientService.createIngredient( new IngredientDto( 2L, "milk", 8 ) );
+        final Long coffee = inventoryService.getInventoryIngredient( "coffee" ).getId();
+        final Long milk = inventoryService.getInventoryIngredient( "milk" ).getId();
+
+        final List<Ingredient> restock = new ArrayList<Ingredient>();
+        restock.add( new Ingredient( "coffee", 5 ) );
+        inventoryService.updateInventory( new InventoryDto( 1L, restock ) );
+        final Map<String, Integer> demand = new HashMap<String, Integer>();
+        demand.put( "coffee", 3 );
+        demand.put( "milk", 2 );
+        inventoryService.deductIngredients( demand, 42L );
+
+        final List<InventoryMovement> movements = inventoryLedger.getMovements( null, start, 100 );
+        assertEquals( 5, movements.size() );
+        assertAll( "Movements",
+                () -> assertEquals( InventoryMovement.Type.ADJUSTMENT, movements.get( 0 ).getType() ),
+                () -> assertEquals( 10, movements.get( 0 ).getDelta() ),
+                () -> assertEquals( InventoryMovement.Type.RESTOCK, movements.get( 2 ).getType() ),
+                () -> assertEquals( 5, movements.get( 2 ).getDelta() ),
+                () -> assertEquals( InventoryMovement.Type.ORDER, movements.get( 3 ).getType() ),
+                () -> assertEquals( coffee, movements.get( 3 ).getIngredientId() ),
+                () -> assertEquals( -3, movements.get( 3 ).getDelta() ),
+                () -> assertEquals( 42L, movements.get( 3 ).getReferenceId() ),
+                () -> assertEquals( -2, movements.get( 4 ).getDelta() ) );
+        assertEquals( 2, inventoryLedger.getMovements( milk, start, 100 ).size() );
+
+        // worked back from the current amounts
+        List<IngredientDto> levels = inventoryLedger.getLevels( LocalDateTime.now() );
+        assertEquals( 12, levels.get( 0 ).getAmount() );
+        assertEquals( 6, levels.get( 1 ).getAmount() );
+        // nothing had been added yet
+        assertTrue( inventoryLedger.getLevels( before ).stream().allMatch( level -> 0 == level.getAmount() ) );
+
+        // brought forward from a snapshot
+        inventoryLedger.snapshot();
+        demand.remove( "milk" );
+        inventoryService.deductIngredients( demand, 43L );
+        levels = inventoryLedger.getLevels( LocalDateTime.now() );
+        assertEquals( "coffee", levels.get( 0 ).getName() );
+        assertEquals( 9, levels.get( 0 ).getAmount() );
+        assertEquals( 6, levels.get( 1 ).getAmount() );
+    }
+
+    /**
+     * Tests ingredients being used fast enough to run out within the horizon
+     * are alerted on, with the rates rebuilt from the ledger since the test's
+     * transaction never commits
+     */
+    @Test
+    @Transactional
+    public void testLowStockAlerts () {
+        ingredientService.createIngredient( new IngredientDto( 1L, "coffee", 10 ) );
+        ingredientService.createIngredient( new IngredientDto( 2L, "milk", 8 ) );
+        final Map<String, Integer> demand = new HashMap<String, Integer>();
+        demand.put( "coffee", 8 );
+        demand.put( "milk", 1 );
+        inventoryService.deductIngredients( demand );
+        lowStockMonitor.rebuild();
+
+        // 8 coffee an hour leaves 2 for 15 minutes, 1 milk an hour leaves 7
+        // for 7 hours, over the 2 hour horizon
+        final List<LowStockAlertDto> alerts = lowStockMonitor.getAlerts();
+        assertEquals( 1, alerts.size() );
+        assertAll( "Alert contents",
+                () -> assertEquals( LowStockAlertDto.Type.LOW_STOCK, alerts.get( 0 ).getType() ),
+                () -> assertEquals( "coffee", alerts.get( 0 ).getName() ),
+                () -> assertEquals( 2, alerts.get( 0 ).getAmount() ),
+                () -> assertEquals( 8, alerts.get( 0 ).getPerHour(), 0.01 ),
+                () -> assertEquals( 15, alerts.get( 0 ).getMinutesLeft() ) );
+
+        // restocked to last almost 13 hours
+        final List<Ingredient> restock = new ArrayList<Ingredient>();
+        restock.add( new Ingredient( "coffee", 100 ) );
+        inventoryService.updateInventory( new InventoryDto( 1L, restock ) );
+        lowStockMonitor.rebuild();
+        assertTrue( lowStockMonitor.getAlerts().isEmpty() );
+    }
 }
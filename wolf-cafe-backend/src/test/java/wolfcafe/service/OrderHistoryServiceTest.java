@@ -8,27 +8,62 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
 
 import wolfcafe.dto.IngredientDto;
 import wolfcafe.dto.OrderDto;
 import wolfcafe.dto.OrderHistoryDto;
+import wolfcafe.dto.OrderHistoryExportDto;
+import wolfcafe.dto.RestockForecastDto;
+import wolfcafe.dto.SalesBucketDto;
+import wolfcafe.dto.TopSellerDto;
 import wolfcafe.entity.Ingredient;
 import wolfcafe.entity.MultiRecipe;
 import wolfcafe.entity.Order;
 import wolfcafe.entity.OrderHistory;
+import wolfcafe.entity.OrderHistoryIngredient;
+import wolfcafe.entity.OrderHistoryLine;
 import wolfcafe.entity.User;
 import wolfcafe.exception.ResourceNotFoundException;
+import wolfcafe.repository.OrderHistoryArchiveRepository;
 import wolfcafe.repository.OrderHistoryRepository;
 import wolfcafe.repository.OrderRepository;
 import wolfcafe.repository.UserRepository;
+import wolfcafe.service.impl.DemandForecaster;
+import wolfcafe.service.impl.HistoryVersions;
+import wolfcafe.service.impl.OrderHistoryArchiver;
+import wolfcafe.service.impl.OrderHistoryExporter;
+import wolfcafe.service.impl.OrderHistoryWriter;
+import wolfcafe.service.impl.TopSellerTracker;
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 
@@ -74,6 +109,38 @@ class OrderHistoryServiceTest {
     @Autowired
     private OrderRepository        orderRepository;
 
+    /** Reference to ReportService. */
+    @Autowired
+    private ReportService          reportService;
+
+    /** Reference to OrderHistoryExporter. */
+    @Autowired
+    private OrderHistoryExporter   orderHistoryExporter;
+
+    /** Reference to OrderHistoryArchiver. */
+    @Autowired
+    private OrderHistoryArchiver   orderHistoryArchiver;
+
+    /** Reference to TopSellerTracker. */
+    @Autowired
+    private TopSellerTracker       topSellerTracker;
+
+    /** Reference to DemandForecaster. */
+    @Autowired
+    private DemandForecaster       demandForecaster;
+
+    /** Reference to HistoryVersions. */
+    @Autowired
+    private HistoryVersions        historyVersions;
+
+    /** Reference to the transaction manager, for write behind writers */
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /** reference to archived history */
+    @Autowired
+    private OrderHistoryArchiveRepository orderHistoryArchiveRepository;
+
     /** a valid order to be tested */
     private OrderDto               order1;
 
@@ -250,6 +317,574 @@ class OrderHistoryServiceTest {
         assertFalse( orderHistory.getPickedUp() );
     }
 
+    /**
+     * Test that order history is stored as a row per recipe and ingredient,
+     * and the strings are built from them
+     */
+    @Test
+    @Transactional
+    void testOrderHistoryLines () {
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order1 );
+        entityManager.flush();
+        entityManager.clear();
+
+        final OrderHistory saved = orderHistoryRepository.findById( order1.getId() ).get();
+        // nothing stored as strings, they are built from the rows
+        assertEquals( null, entityManager
+                .createNativeQuery( "SELECT recipes_in_order FROM order_history WHERE id = " + order1.getId() )
+                .getSingleResult() );
+        assertEquals( "Coffee: 4, Latte: 3", saved.getRecipesInOrder() );
+        assertEquals( "coffee:12, cream:34, milk:20, pumpkin spice:24, vanilla:30", saved.getIngredientsUsed() );
+
+        assertEquals( 2, saved.getLines().size() );
+        assertEquals( "Coffee", saved.getLines().get( 0 ).getRecipeName() );
+        assertEquals( 4, saved.getLines().get( 0 ).getQuantity() );
+        assertEquals( 50, saved.getLines().get( 0 ).getUnitPrice() );
+        assertEquals( 3, saved.getLines().get( 1 ).getQuantity() );
+        assertEquals( 100, saved.getLines().get( 1 ).getUnitPrice() );
+
+        assertEquals( 5, saved.getIngredients().size() );
+        for ( final OrderHistoryIngredient ingredient : saved.getIngredients() ) {
+            // every ingredient is in the inventory, so has an id
+            assertEquals( inventoryService.getInventoryIngredient( ingredient.getIngredientName() ).getId(),
+                    ingredient.getIngredientId() );
+        }
+
+        // history stored the old way keeps its strings
+        orderHistoryRepository.save( new OrderHistory( 7L, true, "Mocha: 1", "milk:2", 3.0, user1.getUsername() ) );
+        final OrderHistory legacy = orderHistoryRepository.findById( 7L ).get();
+        assertEquals( "Mocha: 1", legacy.getRecipesInOrder() );
+        assertEquals( "milk:2", legacy.getIngredientsUsed() );
+    }
+
+    /**
+     * Tests that recording and picking up orders keeps the sales rollups
+     * current
+     */
+    @Test
+    @Transactional
+    void testSalesRollup () {
+        final LocalDateTime from = LocalDateTime.now().minusDays( 8 );
+        final LocalDateTime to = LocalDateTime.now().plusDays( 8 );
+        final long[] before = sales( from, to, "Coffee" );
+
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order1 );
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order2 );
+        long[] after = sales( from, to, "Coffee" );
+        assertEquals( before[0] + 4, after[0] );
+        assertEquals( before[1] + 200, after[1] );
+        assertEquals( before[2], after[2] );
+
+        // picking up twice only counts once
+        assertTrue( orderHistoryService.updateOrderHistoryStatus( order1.getId() ) );
+        assertTrue( orderHistoryService.updateOrderHistoryStatus( order1.getId() ) );
+        after = sales( from, to, "Coffee" );
+        assertEquals( before[2] + 4, after[2] );
+
+        // every granularity adds up to the same totals
+        final List<SalesBucketDto> hours = reportService.getSales( from, to, SalesBucketDto.Granularity.HOUR,
+                null );
+        final List<SalesBucketDto> weeks = reportService.getSales( from, to, SalesBucketDto.Granularity.WEEK,
+                null );
+        assertEquals( hours.stream().mapToLong( SalesBucketDto::getRevenue ).sum(),
+                weeks.stream().mapToLong( SalesBucketDto::getRevenue ).sum() );
+        for ( final SalesBucketDto week : weeks ) {
+            assertEquals( DayOfWeek.MONDAY, week.getBucketStart().getDayOfWeek() );
+        }
+
+        // history written late counts in the hour the order was recorded
+        final LocalDateTime recorded = LocalDateTime.now().minusDays( 3 ).truncatedTo( ChronoUnit.HOURS );
+        final OrderHistory late = new OrderHistory( 0L, false, null, null, 10.0, user1.getUsername() );
+        late.setCreatedAt( recorded.plusMinutes( 20 ) );
+        late.getLines().add( new OrderHistoryLine( late, null, "Late Latte", 2, 5 ) );
+        reportService.recordSale( late );
+        final List<SalesBucketDto> lateSales = reportService.getSales( recorded, recorded.plusHours( 1 ),
+                SalesBucketDto.Granularity.HOUR, "Late Latte" );
+        assertEquals( 1, lateSales.size() );
+        assertEquals( 2, lateSales.get( 0 ).getUnits() );
+    }
+
+    /**
+     * Tests archiving picked up history, and that it is still read through
+     * the service
+     */
+    @Test
+    @Transactional
+    void testArchiveOrderHistory () {
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order1 );
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order2 );
+        orderHistoryService.updateOrderHistoryStatus( order1.getId() );
+
+        // nothing is old enough yet
+        assertEquals( 0, orderHistoryArchiver.archive( LocalDateTime.now().minusDays( 1 ) ) );
+        // only the picked up order is archived
+        assertEquals( 1, orderHistoryArchiver.archive( LocalDateTime.now().plusMinutes( 1 ) ) );
+        entityManager.flush();
+        entityManager.clear();
+
+        assertFalse( orderHistoryRepository.findById( order1.getId() ).isPresent() );
+        assertTrue( orderHistoryRepository.findById( order2.getId() ).isPresent() );
+        assertNotNull( orderHistoryArchiveRepository.findById( order1.getId() ).get().getArchivedAt() );
+
+        final OrderHistory archived = orderHistoryService.getHistoryById( order1.getId() );
+        assertAll( "archived history", () -> assertEquals( order1.getId(), archived.getId() ),
+                () -> assertTrue( archived.getPickedUp() ),
+                () -> assertEquals( "Coffee: 4, Latte: 3", archived.getRecipesInOrder() ),
+                () -> assertEquals( "coffee:12, cream:34, milk:20, pumpkin spice:24, vanilla:30",
+                        archived.getIngredientsUsed() ),
+                () -> assertEquals( user1.getUsername(), archived.getUsername() ),
+                () -> assertNotNull( archived.getCreatedAt() ) );
+        assertEquals( 1, orderHistoryService.getOrderHistory().size() );
+        assertEquals( 1, orderHistoryService.getUserHistory( user1.getUsername() ).size() );
+
+        // pages run across both tables
+        orderHistoryService.updateOrderHistoryStatus( order2.getId() );
+        final PageRequest first = PageRequest.of( 0, 1, Sort.by( Sort.Direction.DESC, "id" ) );
+        Page<OrderHistory> page = orderHistoryService.getOrderHistory( first );
+        assertEquals( 2, page.getTotalElements() );
+        assertEquals( order2.getId(), page.getContent().get( 0 ).getId() );
+        page = orderHistoryService.getUserHistory( user1.getUsername(), first.next() );
+        assertEquals( 1, page.getContent().size() );
+        assertEquals( order1.getId(), page.getContent().get( 0 ).getId() );
+    }
+
+    /**
+     * Tests reading a user's history newest first from a cursor, across the
+     * hot and archived tables, and the version of it
+     */
+    @Test
+    @Transactional
+    void testUserHistoryCursor () {
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order1 );
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order2 );
+        historyVersions.alias( user1.getEmail(), user1.getUsername() );
+        final String etag = historyVersions.etag( user1.getEmail() );
+        assertNotNull( etag );
+        assertEquals( etag, historyVersions.etag( user1.getEmail() ) );
+        assertNull( historyVersions.etag( "nobody@example.com" ) );
+
+        orderHistoryService.updateOrderHistoryStatus( order1.getId() );
+        orderHistoryArchiver.archive( LocalDateTime.now().plusMinutes( 1 ) );
+        orderHistoryService.updateOrderHistoryStatus( order2.getId() );
+        entityManager.flush();
+        entityManager.clear();
+        // the version only moves once the pickups commit
+        assertEquals( etag, historyVersions.etag( user1.getEmail() ) );
+
+        final long newer = Math.max( order1.getId(), order2.getId() );
+        final long older = Math.min( order1.getId(), order2.getId() );
+        List<OrderHistory> page = orderHistoryService.getUserHistory( user1.getUsername(), null, 1 );
+        assertEquals( 1, page.size() );
+        assertEquals( newer, page.get( 0 ).getId() );
+        page = orderHistoryService.getUserHistory( user1.getUsername(), page.get( 0 ).getId(), 1 );
+        assertEquals( 1, page.size() );
+        assertEquals( older, page.get( 0 ).getId() );
+        assertTrue( orderHistoryService.getUserHistory( user1.getUsername(), older, 1 ).isEmpty() );
+        assertEquals( 2, orderHistoryService.getUserHistory( user1.getUsername(), null, 10 ).size() );
+        assertTrue( orderHistoryService.getUserHistory( user2.getUsername(), null, 10 ).isEmpty() );
+    }
+
+    /**
+     * Tests a run archives no more than its most batches, leaving the rest
+     * for the next run
+     */
+    @Test
+    @Transactional
+    void testArchiveBatchesPerRun () {
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order1 );
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order2 );
+        orderHistoryService.updateOrderHistoryStatus( order1.getId() );
+        orderHistoryService.updateOrderHistoryStatus( order2.getId() );
+        final Object batchSize = ReflectionTestUtils.getField( orderHistoryArchiver, "batchSize" );
+        ReflectionTestUtils.setField( orderHistoryArchiver, "batchSize", 1 );
+        try {
+            assertEquals( 1, orderHistoryArchiver.archive( LocalDateTime.now().plusMinutes( 1 ), 1 ) );
+            assertEquals( 1, orderHistoryArchiver.archive( LocalDateTime.now().plusMinutes( 1 ), 1 ) );
+            assertEquals( 0, orderHistoryArchiver.archive( LocalDateTime.now().plusMinutes( 1 ), 1 ) );
+        }
+        finally {
+            ReflectionTestUtils.setField( orderHistoryArchiver, "batchSize", batchSize );
+        }
+    }
+
+    /**
+     * Tests writing history behind, and replaying its journal. Not in a test
+     * transaction since the writer commits its own
+     *
+     * @param dir
+     *            directory for the journal
+     * @throws IOException
+     *             if the journal can't be used
+     */
+    @Test
+    void testWriteBehind ( @TempDir final Path dir ) throws IOException {
+        final String journal = dir.resolve( "order-history.journal" ).toString();
+        // a flush interval long enough that only the test flushes
+        final OrderHistoryWriter writer = writer( journal );
+        final OrderHistoryWriter restarted = writer( journal );
+        // replay only writes history of orders that committed
+        final Long id = orderRepository.save( new Order( null, false, new ArrayList<MultiRecipe>() ) ).getId();
+        final Long id2 = orderRepository.save( new Order( null, false, new ArrayList<MultiRecipe>() ) ).getId();
+        final Long never = id2 + 1000;
+        try {
+            final OrderHistory orderHistory = new OrderHistory( id, false, null, null, 10.0, user1.getUsername() );
+            orderHistory.setCreatedAt( LocalDateTime.now() );
+            orderHistory.getLines().add( new OrderHistoryLine( orderHistory, null, "Mocha", 2, 5 ) );
+            writer.start();
+            writer.submit( orderHistory );
+
+            // journaled and queued, not written
+            assertTrue( writer.isPending( id ) );
+            assertEquals( "Mocha: 2", writer.getPending( id ).getRecipesInOrder() );
+            assertFalse( orderHistoryRepository.findById( id ).isPresent() );
+            assertTrue( Files.size( dir.resolve( "order-history.journal" ) ) > 0 );
+
+            // an interrupted thread closes the journal, which is opened again
+            Thread.currentThread().interrupt();
+            writer.submit( new OrderHistory( id2, false, "Latte: 1", "milk:3", 4.0, user1.getUsername() ) );
+            assertTrue( Thread.interrupted() );
+            assertTrue( writer.isPending( id2 ) );
+
+            // history journaled for an order whose transaction then failed
+            Files.writeString( dir.resolve( "order-history.journal" ),
+                    "{\"id\":" + never + ",\"username\":\"user1\",\"total\":1.0,"
+                            + "\"lines\":[],\"ingredients\":[]}\n",
+                    StandardOpenOption.APPEND );
+
+            // a restart replays the journal, apart from the order that never
+            // committed
+            restarted.start();
+            assertTrue( orderHistoryRepository.findById( id ).isPresent() );
+            assertTrue( orderHistoryRepository.findById( id2 ).isPresent() );
+            assertFalse( orderHistoryRepository.findById( never ).isPresent() );
+
+            // and the first writer skips it as already written
+            writer.flush();
+            assertFalse( writer.isPending( id ) );
+            assertEquals( 0, Files.size( dir.resolve( "order-history.journal" ) ) );
+            final OrderHistory written = orderHistoryService.getHistoryById( id );
+            assertEquals( 10.0, written.getTotal() );
+            assertFalse( written.getPickedUp() );
+        }
+        finally {
+            writer.shutdown();
+            restarted.shutdown();
+            for ( final Long written : List.of( id, id2 ) ) {
+                if ( orderHistoryRepository.existsById( written ) ) {
+                    orderHistoryRepository.deleteById( written );
+                }
+                orderRepository.deleteById( written );
+            }
+        }
+    }
+
+    /**
+     * Tests that history whose write fails is kept, in the queue and the
+     * journal, and written by the next flush rather than dropped
+     *
+     * @param dir
+     *            directory for the journal
+     * @throws IOException
+     *             if the journal can't be used
+     */
+    @Test
+    void testWriteBehindRetry ( @TempDir final Path dir ) throws IOException {
+        final Path journal = dir.resolve( "order-history.journal" );
+        final OrderHistoryWriter writer = writer( journal.toString() );
+        // the database can't be reached for the first write only
+        final AtomicBoolean failed = new AtomicBoolean();
+        ReflectionTestUtils.setField( writer, "transactionManager", new PlatformTransactionManager() {
+            @Override
+            public TransactionStatus getTransaction ( final TransactionDefinition definition ) {
+                if ( failed.compareAndSet( false, true ) ) {
+                    throw new CannotCreateTransactionException( "database unavailable" );
+                }
+                return transactionManager.getTransaction( definition );
+            }
+
+            @Override
+            public void commit ( final TransactionStatus status ) {
+                transactionManager.commit( status );
+            }
+
+            @Override
+            public void rollback ( final TransactionStatus status ) {
+                transactionManager.rollback( status );
+            }
+        } );
+        final Long id = orderRepository.save( new Order( null, false, new ArrayList<MultiRecipe>() ) ).getId();
+        try {
+            writer.start();
+            writer.submit( new OrderHistory( id, false, "Mocha: 1", "milk:2", 5.0, user1.getUsername() ) );
+
+            // the failed write is still pending and journaled
+            writer.flush();
+            assertTrue( failed.get() );
+            assertTrue( writer.isPending( id ) );
+            assertFalse( orderHistoryRepository.findById( id ).isPresent() );
+            assertTrue( Files.size( journal ) > 0 );
+            assertFalse( Files.exists( dir.resolve( "order-history.journal.dead" ) ) );
+
+            // and written by the next flush
+            writer.flush();
+            assertFalse( writer.isPending( id ) );
+            assertTrue( orderHistoryRepository.findById( id ).isPresent() );
+            assertEquals( 0, Files.size( journal ) );
+        }
+        finally {
+            writer.shutdown();
+            if ( orderHistoryRepository.existsById( id ) ) {
+                orderHistoryRepository.deleteById( id );
+            }
+            orderRepository.deleteById( id );
+        }
+    }
+
+    /**
+     * Tests that checkouts journaling at the same time each get their line
+     * forced to disk, sharing forces rather than needing one each
+     *
+     * @param dir
+     *            directory for the journal
+     * @throws Exception
+     *             if the journal can't be used or a checkout fails
+     */
+    @Test
+    void testWriteBehindGroupForce ( @TempDir final Path dir ) throws Exception {
+        final Path journal = dir.resolve( "order-history.journal" );
+        final OrderHistoryWriter writer = writer( journal.toString() );
+        final int checkouts = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool( checkouts );
+        final List<Long> ids = new ArrayList<Long>();
+        for ( int i = 0; i < checkouts; i++ ) {
+            ids.add( orderRepository.save( new Order( null, false, new ArrayList<MultiRecipe>() ) ).getId() );
+        }
+        try {
+            writer.start();
+            final List<Future<?>> submitted = new ArrayList<Future<?>>();
+            for ( final Long id : ids ) {
+                submitted.add( executor.submit( () -> writer.submit(
+                        new OrderHistory( id, false, "Mocha: 1", "milk:2", 5.0, user1.getUsername() ) ) ) );
+            }
+            for ( final Future<?> future : submitted ) {
+                future.get();
+            }
+
+            // every line is in the journal and forced
+            assertEquals( checkouts, Files.readAllLines( journal ).size() );
+            assertEquals( (long) ReflectionTestUtils.getField( writer, "appended" ),
+                    (long) ReflectionTestUtils.getField( writer, "forced" ) );
+            for ( final Long id : ids ) {
+                assertTrue( writer.isPending( id ) );
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            writer.shutdown();
+            for ( final Long id : ids ) {
+                if ( orderHistoryRepository.existsById( id ) ) {
+                    orderHistoryRepository.deleteById( id );
+                }
+                orderRepository.deleteById( id );
+            }
+        }
+    }
+
+    /**
+     * Creates an enabled write behind writer wired to the test's beans
+     *
+     * @param journal
+     *            path of its journal
+     * @return the writer, not started
+     */
+    private OrderHistoryWriter writer ( final String journal ) {
+        final OrderHistoryWriter writer = new OrderHistoryWriter( true, 16, 16, 60000L, journal );
+        ReflectionTestUtils.setField( writer, "entityManager", entityManager );
+        ReflectionTestUtils.setField( writer, "transactionManager", transactionManager );
+        ReflectionTestUtils.setField( writer, "reportService", reportService );
+        ReflectionTestUtils.setField( writer, "orderHistoryRepository", orderHistoryRepository );
+        ReflectionTestUtils.setField( writer, "orderRepository", orderRepository );
+        return writer;
+    }
+
+    /**
+     * Tests exporting history as CSV and NDJSON
+     *
+     * @throws IOException
+     *             if writing the export fails
+     */
+    @Test
+    @Transactional
+    void testExportOrderHistory () throws IOException {
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order1 );
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order2 );
+        // history stored the old way, with its recipes as a string
+        orderHistoryRepository.save( new OrderHistory( 7L, true, "Mocha: 1", "milk:2", 3.0, user1.getUsername() ) );
+        entityManager.flush();
+        entityManager.clear();
+
+        final LocalDateTime from = LocalDateTime.now().minusDays( 1 );
+        final LocalDateTime to = LocalDateTime.now().plusDays( 1 );
+        String[] lines = export( from, to, OrderHistoryExportDto.Format.CSV ).split( "\n" );
+        assertEquals( 4, lines.length );
+        assertEquals( "id,username,created_at,picked_up,total,recipes", lines[0] );
+        assertTrue( lines[1].startsWith( order1.getId() + ",user1," ) );
+        assertTrue( lines[1].endsWith( ",false," + orderHistoryRepository.findById( order1.getId() ).get().getTotal()
+                + ",\"Coffee: 4, Latte: 3\"" ) );
+        assertTrue( lines[2].endsWith( ",\"Just Coffee: 2\"" ) );
+        assertTrue( lines[3].startsWith( "7,user1," ) );
+        assertTrue( lines[3].endsWith( ",true,3.0,Mocha: 1" ) );
+
+        lines = export( null, null, OrderHistoryExportDto.Format.NDJSON ).split( "\n" );
+        assertEquals( 3, lines.length );
+        assertTrue( lines[0].contains( "\"recipes\":\"Coffee: 4, Latte: 3\"" ) );
+        assertTrue( lines[1].contains( "\"username\":\"user1\"" ) );
+
+        // nothing recorded in the future
+        assertEquals( "", export( to, null, OrderHistoryExportDto.Format.NDJSON ) );
+
+        // archived history is still exported, ahead of the rest
+        final Double total1 = orderHistoryRepository.findById( order1.getId() ).get().getTotal();
+        orderHistoryService.updateOrderHistoryStatus( order1.getId() );
+        assertEquals( 2, orderHistoryArchiver.archive( LocalDateTime.now().plusMinutes( 1 ) ) );
+        entityManager.flush();
+        entityManager.clear();
+        lines = export( from, to, OrderHistoryExportDto.Format.CSV ).split( "\n" );
+        assertEquals( 4, lines.length );
+        assertTrue( lines[3].startsWith( order2.getId() + ",user1," ) );
+        final List<String> archived = List.of( lines[1], lines[2] );
+        assertTrue( archived.stream()
+                .anyMatch( line -> line.startsWith( "7,user1," ) && line.endsWith( ",true,3.0,Mocha: 1" ) ) );
+        assertTrue( archived.stream().anyMatch( line -> line.startsWith( order1.getId() + ",user1," )
+                && line.endsWith( ",true," + total1 + ",\"Coffee: 4, Latte: 3\"" ) ) );
+    }
+
+    /**
+     * Exports history to a string
+     *
+     * @param from
+     *            start of the range, or null
+     * @param to
+     *            end of the range, or null
+     * @param format
+     *            format to export in
+     * @return the export
+     * @throws IOException
+     *             if writing the export fails
+     */
+    private String export ( final LocalDateTime from, final LocalDateTime to,
+            final OrderHistoryExportDto.Format format ) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        orderHistoryExporter.export( from, to, format, out );
+        return out.toString( StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Tests the live top sellers lists, rebuilt from recorded history since
+     * the test's transaction never commits
+     */
+    @Test
+    @Transactional
+    void testTopSellers () {
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order1 );
+        orderHistoryService.makeOrderHistory( user2.getUsername(), order2 );
+        entityManager.flush();
+        topSellerTracker.rebuild();
+
+        for ( final TopSellerDto.Window window : TopSellerDto.Window.values() ) {
+            final List<TopSellerDto> recipes = reportService.getTopSellers( window, 10 );
+            assertEquals( 3, recipes.size() );
+            assertEquals( "Coffee", recipes.get( 0 ).getName() );
+            assertEquals( 4, recipes.get( 0 ).getCount() );
+            assertEquals( 0, recipes.get( 0 ).getError() );
+            assertEquals( "Latte", recipes.get( 1 ).getName() );
+            assertEquals( "Just Coffee", recipes.get( 2 ).getName() );
+        }
+
+        final List<TopSellerDto> ingredients = reportService.getTopIngredients( TopSellerDto.Window.HOUR, 2 );
+        assertEquals( 2, ingredients.size() );
+        assertEquals( "cream", ingredients.get( 0 ).getName() );
+        assertEquals( 34, ingredients.get( 0 ).getCount() );
+        assertEquals( "coffee", ingredients.get( 1 ).getName() );
+        assertEquals( 30, ingredients.get( 1 ).getCount() );
+    }
+
+    /**
+     * Tests restock forecasts, fitted from recorded history through the
+     * current hour since the test's transaction never commits
+     */
+    @Test
+    @Transactional
+    void testRestockForecast () {
+        orderHistoryService.makeOrderHistory( user1.getUsername(), order1 );
+        orderHistoryService.makeOrderHistory( user2.getUsername(), order2 );
+        entityManager.flush();
+        demandForecaster.rebuild();
+        // nothing from this hour is fitted until the hour is over
+        final double before = demandForecaster.forecast( 1 ).get( 0 ).getExpected();
+        demandForecaster.refresh( LocalDateTime.now().plusHours( 1 ) );
+
+        // forecast for this hour of the week, from the orders just recorded
+        final List<RestockForecastDto> forecasts = demandForecaster.forecast( 1 );
+        assertEquals( 6, forecasts.size() );
+        final RestockForecastDto coffee = forecasts.get( 0 );
+        final RestockForecastDto cream = forecasts.get( 1 );
+        final RestockForecastDto milk = forecasts.get( 2 );
+        assertEquals( "coffee", coffee.getName() );
+        assertEquals( 3, coffee.getAmount() );
+        assertTrue( coffee.getExpected() > before );
+        assertTrue( cream.getExpected() > coffee.getExpected() );
+        assertTrue( coffee.getRecommended() >= Math.ceil( coffee.getExpected() ) - 3 );
+        // none left, so all of it has to be restocked
+        assertEquals( "milk", milk.getName() );
+        assertTrue( milk.getRecommended() >= Math.ceil( milk.getExpected() ) );
+        for ( final RestockForecastDto forecast : forecasts ) {
+            assertTrue( forecast.getRecommended() >= 0 );
+        }
+
+        // refitting from scratch gives the same forecast
+        demandForecaster.rebuild();
+        demandForecaster.refresh( LocalDateTime.now().plusHours( 1 ) );
+        assertEquals( coffee.getExpected(), demandForecaster.forecast( 1 ).get( 0 ).getExpected(), 1e-9 );
+
+        // refreshing again doesn't count the same orders twice
+        demandForecaster.refresh( LocalDateTime.now().plusHours( 1 ) );
+        assertEquals( coffee.getExpected(), demandForecaster.forecast( 1 ).get( 0 ).getExpected(), 1e-9 );
+
+        // history written after history with a higher id is still counted
+        final OrderHistory written = new OrderHistory( Math.min( order1.getId(), order2.getId() ) - 1, false, null,
+                null, 5.0, user1.getUsername() );
+        written.setCreatedAt( LocalDateTime.now() );
+        written.getIngredients().add( new OrderHistoryIngredient( written, null, "coffee", 5 ) );
+        orderHistoryRepository.save( written );
+        entityManager.flush();
+        demandForecaster.refresh( LocalDateTime.now().plusHours( 1 ) );
+        assertTrue( demandForecaster.forecast( 1 ).get( 0 ).getExpected() > coffee.getExpected() );
+    }
+
+    /**
+     * Adds up a recipe's daily sales over a range
+     *
+     * @param from
+     *            start of the range
+     * @param to
+     *            end of the range
+     * @param recipe
+     *            name of the recipe
+     * @return units, revenue, and units picked up
+     */
+    private long[] sales ( final LocalDateTime from, final LocalDateTime to, final String recipe ) {
+        final long[] totals = new long[3];
+        for ( final SalesBucketDto bucket : reportService.getSales( from, to, SalesBucketDto.Granularity.DAY,
+                recipe ) ) {
+            assertEquals( recipe, bucket.getRecipeName() );
+            totals[0] += bucket.getUnits();
+            totals[1] += bucket.getRevenue();
+            totals[2] += bucket.getPickedUpUnits();
+        }
+        return totals;
+    }
+
     /**
      * Test updating a order status
      */
@@ -14,11 +14,14 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.transaction.annotation.Transactional;
 
+import wolfcafe.dto.CheckoutDto;
 import wolfcafe.dto.IngredientDto;
 import wolfcafe.dto.OrderDto;
+import wolfcafe.dto.OrderTicketDto;
 import wolfcafe.entity.Ingredient;
 import wolfcafe.entity.MultiRecipe;
 import wolfcafe.entity.Order;
@@ -27,6 +30,8 @@ import wolfcafe.exception.ResourceNotFoundException;
 import wolfcafe.exception.WolfCafeAPIException;
 import wolfcafe.repository.OrderRepository;
 import wolfcafe.repository.UserRepository;
+import wolfcafe.service.impl.OrderIntake;
+import wolfcafe.service.impl.OrderOwnerBackfill;
 import jakarta.persistence.EntityManager;
 
 /**
@@ -59,6 +64,18 @@ class OrderServiceTest {
     @Autowired
     private OrderRepository   orderRepository;
 
+    /** reference to OrderHistoryService */
+    @Autowired
+    private OrderHistoryService orderHistoryService;
+
+    /** reference to OrderOwnerBackfill */
+    @Autowired
+    private OrderOwnerBackfill ownerBackfill;
+
+    /** used to put orders back the way they were kept before owners */
+    @Autowired
+    private JdbcTemplate      jdbcTemplate;
+
     /** a valid order to be tested */
     private OrderDto          order1;
 
@@ -217,6 +234,115 @@ class OrderServiceTest {
 
     }
 
+    /**
+     * makes a fresh order of two Just Coffees, so a batch never shares recipe
+     * instances between orders
+     *
+     * @return the order
+     */
+    private OrderDto justCoffee () {
+        final List<Ingredient> ingredients = new ArrayList<Ingredient>();
+        ingredients.add( new Ingredient( "coffee", 9 ) );
+        final List<MultiRecipe> recipes = new ArrayList<MultiRecipe>();
+        recipes.add( new MultiRecipe( 0L, "Just Coffee", 100, ingredients, 2 ) );
+        return new OrderDto( 0L, false, recipes );
+    }
+
+    @Test
+    @Transactional
+    void testMakeOrders () {
+        // 33 coffee: order1 takes 12, each Just Coffee order takes 18
+        final List<OrderDto> saved = orderService.makeOrders( user1.getUsername(),
+                List.of( order1, justCoffee(), justCoffee() ), true );
+
+        assertEquals( 3, saved.size() );
+        checkEquals( order1, saved.get( 0 ) );
+        assertTrue( null != saved.get( 1 ) && null != saved.get( 1 ).getId() );
+        assertEquals( null, saved.get( 2 ) );
+        assertEquals( 3, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+        assertEquals( 0, inventoryService.getInventoryIngredient( "milk" ).getAmount() );
+        assertEquals( 2, userRepository.findByUsername( user1.getUsername() ).get().getOrders().size() );
+
+        // orders from several users go in together, each saved for its user
+        ingredientService.updateIngredient( inventoryService.getInventoryIngredient( "coffee" ).getId(),
+                new IngredientDto( 0L, "coffee", 40 ) );
+        final List<OrderDto> mixed = orderService.makeOrders(
+                List.of( user2.getUsername(), user3.getUsername(), user2.getUsername() ),
+                List.of( justCoffee(), justCoffee(), justCoffee() ), true );
+        assertTrue( null != mixed.get( 0 ) && null != mixed.get( 1 ) );
+        assertEquals( null, mixed.get( 2 ) );
+        assertEquals( 4, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+        assertEquals( 1, orderService.getOrdersByCustomer( user2.getUsername() ).size() );
+        assertEquals( 1, orderService.getOrdersByCustomer( user3.getUsername() ).size() );
+
+        // all or nothing without partial
+        assertThrows( IllegalArgumentException.class,
+                () -> orderService.makeOrders( user2.getUsername(), List.of( justCoffee() ), false ) );
+        assertThrows( ResourceNotFoundException.class,
+                () -> orderService.makeOrders( "turkey", List.of( justCoffee() ), false ) );
+    }
+
+    @Test
+    @Transactional
+    void testOrderIntake () {
+        // no workers are started, the queue is drained on this thread
+        final OrderIntake intake = new OrderIntake( orderService, true, 3, 1, 2, 600000 );
+
+        final OrderTicketDto ticket1 = intake.submit( user1.getUsername(), order1 );
+        final OrderTicketDto ticket2 = intake.submit( user1.getUsername(), justCoffee() );
+        final OrderTicketDto ticket3 = intake.submit( user2.getUsername(), justCoffee() );
+        assertEquals( OrderTicketDto.Status.PENDING, ticket1.getStatus() );
+        // queue is full
+        assertEquals( null, intake.submit( user3.getUsername(), justCoffee() ) );
+
+        // only visible to the user that made the order
+        assertEquals( OrderTicketDto.Status.PENDING,
+                intake.getTicket( ticket3.getId(), user2.getUsername() ).getStatus() );
+        assertEquals( null, intake.getTicket( ticket3.getId(), user1.getUsername() ) );
+
+        assertEquals( 3, intake.drain() );
+
+        // 33 coffee: order1 takes 12, each Just Coffee order takes 18
+        final OrderTicketDto placed1 = intake.getTicket( ticket1.getId(), user1.getUsername() );
+        assertEquals( OrderTicketDto.Status.PLACED, placed1.getStatus() );
+        checkEquals( order1, placed1.getOrder() );
+        assertEquals( OrderTicketDto.Status.PLACED,
+                intake.getTicket( ticket2.getId(), user1.getUsername() ).getStatus() );
+        final OrderTicketDto rejected = intake.getTicket( ticket3.getId(), user2.getUsername() );
+        assertEquals( OrderTicketDto.Status.REJECTED, rejected.getStatus() );
+        assertEquals( null, rejected.getOrder() );
+        assertEquals( 3, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+        assertEquals( 2, orderService.getOrdersByCustomer( user1.getUsername() ).size() );
+
+        // unknown users fail rather than being rejected
+        final OrderTicketDto ticket4 = intake.submit( "turkey", justCoffee() );
+        intake.drain();
+        assertEquals( OrderTicketDto.Status.FAILED, intake.getTicket( ticket4.getId(), "turkey" ).getStatus() );
+
+        // finished tickets are kept until they expire
+        intake.expireTickets();
+        assertTrue( null != intake.getTicket( ticket1.getId(), user1.getUsername() ) );
+    }
+
+    @Test
+    @Transactional
+    void testCheckout () {
+        // users can check out with their email too
+        final CheckoutDto checkout = orderService.checkout( user1.getEmail(), order2 );
+
+        final Long id = checkout.getOrder().getId();
+        checkEquals( order2, checkout.getOrder() );
+        assertEquals( id, checkout.getHistory().getId() );
+        assertEquals( user1.getUsername(), checkout.getHistory().getUsername() );
+        assertEquals( "Just Coffee: 2", checkout.getHistory().getRecipesInOrder() );
+        assertEquals( "coffee:18", checkout.getHistory().getIngredientsUsed() );
+        assertFalse( checkout.getHistory().getPickedUp() );
+        assertEquals( id, orderHistoryService.getHistoryById( id ).getId() );
+        assertEquals( 15, inventoryService.getInventoryIngredient( "coffee" ).getAmount() );
+
+        assertThrows( ResourceNotFoundException.class, () -> orderService.checkout( "turkey", order2 ) );
+    }
+
     @Test
     @Transactional
     void testGetOrders () {
@@ -238,6 +364,42 @@ class OrderServiceTest {
 
     }
 
+    @Test
+    @Transactional
+    void testGetOrderSummaries () {
+        for ( final Ingredient ingredient : inventoryService.getInventory().getIngredients() ) {
+            ingredientService.updateIngredient( ingredient.getId(),
+                    new IngredientDto( 0L, ingredient.getName(), 100 ) );
+        }
+        final Long id1 = orderService.makeOrder( user1.getUsername(), order1 ).getId();
+        final Long id2 = orderService.makeOrder( user2.getUsername(), order2 ).getId();
+        final Long id3 = orderService.makeOrder( user3.getUsername(), order2 ).getId();
+        orderService.fulfillOrder( id2 );
+
+        // only id and fulfilled come back
+        List<OrderDto> page = orderService.getOrderSummaries( 0L, null, 2 );
+        assertEquals( 2, page.size() );
+        assertEquals( id1, page.get( 0 ).getId() );
+        assertFalse( page.get( 0 ).getFulfilled() );
+        assertEquals( null, page.get( 0 ).getRecipes() );
+        assertEquals( id2, page.get( 1 ).getId() );
+        assertTrue( page.get( 1 ).getFulfilled() );
+
+        // next page starts after the last id
+        page = orderService.getOrderSummaries( id2, null, 2 );
+        assertEquals( 1, page.size() );
+        assertEquals( id3, page.get( 0 ).getId() );
+
+        page = orderService.getOrderSummaries( 0L, false, 100 );
+        assertEquals( 2, page.size() );
+        assertEquals( id1, page.get( 0 ).getId() );
+        assertEquals( id3, page.get( 1 ).getId() );
+
+        page = orderService.getOrderSummaries( 0L, true, 100 );
+        assertEquals( 1, page.size() );
+        assertEquals( id2, page.get( 0 ).getId() );
+    }
+
     @Test
     @Transactional
     void testFulfillOrder () {
@@ -379,4 +541,52 @@ class OrderServiceTest {
 
     }
 
+    /**
+     * tests that orders whose owner is only in the old users_orders join
+     * table can still be listed and picked up, and that the backfill copies
+     * their owners over
+     */
+    @Test
+    @Transactional
+    void testLegacyOrderOwners () {
+        final Long id1 = orderService.makeOrder( user1.getUsername(), order1 ).getId();
+        final Long id2 = orderService.makeOrder( user1.getUsername(), order2 ).getId();
+        final Long userId = userRepository.findIdByUsernameOrEmail( user1.getUsername() ).get();
+        entityManager.flush();
+        entityManager.clear();
+
+        // a temporary table, so the test's transaction isn't committed
+        jdbcTemplate.execute( "CREATE TEMPORARY TABLE users_orders "
+                + "( user_id BIGINT NOT NULL, orders_id BIGINT NOT NULL UNIQUE )" );
+        try {
+            jdbcTemplate.update( "UPDATE orders SET user_id = NULL WHERE id IN (?, ?)", id1, id2 );
+            jdbcTemplate.update( "INSERT INTO users_orders VALUES (?, ?), (?, ?)", userId, id1, userId, id2 );
+            assertTrue( ownerBackfill.detect() );
+
+            assertEquals( List.of( id1, id2 ), orderService.getOrdersByCustomer( user1.getUsername() ).stream()
+                    .map( OrderDto::getId ).toList() );
+            assertEquals( 0, orderService.getOrdersByCustomer( user2.getUsername() ).size() );
+
+            orderService.fulfillOrder( id1 );
+            assertEquals( HttpStatus.GONE, assertThrows( WolfCafeAPIException.class,
+                    () -> orderService.pickupOrder( user2.getUsername(), id1 ) ).getStatus() );
+            orderService.pickupOrder( user1.getUsername(), id1 );
+            entityManager.flush();
+
+            ownerBackfill.backfill();
+            assertFalse( ownerBackfill.isPending() );
+            assertEquals( userId,
+                    jdbcTemplate.queryForObject( "SELECT user_id FROM orders WHERE id = ?", Long.class, id2 ) );
+            assertEquals( 0, jdbcTemplate.queryForObject( "SELECT COUNT(*) FROM users_orders", Integer.class ) );
+
+            entityManager.clear();
+            assertEquals( List.of( id2 ), orderService.getOrdersByCustomer( user1.getUsername() ).stream()
+                    .map( OrderDto::getId ).toList() );
+        }
+        finally {
+            jdbcTemplate.execute( "DROP TEMPORARY TABLE users_orders" );
+            ownerBackfill.detect();
+        }
+    }
+
 }
@@ -3,24 +3,31 @@ package wolfcafe.service;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.transaction.annotation.Transactional;
 
 import wolfcafe.dto.IngredientDto;
 import wolfcafe.dto.RecipeDto;
 import wolfcafe.entity.Ingredient;
+import wolfcafe.entity.MultiRecipe;
 import wolfcafe.exception.ResourceNotFoundException;
 import wolfcafe.repository.RecipeRepository;
+import wolfcafe.service.impl.MenuCache;
+import wolfcafe.service.impl.MenuSnapshot;
+import wolfcafe.service.impl.ServingsIndex;
 
 /**
  * Tests RecipeService (and RecipeServiceImpl).
@@ -41,6 +48,22 @@ class RecipeServiceTest {
     @Autowired
     private IngredientService ingredientService;
 
+    /** Reference to InventoryService (and InventoryServiceImpl). */
+    @Autowired
+    private InventoryService  inventoryService;
+
+    /** Reference to the cached menu */
+    @Autowired
+    private MenuCache         menuCache;
+
+    /** Reference to the servings index */
+    @Autowired
+    private ServingsIndex     servingsIndex;
+
+    /** used to change amounts without the caches hearing about it */
+    @Autowired
+    private JdbcTemplate      jdbcTemplate;
+
     /** First ingredients list for testing */
     private List<Ingredient>  ingredientsList;
     /** Second ingredients list for testing */
@@ -297,4 +320,108 @@ class RecipeServiceTest {
 
     }
 
+    /**
+     * Tests that the cached menu follows recipe changes.
+     */
+    @Test
+    @Transactional
+    void testMenuCache () {
+        final MultiRecipe ordered = new MultiRecipe( 0L, "Coffee", 50,
+                List.of( new Ingredient( "coffee", 3 ), new Ingredient( "milk", 5 ), new Ingredient( "cream", 4 ) ),
+                2 );
+        assertEquals( MenuSnapshot.Problem.UNKNOWN_RECIPE, menuCache.get().check( ordered ) );
+
+        final RecipeDto savedRecipe = recipeService.createRecipe( new RecipeDto( 0L, "Coffee", 50, ingredientsList ) );
+        assertNull( menuCache.get().check( ordered ) );
+        assertEquals( savedRecipe.getId(), menuCache.get().getRecipeId( "Coffee" ) );
+        assertEquals( MenuSnapshot.Problem.BAD_INGREDIENTS, menuCache.get().check( new MultiRecipe( 0L, "Coffee",
+                50, List.of( new Ingredient( "coffee", 3 ), new Ingredient( "cream", 4 ), new Ingredient( "milk", 5 ) ),
+                2 ) ) );
+
+        recipeService.updateRecipe( savedRecipe.getId(), new RecipeDto( 0L, "Coffee", 60, ingredientsList2 ) );
+        assertEquals( MenuSnapshot.Problem.BAD_RECIPE, menuCache.get().check( ordered ) );
+
+        recipeService.deleteRecipe( savedRecipe.getId() );
+        assertEquals( MenuSnapshot.Problem.UNKNOWN_RECIPE, menuCache.get().check( ordered ) );
+    }
+
+    /**
+     * Tests the recipes list shows how many servings the inventory has enough
+     * ingredients for, and follows the inventory.
+     */
+    @Test
+    @Transactional
+    void testServingsAvailable () {
+        final List<Ingredient> latte = new ArrayList<Ingredient>();
+        latte.add( new Ingredient( "coffee", 1 ) );
+        latte.add( new Ingredient( "milk", 2 ) );
+        final List<Ingredient> mocha = new ArrayList<Ingredient>();
+        mocha.add( new Ingredient( "coffee", 1 ) );
+        mocha.add( new Ingredient( "chocolate", 1 ) );
+        recipeService.createRecipe( new RecipeDto( 0L, "Latte", 50, latte ) );
+        recipeService.createRecipe( new RecipeDto( 1L, "Chai", 60, ingredientsList2 ) );
+        recipeService.createRecipe( new RecipeDto( 2L, "Mocha", 70, mocha ) );
+
+        // 3 coffee and 5 milk make 2 lattes
+        assertEquals( 2, servings( "Latte" ) );
+        assertEquals( 1, servings( "Chai" ) );
+        // there's no chocolate in the inventory
+        assertEquals( 0, servings( "Mocha" ) );
+        assertEquals( 2, recipeService.getRecipeByName( "Latte" ).getServingsAvailable() );
+
+        inventoryService.deductIngredients( Map.of( "milk", 2 ) );
+        assertEquals( 1, servings( "Latte" ) );
+        assertEquals( 1, servings( "Chai" ) );
+    }
+
+    /**
+     * Tests a committed inventory change only reads back the ingredients that
+     * changed and only recounts the recipes using them. Not in a test
+     * transaction, since the index is only kept and updated outside of one.
+     */
+    @Test
+    void testServingsIncrementalUpdate () {
+        final List<Ingredient> latte = new ArrayList<Ingredient>();
+        latte.add( new Ingredient( "coffee", 1 ) );
+        latte.add( new Ingredient( "milk", 2 ) );
+        final Long latteId = recipeService.createRecipe( new RecipeDto( 0L, "Latte", 50, latte ) ).getId();
+        final Long chaiId = recipeService.createRecipe( new RecipeDto( 1L, "Chai", 60, ingredientsList2 ) )
+                .getId();
+        final Ingredient milk = inventoryService.getInventoryIngredient( "milk" );
+        final Ingredient sugar = inventoryService.getInventoryIngredient( "sugar" );
+        try {
+            final Integer chai = servingsIndex.getServings( chaiId );
+            assertTrue( servingsIndex.getServings( latteId ) > 0 );
+            assertTrue( chai > 0 );
+
+            // both run out, but only milk is reported as changed
+            jdbcTemplate.update( "UPDATE ingredient SET amount = 0 WHERE id IN (?, ?)", milk.getId(),
+                    sugar.getId() );
+            servingsIndex.record( List.of( milk.getId() ) );
+
+            assertEquals( 0, servingsIndex.getServings( latteId ) );
+            // chai doesn't use milk, so it isn't recounted
+            assertEquals( chai, servingsIndex.getServings( chaiId ) );
+        }
+        finally {
+            jdbcTemplate.update( "UPDATE ingredient SET amount = ? WHERE id = ?", milk.getAmount(), milk.getId() );
+            jdbcTemplate.update( "UPDATE ingredient SET amount = ? WHERE id = ?", sugar.getAmount(),
+                    sugar.getId() );
+            servingsIndex.invalidate();
+            recipeRepository.deleteAll();
+        }
+    }
+
+    /**
+     * Finds a recipe in the recipes list and returns its servings.
+     *
+     * @param name
+     *            name of the recipe
+     * @return servings available
+     */
+    private Integer servings ( final String name ) {
+        return recipeService.getAllRecipes().stream().filter( recipe -> name.equals( recipe.getName() ) ).findFirst()
+                .get().getServingsAvailable();
+    }
+
 }
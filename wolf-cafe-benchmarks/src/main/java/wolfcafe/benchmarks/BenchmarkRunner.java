@@ -0,0 +1,43 @@
+package wolfcafe.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler on and the results written as JSON,
+ * so both ops/sec and allocation rate can be compared between changes. Any
+ * normal JMH options (a benchmark regex, -wi, -i, -f, -t, ...) can still be
+ * given on the command line.
+ */
+public final class BenchmarkRunner {
+
+    /** where the results go unless -rff says otherwise */
+    private static final String RESULT_FILE = "jmh-result.json";
+
+    private BenchmarkRunner () {
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args
+     *            JMH command line options
+     * @throws CommandLineOptionException
+     *             if the options can't be parsed
+     * @throws RunnerException
+     *             if a benchmark fails
+     */
+    public static void main ( final String[] args ) throws CommandLineOptionException, RunnerException {
+        final CommandLineOptions commandLine = new CommandLineOptions( args );
+        final Options options = new OptionsBuilder().parent( commandLine ).addProfiler( GCProfiler.class )
+                .resultFormat( commandLine.getResultFormat().orElse( ResultFormatType.JSON ) )
+                .result( commandLine.getResult().orElse( RESULT_FILE ) ).build();
+        new Runner( options ).run();
+    }
+}
@@ -0,0 +1,157 @@
+package wolfcafe.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import wolfcafe.dto.OrderDto;
+import wolfcafe.entity.Ingredient;
+import wolfcafe.entity.MultiRecipe;
+import wolfcafe.entity.Order;
+import wolfcafe.entity.Tax;
+import wolfcafe.entity.User;
+import wolfcafe.repository.InventoryRepository;
+import wolfcafe.repository.OrderHistoryArchiveRepository;
+import wolfcafe.repository.OrderHistoryRepository;
+import wolfcafe.repository.OrderRepository;
+import wolfcafe.repository.TaxRepository;
+import wolfcafe.repository.UserRepository;
+import wolfcafe.service.InventoryService;
+import wolfcafe.service.ReportService;
+import wolfcafe.service.TaxService;
+import wolfcafe.service.impl.HistoryVersions;
+import wolfcafe.service.impl.InventoryReservationEngine;
+import wolfcafe.service.impl.MenuCache;
+import wolfcafe.service.impl.OrderHistoryServiceImpl;
+import wolfcafe.service.impl.OrderHistoryWriter;
+import wolfcafe.service.impl.OrderOwnerBackfill;
+import wolfcafe.service.impl.OrderServiceImpl;
+import wolfcafe.service.impl.TaxRateCache;
+import wolfcafe.service.impl.TaxServiceImpl;
+
+/**
+ * Services wired to in-memory stand-ins, and sample orders for them, shared by
+ * the benchmarks.
+ */
+public final class Fixtures {
+
+    /** the user every benchmark order is made for */
+    public static final String       USERNAME    = "customer";
+
+    /** the ingredients sample orders are made from */
+    public static final List<String> INGREDIENTS = List.of( "coffee", "milk", "cream", "sugar", "pumpkin spice",
+            "vanilla", "chocolate", "cinnamon" );
+
+    private Fixtures () {
+    }
+
+    /**
+     * Builds an order with the given number of recipes. Each recipe uses three
+     * of the ingredients, so larger orders repeat ingredients across recipes
+     * like real ones do.
+     *
+     * @param recipes
+     *            number of recipes in the order
+     * @return the order
+     */
+    public static OrderDto order ( final int recipes ) {
+        final List<MultiRecipe> multiRecipes = new ArrayList<MultiRecipe>();
+        for ( int i = 0; i < recipes; i++ ) {
+            final List<Ingredient> ingredients = new ArrayList<Ingredient>();
+            for ( int k = 0; k < 3; k++ ) {
+                ingredients.add( new Ingredient( INGREDIENTS.get( ( i + k ) % INGREDIENTS.size() ), k + 1 ) );
+            }
+            multiRecipes.add( new MultiRecipe( 0L, "recipe " + i, 100 + i, ingredients, 1 + i % 3 ) );
+        }
+        return new OrderDto( 0L, false, multiRecipes );
+    }
+
+    /**
+     * Creates an inventory with enough of every ingredient that a benchmark
+     * never runs out.
+     *
+     * @return the inventory
+     */
+    public static InMemoryInventoryService inventory () {
+        return new InMemoryInventoryService( INGREDIENTS, Long.MAX_VALUE / 2 );
+    }
+
+    /**
+     * Creates the real order service over the given inventory. The user is
+     * looked up fresh on every call, like it would be from the database, and
+     * saved orders are given ids and dropped so memory doesn't grow over a
+     * run.
+     *
+     * @param inventory
+     *            the inventory orders are taken from
+     * @return the order service
+     */
+    public static OrderServiceImpl orderService ( final InventoryService inventory ) {
+        final AtomicLong ids = new AtomicLong();
+        final OrderRepository orderRepository = InMemoryRepositories.of( OrderRepository.class,
+                Map.<String, Function<Object[], Object>> of( "save", args -> {
+                    final Order order = (Order) args[0];
+                    order.setId( ids.incrementAndGet() );
+                    return order;
+                } ) );
+        // the reservation engine is left disabled, so orders go through the
+        // inventory service
+        return new OrderServiceImpl( userRepository(), inventory, orderRepository, new InventoryReservationEngine(),
+                orderHistoryService(), event -> {
+                }, new OrderOwnerBackfill() );
+    }
+
+    /**
+     * Creates the real order history service, saving to a repository that
+     * drops what it is given.
+     *
+     * @return the order history service
+     */
+    public static OrderHistoryServiceImpl orderHistoryService () {
+        final OrderHistoryRepository historyRepository = InMemoryRepositories.of( OrderHistoryRepository.class,
+                Map.<String, Function<Object[], Object>> of( "save", args -> args[0] ) );
+        final InventoryRepository inventoryRepository = InMemoryRepositories.of( InventoryRepository.class,
+                Map.<String, Function<Object[], Object>> of( "findInventoryIngredientsByNameIn",
+                        args -> List.<Ingredient> of() ) );
+        final ReportService reportService = InMemoryRepositories.of( ReportService.class,
+                Map.<String, Function<Object[], Object>> of( "recordSale", args -> null, "recordPickup",
+                        args -> null ) );
+        final OrderHistoryArchiveRepository archiveRepository = InMemoryRepositories
+                .of( OrderHistoryArchiveRepository.class, Map.<String, Function<Object[], Object>> of() );
+        return new OrderHistoryServiceImpl( taxService(), historyRepository, userRepository(), inventoryRepository,
+                new MenuCache(), reportService, archiveRepository,
+                new OrderHistoryWriter( false, 1, 1, 1000L, "order-history.journal" ), new HistoryVersions() );
+    }
+
+    /**
+     * Creates the real tax service with the default rate.
+     *
+     * @return the tax service
+     */
+    public static TaxService taxService () {
+        final Tax tax = new Tax( 1L, TaxServiceImpl.DEFAULT_RATE );
+        final TaxRepository taxRepository = InMemoryRepositories.of( TaxRepository.class,
+                Map.<String, Function<Object[], Object>> of( "findFirstByOrderByIdAsc", args -> Optional.of( tax ) ) );
+        final TaxRateCache taxRateCache = new TaxRateCache();
+        InMemoryRepositories.inject( taxRateCache, "taxRepository", taxRepository );
+        final TaxServiceImpl taxService = new TaxServiceImpl();
+        InMemoryRepositories.inject( taxService, "taxRepository", taxRepository );
+        InMemoryRepositories.inject( taxService, "taxRateCache", taxRateCache );
+        return taxService;
+    }
+
+    /**
+     * Creates a user repository holding just the benchmark user.
+     *
+     * @return the user repository
+     */
+    private static UserRepository userRepository () {
+        return InMemoryRepositories.of( UserRepository.class,
+                Map.<String, Function<Object[], Object>> of( "findByUsernameOrEmail",
+                        args -> Optional.of( new User( 1L, USERNAME, USERNAME, USERNAME + "@wolfcafe.com", "pass",
+                                List.of(), new ArrayList<Order>() ) ) ) );
+    }
+}
@@ -0,0 +1,198 @@
+package wolfcafe.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.HttpStatus;
+
+import wolfcafe.dto.IngredientDto;
+import wolfcafe.dto.InventoryDto;
+import wolfcafe.dto.RestockResultDto;
+import wolfcafe.entity.Ingredient;
+import wolfcafe.exception.ResourceNotFoundException;
+import wolfcafe.service.InventoryService;
+
+/**
+ * Inventory kept in memory for benchmarks. Deductions follow the same rules
+ * as the database version, each ingredient is taken on its own and every
+ * amount is put back if one runs short, so threads placing orders at once
+ * contend on the ingredients they share the same way. Amounts are held as
+ * longs, so restocking is never turned away for being too large.
+ */
+public class InMemoryInventoryService implements InventoryService {
+
+    /** amount of each ingredient, by name */
+    private final Map<String, AtomicLong> amounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    /** id of each ingredient, by name, in the order they were added */
+    private final Map<String, Long>       ids     = new ConcurrentHashMap<String, Long>();
+
+    /** the id given to the next new ingredient */
+    private final AtomicLong              nextId  = new AtomicLong( 1 );
+
+    /**
+     * Creates an inventory holding the given amount of each ingredient.
+     *
+     * @param names
+     *            names of the ingredients
+     * @param amount
+     *            starting amount of each
+     */
+    public InMemoryInventoryService ( final Collection<String> names, final long amount ) {
+        for ( final String name : names ) {
+            add( name, amount );
+        }
+    }
+
+    /**
+     * Adds an ingredient, or sets its amount if it is already there.
+     *
+     * @param name
+     *            name of the ingredient
+     * @param amount
+     *            amount to hold
+     */
+    private void add ( final String name, final long amount ) {
+        ids.computeIfAbsent( name, k -> nextId.getAndIncrement() );
+        amounts.computeIfAbsent( name, k -> new AtomicLong() ).set( amount );
+    }
+
+    @Override
+    public void deductIngredients ( final Map<String, Integer> demand ) {
+        // same order as the database version takes its row locks in
+        final Map<String, Integer> sorted = new TreeMap<String, Integer>( demand );
+        final Map<String, Integer> taken = new HashMap<String, Integer>();
+        for ( final Map.Entry<String, Integer> entry : sorted.entrySet() ) {
+            final AtomicLong amount = amounts.get( entry.getKey() );
+            if ( null == amount || amount.addAndGet( -entry.getValue() ) < 0 ) {
+                if ( null != amount ) {
+                    amount.addAndGet( entry.getValue() );
+                }
+                taken.forEach( ( name, value ) -> amounts.get( name ).addAndGet( value ) );
+                throw new IllegalArgumentException( "Not enough " + entry.getKey() + " in inventory" );
+            }
+            taken.put( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    @Override
+    public void deductIngredients ( final Map<String, Integer> demand, final Long orderId ) {
+        deductIngredients( demand );
+    }
+
+    @Override
+    public Map<String, Integer> getIngredientAmounts ( final Collection<String> names ) {
+        final Map<String, Integer> result = new HashMap<String, Integer>();
+        for ( final String name : names ) {
+            final AtomicLong amount = amounts.get( name );
+            if ( null != amount ) {
+                result.put( name, (int) Math.min( Integer.MAX_VALUE, amount.get() ) );
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public InventoryDto createInventory ( final InventoryDto inventoryDto ) {
+        for ( final Ingredient ingredient : inventoryDto.getIngredients() ) {
+            if ( ingredient.getAmount() < 0 ) {
+                throw new IllegalArgumentException( "Ingredient amount cannot be negative." );
+            }
+        }
+        for ( final Ingredient ingredient : inventoryDto.getIngredients() ) {
+            add( ingredient.getName(), ingredient.getAmount() );
+        }
+        return getInventory();
+    }
+
+    @Override
+    public InventoryDto getInventory () {
+        final List<Ingredient> ingredients = new ArrayList<Ingredient>();
+        for ( final String name : ids.keySet() ) {
+            ingredients.add( getInventoryIngredient( name ) );
+        }
+        ingredients.sort( ( a, b ) -> Long.compare( a.getId(), b.getId() ) );
+        return new InventoryDto( 1L, ingredients );
+    }
+
+    @Override
+    public Ingredient getInventoryIngredient ( final String name ) {
+        final AtomicLong amount = amounts.get( name );
+        if ( null == amount ) {
+            return null;
+        }
+        final Ingredient ingredient = new Ingredient( name, (int) Math.min( Integer.MAX_VALUE, amount.get() ) );
+        ingredient.setId( ids.get( name ) );
+        return ingredient;
+    }
+
+    @Override
+    public InventoryDto updateInventory ( final InventoryDto inventoryDto ) {
+        // checked first so a bad line leaves every amount alone, like the
+        // transaction does in the database version
+        for ( final Ingredient ingredient : inventoryDto.getIngredients() ) {
+            if ( !amounts.containsKey( ingredient.getName() ) ) {
+                throw new ResourceNotFoundException( "Ingredient " + ingredient.getName() + " does not exist." );
+            }
+            if ( ingredient.getAmount() < 0 ) {
+                throw new IllegalArgumentException( "Ingredient amount cannot be negative." );
+            }
+        }
+        for ( final Ingredient ingredient : inventoryDto.getIngredients() ) {
+            amounts.get( ingredient.getName() ).addAndGet( ingredient.getAmount() );
+        }
+        return getInventory();
+    }
+
+    @Override
+    public List<RestockResultDto> restockIngredients ( final List<IngredientDto> lines ) {
+        final List<RestockResultDto> results = new ArrayList<RestockResultDto>();
+        for ( int i = 0; i < lines.size(); i++ ) {
+            final IngredientDto line = lines.get( i );
+            final String name = null == line ? null : line.getName();
+            String problem = null;
+            HttpStatus status = HttpStatus.BAD_REQUEST;
+            if ( null == name || name.isBlank() ) {
+                problem = "Ingredient name is missing.";
+            }
+            else if ( null == line.getAmount() ) {
+                problem = "Ingredient amount must be a whole number.";
+            }
+            else if ( line.getAmount() < 0 ) {
+                problem = "Ingredient amount cannot be negative.";
+            }
+            else if ( !amounts.containsKey( name ) ) {
+                problem = "Ingredient " + name + " does not exist.";
+                status = HttpStatus.NOT_FOUND;
+            }
+            else {
+                amounts.get( name ).addAndGet( line.getAmount() );
+            }
+            results.add( null == problem ? new RestockResultDto( i, name, HttpStatus.OK.value(), null )
+                    : new RestockResultDto( i, name, status.value(), problem ) );
+        }
+        return results;
+    }
+
+    @Override
+    public boolean isDuplicateName ( final InventoryDto inventoryDto, final String ingredientName ) {
+        for ( final Ingredient ingredient : inventoryDto.getIngredients() ) {
+            if ( ingredient.getName().equals( ingredientName ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean checkIngredient ( final Ingredient recIngredient ) {
+        final AtomicLong amount = amounts.get( recIngredient.getName() );
+        return null != amount && amount.get() >= recIngredient.getAmount();
+    }
+}
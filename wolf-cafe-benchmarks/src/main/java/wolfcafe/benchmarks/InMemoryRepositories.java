@@ -0,0 +1,73 @@
+package wolfcafe.benchmarks;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Builds in-memory stand-ins for the Spring Data repositories so services can
+ * be benchmarked without a database. Only the methods a benchmark needs are
+ * given, anything else throws so a benchmark can't quietly measure a method
+ * that does nothing.
+ */
+public final class InMemoryRepositories {
+
+    private InMemoryRepositories () {
+    }
+
+    /**
+     * Creates a stand-in for a repository interface.
+     *
+     * @param <T>
+     *            the repository type
+     * @param type
+     *            the repository interface
+     * @param methods
+     *            implementation of each supported method, keyed by method
+     *            name and given the call's arguments
+     * @return the stand-in
+     */
+    public static <T> T of ( final Class<T> type, final Map<String, Function<Object[], Object>> methods ) {
+        final Object proxy = Proxy.newProxyInstance( type.getClassLoader(), new Class< ? >[] { type },
+                ( self, method, args ) -> {
+                    final Function<Object[], Object> body = methods.get( method.getName() );
+                    if ( null != body ) {
+                        return body.apply( args );
+                    }
+                    switch ( method.getName() ) {
+                        case "hashCode":
+                            return System.identityHashCode( self );
+                        case "equals":
+                            return self == args[0];
+                        case "toString":
+                            return "InMemory" + type.getSimpleName();
+                        default:
+                            throw new UnsupportedOperationException(
+                                    type.getSimpleName() + "." + method.getName() + " is not stubbed" );
+                    }
+                } );
+        return type.cast( proxy );
+    }
+
+    /**
+     * Sets a field on a service that Spring would normally inject.
+     *
+     * @param target
+     *            the service
+     * @param name
+     *            name of the field
+     * @param value
+     *            value to inject
+     */
+    public static void inject ( final Object target, final String name, final Object value ) {
+        try {
+            final Field field = target.getClass().getDeclaredField( name );
+            field.setAccessible( true );
+            field.set( target, value );
+        }
+        catch ( final ReflectiveOperationException e ) {
+            throw new IllegalStateException( "Can't inject " + name + " into " + target.getClass(), e );
+        }
+    }
+}
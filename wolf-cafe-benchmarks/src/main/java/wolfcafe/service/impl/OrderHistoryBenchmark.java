@@ -0,0 +1,82 @@
+package wolfcafe.service.impl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wolfcafe.benchmarks.Fixtures;
+import wolfcafe.entity.MultiRecipe;
+
+/**
+ * Measures the helpers OrderHistoryServiceImpl runs for every order it
+ * records: the total with tax and the recipe and ingredient summaries. Lives
+ * in the service's package because the helpers are package-private.
+ */
+@State ( Scope.Benchmark )
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.SECONDS )
+@Warmup ( iterations = 3, time = 2 )
+@Measurement ( iterations = 5, time = 2 )
+@Fork ( 1 )
+public class OrderHistoryBenchmark {
+
+    /** number of recipes in the order */
+    @Param ( { "1", "5", "20" } )
+    private int                     recipes;
+
+    /** the service being measured */
+    private OrderHistoryServiceImpl orderHistoryService;
+
+    /** the recipes of the order being recorded */
+    private List<MultiRecipe>       order;
+
+    /**
+     * Wires the service and builds the order.
+     */
+    @Setup
+    public void setUp () {
+        orderHistoryService = Fixtures.orderHistoryService();
+        order = Fixtures.order( recipes ).getRecipes();
+    }
+
+    /**
+     * Totals the order, including tax.
+     *
+     * @return the total
+     */
+    @Benchmark
+    public double calcTotal () {
+        return orderHistoryService.calcTotal( order );
+    }
+
+    /**
+     * Summarises the recipes in the order.
+     *
+     * @return the summary
+     */
+    @Benchmark
+    public String recipesInOrder () {
+        return orderHistoryService.recipesInOrder( order );
+    }
+
+    /**
+     * Summarises the ingredients the order used.
+     *
+     * @return the summary
+     */
+    @Benchmark
+    public String ingredientsInOrder () {
+        return orderHistoryService.ingredientsInOrder( order );
+    }
+}
@@ -0,0 +1,73 @@
+package wolfcafe.service.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wolfcafe.benchmarks.Fixtures;
+import wolfcafe.dto.OrderDto;
+
+/**
+ * Measures OrderServiceImpl.makeOrder on one thread: working out the
+ * ingredient demand, taking it out of the inventory, mapping and saving the
+ * order. The repositories and inventory are in memory, so this is the cost
+ * of the service itself without the database.
+ */
+@State ( Scope.Benchmark )
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.SECONDS )
+@Warmup ( iterations = 3, time = 2 )
+@Measurement ( iterations = 5, time = 2 )
+@Fork ( 1 )
+public class OrderPlacementBenchmark {
+
+    /** number of recipes in the order */
+    @Param ( { "1", "5", "20" } )
+    private int              recipes;
+
+    /** the service being measured */
+    private OrderServiceImpl orderService;
+
+    /** the order placed on every call */
+    private OrderDto         order;
+
+    /**
+     * Wires the service and builds the order.
+     */
+    @Setup
+    public void setUp () {
+        orderService = Fixtures.orderService( Fixtures.inventory() );
+        order = Fixtures.order( recipes );
+    }
+
+    /**
+     * Places the order.
+     *
+     * @return the saved order, so the work isn't optimised away
+     */
+    @Benchmark
+    public OrderDto makeOrder () {
+        return orderService.makeOrder( Fixtures.USERNAME, order );
+    }
+
+    /**
+     * Works out the ingredient demand of the order, the part of makeOrder
+     * that grows with the size of the order.
+     *
+     * @return the demand
+     */
+    @Benchmark
+    public Object ingredientDemand () {
+        return OrderServiceImpl.ingredientDemand( order.getRecipes() );
+    }
+}
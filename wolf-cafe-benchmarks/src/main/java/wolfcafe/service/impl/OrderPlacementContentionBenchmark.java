@@ -0,0 +1,93 @@
+package wolfcafe.service.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wolfcafe.benchmarks.Fixtures;
+import wolfcafe.dto.OrderDto;
+
+/**
+ * Measures OrderServiceImpl.makeOrder with 1, 4, 16 and 64 threads placing
+ * orders against one shared in-memory inventory at once. Every order uses the
+ * same ingredients, so the threads contend on the same few AtomicLong
+ * counters. This shows what the service itself costs under concurrency, not
+ * how the database copes with row locks on the same inventory rows.
+ */
+@State ( Scope.Benchmark )
+@BenchmarkMode ( Mode.Throughput )
+@OutputTimeUnit ( TimeUnit.SECONDS )
+@Warmup ( iterations = 3, time = 2 )
+@Measurement ( iterations = 5, time = 2 )
+@Fork ( 1 )
+public class OrderPlacementContentionBenchmark {
+
+    /** the service shared by every thread */
+    private OrderServiceImpl orderService;
+
+    /** the order placed on every call */
+    private OrderDto         order;
+
+    /**
+     * Wires the service and builds the order.
+     */
+    @Setup
+    public void setUp () {
+        orderService = Fixtures.orderService( Fixtures.inventory() );
+        order = Fixtures.order( 3 );
+    }
+
+    /**
+     * Places orders from one thread.
+     *
+     * @return the saved order
+     */
+    @Benchmark
+    @Threads ( 1 )
+    public OrderDto threads01 () {
+        return orderService.makeOrder( Fixtures.USERNAME, order );
+    }
+
+    /**
+     * Places orders from 4 threads.
+     *
+     * @return the saved order
+     */
+    @Benchmark
+    @Threads ( 4 )
+    public OrderDto threads04 () {
+        return orderService.makeOrder( Fixtures.USERNAME, order );
+    }
+
+    /**
+     * Places orders from 16 threads.
+     *
+     * @return the saved order
+     */
+    @Benchmark
+    @Threads ( 16 )
+    public OrderDto threads16 () {
+        return orderService.makeOrder( Fixtures.USERNAME, order );
+    }
+
+    /**
+     * Places orders from 64 threads.
+     *
+     * @return the saved order
+     */
+    @Benchmark
+    @Threads ( 64 )
+    public OrderDto threads64 () {
+        return orderService.makeOrder( Fixtures.USERNAME, order );
+    }
+}
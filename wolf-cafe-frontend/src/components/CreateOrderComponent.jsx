@@ -1,7 +1,6 @@
 import React, { useState, useEffect } from 'react';
 import { listRecipes } from '../services/RecipesService';
-import { makeOrder } from '../services/CreateOrderService';
-import { createOrderHistory } from '../services/HistoryService';
+import { checkout } from '../services/CreateOrderService';
 import { useNavigate } from 'react-router-dom';
 import { getTaxRate, calculateTax } from '../services/TaxService';
 
@@ -145,20 +144,13 @@ const CreateOrderComponent = () => {
 	        recipes: cart,
 	    };
 
-	    makeOrder(orderDto)
+	    // places the order and records its history in one call
+	    checkout(orderDto)
 	        .then(response => {
-              const orderId = response.data.id; // Assuming the ID is in `response.data.id`
+              const orderId = response.data.order.id;
 	            setSuccessMessage('Order created successfully!');
-
-              createOrderHistory(response.data)
-                .then(() => {
-                  setCart([]);
-                  navigate(`/order-confirmation/${orderId}`);
-                })
-                .catch(error => {
-                    console.error("Error recording order: ", error);
-                    setErrorMessage('An error occured while recording the order.');
-                });
+              setCart([]);
+              navigate(`/order-confirmation/${orderId}`);
 	        })
 	        .catch((error) => {
 	            setErrorMessage('Error creating order. Please try again.');
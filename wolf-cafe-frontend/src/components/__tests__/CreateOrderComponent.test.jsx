@@ -12,7 +12,7 @@ vi.mock('../../services/RecipesService', () => ({
 }));
 
 vi.mock('../../services/CreateOrderService', () => ({
-  makeOrder: vi.fn(),
+  checkout: vi.fn(),
 }));
 
 vi.mock('../../services/TaxService', () => ({
@@ -20,10 +20,6 @@ vi.mock('../../services/TaxService', () => ({
   calculateTax: vi.fn(),
 }));
 
-vi.mock('../../services/HistoryService', () => ({
-  createOrderHistory: vi.fn(),
-}));
-
 // **2. Mock useNavigate from react-router-dom before importing the component**
 const mockNavigate = vi.fn();
 vi.mock('react-router-dom', async () => {
@@ -37,9 +33,8 @@ vi.mock('react-router-dom', async () => {
 // **3. Now import the component and other necessary modules**
 import CreateOrderComponent from '../CreateOrderComponent';
 import { listRecipes } from '../../services/RecipesService';
-import { makeOrder } from '../../services/CreateOrderService';
+import { checkout } from '../../services/CreateOrderService';
 import { getTaxRate, calculateTax } from '../../services/TaxService';
-import { createOrderHistory } from '../../services/HistoryService';
 
 describe('CreateOrderComponent', () => {
   beforeEach(() => {
@@ -60,11 +55,6 @@ describe('CreateOrderComponent', () => {
     calculateTax.mockImplementation((subtotal) => {
       return Promise.resolve(subtotal * 0.08); // 8% tax
     });
-
-    // **7. Mock createOrderHistory to Resolve Successfully**
-    createOrderHistory.mockResolvedValue({
-      data: { success: true },
-    });
   });
 
   afterEach(() => {
@@ -112,8 +102,7 @@ describe('CreateOrderComponent', () => {
 
   test('successfully creates an order and redirects', async () => {
     const mockOrder = { id: 1 };
-    makeOrder.mockResolvedValueOnce({ data: mockOrder });
-	createOrderHistory.mockResolvedValueOnce();
+    checkout.mockResolvedValueOnce({ data: { order: mockOrder, history: { id: 1 } } });
 
     render(
       <MemoryRouter>
@@ -150,26 +139,21 @@ describe('CreateOrderComponent', () => {
     const createOrderButton = screen.getByRole('button', { name: /Create Order/i });
     await userEvent.click(createOrderButton);
 
-    // **20. Assert makeOrder was Called with Correct Data**
-    expect(makeOrder).toHaveBeenCalledWith({
+    // **20. Assert checkout was Called with Correct Data**
+    expect(checkout).toHaveBeenCalledWith({
       fulfilled: false,
       recipes: [
         { id: 1, name: 'Espresso', price: 3.5, amount: 2 },
       ],
     });
-	
-	// **20. Wait for createOrderHistory to be Called**
-	await waitFor(() => expect(createOrderHistory).toHaveBeenCalledTimes(1));
 
-    // **21. Assert createOrderHistory was Called with Correct Data**
-    expect(createOrderHistory).toHaveBeenCalledWith(mockOrder);
 
-    // **22. Assert Navigation to Confirmation Page**
-    expect(mockNavigate).toHaveBeenCalledWith(`/order-confirmation/${mockOrder.id}`);
+    // **21. Assert Navigation to Confirmation Page**
+    await waitFor(() => expect(mockNavigate).toHaveBeenCalledWith(`/order-confirmation/${mockOrder.id}`));
   });
 
   test('displays error message when order creation fails', async () => {
-    makeOrder.mockRejectedValueOnce(new Error('API Error'));
+    checkout.mockRejectedValueOnce(new Error('API Error'));
 
     // **A. Spy on console.error Before Rendering**
     const consoleErrorSpy = vi.spyOn(console, 'error').mockImplementation(() => {});
@@ -214,8 +198,8 @@ describe('CreateOrderComponent', () => {
       expect(screen.getByText('Error creating order. Please try again.')).toBeInTheDocument();
     });
 
-    // **J. Assert makeOrder was Called with Correct Data**
-    expect(makeOrder).toHaveBeenCalledWith({
+    // **J. Assert checkout was Called with Correct Data**
+    expect(checkout).toHaveBeenCalledWith({
       fulfilled: false,
       recipes: [
         { id: 1, name: 'Espresso', price: 3.5, amount: 2 },
@@ -283,8 +267,7 @@ describe('CreateOrderComponent', () => {
 
   test('resets form fields after successful submission', async () => {
     const mockOrder = { id: 1 };
-    makeOrder.mockResolvedValueOnce({ data: mockOrder });
-	createOrderHistory.mockResolvedValueOnce();
+    checkout.mockResolvedValueOnce({ data: { order: mockOrder, history: { id: 1 } } });
 
     render(
       <MemoryRouter>
@@ -321,22 +304,17 @@ describe('CreateOrderComponent', () => {
     const createOrderButton = screen.getByRole('button', { name: /Create Order/i });
     await userEvent.click(createOrderButton);
 
-    // **H. Assert makeOrder was Called with Correct Data**
-    expect(makeOrder).toHaveBeenCalledWith({
+    // **H. Assert checkout was Called with Correct Data**
+    expect(checkout).toHaveBeenCalledWith({
       fulfilled: false,
       recipes: [
         { id: 1, name: 'Espresso', price: 3.5, amount: 2 },
       ],
     });
-	
-	// **46. Wait for createOrderHistory to be Called**
-	await waitFor(() => expect(createOrderHistory).toHaveBeenCalledTimes(1));
 
-    // **I. Assert createOrderHistory was Called with Correct Data**
-    expect(createOrderHistory).toHaveBeenCalledWith(mockOrder);
 
-    // **J. Assert Navigation to Confirmation Page**
-    expect(mockNavigate).toHaveBeenCalledWith(`/order-confirmation/${mockOrder.id}`);
+    // **I. Assert Navigation to Confirmation Page**
+    await waitFor(() => expect(mockNavigate).toHaveBeenCalledWith(`/order-confirmation/${mockOrder.id}`));
 
     // **K. Optionally, Check if Cart is Reset**
     // Since the component navigates away after order creation, the cart should be cleared.
@@ -12,6 +12,13 @@ export const makeOrder = (orderDto) => axios.post(REST_API_BASE_URL, orderDto, {
     }
 })
 
+/** POST Checkout - makes the given order and records its history together. Returns the saved order and history. */
+export const checkout = (orderDto) => axios.post(`${REST_API_BASE_URL}/checkout`, orderDto, {
+    headers: { 
+        'Content-Type' : 'application/json' 
+    }
+})
+
 /** 
  * GET Order - retrieves the details of an order by its ID.
  * Replace 'orderId' with the specific order ID or implement user-based order retrieval as needed.
@@ -17,8 +17,26 @@ axios.interceptors.request.use(
   }
 );
 
-/** GET Orders - Lists all orders. */
-export const listOrders = () => axios.get(REST_API_BASE_URL);
+/** Most orders asked for in one page of the order list. */
+const ORDERS_PAGE_SIZE = 1000;
+
+/**
+ * GET Orders - Lists all orders. The backend returns orders a page at a time
+ * in id order, so pages are fetched after the last id seen until one comes
+ * back short.
+ */
+export const listOrders = async () => {
+  const orders = [];
+  let after = 0;
+  for (;;) {
+    const response = await axios.get(REST_API_BASE_URL, { params: { after, limit: ORDERS_PAGE_SIZE } });
+    orders.push(...response.data);
+    if (response.data.length < ORDERS_PAGE_SIZE) {
+      return { ...response, data: orders };
+    }
+    after = response.data[response.data.length - 1].id;
+  }
+};
 
 /** PUT Order - Updates an existing order to be fulfilled. */
 export const fulfillOrder = (id) => {